@@ -18,7 +18,9 @@
 package eu.geopaparazzi.core;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.database.sqlite.SQLiteDatabase;
+import android.preference.PreferenceManager;
 import android.util.Log;
 
 import org.acra.ACRA;
@@ -34,6 +36,9 @@ import java.io.IOException;
 import eu.geopaparazzi.core.database.DatabaseManager;
 import eu.geopaparazzi.library.GPApplication;
 import eu.geopaparazzi.library.core.ResourcesManager;
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.database.GPLogPreferencesHandler;
+import eu.geopaparazzi.library.database.GPLogSink;
 import eu.geopaparazzi.library.profiles.ProfilesHandler;
 import eu.geopaparazzi.map.layers.LayerManager;
 
@@ -45,6 +50,8 @@ import eu.geopaparazzi.map.layers.LayerManager;
 @SuppressWarnings("ALL")
 public class GeopaparazziApplication extends GPApplication {
 
+    private static final String LOG_DATABASE_NAME = "geopaparazzi_log.db";
+
     private static SQLiteDatabase database;
     public static String mailTo = "feedback@geopaparazzi.eu";
     private DatabaseManager databaseManager;
@@ -81,10 +88,25 @@ public class GeopaparazziApplication extends GPApplication {
             ProfilesHandler.INSTANCE.checkActiveProfile(getContentResolver());
 
             LayerManager.INSTANCE.init();
+
+            SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
+            if (GPLogPreferencesHandler.checkLogSeparateDb(preferences)) {
+                GPLogSink.INSTANCE.setLogDatabaseFile(getDatabasePath(LOG_DATABASE_NAME));
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
 
+        // write the log before the crash is handed to the crash reporter and the process dies
+        Thread.UncaughtExceptionHandler crashHandler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((thread, throwable) -> {
+            GPLog.error(this, "Uncaught exception in thread " + thread.getName(), throwable);
+            GPLog.flush();
+            if (crashHandler != null) {
+                crashHandler.uncaughtException(thread, throwable);
+            }
+        });
+
         Log.i("GEOPAPARAZZIAPPLICATION", "ACRA Initialized."); //$NON-NLS-1$//$NON-NLS-2$
     }
 
@@ -104,6 +126,8 @@ public class GeopaparazziApplication extends GPApplication {
 
     @Override
     public void closeDatabase() {
+        // the pending log entries could go to this database
+        GPLog.flush();
         if (database != null && database.isOpen()) {
             database.close();
         }
@@ -112,6 +136,7 @@ public class GeopaparazziApplication extends GPApplication {
     }
 
     public static void reset() {
+        GPLog.flush();
         if (database != null) {
             try {
                 database.close();
@@ -31,6 +31,7 @@ import java.util.List;
 import eu.geopaparazzi.core.GeopaparazziApplication;
 import eu.geopaparazzi.core.database.objects.Bookmark;
 import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.database.TableChangesTracker;
 
 /**
  * @author Andrea Antonello (www.hydrologis.com)
@@ -69,6 +70,7 @@ public class DaoBookmarks {
             values.put(COLUMN_ZOOM, zoom);
             sqliteDatabase.insertOrThrow(TABLE_BOOKMARKS, null, values);
 
+            TableChangesTracker.INSTANCE.notifyChanged(TABLE_BOOKMARKS);
             sqliteDatabase.setTransactionSuccessful();
         } catch (SQLiteConstraintException e) {
             sqliteDatabase.endTransaction();
@@ -84,6 +86,7 @@ public class DaoBookmarks {
             values.put("beast", -1);
             values.put("bwest", -1);
             sqliteDatabase.insertOrThrow(TABLE_BOOKMARKS, null, values);
+            TableChangesTracker.INSTANCE.notifyChanged(TABLE_BOOKMARKS);
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             GPLog.error("DAOBOOKMARKS", e.getLocalizedMessage(), e);
@@ -108,6 +111,7 @@ public class DaoBookmarks {
             SQLiteStatement sqlUpdate = sqliteDatabase.compileStatement(query);
             sqlUpdate.execute();
 
+            TableChangesTracker.INSTANCE.notifyChanged(TABLE_BOOKMARKS);
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             GPLog.error("DAOBOOKMARKS", e.getLocalizedMessage(), e);
@@ -142,6 +146,7 @@ public class DaoBookmarks {
             sqlUpdate.execute();
             sqlUpdate.close();
 
+            TableChangesTracker.INSTANCE.notifyChanged(TABLE_BOOKMARKS);
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             GPLog.error("DAOBOOKMARKS", e.getLocalizedMessage(), e);
@@ -18,28 +18,37 @@
 package eu.geopaparazzi.core.database;
 
 import android.content.ContentValues;
+import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteStatement;
-import android.location.Location;
+import android.preference.PreferenceManager;
 import android.util.Log;
 
 import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.Envelope;
-import org.locationtech.jts.index.strtree.STRtree;
 
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Set;
 
 import eu.geopaparazzi.core.GeopaparazziApplication;
+import eu.geopaparazzi.core.database.objects.GpsLogExportItem;
 import eu.geopaparazzi.core.database.objects.GpsLogInfo;
 import eu.geopaparazzi.core.database.objects.Line;
 import eu.geopaparazzi.core.database.objects.LogMapItem;
 import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.database.GpsLogBboxUtilities;
+import eu.geopaparazzi.library.database.GpsLogCellUtilities;
+import eu.geopaparazzi.library.database.GpsLogCellsTracker;
+import eu.geopaparazzi.library.database.GpsLogChunkUtilities;
+import eu.geopaparazzi.library.database.GpsLogLodUtilities;
+import eu.geopaparazzi.library.database.GpsLogPoints;
 import eu.geopaparazzi.library.database.IGpsLogDbHelper;
+import eu.geopaparazzi.library.database.TableChangesTracker;
 import eu.geopaparazzi.library.database.TableDescriptions;
 import eu.geopaparazzi.library.gpx.GpxItem;
 import eu.geopaparazzi.library.gpx.parser.GpxParser.Route;
@@ -48,13 +57,17 @@ import eu.geopaparazzi.library.gpx.parser.RoutePoint;
 import eu.geopaparazzi.library.gpx.parser.TrackPoint;
 import eu.geopaparazzi.library.gpx.parser.WayPoint;
 import eu.geopaparazzi.library.style.ColorUtilities;
+import eu.geopaparazzi.library.util.LibraryConstants;
 import eu.geopaparazzi.library.util.TimeUtilities;
+import eu.geopaparazzi.library.util.TrackStatistics;
 import eu.geopaparazzi.map.GPGeoPoint;
 
+import static eu.geopaparazzi.library.database.TableDescriptions.GpsLogsBboxTableFields;
 import static eu.geopaparazzi.library.database.TableDescriptions.GpsLogsDataTableFields;
 import static eu.geopaparazzi.library.database.TableDescriptions.GpsLogsPropertiesTableFields;
 import static eu.geopaparazzi.library.database.TableDescriptions.GpsLogsTableFields;
 import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_GPSLOGS;
+import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_GPSLOG_BBOX;
 import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_GPSLOG_DATA;
 import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_GPSLOG_PROPERTIES;
 import static eu.geopaparazzi.library.util.LibraryConstants.DEFAULT_LOG_WIDTH;
@@ -116,7 +129,8 @@ public class DaoGpsLog implements IGpsLogDbHelper {
         sB.append(GpsLogsDataTableFields.COLUMN_LOGID.getFieldName());
         sB.append(" REFERENCES ");
         sB.append(TABLE_GPSLOGS);
-        sB.append("(" + GpsLogsTableFields.COLUMN_ID.getFieldName() + ") ON DELETE CASCADE");
+        sB.append("(" + GpsLogsTableFields.COLUMN_ID.getFieldName() + ") ON DELETE CASCADE,");
+        sB.append(GpsLogsDataTableFields.COLUMN_DATA_CELL.getFieldName()).append(" INTEGER");
         sB.append(");");
         String CREATE_TABLE_GPSLOG_DATA = sB.toString();
 
@@ -166,6 +180,7 @@ public class DaoGpsLog implements IGpsLogDbHelper {
         sqliteDatabase.execSQL(CREATE_INDEX_GPSLOG_TS);
         sqliteDatabase.execSQL(CREATE_INDEX_GPSLOG_X_BY_Y);
         sqliteDatabase.execSQL(CREATE_INDEX_GPSLOG_LOGID_X_Y);
+        GpsLogCellUtilities.createIndex(sqliteDatabase);
 
 
         /*
@@ -194,6 +209,20 @@ public class DaoGpsLog implements IGpsLogDbHelper {
             Log.i("DAOGPSLOG", "Create the gpslogs properties table with: \n" + CREATE_TABLE_GPSLOGS_PROPERTIES);
         sqliteDatabase.execSQL(CREATE_TABLE_GPSLOGS_PROPERTIES);
 
+        /*
+         * levels of detail table
+         */
+        GpsLogLodUtilities.createTables(sqliteDatabase);
+
+        /*
+         * bounding boxes table
+         */
+        GpsLogBboxUtilities.createTables(sqliteDatabase);
+
+        /*
+         * compact data chunks table
+         */
+        GpsLogChunkUtilities.createTables(sqliteDatabase);
     }
 
     public SQLiteDatabase getDatabase() throws Exception {
@@ -227,6 +256,7 @@ public class DaoGpsLog implements IGpsLogDbHelper {
             propValues.put(GpsLogsPropertiesTableFields.COLUMN_PROPERTIES_VISIBLE.getFieldName(), visible ? 1 : 0);
             sqliteDatabase.insertOrThrow(TABLE_GPSLOG_PROPERTIES, null, propValues);
 
+            TableChangesTracker.INSTANCE.notifyChanged(TABLE_GPSLOGS, TABLE_GPSLOG_PROPERTIES);
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             GPLog.error("DAOGPSLOG", e.getLocalizedMessage(), e);
@@ -262,7 +292,13 @@ public class DaoGpsLog implements IGpsLogDbHelper {
         values.put(GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName(), lat);
         values.put(GpsLogsDataTableFields.COLUMN_DATA_ALTIM.getFieldName(), altim);
         values.put(GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName(), timestamp);
+        long cell = GpsLogCellUtilities.getCell(lon, lat);
+        values.put(GpsLogsDataTableFields.COLUMN_DATA_CELL.getFieldName(), cell);
         sqliteDatabase.insertOrThrow(TABLE_GPSLOG_DATA, null, values);
+
+        GpsLogBboxUtilities.expandBbox(sqliteDatabase, gpslogId, lon, lat);
+        TableChangesTracker.INSTANCE.notifyChanged(TABLE_GPSLOG_DATA);
+        GpsLogCellsTracker.INSTANCE.notifyChanged(cell);
     }
 
     /**
@@ -293,6 +329,12 @@ public class DaoGpsLog implements IGpsLogDbHelper {
             sqlUpdate.execute();
             sqlUpdate.close();
 
+            // delete levels of detail, bounding box and packed data
+            GpsLogLodUtilities.deleteLods(sqliteDatabase, id);
+            GpsLogBboxUtilities.deleteBbox(sqliteDatabase, id);
+            GpsLogChunkUtilities.deleteChunks(sqliteDatabase, id);
+
+            TableChangesTracker.INSTANCE.notifyChanged(TABLE_GPSLOGS, TABLE_GPSLOG_PROPERTIES);
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             GPLog.error("DOAGPSLOG", e.getLocalizedMessage(), e);
@@ -304,6 +346,9 @@ public class DaoGpsLog implements IGpsLogDbHelper {
 
     /**
      * Set the end timestamp of the log.
+     * <p/>
+     * <p>Since this closes the log, also its bounding box and levels of detail are built
+     * and, if the compact storage is enabled, the log is packed.</p>
      *
      * @param logId        the id of the log.
      * @param endTimestamp the end UTC timestamp.
@@ -329,6 +374,10 @@ public class DaoGpsLog implements IGpsLogDbHelper {
             updateEndTsStmt.execute();
             updateEndTsStmt.close();
 
+            // points written by the gps service don't maintain the bounding box
+            GpsLogBboxUtilities.updateBbox(sqliteDatabase, logId);
+
+            TableChangesTracker.INSTANCE.notifyChanged(TABLE_GPSLOGS, TABLE_GPSLOG_PROPERTIES);
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             GPLog.error("DAOGPSLOG", e.getLocalizedMessage(), e);
@@ -336,6 +385,80 @@ public class DaoGpsLog implements IGpsLogDbHelper {
         } finally {
             sqliteDatabase.endTransaction();
         }
+
+        buildLodsQuietly(sqliteDatabase, logId);
+        packLogIfCompact(sqliteDatabase, logId);
+    }
+
+    /**
+     * @return <code>true</code> if finished logs should be stored in compact form.
+     */
+    private static boolean isCompactStorage() {
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(GeopaparazziApplication.getInstance());
+        return preferences.getBoolean(LibraryConstants.PREFS_KEY_GPSLOG_COMPACT_STORAGE, false);
+    }
+
+    /**
+     * Pack a log if the compact storage is enabled, only logging errors, since the log is fine unpacked.
+     *
+     * @param sqliteDatabase the db to use.
+     * @param logId          the id of the log.
+     */
+    private static void packLogIfCompact(SQLiteDatabase sqliteDatabase, long logId) {
+        if (!isCompactStorage()) {
+            return;
+        }
+        try {
+            GpsLogChunkUtilities.packLog(sqliteDatabase, logId);
+        } catch (Exception e) {
+            GPLog.error("DAOGPSLOG", "Could not pack log " + logId, e);
+        }
+    }
+
+    /**
+     * Pack all the logs into compact storage.
+     * <p/>
+     * <p>This is also safe for a log being recorded, its new points are added
+     * after the packed ones.</p>
+     *
+     * @return the number of packed points.
+     * @throws IOException if something goes wrong.
+     */
+    public static long packAllLogs() throws IOException {
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        List<Long> logIds = new ArrayList<>();
+        String query = "select " + GpsLogsTableFields.COLUMN_ID.getFieldName() + " from " + TABLE_GPSLOGS;
+        try (Cursor c = sqliteDatabase.rawQuery(query, null)) {
+            while (c.moveToNext()) {
+                logIds.add(c.getLong(0));
+            }
+        }
+        long start = System.currentTimeMillis();
+        long packedPoints = 0;
+        for (long logId : logIds) {
+            packedPoints += GpsLogChunkUtilities.packLog(sqliteDatabase, logId);
+        }
+        // give the space back to the filesystem
+        sqliteDatabase.execSQL("VACUUM");
+        TableChangesTracker.INSTANCE.notifyChanged(TABLE_GPSLOGS, TABLE_GPSLOG_PROPERTIES);
+        if (GPLog.LOG_HEAVY)
+            GPLog.addLogEntry("DAOGPSLOG", "Packed " + packedPoints + " points of " + logIds.size() + " logs in " +
+                    (System.currentTimeMillis() - start) + " ms");
+        return packedPoints;
+    }
+
+    /**
+     * Build the levels of detail of a log, only logging errors, since they are not vital.
+     *
+     * @param sqliteDatabase the db to use.
+     * @param logId          the id of the log.
+     */
+    private static void buildLodsQuietly(SQLiteDatabase sqliteDatabase, long logId) {
+        try {
+            GpsLogLodUtilities.buildLods(sqliteDatabase, logId);
+        } catch (Exception e) {
+            GPLog.error("DAOGPSLOG", "Could not build the levels of detail of log " + logId, e);
+        }
     }
 
     public void setTrackLengthm(long logid, double lengthm) throws IOException {
@@ -358,6 +481,7 @@ public class DaoGpsLog implements IGpsLogDbHelper {
             sqlUpdate.execute();
             sqlUpdate.close();
 
+            TableChangesTracker.INSTANCE.notifyChanged(TABLE_GPSLOGS, TABLE_GPSLOG_PROPERTIES);
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             GPLog.error("DAOGPSLOG", e.getLocalizedMessage(), e);
@@ -440,6 +564,93 @@ public class DaoGpsLog implements IGpsLogDbHelper {
         return logsList;
     }
 
+    /**
+     * Get the gps logs that have points, as items that stream their points when exported.
+     * <p/>
+     * <p>No point is read here, the bounds come from the bounding boxes table.</p>
+     *
+     * @return the list of export items.
+     * @throws IOException if something goes wrong.
+     */
+    public static List<GpsLogExportItem> getGpsLogExportItems() throws IOException {
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        List<GpsLogExportItem> itemsList = new ArrayList<>();
+
+        StringBuilder sB = new StringBuilder();
+        sB.append("select l.");
+        sB.append(GpsLogsTableFields.COLUMN_ID.getFieldName());
+        sB.append(", l.");
+        sB.append(GpsLogsTableFields.COLUMN_LOG_TEXT.getFieldName());
+        sB.append(", p.");
+        sB.append(GpsLogsPropertiesTableFields.COLUMN_PROPERTIES_COLOR.getFieldName());
+        sB.append(", p.");
+        sB.append(GpsLogsPropertiesTableFields.COLUMN_PROPERTIES_WIDTH.getFieldName());
+        sB.append(", b.");
+        sB.append(GpsLogsBboxTableFields.COLUMN_MINX.getFieldName());
+        sB.append(", b.");
+        sB.append(GpsLogsBboxTableFields.COLUMN_MINY.getFieldName());
+        sB.append(", b.");
+        sB.append(GpsLogsBboxTableFields.COLUMN_MAXX.getFieldName());
+        sB.append(", b.");
+        sB.append(GpsLogsBboxTableFields.COLUMN_MAXY.getFieldName());
+        sB.append(" from ");
+        sB.append(TABLE_GPSLOGS);
+        sB.append(" l join ");
+        sB.append(TABLE_GPSLOG_PROPERTIES);
+        sB.append(" p on l.");
+        sB.append(GpsLogsTableFields.COLUMN_ID.getFieldName());
+        sB.append(" = p.");
+        sB.append(GpsLogsPropertiesTableFields.COLUMN_LOGID.getFieldName());
+        sB.append(" left join ");
+        sB.append(TABLE_GPSLOG_BBOX);
+        sB.append(" b on l.");
+        sB.append(GpsLogsTableFields.COLUMN_ID.getFieldName());
+        sB.append(" = b.");
+        sB.append(GpsLogsBboxTableFields.COLUMN_LOGID.getFieldName());
+        sB.append(" order by l.");
+        sB.append(GpsLogsTableFields.COLUMN_ID.getFieldName());
+        String query = sB.toString();
+
+        try (Cursor c = sqliteDatabase.rawQuery(query, null)) {
+            while (c.moveToNext()) {
+                long logid = c.getLong(0);
+                String text = c.getString(1);
+                String color = c.getString(2);
+                float width = (float) c.getDouble(3);
+                double[] bounds;
+                if (c.isNull(4)) {
+                    // a log being recorded has no bounding box yet
+                    bounds = getDataBounds(sqliteDatabase, logid);
+                    if (bounds == null) {
+                        continue;
+                    }
+                } else {
+                    bounds = new double[]{c.getDouble(4), c.getDouble(5), c.getDouble(6), c.getDouble(7)};
+                }
+                itemsList.add(new GpsLogExportItem(logid, text, color, width, bounds[0], bounds[1], bounds[2], bounds[3]));
+            }
+        }
+        return itemsList;
+    }
+
+    /**
+     * Get the bounds of the unpacked points of a log.
+     *
+     * @return the [minx, miny, maxx, maxy] bounds or <code>null</code> if the log has no points.
+     */
+    private static double[] getDataBounds(SQLiteDatabase sqliteDatabase, long logId) {
+        String lonField = GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName();
+        String latField = GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName();
+        String query = "select min(" + lonField + "), min(" + latField + "), max(" + lonField + "), max(" + latField +
+                ") from " + TABLE_GPSLOG_DATA + " where " + GpsLogsDataTableFields.COLUMN_LOGID.getFieldName() + " = " + logId;
+        try (Cursor c = sqliteDatabase.rawQuery(query, null)) {
+            if (c.moveToFirst() && !c.isNull(0)) {
+                return new double[]{c.getDouble(0), c.getDouble(1), c.getDouble(2), c.getDouble(3)};
+            }
+        }
+        return null;
+    }
+
     public static int getGpslogsCount() throws IOException {
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
 
@@ -643,6 +854,7 @@ public class DaoGpsLog implements IGpsLogDbHelper {
                 sqlUpdate.close();
             }
 
+            TableChangesTracker.INSTANCE.notifyChanged(TABLE_GPSLOGS, TABLE_GPSLOG_PROPERTIES);
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             GPLog.error("DAOGPSLOG", e.getLocalizedMessage(), e);
@@ -677,6 +889,7 @@ public class DaoGpsLog implements IGpsLogDbHelper {
             sqlUpdate.execute();
             sqlUpdate.close();
 
+            TableChangesTracker.INSTANCE.notifyChanged(TABLE_GPSLOGS, TABLE_GPSLOG_PROPERTIES);
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             GPLog.error("DAOGPSLOG", e.getLocalizedMessage(), e);
@@ -697,6 +910,9 @@ public class DaoGpsLog implements IGpsLogDbHelper {
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
         sqliteDatabase.beginTransaction();
         try {
+            // packed points are merged as rows
+            GpsLogChunkUtilities.unpackLog(sqliteDatabase, logidToRemove);
+            GpsLogChunkUtilities.unpackLog(sqliteDatabase, destinationLogId);
 
             StringBuilder sb = new StringBuilder();
             sb.append("delete from ");
@@ -737,6 +953,11 @@ public class DaoGpsLog implements IGpsLogDbHelper {
             sqlUpdate.execute();
             sqlUpdate.close();
 
+            GpsLogLodUtilities.deleteLods(sqliteDatabase, logidToRemove);
+            GpsLogBboxUtilities.deleteBbox(sqliteDatabase, logidToRemove);
+            GpsLogBboxUtilities.updateBbox(sqliteDatabase, destinationLogId);
+
+            TableChangesTracker.INSTANCE.notifyChanged(TABLE_GPSLOGS, TABLE_GPSLOG_PROPERTIES);
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             GPLog.error("DAOGPSLOG", e.getLocalizedMessage(), e);
@@ -744,6 +965,9 @@ public class DaoGpsLog implements IGpsLogDbHelper {
         } finally {
             sqliteDatabase.endTransaction();
         }
+
+        buildLodsQuietly(sqliteDatabase, destinationLogId);
+        packLogIfCompact(sqliteDatabase, destinationLogId);
     }
 
 //    /**
@@ -827,6 +1051,8 @@ public class DaoGpsLog implements IGpsLogDbHelper {
 
     /**
      * Get the map of lines from the db, having the gpslog id in the key.
+     * <p/>
+     * <p>All the points are read in memory, to export use {@link #getGpsLogExportItems()}.</p>
      *
      * @return the map of lines.
      * @throws IOException if something goes wrong.
@@ -843,6 +1069,19 @@ public class DaoGpsLog implements IGpsLogDbHelper {
                 GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName()//
         };
         String strSortOrder = GpsLogsDataTableFields.COLUMN_LOGID.getFieldName() + "," + GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName() + " ASC";
+
+        // packed logs first, since their remaining rows come after the chunks
+        final LinkedHashMap<Long, Line> packedLinesMap = new LinkedHashMap<>();
+        GpsLogChunkUtilities.readChunks(sqliteDatabase, "1=1", (logId, lon, lat, elev, timestamp) -> {
+            Line line = packedLinesMap.get(logId);
+            if (line == null) {
+                line = new Line("log_" + logId);
+                packedLinesMap.put(logId, line);
+            }
+            line.addPoint(lon, lat, elev, timestamp);
+        });
+        linesMap.putAll(packedLinesMap);
+
         Cursor c = null;
         try {
             c = sqliteDatabase.query(TABLE_GPSLOG_DATA, asColumnsToReturn, null, null, null, null, strSortOrder);
@@ -852,13 +1091,13 @@ public class DaoGpsLog implements IGpsLogDbHelper {
                 double lon = c.getDouble(1);
                 double lat = c.getDouble(2);
                 double altim = c.getDouble(3);
-                String date = c.getString(4);
+                long time = c.getLong(4);
                 Line line = linesMap.get(logid);
                 if (line == null) {
                     line = new Line("log_" + logid);
                     linesMap.put(logid, line);
                 }
-                line.addPoint(lon, lat, altim, date);
+                line.addPoint(lon, lat, altim, time);
                 c.moveToNext();
             }
         } finally {
@@ -870,16 +1109,18 @@ public class DaoGpsLog implements IGpsLogDbHelper {
 
 
     /**
-     * Get a tree index of gps points in a defined area.
+     * Get the points of the visible gps logs that fall in ranges of grid cells.
      *
-     * @param n
-     * @param s
-     * @param e
-     * @param w
-     * @return
-     * @throws IOException
+     * @param cellRanges pairs of first and last cell number of every range.
+     * @return the list of point infos.
+     * @throws IOException if something goes wrong.
+     * @see GpsLogCellUtilities
      */
-    public static STRtree getGpsLogInfoTree(double n, double s, double e, double w) throws IOException {
+    public static List<GpsLogInfo> getGpsLogInfos(long[] cellRanges) throws IOException {
+        List<GpsLogInfo> infos = new ArrayList<>();
+        if (cellRanges.length == 0) {
+            return infos;
+        }
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
 
         String idField1 = GpsLogsDataTableFields.COLUMN_LOGID.getFieldName();
@@ -887,6 +1128,7 @@ public class DaoGpsLog implements IGpsLogDbHelper {
         String latField = GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName();
         String altimField = GpsLogsDataTableFields.COLUMN_DATA_ALTIM.getFieldName();
         String tsField = GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName();
+        String cellField = GpsLogsDataTableFields.COLUMN_DATA_CELL.getFieldName();
 
         String idField = GpsLogsTableFields.COLUMN_ID.getFieldName();
         String nameField = GpsLogsTableFields.COLUMN_LOG_TEXT.getFieldName();
@@ -895,47 +1137,201 @@ public class DaoGpsLog implements IGpsLogDbHelper {
         String colorField = GpsLogsPropertiesTableFields.COLUMN_PROPERTIES_COLOR.getFieldName();
         String visibleField = GpsLogsPropertiesTableFields.COLUMN_PROPERTIES_VISIBLE.getFieldName();
 
+        StringBuilder sb = new StringBuilder();
+        sb.append("select d.").append(idField1);
+        sb.append(", d.").append(lonField);
+        sb.append(", d.").append(latField);
+        sb.append(", d.").append(altimField);
+        sb.append(", d.").append(tsField);
+        sb.append(", g.").append(nameField);
+        sb.append(", p.").append(colorField);
+        sb.append(" from ").append(TableDescriptions.TABLE_GPSLOG_DATA).append(" d, ");
+        sb.append(TableDescriptions.TABLE_GPSLOGS).append(" g, ");
+        sb.append(TableDescriptions.TABLE_GPSLOG_PROPERTIES).append(" p where ");
+        sb.append("d.").append(idField1).append("=g.").append(idField);
+        sb.append(" and p.").append(idField2).append("=g.").append(idField);
+        sb.append(" and p.").append(visibleField).append("=1 and (");
+        for (int i = 0; i < cellRanges.length; i += 2) {
+            if (i > 0)
+                sb.append(" or ");
+            sb.append("d.").append(cellField).append(" between ").append(cellRanges[i]).append(" and ").append(cellRanges[i + 1]);
+        }
+        sb.append(")");
+        String sql = sb.toString();
+
+        // the name and color are shared by all the points of a log
+        HashMap<Long, GpsLogInfo> logTemplates = new HashMap<>();
+        Cursor c = null;
+        try {
+            c = sqliteDatabase.rawQuery(sql, null);
+            while (c.moveToNext()) {
+                long logId = c.getLong(0);
+                GpsLogInfo template = logTemplates.get(logId);
+                if (template == null) {
+                    template = new GpsLogInfo();
+                    template.logName = c.getString(5);
+                    template.color = c.getString(6);
+                    logTemplates.put(logId, template);
+                }
+                GpsLogInfo gli = new GpsLogInfo();
+                gli.pointXYZ = new Coordinate(c.getDouble(1), c.getDouble(2), c.getDouble(3));
+                gli.timestamp = c.getLong(4);
+                gli.logName = template.logName;
+                gli.color = template.color;
+                infos.add(gli);
+            }
+        } catch (Exception e) {
+            GPLog.error("DAOGPSLOG", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        } finally {
+            if (c != null)
+                c.close();
+        }
+        return infos;
+    }
+
 
-        String sql = "select d." + lonField + ", d." + latField + ", d." + altimField + ", d." + tsField +
-                ", g." + nameField + ", p." + colorField + ", p." + visibleField +
+    /**
+     * Get the points of the visible gps logs inside an area, packed or not.
+     * <p/>
+     * <p>Used for areas too large for the cells of {@link GpsLogInfoIndex}.</p>
+     *
+     * @param n the north bound.
+     * @param s the south bound.
+     * @param e the east bound.
+     * @param w the west bound.
+     * @return the list of point infos.
+     * @throws IOException if something goes wrong.
+     */
+    public static List<GpsLogInfo> getGpsLogInfos(double n, double s, double e, double w) throws IOException {
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+
+        String idField1 = GpsLogsDataTableFields.COLUMN_LOGID.getFieldName();
+        String lonField = GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName();
+        String latField = GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName();
+        String altimField = GpsLogsDataTableFields.COLUMN_DATA_ALTIM.getFieldName();
+        String tsField = GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName();
+
+        String idField = GpsLogsTableFields.COLUMN_ID.getFieldName();
+        String nameField = GpsLogsTableFields.COLUMN_LOG_TEXT.getFieldName();
+
+        String idField2 = GpsLogsPropertiesTableFields.COLUMN_LOGID.getFieldName();
+        String colorField = GpsLogsPropertiesTableFields.COLUMN_PROPERTIES_COLOR.getFieldName();
+        String visibleField = GpsLogsPropertiesTableFields.COLUMN_PROPERTIES_VISIBLE.getFieldName();
+
+        String sql = "select d." + idField1 + ", d." + lonField + ", d." + latField + ", d." + altimField + ", d." + tsField +
+                ", g." + nameField + ", p." + colorField +
                 " from " + TableDescriptions.TABLE_GPSLOG_DATA + " d, " + TableDescriptions.TABLE_GPSLOGS +
                 " g, " + TableDescriptions.TABLE_GPSLOG_PROPERTIES + " p where " +
                 "d." + idField1 + "=g." + idField + " and p." + idField2 + "=g." + idField + " and " +
+                "p." + visibleField + "=1 and " +
                 "d." + lonField + " > " + w + " and d." + lonField + " < " + e + " and " +
                 "d." + latField + " > " + s + " and d." + latField + " < " + n;
 
-        STRtree tree = new STRtree();
+        // the name and color are shared by all the points of a log
+        HashMap<Long, GpsLogInfo> logTemplates = new HashMap<>();
+        List<GpsLogInfo> infos = new ArrayList<>();
         Cursor c = null;
         try {
             c = sqliteDatabase.rawQuery(sql, null);
-            c.moveToFirst();
-            while (!c.isAfterLast()) {
-                int i = 0;
-                double lon = c.getDouble(i++);
-                double lat = c.getDouble(i++);
-                double altim = c.getDouble(i++);
-                long ts = c.getLong(i++);
-                String name = c.getString(i++);
-                String color = c.getString(i++);
-                int visible = c.getInt(i++);
-                if (visible == 1) {
-                    GpsLogInfo gli = new GpsLogInfo();
-                    gli.pointXYZ = new Coordinate(lon, lat, altim);
-                    gli.timestamp = ts;
-                    gli.logName = name;
-                    gli.color = color;
-                    tree.insert(new Envelope(gli.pointXYZ), gli);
+            while (c.moveToNext()) {
+                long logId = c.getLong(0);
+                GpsLogInfo template = logTemplates.get(logId);
+                if (template == null) {
+                    template = new GpsLogInfo();
+                    template.logName = c.getString(5);
+                    template.color = c.getString(6);
+                    logTemplates.put(logId, template);
                 }
-                c.moveToNext();
+                GpsLogInfo gli = new GpsLogInfo();
+                gli.pointXYZ = new Coordinate(c.getDouble(1), c.getDouble(2), c.getDouble(3));
+                gli.timestamp = c.getLong(4);
+                gli.logName = template.logName;
+                gli.color = template.color;
+                infos.add(gli);
             }
+        } catch (Exception ex) {
+            GPLog.error("DAOGPSLOG", ex.getLocalizedMessage(), ex);
+            throw new IOException(ex.getLocalizedMessage());
         } finally {
             if (c != null)
                 c.close();
         }
-        return tree;
+        infos.addAll(getPackedGpsLogInfos(n, s, e, w, null));
+        return infos;
     }
 
 
+    /**
+     * Get the packed points of the visible gps logs that fall in a set of grid cells.
+     *
+     * @param n     the north bound of the cells.
+     * @param s     the south bound of the cells.
+     * @param e     the east bound of the cells.
+     * @param w     the west bound of the cells.
+     * @param cells the cells to keep the points of or <code>null</code> to keep the points inside the bounds.
+     * @return the list of point infos.
+     * @throws IOException if something goes wrong.
+     * @see GpsLogChunkUtilities
+     */
+    public static List<GpsLogInfo> getPackedGpsLogInfos(double n, double s, double e, double w, final Set<Long> cells) throws IOException {
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+
+        String idField1 = TableDescriptions.GpsLogsChunksTableFields.COLUMN_LOGID.getFieldName();
+        String idField = GpsLogsTableFields.COLUMN_ID.getFieldName();
+        String idField2 = GpsLogsPropertiesTableFields.COLUMN_LOGID.getFieldName();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("select c.").append(idField1);
+        sb.append(", c.").append(TableDescriptions.GpsLogsChunksTableFields.COLUMN_DATA.getFieldName());
+        sb.append(", g.").append(GpsLogsTableFields.COLUMN_LOG_TEXT.getFieldName());
+        sb.append(", p.").append(GpsLogsPropertiesTableFields.COLUMN_PROPERTIES_COLOR.getFieldName());
+        sb.append(" from ").append(TableDescriptions.TABLE_GPSLOG_CHUNKS).append(" c, ");
+        sb.append(TableDescriptions.TABLE_GPSLOGS).append(" g, ");
+        sb.append(TableDescriptions.TABLE_GPSLOG_PROPERTIES).append(" p where ");
+        sb.append("c.").append(idField1).append("=g.").append(idField);
+        sb.append(" and p.").append(idField2).append("=g.").append(idField);
+        sb.append(" and p.").append(GpsLogsPropertiesTableFields.COLUMN_PROPERTIES_VISIBLE.getFieldName()).append("=1");
+        sb.append(" and c.").append(TableDescriptions.GpsLogsChunksTableFields.COLUMN_MAXX.getFieldName()).append(" >= ").append(w);
+        sb.append(" and c.").append(TableDescriptions.GpsLogsChunksTableFields.COLUMN_MINX.getFieldName()).append(" <= ").append(e);
+        sb.append(" and c.").append(TableDescriptions.GpsLogsChunksTableFields.COLUMN_MAXY.getFieldName()).append(" >= ").append(s);
+        sb.append(" and c.").append(TableDescriptions.GpsLogsChunksTableFields.COLUMN_MINY.getFieldName()).append(" <= ").append(n);
+        String sql = sb.toString();
+
+        final List<GpsLogInfo> infos = new ArrayList<>();
+        Cursor c = null;
+        try {
+            c = sqliteDatabase.rawQuery(sql, null);
+            while (c.moveToNext()) {
+                final String name = c.getString(2);
+                final String color = c.getString(3);
+                GpsLogChunkUtilities.decode(c.getBlob(1), c.getLong(0), (logId, lon, lat, elev, timestamp) -> {
+                    boolean keep;
+                    if (cells != null) {
+                        keep = cells.contains(GpsLogCellUtilities.getCell(lon, lat));
+                    } else {
+                        keep = lon > w && lon < e && lat > s && lat < n;
+                    }
+                    if (keep) {
+                        GpsLogInfo gli = new GpsLogInfo();
+                        gli.pointXYZ = new Coordinate(lon, lat, elev);
+                        gli.timestamp = timestamp;
+                        gli.logName = name;
+                        gli.color = color;
+                        infos.add(gli);
+                    }
+                });
+            }
+        } catch (Exception ex) {
+            GPLog.error("DAOGPSLOG", ex.getLocalizedMessage(), ex);
+            throw new IOException(ex.getLocalizedMessage());
+        } finally {
+            if (c != null)
+                c.close();
+        }
+        return infos;
+    }
+
     /**
      * Get the line for a certain log id from the db
      *
@@ -955,6 +1351,20 @@ public class DaoGpsLog implements IGpsLogDbHelper {
         };
         String strSortOrder = GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName() + " ASC";
         String strWhere = GpsLogsDataTableFields.COLUMN_LOGID.getFieldName() + "=" + logId;
+
+        if (GpsLogChunkUtilities.hasChunks(sqliteDatabase, logId)) {
+            GpsLogPoints points = GpsLogChunkUtilities.readLog(sqliteDatabase, logId);
+            int jump = 1;
+            if (pointsNum != -1 && points.count > pointsNum) {
+                jump = (int) Math.ceil((double) points.count / pointsNum);
+            }
+            Line line = new Line("log_" + logId, (points.count + jump - 1) / jump);
+            for (int i = 0; i < points.count; i += jump) {
+                line.addPoint(points.lons[i], points.lats[i], points.elevs[i], points.timestamps[i]);
+            }
+            return line;
+        }
+
         Cursor c = null;
         try {
             c = sqliteDatabase.query(TABLE_GPSLOG_DATA, asColumnsToReturn, strWhere, null, null, null, strSortOrder);
@@ -965,14 +1375,14 @@ public class DaoGpsLog implements IGpsLogDbHelper {
             }
 
             c.moveToFirst();
-            Line line = new Line("log_" + logId);
+            Line line = new Line("log_" + logId, jump > 1 ? (count + jump - 1) / jump : count);
             while (!c.isAfterLast()) {
                 double lon = c.getDouble(0);
                 double lat = c.getDouble(1);
 
                 double altim = c.getDouble(2);
-                String date = c.getString(3);
-                line.addPoint(lon, lat, altim, date);
+                long time = c.getLong(3);
+                line.addPoint(lon, lat, altim, time);
                 c.moveToNext();
                 for (int i = 1; i < jump; i++) {
                     c.moveToNext();
@@ -997,6 +1407,12 @@ public class DaoGpsLog implements IGpsLogDbHelper {
      */
     public static double[] getGpslogFirstPoint(long logId) throws IOException {
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        // the data table points of a continued packed log come after the chunks
+        GpsLogPoints points = new GpsLogPoints(GpsLogChunkUtilities.CHUNK_SIZE);
+        if (GpsLogChunkUtilities.readBoundaryChunk(sqliteDatabase, logId, false,
+                (id, lon, lat, elev, timestamp) -> points.add(lon, lat, elev, timestamp))) {
+            return new double[]{points.lons[0], points.lats[0]};
+        }
 
         String[] asColumnsToReturn = {//
                 GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName(), //
@@ -1031,7 +1447,6 @@ public class DaoGpsLog implements IGpsLogDbHelper {
      */
     public static double[] getGpslogLastPoint(long logId) throws IOException {
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
-
         String[] asColumnsToReturn = {//
                 GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName(), //
                 GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName(), //
@@ -1043,24 +1458,28 @@ public class DaoGpsLog implements IGpsLogDbHelper {
         Cursor c = null;
         try {
             c = sqliteDatabase.query(TABLE_GPSLOG_DATA, asColumnsToReturn, strWhere, null, null, null, strSortOrder, "1");
-            c.moveToFirst();
-            double[] lonLat = new double[2];
-            while (!c.isAfterLast()) {
-                lonLat[0] = c.getDouble(0);
-                lonLat[1] = c.getDouble(1);
-                break;
+            if (c.moveToFirst()) {
+                return new double[]{c.getDouble(0), c.getDouble(1)};
             }
-            return lonLat;
         } finally {
             if (c != null)
                 c.close();
         }
+
+        // no points after the chunks, if any
+        GpsLogPoints points = new GpsLogPoints(GpsLogChunkUtilities.CHUNK_SIZE);
+        if (GpsLogChunkUtilities.readBoundaryChunk(sqliteDatabase, logId, true,
+                (id, lon, lat, elev, timestamp) -> points.add(lon, lat, elev, timestamp))) {
+            int last = points.count - 1;
+            return new double[]{points.lons[last], points.lats[last]};
+        }
+        return new double[2];
     }
 
     /**
      * Import a gpx in the database.
      * <p/>
-     * TODO refactor a better design, with the new gpx parser this is ugly.
+     * <p>This needs the whole file in memory, for large files use the {@link GpxStreamImporter}.</p>
      *
      * @param gpxItem the gpx wrapper.
      * @throws IOException if something goes wrong.
@@ -1133,6 +1552,7 @@ public class DaoGpsLog implements IGpsLogDbHelper {
                         helper.addGpsLogDataPoint(sqliteDatabase, logId, point.getLongitude(), point.getLatitude(),
                                 point.getElevation(), date);
                     }
+                    TableChangesTracker.INSTANCE.notifyChanged(TABLE_GPSLOGS, TABLE_GPSLOG_PROPERTIES);
                     sqliteDatabase.setTransactionSuccessful();
                 } catch (Exception e) {
                     GPLog.error("DAOMAPS", e.getLocalizedMessage(), e);
@@ -1140,6 +1560,8 @@ public class DaoGpsLog implements IGpsLogDbHelper {
                 } finally {
                     sqliteDatabase.endTransaction();
                 }
+                buildLodsQuietly(sqliteDatabase, logId);
+                packLogIfCompact(sqliteDatabase, logId);
             }
         }
         // routes
@@ -1182,6 +1604,7 @@ public class DaoGpsLog implements IGpsLogDbHelper {
                         helper.addGpsLogDataPoint(sqliteDatabase, logId, point.getLongitude(), point.getLatitude(),
                                 point.getElevation(), date);
                     }
+                    TableChangesTracker.INSTANCE.notifyChanged(TABLE_GPSLOGS, TABLE_GPSLOG_PROPERTIES);
                     sqliteDatabase.setTransactionSuccessful();
                 } catch (Exception e) {
                     GPLog.error("DAOMAPS", e.getLocalizedMessage(), e);
@@ -1189,6 +1612,8 @@ public class DaoGpsLog implements IGpsLogDbHelper {
                 } finally {
                     sqliteDatabase.endTransaction();
                 }
+                buildLodsQuietly(sqliteDatabase, logId);
+                packLogIfCompact(sqliteDatabase, logId);
             }
         }
     }
@@ -1276,59 +1701,14 @@ public class DaoGpsLog implements IGpsLogDbHelper {
         try {
             // get the log data, sum up the distances
             SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
-            String[] asColumnsToReturn = { //
-                    GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName(), //
-                    GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName(), //
-                    GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName() //
-            };
-            String strSortOrder = GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName() + " ASC";
-            String strWhere = GpsLogsDataTableFields.COLUMN_LOGID.getFieldName() + "=" + logId;
-            Cursor c = null;
-            double summedDistance = 0.0;
-            double lon = 0.0;
-            double lat = 0.0;
-            double prevLon = 0.0;
-            double prevLat = 0.0;
 
             if (GPLog.LOG_ABSURD)
-                GPLog.addLogEntry("DAOGPSLOG", strWhere);
-            try {
-                c = sqliteDatabase.query(TABLE_GPSLOG_DATA, asColumnsToReturn, strWhere, null, null, null, strSortOrder);
-                c.moveToFirst();
-                while (!c.isAfterLast()) {
-                    lon = c.getDouble(0);
-                    lat = c.getDouble(1);
-
-                    Location newLoc = new Location("tempLoc1"); //$NON-NLS-1$
-                    newLoc.setLongitude(lon);
-                    newLoc.setLatitude(lat);
-                    Location prevLoc = new Location("tempLoc2"); //$NON-NLS-1$
-
-                    if (GPLog.LOG_ABSURD) {
-                        GPLog.addLogEntry("DAOGPSLOG", "lon: " + lon);
-                        GPLog.addLogEntry("DAOGPSLOG", "lat: " + lat);
-                        GPLog.addLogEntry("DAOGPSLOG", "prevlon: " + prevLon);
-                        GPLog.addLogEntry("DAOGPSLOG", "prevlat: " + prevLat);
-                    }
-                    if (prevLon == 0.0) {
-                        prevLon = lon;
-                        prevLat = lat;
-                    }
-                    prevLoc.setLongitude(prevLon);
-                    prevLoc.setLatitude(prevLat);
-                    double lastDistance = newLoc.distanceTo(prevLoc);
-                    if (GPLog.LOG_ABSURD) {
-                        GPLog.addLogEntry("DAOGPSLOG", "distance: " + lastDistance);
-                    }
-                    summedDistance = summedDistance + lastDistance;
-                    prevLon = lon;
-                    prevLat = lat;
-
-                    c.moveToNext();
-                }
-            } finally {
-                if (c != null)
-                    c.close();
+                GPLog.addLogEntry("DAOGPSLOG", "logid=" + logId);
+            // packed or not
+            GpsLogPoints points = GpsLogChunkUtilities.readLog(sqliteDatabase, logId);
+            double summedDistance = new TrackStatistics().compute(points.lons, points.lats, points.elevs, points.timestamps, 0, points.count).getLength();
+            if (GPLog.LOG_ABSURD) {
+                GPLog.addLogEntry("DAOGPSLOG", "distance: " + summedDistance);
             }
 
             // update the gpslogs table with the summed distance
@@ -1337,6 +1717,7 @@ public class DaoGpsLog implements IGpsLogDbHelper {
             SQLiteStatement sqlUpdate = sqliteDatabase.compileStatement(query);
             sqlUpdate.execute();
             sqlUpdate.close();
+            TableChangesTracker.INSTANCE.notifyChanged(TABLE_GPSLOGS, TABLE_GPSLOG_PROPERTIES);
             sqliteDatabase.setTransactionSuccessful();
             sqliteDatabase.endTransaction();
 
@@ -32,6 +32,7 @@ import eu.geopaparazzi.core.GeopaparazziApplication;
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.database.IImagesDbHelper;
 import eu.geopaparazzi.library.database.Image;
+import eu.geopaparazzi.library.database.TableChangesTracker;
 import eu.geopaparazzi.library.images.ImageUtilities;
 
 import static eu.geopaparazzi.library.database.TableDescriptions.ImageDataTableFields;
@@ -172,6 +173,7 @@ public class DaoImages implements IImagesDbHelper {
             values.put(ImageTableFields.COLUMN_NOTE_ID.getFieldName(), noteId);
             long imageId = sqliteDatabase.insertOrThrow(TABLE_IMAGES, null, values);
 
+            TableChangesTracker.INSTANCE.notifyChanged(TABLE_IMAGES);
             sqliteDatabase.setTransactionSuccessful();
 
             return imageId;
@@ -230,6 +232,7 @@ public class DaoImages implements IImagesDbHelper {
             deleteStmt = sqliteDatabase.compileStatement(query);
             deleteStmt.execute();
 
+            TableChangesTracker.INSTANCE.notifyChanged(TABLE_IMAGES);
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             GPLog.error("DAOIMAGES", e.getLocalizedMessage(), e);
@@ -286,6 +289,7 @@ public class DaoImages implements IImagesDbHelper {
             deleteStmt = sqliteDatabase.compileStatement(query);
             deleteStmt.execute();
 
+            TableChangesTracker.INSTANCE.notifyChanged(TABLE_IMAGES);
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             GPLog.error("DAOIMAGES", e.getLocalizedMessage(), e);
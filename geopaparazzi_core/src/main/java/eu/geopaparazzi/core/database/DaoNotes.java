@@ -32,6 +32,8 @@ import eu.geopaparazzi.core.database.objects.Note;
 import eu.geopaparazzi.library.database.ANote;
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.database.INotesDbHelper;
+import eu.geopaparazzi.library.database.NotesSearchUtilities;
+import eu.geopaparazzi.library.database.TableChangesTracker;
 import eu.geopaparazzi.library.util.LibraryConstants;
 
 import static eu.geopaparazzi.library.database.TableDescriptions.NotesTableFields;
@@ -104,6 +106,7 @@ public class DaoNotes implements INotesDbHelper {
             sqliteDatabase.execSQL(CREATE_INDEX_NOTES_TS);
             sqliteDatabase.execSQL(CREATE_INDEX_NOTES_X_BY_Y);
             sqliteDatabase.execSQL(CREATE_INDEX_NOTES_ISDIRTY);
+            NotesSearchUtilities.createTables(sqliteDatabase);
 
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
@@ -180,6 +183,8 @@ public class DaoNotes implements INotesDbHelper {
             values.put(NotesTableFields.COLUMN_STYLE.getFieldName(), style);
         values.put(NotesTableFields.COLUMN_ISDIRTY.getFieldName(), 1);
         long noteId = sqliteDatabase.insertOrThrow(TABLE_NOTES, null, values);
+        NotesSearchUtilities.indexNote(sqliteDatabase, noteId, text, description, form);
+        TableChangesTracker.INSTANCE.notifyChanged(TABLE_NOTES);
         return noteId;
     }
 
@@ -194,9 +199,11 @@ public class DaoNotes implements INotesDbHelper {
         sqliteDatabase.beginTransaction();
         try {
             // delete note
+            NotesSearchUtilities.removeNote(sqliteDatabase, id);
             String query = "delete from " + TABLE_NOTES + " where " + NotesTableFields.COLUMN_ID.getFieldName() + " = " + id;
             SQLiteStatement sqlUpdate = sqliteDatabase.compileStatement(query);
             sqlUpdate.execute();
+            TableChangesTracker.INSTANCE.notifyChanged(TABLE_NOTES);
 
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
@@ -238,9 +245,12 @@ public class DaoNotes implements INotesDbHelper {
         sqliteDatabase.beginTransaction();
         try {
             // delete note
-            String query = "delete from " + TABLE_NOTES + " where " + NotesTableFields.COLUMN_DESCRIPTION.getFieldName() + " = " + LibraryConstants.OSM;
+            String where = NotesTableFields.COLUMN_DESCRIPTION.getFieldName() + " = " + LibraryConstants.OSM;
+            NotesSearchUtilities.removeNotes(sqliteDatabase, where);
+            String query = "delete from " + TABLE_NOTES + " where " + where;
             SQLiteStatement sqlUpdate = sqliteDatabase.compileStatement(query);
             sqlUpdate.execute();
+            TableChangesTracker.INSTANCE.notifyChanged(TABLE_NOTES);
 
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
@@ -271,8 +281,18 @@ public class DaoNotes implements INotesDbHelper {
         String[] whereArgs = null;
 
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
-
-        sqliteDatabase.update(TABLE_NOTES, updatedValues, where, whereArgs);
+        sqliteDatabase.beginTransaction();
+        try {
+            sqliteDatabase.update(TABLE_NOTES, updatedValues, where, whereArgs);
+            NotesSearchUtilities.reindexNote(sqliteDatabase, id);
+            sqliteDatabase.setTransactionSuccessful();
+        } catch (Exception e) {
+            GPLog.error("DAONOTES", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        } finally {
+            sqliteDatabase.endTransaction();
+        }
+        TableChangesTracker.INSTANCE.notifyChanged(TABLE_NOTES);
     }
 
     /**
@@ -28,6 +28,11 @@ import java.util.Locale;
 
 import eu.geopaparazzi.library.core.ResourcesManager;
 import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.database.GpsLogBboxUtilities;
+import eu.geopaparazzi.library.database.GpsLogCellUtilities;
+import eu.geopaparazzi.library.database.GpsLogChunkUtilities;
+import eu.geopaparazzi.library.database.GpsLogLodUtilities;
+import eu.geopaparazzi.library.database.NotesSearchUtilities;
 import eu.geopaparazzi.library.database.TableDescriptions;
 import eu.geopaparazzi.library.util.Utilities;
 import eu.geopaparazzi.library.util.debug.Debug;
@@ -143,6 +148,47 @@ public class DatabaseManager {
                 } catch (Exception e) {
                     Log.e("DATABASEMANAGER", "Error while creating the metadata/log tables", e);
                 }
+                try {
+                    // support tables added to existing projects
+                    if (!hasTable(TableDescriptions.TABLE_GPSLOG_LOD)) {
+                        GpsLogLodUtilities.createTables(db);
+                    }
+                    if (!hasTable(TableDescriptions.TABLE_GPSLOG_BBOX)) {
+                        db.beginTransaction();
+                        try {
+                            GpsLogBboxUtilities.createTables(db);
+                            GpsLogBboxUtilities.updateAllBboxes(db);
+                            db.setTransactionSuccessful();
+                        } finally {
+                            db.endTransaction();
+                        }
+                    }
+                    if (!hasTable(TableDescriptions.TABLE_GPSLOG_CHUNKS)) {
+                        GpsLogChunkUtilities.createTables(db);
+                    }
+                    if (!hasTable(TableDescriptions.TABLE_NOTES_SEARCH)) {
+                        db.beginTransaction();
+                        try {
+                            NotesSearchUtilities.createTables(db);
+                            NotesSearchUtilities.indexAllNotes(db);
+                            db.setTransactionSuccessful();
+                        } finally {
+                            db.endTransaction();
+                        }
+                    }
+                    if (!DaoGpsLog.existsColumnInTable(db, TableDescriptions.TABLE_GPSLOG_DATA,
+                            TableDescriptions.GpsLogsDataTableFields.COLUMN_DATA_CELL.getFieldName())) {
+                        db.beginTransaction();
+                        try {
+                            GpsLogCellUtilities.addCellColumn(db);
+                            db.setTransactionSuccessful();
+                        } finally {
+                            db.endTransaction();
+                        }
+                    }
+                } catch (Exception e) {
+                    Log.e("DATABASEMANAGER", "Error while creating the support tables", e);
+                }
 
                 int dbVersion = db.getVersion();
                 if (DATABASE_VERSION > dbVersion)
@@ -158,6 +204,13 @@ public class DatabaseManager {
             }
         }
 
+        private boolean hasTable(String tableName) {
+            String sql = "SELECT name FROM sqlite_master WHERE type ='table' AND name='" + tableName + "';";
+            try (Cursor cursor = db.rawQuery(sql, null)) {
+                return cursor.moveToFirst();
+            }
+        }
+
         public void close() {
             if (!db.isOpen()) {
                 return;
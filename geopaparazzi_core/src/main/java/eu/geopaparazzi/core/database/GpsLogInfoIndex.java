@@ -0,0 +1,215 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.core.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.quadtree.Quadtree;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import eu.geopaparazzi.core.GeopaparazziApplication;
+import eu.geopaparazzi.core.database.objects.GpsLogInfo;
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.database.GpsLogCellUtilities;
+import eu.geopaparazzi.library.database.GpsLogCellsTracker;
+import eu.geopaparazzi.library.database.TableChangesTracker;
+
+import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_GPSLOGS;
+import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_GPSLOG_PROPERTIES;
+
+/**
+ * An in-memory index of gps log points that grows with the areas it is asked for.
+ * <p/>
+ * <p>Points are read from the db by grid cell (see {@link GpsLogCellUtilities}), packed
+ * points through the bounding boxes of their chunks. Every cell is read only once,
+ * so moving around the map only loads the cells that were never seen before.</p>
+ * <p/>
+ * <p>The index is shared by the info tools of the project and is emptied when the
+ * project database or the gps logs change. Points added to the logs, as while recording,
+ * only unload the cells they fall in (see {@link GpsLogCellsTracker}).</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public enum GpsLogInfoIndex {
+    INSTANCE;
+
+    /**
+     * Max number of cells an area can have to be loaded (about 70x70 km at the equator).
+     */
+    public static final int MAX_LOADED_CELLS = 128 * 128;
+
+    private static final String[] TABLES = {TABLE_GPSLOGS, TABLE_GPSLOG_PROPERTIES};
+
+    private Quadtree tree = new Quadtree();
+    private final Set<Long> loadedCells = new HashSet<>();
+    private SQLiteDatabase loadedDatabase;
+    private long loadedVersion = -1;
+    private long loadedCellsVersion = -1;
+
+    /**
+     * Empty the index if it has been loaded from another database or the logs changed since,
+     * unload the cells that got new points.
+     *
+     * @throws IOException if something goes wrong.
+     */
+    private void checkValid() throws IOException {
+        SQLiteDatabase database = GeopaparazziApplication.getInstance().getDatabase();
+        long version = TableChangesTracker.INSTANCE.getVersionSum(TABLES);
+        if (database != loadedDatabase || version != loadedVersion) {
+            clear();
+            loadedDatabase = database;
+            loadedVersion = version;
+            loadedCellsVersion = GpsLogCellsTracker.INSTANCE.getVersion();
+            return;
+        }
+        Set<Long> changedCells = new HashSet<>();
+        loadedCellsVersion = GpsLogCellsTracker.INSTANCE.getChangedCells(loadedCellsVersion, changedCells);
+        for (long cell : changedCells) {
+            if (loadedCells.remove(cell)) {
+                unloadCell(cell);
+            }
+        }
+    }
+
+    /**
+     * Remove the points of a cell from the tree.
+     *
+     * @param cell the cell.
+     */
+    @SuppressWarnings("unchecked")
+    private void unloadCell(long cell) {
+        int col = (int) (cell % GpsLogCellUtilities.GRID_COLUMNS);
+        int row = (int) (cell / GpsLogCellUtilities.GRID_COLUMNS);
+        double w = col * GpsLogCellUtilities.CELL_SIZE - 180.0;
+        double s = row * GpsLogCellUtilities.CELL_SIZE - 90.0;
+        Envelope cellEnvelope = new Envelope(w, w + GpsLogCellUtilities.CELL_SIZE, s, s + GpsLogCellUtilities.CELL_SIZE);
+        List<GpsLogInfo> candidates = tree.query(cellEnvelope);
+        for (GpsLogInfo info : candidates) {
+            if (GpsLogCellUtilities.getCell(info.pointXYZ.x, info.pointXYZ.y) == cell) {
+                tree.remove(new Envelope(info.pointXYZ), info);
+            }
+        }
+    }
+
+    /**
+     * Empty the index.
+     */
+    public synchronized void clear() {
+        tree = new Quadtree();
+        loadedCells.clear();
+        loadedDatabase = null;
+        loadedVersion = -1;
+        loadedCellsVersion = -1;
+    }
+
+    /**
+     * Make sure the points of an area are loaded.
+     *
+     * @param n the north bound.
+     * @param s the south bound.
+     * @param e the east bound.
+     * @param w the west bound.
+     * @return <code>false</code> if the area was too large to be loaded.
+     * @throws IOException if something goes wrong.
+     */
+    public synchronized boolean load(double n, double s, double e, double w) throws IOException {
+        checkValid();
+        int minCol = GpsLogCellUtilities.getColumn(w);
+        int maxCol = GpsLogCellUtilities.getColumn(e);
+        int minRow = GpsLogCellUtilities.getRow(s);
+        int maxRow = GpsLogCellUtilities.getRow(n);
+        if ((long) (maxCol - minCol + 1) * (maxRow - minRow + 1) > MAX_LOADED_CELLS) {
+            return false;
+        }
+
+        // contiguous missing cells of a row make a range
+        List<Long> ranges = new ArrayList<>();
+        List<Long> newCells = new ArrayList<>();
+        for (int row = minRow; row <= maxRow; row++) {
+            long rangeStart = -1;
+            for (int col = minCol; col <= maxCol; col++) {
+                long cell = GpsLogCellUtilities.getCell(col, row);
+                if (loadedCells.contains(cell)) {
+                    if (rangeStart != -1) {
+                        ranges.add(rangeStart);
+                        ranges.add(cell - 1);
+                        rangeStart = -1;
+                    }
+                } else {
+                    newCells.add(cell);
+                    if (rangeStart == -1) {
+                        rangeStart = cell;
+                    }
+                }
+            }
+            if (rangeStart != -1) {
+                ranges.add(rangeStart);
+                ranges.add(GpsLogCellUtilities.getCell(maxCol, row));
+            }
+        }
+        if (ranges.isEmpty()) {
+            return true;
+        }
+
+        long start = System.currentTimeMillis();
+        long[] cellRanges = new long[ranges.size()];
+        for (int i = 0; i < cellRanges.length; i++) {
+            cellRanges[i] = ranges.get(i);
+        }
+        List<GpsLogInfo> infos = DaoGpsLog.getGpsLogInfos(cellRanges);
+        // the bounds of the cells, which can be larger than the asked area
+        double cellsW = minCol * GpsLogCellUtilities.CELL_SIZE - 180.0;
+        double cellsE = (maxCol + 1) * GpsLogCellUtilities.CELL_SIZE - 180.0;
+        double cellsS = minRow * GpsLogCellUtilities.CELL_SIZE - 90.0;
+        double cellsN = (maxRow + 1) * GpsLogCellUtilities.CELL_SIZE - 90.0;
+        infos.addAll(DaoGpsLog.getPackedGpsLogInfos(cellsN, cellsS, cellsE, cellsW, new HashSet<>(newCells)));
+        for (GpsLogInfo info : infos) {
+            tree.insert(new Envelope(info.pointXYZ), info);
+        }
+        loadedCells.addAll(newCells);
+        if (GPLog.LOG_HEAVY)
+            GPLog.addLogEntry(this, "Loaded " + infos.size() + " points from " + newCells.size() + " cells in " +
+                    (System.currentTimeMillis() - start) + " ms, " + tree.size() + " points indexed.");
+        return true;
+    }
+
+    /**
+     * Get the loaded points inside an area.
+     *
+     * @param envelope the area.
+     * @return the points.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized List<GpsLogInfo> query(Envelope envelope) {
+        List<GpsLogInfo> candidates = tree.query(envelope);
+        List<GpsLogInfo> result = new ArrayList<>(candidates.size());
+        for (GpsLogInfo info : candidates) {
+            if (envelope.contains(info.pointXYZ)) {
+                result.add(info);
+            }
+        }
+        return result;
+    }
+}
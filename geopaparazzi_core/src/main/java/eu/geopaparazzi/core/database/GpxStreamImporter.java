@@ -0,0 +1,311 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.core.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.File;
+import java.io.IOException;
+
+import eu.geopaparazzi.core.GeopaparazziApplication;
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.database.GpsLogBboxUtilities;
+import eu.geopaparazzi.library.database.GpsLogCellUtilities;
+import eu.geopaparazzi.library.gpx.parser.GpxStreamParser;
+import eu.geopaparazzi.library.style.ColorUtilities;
+import eu.geopaparazzi.library.util.FileUtilities;
+
+import static eu.geopaparazzi.library.database.TableDescriptions.GpsLogsDataTableFields;
+import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_GPSLOG_DATA;
+import static eu.geopaparazzi.library.util.LibraryConstants.DEFAULT_LOG_WIDTH;
+
+/**
+ * Imports a GPX or KML file into the database while it is being read.
+ * <p/>
+ * <p>Points coming from the {@link GpxStreamParser} are written straight into the gps log data table
+ * through a compiled statement, committing a transaction every {@link #BATCH_SIZE} points,
+ * so that the memory used doesn't depend on the size of the file.</p>
+ * <p/>
+ * <p>Waypoints become notes, tracks and routes become gps logs.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class GpxStreamImporter implements GpxStreamParser.IGpxStreamHandler {
+    /**
+     * The number of points written in a single transaction.
+     */
+    public static final int BATCH_SIZE = 1000;
+    private static final long PROGRESS_INTERVAL_MILLIS = 500;
+
+    /**
+     * Listener for the import progress.
+     */
+    public interface IProgressListener {
+        /**
+         * Called at most every half second during the import.
+         *
+         * @param percent         the percentage of the file read.
+         * @param points          the points imported so far.
+         * @param pointsPerSecond the import throughput.
+         */
+        void onProgress(int percent, long points, long pointsPerSecond);
+    }
+
+    private final String filePath;
+    private final String fileName;
+    private final IProgressListener progressListener;
+    private final GpxStreamParser parser;
+    private SQLiteDatabase sqliteDatabase;
+    private SQLiteStatement insertStatement;
+    private boolean inTransaction = false;
+    private int batchCount = 0;
+
+    // current line
+    private String lineName;
+    private boolean isRoute;
+    private long logId = -1;
+    private long lineStartMillis;
+    private int linePointsCount;
+    private long lastTs;
+    private double minX;
+    private double maxX;
+    private double minY;
+    private double maxY;
+
+    // statistics
+    private long startMillis;
+    private long lastProgressMillis;
+    private int importedLogs = 0;
+    private long importedPoints = 0;
+    private int importedWayPoints = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param filePath         the path of the GPX or KML file.
+     * @param progressListener an optional progress listener.
+     */
+    public GpxStreamImporter(String filePath, IProgressListener progressListener) {
+        this.filePath = filePath;
+        this.progressListener = progressListener;
+        fileName = FileUtilities.getNameWithoutExtention(new File(filePath));
+        parser = new GpxStreamParser(filePath);
+    }
+
+    /**
+     * Run the import.
+     * <p/>
+     * <p>If cancelled, what has been read so far stays imported.</p>
+     *
+     * @throws IOException if something goes wrong.
+     */
+    public void runImport() throws IOException {
+        sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        startMillis = System.currentTimeMillis();
+        String sql = "INSERT INTO " + TABLE_GPSLOG_DATA + " (" +
+                GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName() + ", " +
+                GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName() + ", " +
+                GpsLogsDataTableFields.COLUMN_DATA_ALTIM.getFieldName() + ", " +
+                GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName() + ", " +
+                GpsLogsDataTableFields.COLUMN_LOGID.getFieldName() + ", " +
+                GpsLogsDataTableFields.COLUMN_DATA_CELL.getFieldName() +
+                ") VALUES (?,?,?,?,?,?)";
+        insertStatement = sqliteDatabase.compileStatement(sql);
+        try {
+            parser.parse(this);
+            commitBatch();
+        } finally {
+            if (inTransaction) {
+                // something went wrong, the current batch is rolled back
+                sqliteDatabase.endTransaction();
+                inTransaction = false;
+            }
+            insertStatement.close();
+        }
+        if (GPLog.LOG)
+            GPLog.addLogEntry(this, "Imported " + filePath + ": " + importedLogs + " logs, " + importedPoints + " points, " +
+                    importedWayPoints + " waypoints in " + getElapsedMillis() + " ms (" + getPointsPerSecond() + " points/s)");
+    }
+
+    /**
+     * Stop the import as soon as possible.
+     */
+    public void cancel() {
+        parser.cancel();
+    }
+
+    /**
+     * @return <code>true</code> if the import has been cancelled.
+     */
+    public boolean isCancelled() {
+        return parser.isCancelled();
+    }
+
+    @Override
+    public void onWayPoint(double lon, double lat, double elev, String name, String description) throws Exception {
+        String nameDescr = "";
+        if (name != null) {
+            nameDescr = name;
+        }
+        if (name != null && description != null) {
+            nameDescr = nameDescr + ":\n";
+        }
+        if (description != null) {
+            nameDescr = nameDescr + description;
+        }
+        beginBatch();
+        DaoNotes.addNoteNoTransaction(lon, lat, elev, System.currentTimeMillis(), nameDescr, "GPX", null, null, sqliteDatabase);
+        importedWayPoints++;
+        checkBatch();
+    }
+
+    @Override
+    public void onLineStart(String name, boolean isRoute) {
+        if (name == null || name.length() == 0) {
+            lineName = fileName;
+        } else {
+            lineName = fileName + " - " + name;
+        }
+        this.isRoute = isRoute;
+        logId = -1;
+        linePointsCount = 0;
+        lineStartMillis = System.currentTimeMillis();
+    }
+
+    @Override
+    public void onLinePoint(double lon, double lat, double elev, long time) throws Exception {
+        if (lon < -180 || lon > 180 || lat < -90 || lat > 90) {
+            return;
+        }
+        long ts = time > 0 ? time : lineStartMillis + linePointsCount * 1000L;
+        if (logId == -1) {
+            // the log is created only for lines that have points
+            String color = isRoute ? ColorUtilities.GREEN.getHex() : ColorUtilities.BLUE.getHex();
+            logId = new DaoGpsLog().addGpsLog(ts, ts, 0, lineName, DEFAULT_LOG_WIDTH, color, true);
+            importedLogs++;
+            minX = maxX = lon;
+            minY = maxY = lat;
+        }
+
+        beginBatch();
+        insertStatement.bindDouble(1, lon);
+        insertStatement.bindDouble(2, lat);
+        insertStatement.bindDouble(3, elev);
+        insertStatement.bindLong(4, ts);
+        insertStatement.bindLong(5, logId);
+        insertStatement.bindLong(6, GpsLogCellUtilities.getCell(lon, lat));
+        insertStatement.executeInsert();
+        insertStatement.clearBindings();
+
+        minX = Math.min(minX, lon);
+        maxX = Math.max(maxX, lon);
+        minY = Math.min(minY, lat);
+        maxY = Math.max(maxY, lat);
+        lastTs = ts;
+        linePointsCount++;
+        importedPoints++;
+        checkBatch();
+    }
+
+    @Override
+    public void onLineEnd() throws Exception {
+        if (logId == -1) {
+            return;
+        }
+        beginBatch();
+        GpsLogBboxUtilities.expandBbox(sqliteDatabase, logId, minX, minY);
+        GpsLogBboxUtilities.expandBbox(sqliteDatabase, logId, maxX, maxY);
+        commitBatch();
+
+        // also builds the levels of detail and packs the log if needed
+        new DaoGpsLog().setEndTs(logId, lastTs);
+        logId = -1;
+    }
+
+    @Override
+    public void onProgress(long readBytes, long totalBytes) {
+        if (progressListener == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastProgressMillis < PROGRESS_INTERVAL_MILLIS) {
+            return;
+        }
+        lastProgressMillis = now;
+        int percent = totalBytes > 0 ? (int) (100 * readBytes / totalBytes) : 0;
+        progressListener.onProgress(percent, importedPoints, getPointsPerSecond());
+    }
+
+    private void beginBatch() {
+        if (!inTransaction) {
+            sqliteDatabase.beginTransaction();
+            inTransaction = true;
+            batchCount = 0;
+        }
+    }
+
+    private void checkBatch() {
+        batchCount++;
+        if (batchCount >= BATCH_SIZE) {
+            commitBatch();
+        }
+    }
+
+    private void commitBatch() {
+        if (inTransaction) {
+            sqliteDatabase.setTransactionSuccessful();
+            sqliteDatabase.endTransaction();
+            inTransaction = false;
+        }
+    }
+
+    private long getElapsedMillis() {
+        return System.currentTimeMillis() - startMillis;
+    }
+
+    /**
+     * @return the number of imported gps logs.
+     */
+    public int getImportedLogs() {
+        return importedLogs;
+    }
+
+    /**
+     * @return the number of imported log points.
+     */
+    public long getImportedPoints() {
+        return importedPoints;
+    }
+
+    /**
+     * @return the number of imported waypoints.
+     */
+    public int getImportedWayPoints() {
+        return importedWayPoints;
+    }
+
+    /**
+     * @return the average number of points imported per second.
+     */
+    public long getPointsPerSecond() {
+        long elapsed = Math.max(1, getElapsedMillis());
+        return importedPoints * 1000 / elapsed;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.core.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import eu.geopaparazzi.core.GeopaparazziApplication;
+import eu.geopaparazzi.core.database.objects.NotesListItem;
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.database.NotesSearchUtilities;
+
+import static eu.geopaparazzi.library.database.TableDescriptions.ImageTableFields;
+import static eu.geopaparazzi.library.database.TableDescriptions.NotesSearchTableFields;
+import static eu.geopaparazzi.library.database.TableDescriptions.NotesTableFields;
+import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_IMAGES;
+import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_NOTES;
+import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_NOTES_SEARCH;
+
+/**
+ * The notes and standalone images of the notes list, read from the database by page.
+ * <p/>
+ * <p>Filter and sort are done by sqlite, so that only the rows shown are read. The distance
+ * sort key is the squared equirectangular distance from the given center: the longitude
+ * difference is scaled by the cosine of the center latitude, so that the order is the one of the
+ * distance on the ground for the distances of a notes list.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class NotesListSource {
+    /**
+     * Rows in database order, notes before images.
+     */
+    public static final int SORT_NONE = 0;
+    public static final int SORT_NAME = 1;
+    public static final int SORT_NAME_INVERSE = 2;
+    public static final int SORT_DISTANCE = 3;
+    public static final int SORT_DISTANCE_INVERSE = 4;
+
+    private static final String KIND = "kind";
+    private static final String ID = "id";
+    private static final String NAME = "name";
+    private static final String LON = "lon";
+    private static final String LAT = "lat";
+    private static final String HASFORM = "hasform";
+
+    private final String rowsQuery;
+    private final String countQuery;
+    private final String orderBy;
+    private final String[] args;
+    private final String[] orderArgs;
+
+    /**
+     * Constructor.
+     *
+     * @param searchText the optional text to search, as in {@link NotesSearchUtilities#toMatchQuery(String)}
+     *                   for notes and contained in the name for images.
+     * @param sortMode   one of the sort modes.
+     * @param centerLon  the longitude of the center for the distance sort.
+     * @param centerLat  the latitude of the center for the distance sort.
+     */
+    public NotesListSource(String searchText, int sortMode, double centerLon, double centerLat) {
+        String notesId = NotesTableFields.COLUMN_ID.getFieldName();
+        String notesForm = NotesTableFields.COLUMN_FORM.getFieldName();
+        String notesWhere = "";
+        String imagesWhere = ImageTableFields.COLUMN_NOTE_ID.getFieldName() + " < 0";
+        String matchQuery = NotesSearchUtilities.toMatchQuery(searchText);
+        if (searchText != null && searchText.length() > 0) {
+            if (matchQuery != null) {
+                notesWhere = " WHERE " + notesId + " IN (SELECT " + NotesSearchTableFields.COLUMN_DOCID.getFieldName() +
+                        " FROM " + TABLE_NOTES_SEARCH + " WHERE " + TABLE_NOTES_SEARCH + " MATCH ?)";
+            } else {
+                // nothing to search in the notes
+                notesWhere = " WHERE 0";
+            }
+            imagesWhere = imagesWhere + " AND " + ImageTableFields.COLUMN_TEXT.getFieldName() + " LIKE ? ESCAPE '\\'";
+            String escaped = searchText.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+            if (matchQuery != null) {
+                args = new String[]{matchQuery, "%" + escaped + "%"};
+            } else {
+                args = new String[]{"%" + escaped + "%"};
+            }
+        } else {
+            args = null;
+        }
+
+        rowsQuery = "SELECT 0 AS " + KIND +
+                ", " + notesId + " AS " + ID +
+                ", " + NotesTableFields.COLUMN_TEXT.getFieldName() + " AS " + NAME +
+                ", " + NotesTableFields.COLUMN_LON.getFieldName() + " AS " + LON +
+                ", " + NotesTableFields.COLUMN_LAT.getFieldName() + " AS " + LAT +
+                ", (" + notesForm + " IS NOT NULL AND " + notesForm + " <> '') AS " + HASFORM +
+                " FROM " + TABLE_NOTES + notesWhere +
+                " UNION ALL SELECT 1" +
+                ", " + ImageTableFields.COLUMN_ID.getFieldName() +
+                ", " + ImageTableFields.COLUMN_TEXT.getFieldName() +
+                ", " + ImageTableFields.COLUMN_LON.getFieldName() +
+                ", " + ImageTableFields.COLUMN_LAT.getFieldName() +
+                ", 0 FROM " + TABLE_IMAGES + " WHERE " + imagesWhere;
+        countQuery = "SELECT (SELECT count(*) FROM " + TABLE_NOTES + notesWhere + ") + (SELECT count(*) FROM " +
+                TABLE_IMAGES + " WHERE " + imagesWhere + ")";
+
+        // squared meridian convergence at the center, weighting the longitude difference
+        double cosLat = Math.cos(Math.toRadians(centerLat));
+        double lonWeight = cosLat * cosLat;
+        String distance = "(" + LON + " - ?) * (" + LON + " - ?) * ? + (" + LAT + " - ?) * (" + LAT + " - ?)";
+        String[] distanceArgs = {String.valueOf(centerLon), String.valueOf(centerLon), String.valueOf(lonWeight),
+                String.valueOf(centerLat), String.valueOf(centerLat)};
+        switch (sortMode) {
+            case SORT_NAME:
+                orderBy = NAME + ", " + KIND + ", " + ID;
+                break;
+            case SORT_NAME_INVERSE:
+                orderBy = NAME + " DESC, " + KIND + ", " + ID;
+                break;
+            case SORT_DISTANCE:
+                orderBy = distance + ", " + KIND + ", " + ID;
+                break;
+            case SORT_DISTANCE_INVERSE:
+                orderBy = distance + " DESC, " + KIND + ", " + ID;
+                break;
+            default:
+                orderBy = KIND + ", " + ID;
+                break;
+        }
+        boolean isDistanceSort = sortMode == SORT_DISTANCE || sortMode == SORT_DISTANCE_INVERSE;
+        orderArgs = isDistanceSort ? distanceArgs : new String[0];
+    }
+
+    /**
+     * @return the number of rows.
+     * @throws IOException if something goes wrong.
+     */
+    public int getCount() throws IOException {
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        try (Cursor c = sqliteDatabase.rawQuery(countQuery, args)) {
+            if (c.moveToFirst()) {
+                return c.getInt(0);
+            }
+            return 0;
+        } catch (Exception e) {
+            GPLog.error("NotesListSource", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Get a page of rows.
+     *
+     * @param offset the index of the first row.
+     * @param limit  the max number of rows.
+     * @return the rows.
+     * @throws IOException if something goes wrong.
+     */
+    public List<NotesListItem> getItems(int offset, int limit) throws IOException {
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        String query = "SELECT " + KIND + ", " + ID + ", " + NAME + ", " + LON + ", " + LAT + ", " + HASFORM +
+                " FROM (" + rowsQuery + ") ORDER BY " + orderBy + " LIMIT " + limit + " OFFSET " + offset;
+        // the order parameters follow the ones of the rows query
+        int argsCount = args != null ? args.length : 0;
+        String[] queryArgs = new String[argsCount + orderArgs.length];
+        if (args != null)
+            System.arraycopy(args, 0, queryArgs, 0, argsCount);
+        System.arraycopy(orderArgs, 0, queryArgs, argsCount, orderArgs.length);
+        List<NotesListItem> items = new ArrayList<>(limit);
+        try (Cursor c = sqliteDatabase.rawQuery(query, queryArgs.length > 0 ? queryArgs : null)) {
+            while (c.moveToNext()) {
+                boolean isImage = c.getInt(0) == 1;
+                long id = c.getLong(1);
+                String name = c.getString(2);
+                double lon = c.getDouble(3);
+                double lat = c.getDouble(4);
+                boolean hasForm = c.getInt(5) == 1;
+                items.add(new NotesListItem(isImage, id, name, lon, lat, hasForm));
+            }
+        } catch (Exception e) {
+            GPLog.error("NotesListSource", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        }
+        return items;
+    }
+
+    /**
+     * @return the keys of all the rows, as of {@link NotesListItem#getKey(boolean, long)}, in database order.
+     * @throws IOException if something goes wrong.
+     */
+    public long[] getAllKeys() throws IOException {
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        String query = "SELECT " + KIND + ", " + ID + " FROM (" + rowsQuery + ")";
+        try (Cursor c = sqliteDatabase.rawQuery(query, args)) {
+            long[] keys = new long[c.getCount()];
+            int index = 0;
+            while (c.moveToNext()) {
+                keys[index++] = NotesListItem.getKey(c.getInt(0) == 1, c.getLong(1));
+            }
+            return keys;
+        } catch (Exception e) {
+            GPLog.error("NotesListSource", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        }
+    }
+}
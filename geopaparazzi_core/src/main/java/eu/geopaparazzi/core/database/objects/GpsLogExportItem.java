@@ -0,0 +1,203 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.core.database.objects;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import eu.geopaparazzi.core.GeopaparazziApplication;
+import eu.geopaparazzi.library.database.GpsLogChunkUtilities;
+import eu.geopaparazzi.library.gpx.GpxRepresenter;
+import eu.geopaparazzi.library.gpx.GpxUtilities;
+import eu.geopaparazzi.library.kml.KmlRepresenter;
+import eu.geopaparazzi.library.style.ColorUtilities;
+import eu.geopaparazzi.library.util.TimeUtilities;
+import eu.geopaparazzi.library.util.Utilities;
+
+/**
+ * A gps log to export, which reads its points from the database while writing them.
+ * <p/>
+ * <p>Differently from {@link Line}, no point is kept in memory, the output is the same.
+ * If the points can't be read to the end, the open elements are closed anyway, so that
+ * the document stays valid, and the error is thrown after.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class GpsLogExportItem implements KmlRepresenter, GpxRepresenter {
+
+    private static final long serialVersionUID = 1L;
+    private final long logId;
+    private final String name;
+    private final String color;
+    private final float width;
+    private final double minLat;
+    private final double minLon;
+    private final double maxLat;
+    private final double maxLon;
+
+    /**
+     * Constructor.
+     *
+     * @param logId  the id of the log.
+     * @param name   the name of the log.
+     * @param color  the color of the log.
+     * @param width  the width of the log.
+     * @param minLon the min longitude of the log.
+     * @param minLat the min latitude of the log.
+     * @param maxLon the max longitude of the log.
+     * @param maxLat the max latitude of the log.
+     */
+    public GpsLogExportItem(long logId, String name, String color, float width, double minLon, double minLat, double maxLon,
+                            double maxLat) {
+        this.logId = logId;
+        this.name = name;
+        this.color = color;
+        this.width = width;
+        this.minLon = minLon;
+        this.minLat = minLat;
+        this.maxLon = maxLon;
+        this.maxLat = maxLat;
+    }
+
+    /**
+     * @return the id of the log.
+     */
+    public long getLogId() {
+        return logId;
+    }
+
+    public double getMinLat() {
+        return minLat;
+    }
+
+    public double getMinLon() {
+        return minLon;
+    }
+
+    public double getMaxLat() {
+        return maxLat;
+    }
+
+    public double getMaxLon() {
+        return maxLon;
+    }
+
+    public String toGpxString() throws Exception {
+        StringWriter writer = new StringWriter();
+        writeGpx(writer);
+        return writer.toString();
+    }
+
+    @Override
+    public void writeGpx(final Writer writer) throws Exception {
+        writer.write(GpxUtilities.GPX_TRACK_START + "\n");
+        writer.write(GpxUtilities.getTrackNameString(Utilities.makeXmlSafe(name)) + "\n");
+        writer.write(GpxUtilities.GPX_TRACKSEGMENT_START + "\n");
+        try {
+            writePoints((lon, lat, elev, timestamp) -> {
+                String dateString = TimeUtilities.INSTANCE.TIME_FORMATTER_GPX_UTC.format(new Date(timestamp));
+                writer.write(GpxUtilities.getTrackPointString(lat, lon, elev, dateString));
+            });
+        } finally {
+            writer.write(GpxUtilities.GPX_TRACKSEGMENT_END + "\n");
+            writer.write(GpxUtilities.GPX_TRACK_END + "\n");
+        }
+    }
+
+    public String toKmlString() throws Exception {
+        StringWriter writer = new StringWriter();
+        writeKml(writer);
+        return writer.toString();
+    }
+
+    @Override
+    public void writeKml(final Writer writer) throws Exception {
+        int parsedColor = ColorUtilities.toColor(color);
+        writer.write("<Placemark>\n");
+        writer.write("<name>" + Utilities.makeXmlSafe(name) + "</name>\n");
+        writer.write("<visibility>1</visibility>\n");
+        writer.write("<LineString>\n");
+        writer.write("<tessellate>1</tessellate>\n");
+        writer.write("<coordinates>\n");
+        try {
+            writePoints((lon, lat, elev, timestamp) -> writer.write(lon + "," + lat + ",1 \n"));
+        } finally {
+            writer.write("</coordinates>\n");
+            writer.write("</LineString>\n");
+            writer.write("<Style>\n");
+            writer.write("<LineStyle>\n");
+            writer.write("<color>#" + Integer.toHexString(parsedColor) + "</color>\n");
+            writer.write("<width>" + width + "</width>\n");
+            writer.write("</LineStyle>\n");
+            writer.write("</Style>\n");
+            writer.write("</Placemark>\n");
+        }
+    }
+
+    public boolean hasImages() {
+        return false;
+    }
+
+    public List<String> getImageIds() {
+        return Collections.emptyList();
+    }
+
+    private interface IPointWriter {
+        void write(double lon, double lat, double elev, long timestamp) throws IOException;
+    }
+
+    /**
+     * Pass the points of the log, packed or not, to a consumer.
+     *
+     * @param consumer the receiver of the points.
+     * @throws IOException if something goes wrong.
+     */
+    protected void streamPoints(GpsLogChunkUtilities.IPointConsumer consumer) throws IOException {
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        GpsLogChunkUtilities.streamLog(sqliteDatabase, logId, consumer);
+    }
+
+    /**
+     * Stream the points of the log to a point writer.
+     */
+    private void writePoints(final IPointWriter pointWriter) throws IOException {
+        // the consumer can't throw, the first error stops the writing and is thrown after
+        final IOException[] error = new IOException[1];
+        streamPoints((id, lon, lat, elev, timestamp) -> {
+            if (error[0] != null || (Math.abs(lat) < 0.0001 && Math.abs(lon) < 0.0001)) {
+                // as in Line, points in 0,0 are not exported
+                return;
+            }
+            try {
+                pointWriter.write(lon, lat, elev, timestamp);
+            } catch (IOException e) {
+                error[0] = e;
+            }
+        });
+        if (error[0] != null) {
+            throw error[0];
+        }
+    }
+}
@@ -17,20 +17,18 @@
  */
 package eu.geopaparazzi.core.database.objects;
 
-import android.location.Location;
-
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
+import eu.geopaparazzi.library.database.GpsLogPoints;
 import eu.geopaparazzi.library.gpx.GpxRepresenter;
 import eu.geopaparazzi.library.gpx.GpxUtilities;
 import eu.geopaparazzi.library.kml.KmlRepresenter;
 import eu.geopaparazzi.library.style.ColorUtilities;
-import eu.geopaparazzi.library.util.DynamicDoubleArray;
 import eu.geopaparazzi.library.util.TimeUtilities;
+import eu.geopaparazzi.library.util.TrackStatistics;
 import eu.geopaparazzi.library.util.Utilities;
 
 import static java.lang.Math.abs;
@@ -39,70 +37,146 @@ import static java.lang.Math.sqrt;
 
 /**
  * Represents a line (log or map).
+ * <p/>
+ * <p>The points are held by column in primitive arrays. Sub lines are views on the
+ * same arrays, and distances, speeds and elevation gain are computed once when first asked.</p>
  *
  * @author Andrea Antonello (www.hydrologis.com)
  */
 public class Line implements KmlRepresenter, GpxRepresenter, Serializable {
+    private static final long serialVersionUID = 1L;
 
     private String name;
-    private DynamicDoubleArray latList;
-    private DynamicDoubleArray lonList;
-    private DynamicDoubleArray altimList;
-    private List<String> dateList;
+    private final GpsLogPoints points;
+    private final int offset;
+    private int size;
+    private final boolean isView;
+
     private boolean boundsAreDirty = true;
     private double minLat = 0.0;
     private double minLon = 0.0;
     private double maxLat = 0.0;
     private double maxLon = 0.0;
 
+    private transient double[] progressiveDistances;
+    private transient double[] speeds;
+    private transient double elevationGain = Double.NaN;
+
     private float width = 1f;
     private String color = "#ff0000ff"; //$NON-NLS-1$
 
     /**
-     * @param name      line name.
-     * @param lonList   lon coords.
-     * @param latList   lat coords.
-     * @param altimList elevation list.
-     * @param dateList  date list.
+     * Empty line constructor.
+     *
+     * @param logid log id.
      */
-    public Line(String name, DynamicDoubleArray lonList, DynamicDoubleArray latList, DynamicDoubleArray altimList,
-                List<String> dateList) {
-        this.name = name;
-        this.lonList = lonList;
-        this.latList = latList;
-        this.altimList = altimList;
-        this.dateList = dateList;
+    public Line(String logid) {
+        this(logid, new GpsLogPoints(), 0, 0, false);
     }
 
     /**
-     * Empty line constructor.
+     * Empty line constructor with known number of points.
      *
-     * @param logid log id.
+     * @param logid    log id.
+     * @param capacity the expected number of points.
      */
-    public Line(String logid) {
-        this.name = logid;
-        this.lonList = new DynamicDoubleArray();
-        this.latList = new DynamicDoubleArray();
-        this.altimList = new DynamicDoubleArray();
-        this.dateList = new ArrayList<>();
+    public Line(String logid, int capacity) {
+        this(logid, new GpsLogPoints(capacity), 0, 0, false);
+    }
+
+    private Line(String name, GpsLogPoints points, int offset, int size, boolean isView) {
+        this.name = name;
+        this.points = points;
+        this.offset = offset;
+        this.size = size;
+        this.isView = isView;
     }
 
     /**
      * @param lon   lon
      * @param lat   lat
      * @param altim elevation.
-     * @param date  date.
+     * @param time  the UTC timestamp.
      */
-    public void addPoint(double lon, double lat, double altim, String date) {
-        if (lat < 0.0001 && lon < 0.0001) {
+    public void addPoint(double lon, double lat, double altim, long time) {
+        if (isView) {
+            throw new IllegalStateException("Points can't be added to a sub line."); //$NON-NLS-1$
+        }
+        if (Math.abs(lat) < 0.0001 && Math.abs(lon) < 0.0001) {
             // don't add points in 0,0
             return;
         }
         boundsAreDirty = true;
-        this.lonList.add(lon);
-        this.latList.add(lat);
-        this.altimList.add(altim);
-        this.dateList.add(date);
+        progressiveDistances = null;
+        speeds = null;
+        elevationGain = Double.NaN;
+        points.add(lon, lat, altim, time);
+        size++;
+    }
+
+    /**
+     * Make sure the line can hold a number of points without growing.
+     *
+     * @param capacity the number of points.
+     */
+    public void ensureCapacity(int capacity) {
+        if (!isView)
+            points.ensureCapacity(capacity);
+    }
+
+    /**
+     * Get a view on a part of the line, sharing its points.
+     *
+     * @param from the index of the first point, inclusive.
+     * @param to   the index of the last point, exclusive.
+     * @return the sub line.
+     */
+    public Line subLine(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Range " + from + "-" + to + " of " + size); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+        Line subLine = new Line(name, points, offset + from, to - from, true);
+        subLine.setStyle(width, color);
+        return subLine;
+    }
+
+    /**
+     * @return the number of points.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index the point index.
+     * @return the longitude of the point.
+     */
+    public double getLon(int index) {
+        return points.lons[offset + index];
+    }
+
+    /**
+     * @param index the point index.
+     * @return the latitude of the point.
+     */
+    public double getLat(int index) {
+        return points.lats[offset + index];
+    }
+
+    /**
+     * @param index the point index.
+     * @return the elevation of the point.
+     */
+    public double getAltim(int index) {
+        return points.elevs[offset + index];
+    }
+
+    /**
+     * @param index the point index.
+     * @return the UTC timestamp of the point.
+     */
+    public long getTime(int index) {
+        return points.timestamps[offset + index];
     }
 
     /**
@@ -135,54 +209,58 @@ public class Line implements KmlRepresenter, GpxRepresenter, Serializable {
     }
 
     /**
-     * @return lat list
-     */
-    public DynamicDoubleArray getLatList() {
-        return latList;
-    }
-
-    /**
-     * @return lon list
+     * Get the horizontal distance of every point from the start of the line.
+     *
+     * @return the progressive distances in meters.
      */
-    public DynamicDoubleArray getLonList() {
-        return lonList;
+    public double[] getProgressiveDistances() {
+        if (progressiveDistances == null) {
+            double[] distances = new double[size];
+            TrackStatistics.progressiveDistances(points.lons, points.lats, offset, size, distances);
+            progressiveDistances = distances;
+        }
+        return progressiveDistances;
     }
 
     /**
-     * @return elevations list.
+     * Get the speed at every point, calculated over the segment leading to it.
+     * <p/>
+     * <p>The first point and points with the same timestamp as the previous have speed 0.</p>
+     *
+     * @return the speeds in meters per second.
      */
-    public DynamicDoubleArray getAltimList() {
-        return altimList;
+    public double[] getSpeeds() {
+        if (speeds == null) {
+            double[] pointSpeeds = new double[size];
+            TrackStatistics.speeds(getProgressiveDistances(), points.timestamps, offset, size, pointSpeeds);
+            speeds = pointSpeeds;
+        }
+        return speeds;
     }
 
     /**
-     * @return dates list.
+     * @return the sum of the elevation increases along the line in meters.
      */
-    public List<String> getDateList() {
-        return dateList;
+    public double getElevationGain() {
+        if (Double.isNaN(elevationGain)) {
+            elevationGain = TrackStatistics.elevationGain(points.elevs, offset, size);
+        }
+        return elevationGain;
     }
 
     /**
-     * Calculates the length of a line.
+     * Calculates the length of a line, considering the elevation.
      *
      * @return the length of the line in meters.
      */
     public double getLength() {
-        final float[] dist = new float[3];
+        double[] distances = getProgressiveDistances();
+        double[] elevs = points.elevs;
         double length = 0;
-        for (int i = 0; i < latList.size() - 1; i++) {
-            double lat1 = latList.get(i);
-            double lon1 = lonList.get(i);
-            double altim1 = altimList.get(i);
-            double lat2 = latList.get(i + 1);
-            double lon2 = lonList.get(i + 1);
-            double altim2 = altimList.get(i + 1);
-            Location.distanceBetween(lat1, lon1, lat2, lon2, dist);
-
-            double deltaAltim = abs(altim2 - altim1);
-            double deltaLength = sqrt(pow(deltaAltim, 2.0) + pow(dist[0], 2.0));
-            length = length + deltaLength;
-
+        for (int i = 1; i < size; i++) {
+            double deltaAltim = abs(elevs[offset + i] - elevs[offset + i - 1]);
+            double deltaLength = distances[i] - distances[i - 1];
+            length = length + sqrt(pow(deltaAltim, 2.0) + pow(deltaLength, 2.0));
         }
         return length;
     }
@@ -197,9 +275,9 @@ public class Line implements KmlRepresenter, GpxRepresenter, Serializable {
         sB.append("<LineString>\n");
         sB.append("<tessellate>1</tessellate>\n");
         sB.append("<coordinates>\n");
-        for (int i = 0; i < lonList.size(); i++) {
-            double lon = lonList.get(i);
-            double lat = latList.get(i);
+        for (int i = 0; i < size; i++) {
+            double lon = getLon(i);
+            double lat = getLat(i);
             sB.append(lon).append(",").append(lat).append(",1 \n");
         }
         sB.append("</coordinates>\n");
@@ -228,19 +306,18 @@ public class Line implements KmlRepresenter, GpxRepresenter, Serializable {
 
     private void calculateBounds() {
         if (boundsAreDirty) {
-            double[] latArray = latList.getInternalArray();
-            int size = latList.size();
+            double[] latArray = points.lats;
             minLat = Double.POSITIVE_INFINITY;
             maxLat = Double.NEGATIVE_INFINITY;
-            for (int i = 0; i < size; i++) {
+            for (int i = offset; i < offset + size; i++) {
                 double d = latArray[i];
                 minLat = Math.min(d, minLat);
                 maxLat = Math.max(d, maxLat);
             }
-            double[] lonArray = lonList.getInternalArray();
+            double[] lonArray = points.lons;
             minLon = Double.POSITIVE_INFINITY;
             maxLon = Double.NEGATIVE_INFINITY;
-            for (int i = 0; i < size; i++) {
+            for (int i = offset; i < offset + size; i++) {
                 double d = lonArray[i];
                 minLon = Math.min(d, minLon);
                 maxLon = Math.max(d, maxLon);
@@ -277,16 +354,9 @@ public class Line implements KmlRepresenter, GpxRepresenter, Serializable {
         sb.append(GpxUtilities.GPX_TRACK_START).append("\n");
         sb.append(GpxUtilities.getTrackNameString(name)).append("\n");
         sb.append(GpxUtilities.GPX_TRACKSEGMENT_START).append("\n");
-        int size = latList.size();
-        double[] latArray = latList.getInternalArray();
-        double[] lonArray = lonList.getInternalArray();
-        double[] altimArray = altimList.getInternalArray();
         for (int i = 0; i < size; i++) {
-            String dateString = dateList.get(i);
-            long time = Long.parseLong(dateString);
-            // TODO change this sooner or later - needs ts to be hold differently in db
-            dateString = TimeUtilities.INSTANCE.TIME_FORMATTER_GPX_UTC.format(new Date(time));
-            String trackPointString = GpxUtilities.getTrackPointString(latArray[i], lonArray[i], altimArray[i], dateString);
+            String dateString = TimeUtilities.INSTANCE.TIME_FORMATTER_GPX_UTC.format(new Date(getTime(i)));
+            String trackPointString = GpxUtilities.getTrackPointString(getLat(i), getLon(i), getAltim(i), dateString);
             sb.append(trackPointString);
         }
         sb.append(GpxUtilities.GPX_TRACKSEGMENT_END).append("\n");
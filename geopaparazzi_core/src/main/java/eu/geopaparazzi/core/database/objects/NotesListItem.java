@@ -0,0 +1,96 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.core.database.objects;
+
+/**
+ * A row of the notes list, a note or a standalone image.
+ * <p/>
+ * <p>Only what the list shows is held, the full {@link Note} or
+ * {@link eu.geopaparazzi.library.database.Image} is read when needed.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class NotesListItem {
+    private final boolean isImage;
+    private final long id;
+    private final String name;
+    private final double lon;
+    private final double lat;
+    private final boolean hasForm;
+
+    /**
+     * Constructor.
+     *
+     * @param isImage <code>true</code> if the row is an image.
+     * @param id      the id of the note or image.
+     * @param name    the name.
+     * @param lon     the longitude.
+     * @param lat     the latitude.
+     * @param hasForm <code>true</code> if the note has a form.
+     */
+    public NotesListItem(boolean isImage, long id, String name, double lon, double lat, boolean hasForm) {
+        this.isImage = isImage;
+        this.id = id;
+        this.name = name != null ? name : ""; //$NON-NLS-1$
+        this.lon = lon;
+        this.lat = lat;
+        this.hasForm = hasForm;
+    }
+
+    /**
+     * Get a key unique among notes and images.
+     *
+     * @param isImage <code>true</code> for an image.
+     * @param id      the id of the note or image.
+     * @return the key.
+     */
+    public static long getKey(boolean isImage, long id) {
+        return isImage ? -id - 1 : id;
+    }
+
+    /**
+     * @return the key unique among notes and images.
+     */
+    public long getKey() {
+        return getKey(isImage, id);
+    }
+
+    public boolean isImage() {
+        return isImage;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getLon() {
+        return lon;
+    }
+
+    public double getLat() {
+        return lat;
+    }
+
+    public boolean hasForm() {
+        return hasForm;
+    }
+}
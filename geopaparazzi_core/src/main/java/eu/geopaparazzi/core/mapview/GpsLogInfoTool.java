@@ -39,6 +39,7 @@ import java.util.List;
 import eu.geopaparazzi.core.GeopaparazziApplication;
 import eu.geopaparazzi.core.R;
 import eu.geopaparazzi.core.database.DaoGpsLog;
+import eu.geopaparazzi.core.database.GpsLogInfoIndex;
 import eu.geopaparazzi.core.database.objects.GpsLogInfo;
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.util.TimeUtilities;
@@ -72,6 +73,9 @@ public class GpsLogInfoTool extends MapTool {
     private DecimalFormat elevFormatter = new DecimalFormat("0.0");
 
 
+    /**
+     * The points of the view when it is too large for the {@link GpsLogInfoIndex}, else null.
+     */
     private STRtree gpsLogInfoTree;
     private GpsLogInfo gpsLogInfo;
     private final int pixel;
@@ -111,7 +115,20 @@ public class GpsLogInfoTool extends MapTool {
         Coordinate llPoint = projection.fromPixels(screenW, screenS);
         Coordinate urPoint = projection.fromPixels(screenE, screenN);
         double exp = 0.001;
-        gpsLogInfoTree = DaoGpsLog.getGpsLogInfoTree(urPoint.y + exp, llPoint.y - exp, urPoint.x + exp, llPoint.x - exp);
+        double n = urPoint.y + exp;
+        double s = llPoint.y - exp;
+        double e = urPoint.x + exp;
+        double w = llPoint.x - exp;
+        if (GpsLogInfoIndex.INSTANCE.load(n, s, e, w)) {
+            gpsLogInfoTree = null;
+        } else {
+            List<GpsLogInfo> infos = DaoGpsLog.getGpsLogInfos(n, s, e, w);
+            gpsLogInfoTree = new STRtree(Math.max(2, infos.size()));
+            for (GpsLogInfo info : infos) {
+                gpsLogInfoTree.insert(new Envelope(info.pointXYZ), info);
+            }
+            gpsLogInfoTree.build();
+        }
     }
 
     public void activate() {
@@ -222,7 +239,12 @@ public class GpsLogInfoTool extends MapTool {
                 Envelope queryEnvelope = new Envelope(touchCoord);
                 queryEnvelope.expandBy(deltaX, deltaY);
 
-                List<GpsLogInfo> result = gpsLogInfoTree.query(queryEnvelope);
+                List<GpsLogInfo> result;
+                if (gpsLogInfoTree != null) {
+                    result = gpsLogInfoTree.query(queryEnvelope);
+                } else {
+                    result = GpsLogInfoIndex.INSTANCE.query(queryEnvelope);
+                }
                 if (result.size() == 0) {
                     return true;
                 } else {
@@ -58,7 +58,6 @@ import org.json.JSONException;
 
 import java.io.File;
 import java.text.DecimalFormat;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Objects;
@@ -96,6 +95,7 @@ import eu.geopaparazzi.map.GPMapPosition;
 import eu.geopaparazzi.map.GPMapView;
 import eu.geopaparazzi.map.MapsSupportService;
 import eu.geopaparazzi.map.features.Feature;
+import eu.geopaparazzi.map.features.FeatureStore;
 import eu.geopaparazzi.map.features.FeatureUtilities;
 import eu.geopaparazzi.map.features.editing.EditManager;
 import eu.geopaparazzi.map.features.editing.EditingView;
@@ -657,11 +657,11 @@ public class MapviewActivity extends AppCompatActivity implements IActivitySuppo
             }
             case (MapUtilities.SELECTED_FEATURES_UPDATED_RETURN_CODE):
                 if (resultCode == Activity.RESULT_OK) {
+                    String featuresToken = data.getStringExtra(FeatureUtilities.KEY_FEATURES_TOKEN);
+                    List<Feature> featuresList = FeatureStore.INSTANCE.remove(featuresToken);
                     ToolGroup activeToolGroup = EditManager.INSTANCE.getActiveToolGroup();
-                    if (activeToolGroup != null) {
+                    if (activeToolGroup != null && featuresList != null) {
                         if (activeToolGroup instanceof OnSelectionToolGroup) {
-                            Bundle extras = data.getExtras();
-                            ArrayList<Feature> featuresList = extras.getParcelableArrayList(FeatureUtilities.KEY_FEATURESLIST);
                             OnSelectionToolGroup selectionGroup = (OnSelectionToolGroup) activeToolGroup;
                             selectionGroup.setSelectedFeatures(featuresList);
                         }
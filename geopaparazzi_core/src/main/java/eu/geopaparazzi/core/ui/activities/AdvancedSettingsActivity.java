@@ -30,7 +30,6 @@ import android.widget.CompoundButton;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 
-import eu.geopaparazzi.core.GeopaparazziApplication;
 import eu.geopaparazzi.core.R;
 import eu.geopaparazzi.library.core.activities.LogAnalysisActivity;
 import eu.geopaparazzi.library.database.GPLog;
@@ -177,7 +176,7 @@ public class AdvancedSettingsActivity extends AppCompatActivity implements Check
      */
     public void clearLog(View view) {
         try {
-            SQLiteDatabase database = GeopaparazziApplication.getInstance().getDatabase();
+            SQLiteDatabase database = GPLog.getLogDatabase();
             GPLog.clearLogTable(database);
             GPDialogs.infoDialog(this, getString(R.string.log_cleared), null);
         } catch (Exception e) {
@@ -65,9 +65,9 @@ import eu.geopaparazzi.core.database.objects.SerializableLogs;
 import eu.geopaparazzi.core.utilities.Constants;
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.style.ColorUtilities;
-import eu.geopaparazzi.library.util.DynamicDoubleArray;
 import eu.geopaparazzi.library.util.GPDialogs;
 import eu.geopaparazzi.library.util.LibraryConstants;
+import eu.geopaparazzi.library.util.StringAsyncTask;
 import eu.geopaparazzi.library.util.Utilities;
 import eu.geopaparazzi.map.MapsSupportService;
 
@@ -152,17 +152,13 @@ public class GpsDataListActivity extends AppCompatActivity implements
                 SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
                 sqliteDatabase.beginTransaction();
                 try {
-                    List<String> dateList = logData.getDateList();
-                    DynamicDoubleArray lonList = logData.getLonList();
-                    DynamicDoubleArray latList = logData.getLatList();
-                    DynamicDoubleArray altimList = logData.getAltimList();
-                    int size = dateList.size();
+                    int size = logData.size();
                     for (int j = 0; j < size; j++) {
-                        double lon = lonList.get(j);
-                        double lat = latList.get(j);
+                        double lon = logData.getLon(j);
+                        double lat = logData.getLat(j);
 
-                        double altim = altimList.get(j);
-                        long time = Long.parseLong(dateList.get(j));
+                        double altim = logData.getAltim(j);
+                        long time = logData.getTime(j);
                         daoGpsLog.addGpsLogDataPoint(sqliteDatabase, logId, lon, lat, altim, time);
                     }
                     sqliteDatabase.setTransactionSuccessful();
@@ -372,10 +368,38 @@ public class GpsDataListActivity extends AppCompatActivity implements
             } catch (Exception e) {
                 GPLog.error(this, e.getLocalizedMessage(), e);
             }
+        } else if (item.getItemId() == R.id.action_compact) {
+            compactLogs();
         }
         return super.onOptionsItemSelected(item);
     }
 
+    private void compactLogs() {
+        GPDialogs.yesNoMessageDialog(this, getString(R.string.logs_will_be_compacted), () -> runOnUiThread(() -> {
+            StringAsyncTask task = new StringAsyncTask(GpsDataListActivity.this) {
+                @Override
+                protected String doBackgroundWork() {
+                    try {
+                        long packedPoints = DaoGpsLog.packAllLogs();
+                        return packedPoints + getString(R.string.logs_compacted);
+                    } catch (IOException e) {
+                        GPLog.error(GpsDataListActivity.this, null, e); //$NON-NLS-1$
+                        return "ERROR: " + e.getLocalizedMessage();//NON-NLS
+                    }
+                }
+
+                @Override
+                protected void doUiPostWork(String response) {
+                    dispose();
+                    GPDialogs.infoDialog(GpsDataListActivity.this, response, null);
+                    refreshList(true);
+                }
+            };
+            task.setProgressDialog(null, getString(R.string.compact_logs_storage), false, null);
+            task.execute();
+        }), null);
+    }
+
     private void mergeSelected() throws IOException {
         final List<LogMapItem> selected = new ArrayList<>();
         for (LogMapItem mapItem : gpslogItems) {
@@ -24,9 +24,11 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.preference.PreferenceManager;
 import android.text.Editable;
 import android.text.TextWatcher;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -34,7 +36,7 @@ import android.view.SubMenu;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.WindowManager;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
 import android.widget.EditText;
@@ -50,16 +52,17 @@ import androidx.appcompat.widget.Toolbar;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import eu.geopaparazzi.core.GeopaparazziApplication;
 import eu.geopaparazzi.core.R;
 import eu.geopaparazzi.core.database.DaoImages;
 import eu.geopaparazzi.core.database.DaoNotes;
-import eu.geopaparazzi.core.database.objects.ItemComparators;
+import eu.geopaparazzi.core.database.NotesListSource;
 import eu.geopaparazzi.core.database.objects.Note;
+import eu.geopaparazzi.core.database.objects.NotesListItem;
 import eu.geopaparazzi.library.core.ResourcesManager;
 import eu.geopaparazzi.library.database.ANote;
 import eu.geopaparazzi.library.database.DefaultHelperClasses;
@@ -87,12 +90,22 @@ import eu.geopaparazzi.map.layers.systemlayers.NotesLayer;
  */
 public class NotesListActivity extends AppCompatActivity {
     public static final String CURRENT_NOTES_COMPARATOR_INDEX = "CURRENT_NOTES_COMPARATOR_INDEX";//NON-NLS
+    /**
+     * Time to wait after the last key typed before searching.
+     */
+    private static final long SEARCH_DELAY = 300;
+    private static final int PAGE_SIZE = 100;
+    /**
+     * Number of rows beyond the shown ones for which the page is loaded in advance.
+     */
+    private static final int PREFETCH = 20;
+    /**
+     * Max number of pages kept in memory, the farthest from the shown ones are dropped.
+     */
+    private static final int MAX_CACHED_PAGES = 5;
     private String SHARE_NOTE_WITH = "";
-    private List<ANote> allNotesList = new ArrayList<>();
-    private List<ANote> visibleNotesList = new ArrayList<>();
-//    private Comparator<ANote> notesSorter = new ItemComparators.NotesComparator(false);
 
-    private ArrayAdapter<ANote> arrayAdapter;
+    private BaseAdapter listAdapter;
     private EditText filterText;
 
     private String share;
@@ -107,12 +120,35 @@ public class NotesListActivity extends AppCompatActivity {
     private ListView listView;
 
     private String[] checkItems;
-    private Comparator<ANote>[] comparators;
     private int currentComparatorIndex = 0;
+    private double centerLon;
+    private double centerLat;
     private SharedPreferences mPreferences;
     private StringAsyncTask deletionTask;
     private boolean showZoomTo;
 
+    private NotesListSource listSource;
+    private int itemsCount = 0;
+    private final SparseArray<List<NotesListItem>> pages = new SparseArray<>();
+    private final Set<Integer> loadingPages = new HashSet<>();
+    /**
+     * Incremented at every reload, to drop the pages of previous loads.
+     */
+    private int listGeneration = 0;
+    /**
+     * The rows are checked by default, the keys of the rows that differ from the default are kept.
+     */
+    private boolean checkedByDefault = true;
+    private final Set<Long> toggledKeys = new HashSet<>();
+
+    private final Handler searchHandler = new Handler();
+    private String currentSearch;
+    private final Runnable searchRunnable = new Runnable() {
+        public void run() {
+            reloadList(true);
+        }
+    };
+
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
 
@@ -132,11 +168,12 @@ public class NotesListActivity extends AppCompatActivity {
 
         mPreferences = PreferenceManager.getDefaultSharedPreferences(this);
         double[] mapCenterFromPreferences = PositionUtilities.getMapCenterFromPreferences(mPreferences, true, true);
-        double lon = mapCenterFromPreferences[0];
-        double lat = mapCenterFromPreferences[1];
+        centerLon = mapCenterFromPreferences[0];
+        centerLat = mapCenterFromPreferences[1];
 
         currentComparatorIndex = mPreferences.getInt(CURRENT_NOTES_COMPARATOR_INDEX, 0);
 
+        // in the order of the NotesListSource sort modes
         checkItems = new String[]{//
                 getString(R.string.sortby_none),//
                 getString(R.string.sortby_name),//
@@ -144,15 +181,10 @@ public class NotesListActivity extends AppCompatActivity {
                 getString(R.string.sortby_mapcenterdist), //
                 getString(R.string.sortby_mapcenterdist_inverse)//
         };
-        comparators = new Comparator[]{//
-                null, //
-                new ItemComparators.NotesComparator(),//
-                new ItemComparators.NotesComparator(true),//
-                new ItemComparators.NotesDistanceFromPointComparator(lon, lat),//
-                new ItemComparators.NotesDistanceFromPointComparator(lon, lat, true),//
-        };
 
         listView = findViewById(R.id.notesList);
+        listAdapter = new NotesAdapter();
+        listView.setAdapter(listAdapter);
 
         SHARE_NOTE_WITH = getString(eu.geopaparazzi.library.R.string.share_note_with);
         share = getString(R.string.share);
@@ -175,15 +207,19 @@ public class NotesListActivity extends AppCompatActivity {
         super.onResume();
 
         String filterStr = filterText.getText().toString();
-        if (filterStr.length() > 0) {
-            filterList(filterStr);
+        if (filterStr.trim().length() > 0) {
+            currentSearch = filterStr;
         } else {
-            refreshList();
+            currentSearch = null;
         }
+        reloadList(false);
     }
 
     protected void onDestroy() {
         if (deletionTask != null) deletionTask.dispose();
+        searchHandler.removeCallbacks(searchRunnable);
+        // drop the pages still loading
+        listGeneration++;
         filterText.removeTextChangedListener(filterTextWatcher);
         super.onDestroy();
     }
@@ -216,7 +252,7 @@ public class NotesListActivity extends AppCompatActivity {
                 @Override
                 public void onCancel(DialogInterface dialogInterface) {
                     try {
-                        refreshList();
+                        reloadList(true);
                     } catch (Exception e) {
                         GPLog.error(this, null, e);
                     }
@@ -231,140 +267,242 @@ public class NotesListActivity extends AppCompatActivity {
         return super.onOptionsItemSelected(item);
     }
 
-    private void refreshList() {
+    /**
+     * Reload the list from the database, with the current search and sort.
+     * <p/>
+     * <p>The count and the first page are read in background, the other pages
+     * as the list is scrolled.</p>
+     *
+     * @param toTop if <code>true</code>, the list is scrolled to the top, else the position is kept.
+     */
+    private void reloadList(boolean toTop) {
         if (GPLog.LOG_HEAVY)
-            GPLog.addLogEntry(this, "refreshing notes list"); //$NON-NLS-1$
-        try {
-            visibleNotesList.clear();
-            collectAllNotes();
-            visibleNotesList.addAll(allNotesList);
-            if (comparators[currentComparatorIndex] != null) {
-                Collections.sort(visibleNotesList, comparators[currentComparatorIndex]);
+            GPLog.addLogEntry(this, "reloading notes list"); //$NON-NLS-1$
+        final int generation = ++listGeneration;
+        pages.clear();
+        loadingPages.clear();
+        // as the previous list, the rows are all checked after a reload
+        checkedByDefault = true;
+        toggledKeys.clear();
+
+        final NotesListSource source = new NotesListSource(currentSearch, currentComparatorIndex, centerLon, centerLat);
+        listSource = source;
+        final int firstPage = toTop ? 0 : listView.getFirstVisiblePosition() / PAGE_SIZE;
+        loadingPages.add(firstPage);
+        new AsyncTask<Void, Void, List<NotesListItem>>() {
+            private int count = 0;
+
+            protected List<NotesListItem> doInBackground(Void... params) {
+                try {
+                    count = source.getCount();
+                    return source.getItems(firstPage * PAGE_SIZE, PAGE_SIZE);
+                } catch (IOException e) {
+                    GPLog.error(NotesListActivity.this, e.getLocalizedMessage(), e);
+                    return new ArrayList<>();
+                }
             }
-        } catch (IOException e) {
-            GPLog.error(this, e.getLocalizedMessage(), e);
-            e.printStackTrace();
-        }
-
-        redoAdapter();
-    }
 
-    private void collectAllNotes() throws IOException {
-        allNotesList.clear();
-        List<Note> tmpNotesList = DaoNotes.getNotesList(null, false);
-        allNotesList.addAll(tmpNotesList);
-        List<Image> imagesList = DaoImages.getImagesList(false, true);
-        allNotesList.addAll(imagesList);
+            protected void onPostExecute(List<NotesListItem> items) { // on UI thread!
+                if (generation != listGeneration) {
+                    // a newer reload replaced this one
+                    return;
+                }
+                loadingPages.remove(firstPage);
+                itemsCount = count;
+                pages.put(firstPage, items);
+                listAdapter.notifyDataSetChanged();
+                if (toTop)
+                    listView.setSelection(0);
+            }
+        }.execute();
     }
 
-    private void filterList(String filterText) {
-        if (GPLog.LOG_HEAVY)
-            GPLog.addLogEntry(this, "filter notes list"); //$NON-NLS-1$
-        try {
-            collectAllNotes();
-            visibleNotesList.clear();
-            filterText = filterText.toLowerCase();
-            for (ANote note : allNotesList) {
-                String name = note.getName();
-                String nameLower = name.toLowerCase();
-                if (nameLower.contains(filterText)) {
-                    visibleNotesList.add(note);
+    /**
+     * Load a page in background, if it is not already there.
+     *
+     * @param pageIndex the index of the page.
+     */
+    private void loadPage(final int pageIndex) {
+        if (pageIndex < 0 || pageIndex * PAGE_SIZE >= itemsCount)
+            return;
+        if (pages.get(pageIndex) != null || loadingPages.contains(pageIndex))
+            return;
+        loadingPages.add(pageIndex);
+        final int generation = listGeneration;
+        final NotesListSource source = listSource;
+        new AsyncTask<Void, Void, List<NotesListItem>>() {
+            protected List<NotesListItem> doInBackground(Void... params) {
+                try {
+                    return source.getItems(pageIndex * PAGE_SIZE, PAGE_SIZE);
+                } catch (IOException e) {
+                    GPLog.error(NotesListActivity.this, e.getLocalizedMessage(), e);
+                    return new ArrayList<>();
                 }
             }
-        } catch (IOException e) {
-            GPLog.error(this, e.getLocalizedMessage(), e);
-            e.printStackTrace();
-        }
 
-        redoAdapter();
+            protected void onPostExecute(List<NotesListItem> items) { // on UI thread!
+                if (generation != listGeneration) {
+                    return;
+                }
+                loadingPages.remove(pageIndex);
+                pages.put(pageIndex, items);
+                while (pages.size() > MAX_CACHED_PAGES) {
+                    // drop the page farthest from the one loaded
+                    int farthest = 0;
+                    for (int i = 1; i < pages.size(); i++) {
+                        if (Math.abs(pages.keyAt(i) - pageIndex) > Math.abs(pages.keyAt(farthest) - pageIndex)) {
+                            farthest = i;
+                        }
+                    }
+                    pages.removeAt(farthest);
+                }
+                listAdapter.notifyDataSetChanged();
+            }
+        }.execute();
     }
 
-    private void redoAdapter() {
+    /**
+     * Get a row, requesting its page and the neighbouring ones within the prefetch distance.
+     *
+     * @param position the row position.
+     * @return the row or <code>null</code>, if it is still loading.
+     */
+    private NotesListItem getListItem(int position) {
+        loadPage(position / PAGE_SIZE);
+        loadPage((position + PREFETCH) / PAGE_SIZE);
+        if (position >= PREFETCH)
+            loadPage((position - PREFETCH) / PAGE_SIZE);
+        List<NotesListItem> page = pages.get(position / PAGE_SIZE);
+        if (page == null)
+            return null;
+        int index = position % PAGE_SIZE;
+        if (index >= page.size())
+            return null;
+        return page.get(index);
+    }
 
+    private boolean isChecked(NotesListItem item) {
+        return checkedByDefault != toggledKeys.contains(item.getKey());
+    }
 
-        arrayAdapter = new ArrayAdapter<ANote>(this, R.layout.activity_noteslist_row, visibleNotesList) {
-            class ViewHolder {
-                CheckBox checkButton;
-                TextView notesText;
-                ImageButton goButton;
-                ImageButton moreButton;
-            }
+    private void setChecked(NotesListItem item, boolean isChecked) {
+        if (isChecked == checkedByDefault) {
+            toggledKeys.remove(item.getKey());
+        } else {
+            toggledKeys.add(item.getKey());
+        }
+    }
 
-            @Override
-            public View getView(int position, View rowView, ViewGroup parent) {
-
-                ViewHolder holder;
-                // Recycle existing view if passed as parameter
-                if (rowView == null) {
-                    LayoutInflater inflater = getLayoutInflater();
-                    rowView = inflater.inflate(R.layout.activity_noteslist_row, parent, false);
-                    holder = new ViewHolder();
-                    holder.checkButton = rowView.findViewById(R.id.selectedCheckBox);
-                    holder.notesText = rowView.findViewById(R.id.notesrowtext);
-                    holder.goButton = rowView.findViewById(R.id.gobutton);
-                    if (!showZoomTo)
-                        holder.goButton.setVisibility(View.GONE);
-                    holder.moreButton = rowView.findViewById(R.id.morebutton);
-
-                    rowView.setTag(holder);
-                } else {
-                    holder = (ViewHolder) rowView.getTag();
-                }
+    /**
+     * Read the full note or image of a row.
+     *
+     * @param item the row.
+     * @return the note or image or <code>null</code>, if it has been removed.
+     * @throws IOException if something goes wrong.
+     */
+    private ANote readNote(NotesListItem item) throws IOException {
+        if (item.isImage()) {
+            return new DaoImages().getImage(item.getId());
+        } else {
+            return new DaoNotes().getNoteById(item.getId());
+        }
+    }
 
-                final ANote currentNote = visibleNotesList.get(position);
+    private class NotesAdapter extends BaseAdapter {
+        class ViewHolder {
+            CheckBox checkButton;
+            TextView notesText;
+            ImageButton goButton;
+            ImageButton moreButton;
+        }
 
-                final CheckBox checkBox = holder.checkButton;
-                checkBox.setChecked(currentNote.isChecked());
-                checkBox.setOnCheckedChangeListener(new CheckBox.OnCheckedChangeListener() {
-                    public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-                        checkBox.setChecked(isChecked);
-                        currentNote.setChecked(isChecked);
-                    }
-                });
+        @Override
+        public int getCount() {
+            return itemsCount;
+        }
 
+        @Override
+        public Object getItem(int position) {
+            return getListItem(position);
+        }
 
-                holder.notesText.setText(currentNote.getName());
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
 
-                holder.goButton.setOnClickListener(new View.OnClickListener() {
-                    public void onClick(View v) {
-                        Intent intent = new Intent(getContext(), MapsSupportService.class);
-                        intent.putExtra(MapsSupportService.CENTER_ON_POSITION_REQUEST, true);
-                        intent.putExtra(LibraryConstants.LONGITUDE, currentNote.getLon());
-                        intent.putExtra(LibraryConstants.LATITUDE, currentNote.getLat());
-                        intent.putExtra(LibraryConstants.ZOOMLEVEL, 16);
-                        getContext().startService(intent);
-                        finish();
-                    }
-                });
+        @Override
+        public View getView(int position, View rowView, ViewGroup parent) {
+
+            ViewHolder holder;
+            // Recycle existing view if passed as parameter
+            if (rowView == null) {
+                LayoutInflater inflater = getLayoutInflater();
+                rowView = inflater.inflate(R.layout.activity_noteslist_row, parent, false);
+                holder = new ViewHolder();
+                holder.checkButton = rowView.findViewById(R.id.selectedCheckBox);
+                holder.notesText = rowView.findViewById(R.id.notesrowtext);
+                holder.goButton = rowView.findViewById(R.id.gobutton);
+                if (!showZoomTo)
+                    holder.goButton.setVisibility(View.GONE);
+                holder.moreButton = rowView.findViewById(R.id.morebutton);
+
+                rowView.setTag(holder);
+            } else {
+                holder = (ViewHolder) rowView.getTag();
+            }
 
-                final ImageButton moreButton2 = holder.moreButton;
-                moreButton2.setOnClickListener(new View.OnClickListener() {
-                    public void onClick(View v) {
-                        openMoreMenu(moreButton2, currentNote);
-                    }
-                });
+            final CheckBox checkBox = holder.checkButton;
+            checkBox.setOnCheckedChangeListener(null);
 
+            final NotesListItem currentItem = getListItem(position);
+            if (currentItem == null) {
+                // still loading
+                checkBox.setChecked(false);
+                holder.notesText.setText("");
+                holder.goButton.setOnClickListener(null);
+                holder.moreButton.setOnClickListener(null);
                 return rowView;
             }
 
-        };
+            checkBox.setChecked(isChecked(currentItem));
+            checkBox.setOnCheckedChangeListener(new CheckBox.OnCheckedChangeListener() {
+                public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                    setChecked(currentItem, isChecked);
+                }
+            });
+            holder.notesText.setText(currentItem.getName());
+
+            holder.goButton.setOnClickListener(new View.OnClickListener() {
+                public void onClick(View v) {
+                    Intent intent = new Intent(NotesListActivity.this, MapsSupportService.class);
+                    intent.putExtra(MapsSupportService.CENTER_ON_POSITION_REQUEST, true);
+                    intent.putExtra(LibraryConstants.LONGITUDE, currentItem.getLon());
+                    intent.putExtra(LibraryConstants.LATITUDE, currentItem.getLat());
+                    intent.putExtra(LibraryConstants.ZOOMLEVEL, 16);
+                    startService(intent);
+                    finish();
+                }
+            });
+
+            final ImageButton moreButton2 = holder.moreButton;
+            moreButton2.setOnClickListener(new View.OnClickListener() {
+                public void onClick(View v) {
+                    openMoreMenu(moreButton2, currentItem);
+                }
+            });
 
-        listView.setAdapter(arrayAdapter);
+            return rowView;
+        }
     }
 
-    private void openMoreMenu(ImageButton button, final ANote currentNote) {
+    private void openMoreMenu(ImageButton button, final NotesListItem currentItem) {
         String editLabel = null;
-        if (currentNote instanceof Note) {
-            Note note = (Note) currentNote;
-            if (note.getForm() == null || note.getForm().length() == 0) {
-                // simple note
-                editLabel = null;
-            } else {
-                editLabel = edit;
-            }
-        } else if (currentNote instanceof Image) {
+        if (currentItem.isImage()) {
             // image
             editLabel = view;
+        } else if (currentItem.hasForm()) {
+            editLabel = edit;
         }
 
         PopupMenu popup = new PopupMenu(this, button);
@@ -380,25 +518,37 @@ public class NotesListActivity extends AppCompatActivity {
         popup.setOnMenuItemClickListener(new PopupMenu.OnMenuItemClickListener() {
             public boolean onMenuItemClick(MenuItem item) {
                 String actionName = item.getTitle().toString();
-                if (actionName.equals(share)) {
-                    shareNote(currentNote);
-                } else if (actionName.equals(edit) || actionName.equals(view)) {
-                    editNote(currentNote);
-                } else if (actionName.equals(delete)) {
-                    deleteNote(currentNote);
+                if (actionName.equals(share) || actionName.equals(edit) || actionName.equals(view) || actionName.equals(delete)) {
+                    ANote currentNote;
+                    try {
+                        currentNote = readNote(currentItem);
+                    } catch (IOException e) {
+                        GPLog.error(NotesListActivity.this, null, e);
+                        return true;
+                    }
+                    if (currentNote == null) {
+                        // removed in the meanwhile
+                        reloadList(false);
+                        return true;
+                    }
+                    if (actionName.equals(share)) {
+                        shareNote(currentNote);
+                    } else if (actionName.equals(delete)) {
+                        deleteNote(currentNote);
+                    } else {
+                        editNote(currentNote);
+                    }
                 } else if (actionName.equals(asSelection)) {
-                    String name = currentNote.getName();
+                    String name = currentItem.getName();
                     filterText.setText(name);
                 } else if (actionName.equals(selectAll)) {
-                    for (ANote aNote : visibleNotesList) {
-                        aNote.setChecked(true);
-                    }
-                    arrayAdapter.notifyDataSetChanged();
+                    checkedByDefault = true;
+                    toggledKeys.clear();
+                    listAdapter.notifyDataSetChanged();
                 } else if (actionName.equals(invertSelection)) {
-                    for (ANote aNote : visibleNotesList) {
-                        aNote.setChecked(!aNote.isChecked());
-                    }
-                    arrayAdapter.notifyDataSetChanged();
+                    // the toggled rows stay the ones that differ from the default
+                    checkedByDefault = !checkedByDefault;
+                    listAdapter.notifyDataSetChanged();
                 } else if (actionName.equals(deleteSelected)) {
                     deleteSelectedNotes();
                 }
@@ -537,7 +687,7 @@ public class NotesListActivity extends AppCompatActivity {
                                     } else if (currentNote instanceof Image) {
                                         DaoImages.deleteImages(currentNote.getId());
                                     }
-                                    refreshList();
+                                    reloadList(false);
                                 } catch (IOException e) {
                                     GPLog.error(this, e.getLocalizedMessage(), e);
                                     e.printStackTrace();
@@ -560,23 +710,24 @@ public class NotesListActivity extends AppCompatActivity {
                         runOnUiThread(new Runnable() {
                             @Override
                             public void run() {
-                                int total = 0;
-                                for (ANote aNote : visibleNotesList) {
-                                    if (aNote.isChecked()) {
-                                        total++;
-                                    }
-                                }
+                                final NotesListSource source = listSource;
+                                final boolean checkedDefault = checkedByDefault;
+                                final Set<Long> toggled = new HashSet<>(toggledKeys);
+                                int total = checkedDefault ? itemsCount - toggled.size() : toggled.size();
 
                                 deletionTask = new StringAsyncTask(NotesListActivity.this) {
                                     protected String doBackgroundWork() {
                                         try {
                                             int index = 0;
-                                            for (ANote aNote : visibleNotesList) {
-                                                if (aNote.isChecked()) {
-                                                    if (aNote instanceof Note) {
-                                                        DaoNotes.deleteComplexNote((Note) aNote);
-                                                    } else if (aNote instanceof Image) {
-                                                        DaoImages.deleteImages(aNote.getId());
+                                            DaoNotes daoNotes = new DaoNotes();
+                                            for (long key : source.getAllKeys()) {
+                                                if (checkedDefault != toggled.contains(key)) {
+                                                    if (key >= 0) {
+                                                        ANote note = daoNotes.getNoteById(key);
+                                                        if (note != null)
+                                                            DaoNotes.deleteComplexNote((Note) note);
+                                                    } else {
+                                                        DaoImages.deleteImages(-key - 1);
                                                     }
                                                     publishProgress(index);
                                                     index++;
@@ -593,7 +744,7 @@ public class NotesListActivity extends AppCompatActivity {
                                         if (response.length() != 0) {
                                             GPDialogs.warningDialog(NotesListActivity.this, response, null);
                                         } else {
-                                            refreshList();
+                                            reloadList(false);
                                         }
                                     }
                                 };
@@ -618,8 +769,18 @@ public class NotesListActivity extends AppCompatActivity {
         }
 
         public void onTextChanged(CharSequence s, int start, int before, int count) {
-            // arrayAdapter.getFilter().filter(s);
-            filterList(s.toString());
+            // search only when the user stops typing
+            searchHandler.removeCallbacks(searchRunnable);
+            String filter = s.toString();
+            if (filter.trim().length() == 0) {
+                if (currentSearch != null) {
+                    currentSearch = null;
+                    reloadList(true);
+                }
+            } else {
+                currentSearch = filter;
+                searchHandler.postDelayed(searchRunnable, SEARCH_DELAY);
+            }
         }
     };
 
@@ -23,7 +23,6 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Paint.Align;
 import android.graphics.PointF;
-import android.location.Location;
 import android.os.Build;
 import android.os.Bundle;
 import android.view.MotionEvent;
@@ -39,29 +38,23 @@ import com.androidplot.ui.YLayoutStyle;
 import com.androidplot.util.PixelUtils;
 import com.androidplot.xy.BoundaryMode;
 import com.androidplot.xy.LineAndPointFormatter;
-import com.androidplot.xy.SimpleXYSeries;
 import com.androidplot.xy.XYGraphWidget;
 import com.androidplot.xy.XYLegendWidget;
 import com.androidplot.xy.XYPlot;
 import com.androidplot.xy.XYSeries;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
-import org.locationtech.jts.geom.Coordinate;
-
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
 import eu.geopaparazzi.core.R;
 import eu.geopaparazzi.core.database.DaoGpsLog;
 import eu.geopaparazzi.core.database.objects.Line;
 import eu.geopaparazzi.core.utilities.Constants;
-import eu.geopaparazzi.core.utilities.FeatureSlidingAverage;
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.util.Compat;
-import eu.geopaparazzi.library.util.DynamicDoubleArray;
 import eu.geopaparazzi.library.util.GPDialogs;
 import eu.geopaparazzi.library.util.StringAsyncTask;
+import eu.geopaparazzi.library.util.TrackStatistics;
 
 /**
  * The profile chart activity.
@@ -375,84 +368,63 @@ public class ProfileChartActivity extends Activity implements View.OnTouchListen
      * Create a dataset based on supplied data that are supposed to be coordinates and elevations for a profile view.
      */
     public void createDatasetFromProfile() throws Exception {
-        DynamicDoubleArray lonArray = line.getLonList();
-        DynamicDoubleArray latArray = line.getLatList();
-        DynamicDoubleArray elevArray = line.getAltimList();
-        List<String> dates = line.getDateList();
-
-        double previousLat = 0;
-        double previousLon = 0;
-        double summedDistance = 0.0;
-        long previousTime = 0;
-
-        List<Coordinate> elevList = new ArrayList<>(lonArray.size());
-        List<Coordinate> speedList = new ArrayList<>(lonArray.size());
-
-        for (int i = 0; i < lonArray.size(); i++) {
-            double elev = elevArray.get(i);
-            double lat = latArray.get(i);
-            double lon = lonArray.get(i);
-            String dateStr = dates.get(i);
-            long time = Long.parseLong(dateStr);
-
-            double distance = 0.0;
-            double speedKmH = 0.0;
-            if (i > 0) {
-                Location thisLoc = new Location("dummy1"); //$NON-NLS-1$
-                thisLoc.setLongitude(lon);
-                thisLoc.setLatitude(lat);
-                Location thatLoc = new Location("dummy2"); //$NON-NLS-1$
-                thatLoc.setLongitude(previousLon);
-                thatLoc.setLatitude(previousLat);
-                distance = thisLoc.distanceTo(thatLoc);
-
-                double timeSeconds = (time - previousTime) / 1000.0;
-                speedKmH = 3.6 * distance / timeSeconds;
-            }
+        int size = line.size();
+        double[] distances = line.getProgressiveDistances();
+        double[] speeds = line.getSpeeds();
 
-            previousLat = lat;
-            previousLon = lon;
-            previousTime = time;
+        double[] elevs = new double[size];
+        double[] speedsKmH = new double[size];
+        for (int i = 0; i < size; i++) {
+            elevs[i] = line.getAltim(i);
+            speedsKmH[i] = 3.6 * speeds[i];
+        }
 
-            summedDistance = summedDistance + distance;
+        int lookAhead = 20;
+        double[] smoothedElev = new double[size];
+        TrackStatistics.slidingAverage(elevs, 0, size, lookAhead, smoothedElev);
+        double[] smoothedSpeed = new double[size];
+        TrackStatistics.slidingAverage(speedsKmH, 0, size, lookAhead, smoothedSpeed);
+
+        elevDifference = TrackStatistics.elevationGain(smoothedElev, 0, size);
+
+        // Setup the Series
+        seriesElev = new ArrayXYSeries(distances, smoothedElev, getString(R.string.chart_elev));
+        seriesSpeed = new ArrayXYSeries(distances, smoothedSpeed, getString(R.string.chart_speed));
+    }
 
-            elevList.add(new Coordinate(summedDistance, elev));
-            speedList.add(new Coordinate(summedDistance, speedKmH));
+    /**
+     * Series backed by primitive arrays, to not box every point of the log.
+     */
+    private static class ArrayXYSeries implements XYSeries {
+        private final double[] xValues;
+        private final double[] yValues;
+        private final String title;
+
+        ArrayXYSeries(double[] xValues, double[] yValues, String title) {
+            this.xValues = xValues;
+            this.yValues = yValues;
+            this.title = title;
         }
 
-        int lookAhead = 20;
-        double slide = 1;
-        FeatureSlidingAverage fsaElev = new FeatureSlidingAverage(elevList);
-        List<Coordinate> smoothedElev = fsaElev.smooth(lookAhead, false, slide);
-        FeatureSlidingAverage fsaSpeed = new FeatureSlidingAverage(speedList);
-        List<Coordinate> smoothedSpeed = fsaSpeed.smooth(lookAhead, false, slide);
-
-        int size = lonArray.size();
-        List<Double> finalYList1 = new ArrayList<>(size);
-        List<Double> finalYList2 = new ArrayList<>(lonArray.size());
-        List<Double> finalXList1 = new ArrayList<>(lonArray.size());
-
-        elevDifference = 0;
-        double previousElev = 0;
-        for (int i = 0; i < size; i++) {
-            Coordinate elev = smoothedElev.get(i);
-            Coordinate speed = smoothedSpeed.get(i);
+        @Override
+        public String getTitle() {
+            return title;
+        }
 
-            finalXList1.add(elev.x);
-            finalYList1.add(elev.y);
-            finalYList2.add(speed.y);
+        @Override
+        public int size() {
+            return xValues.length;
+        }
 
-            if (i > 0) {
-                double diff = elev.y - previousElev;
-                if (diff > 0)
-                    elevDifference = elevDifference + diff;
-            }
-            previousElev = elev.y;
+        @Override
+        public Number getX(int index) {
+            return xValues[index];
         }
 
-        // Setup the Series
-        seriesElev = new SimpleXYSeries(finalXList1, finalYList1, getString(R.string.chart_elev));
-        seriesSpeed = new SimpleXYSeries(finalXList1, finalYList2, getString(R.string.chart_speed));
+        @Override
+        public Number getY(int index) {
+            return yValues[index];
+        }
     }
 
     // Definition of the touch states
@@ -33,9 +33,7 @@ import androidx.fragment.app.DialogFragment;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 
 import eu.geopaparazzi.core.GeopaparazziApplication;
@@ -43,7 +41,7 @@ import eu.geopaparazzi.core.R;
 import eu.geopaparazzi.core.database.DaoGpsLog;
 import eu.geopaparazzi.core.database.DaoMetadata;
 import eu.geopaparazzi.core.database.DaoNotes;
-import eu.geopaparazzi.core.database.objects.Line;
+import eu.geopaparazzi.core.database.objects.GpsLogExportItem;
 import eu.geopaparazzi.core.database.objects.Note;
 import eu.geopaparazzi.library.core.ResourcesManager;
 import eu.geopaparazzi.library.database.GPLog;
@@ -135,11 +133,10 @@ public class GpxExportDialogFragment extends DialogFragment {
                     /*
                      * add gps logs
                      */
-                    HashMap<Long, Line> linesMap = DaoGpsLog.getLinesMap();
-                    Collection<Line> linesCollection = linesMap.values();
-                    for (Line line : linesCollection) {
+                    List<GpsLogExportItem> logsList = DaoGpsLog.getGpsLogExportItems();
+                    for (GpsLogExportItem log : logsList) {
                         if (isInterrupted) break;
-                        gpxRepresenterList.add(line);
+                        gpxRepresenterList.add(log);
                         hasAtLeastOne = true;
                     }
                     /*
@@ -18,6 +18,7 @@
 
 package eu.geopaparazzi.core.ui.dialogs;
 
+import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.DialogInterface;
@@ -28,23 +29,16 @@ import android.widget.ProgressBar;
 
 import androidx.fragment.app.DialogFragment;
 
-import java.io.File;
 import java.io.IOException;
-import java.util.List;
 
 import eu.geopaparazzi.core.R;
-import eu.geopaparazzi.core.database.DaoGpsLog;
+import eu.geopaparazzi.core.database.GpxStreamImporter;
 import eu.geopaparazzi.library.database.GPLog;
-import eu.geopaparazzi.library.gpx.GpxItem;
-import eu.geopaparazzi.library.gpx.parser.GpxParser;
-import eu.geopaparazzi.library.gpx.parser.WayPoint;
-import eu.geopaparazzi.library.style.ColorUtilities;
-import eu.geopaparazzi.library.util.FileUtilities;
 import eu.geopaparazzi.library.util.StringAsyncTask;
 
 
 /**
- * Dialog for gpx files import.
+ * Dialog for gpx and kml files import.
  *
  * @author Andrea Antonello
  */
@@ -54,10 +48,10 @@ public class GpxImportDialogFragment extends DialogFragment {
     private ProgressBar progressBar;
     private String gpxPath;
 
-    private boolean isInterrupted = false;
     private AlertDialog alertDialog;
     private Button positiveButton;
     private StringAsyncTask task;
+    private GpxStreamImporter importer;
 
 
     public static GpxImportDialogFragment newInstance(String gpxPath) {
@@ -91,7 +85,7 @@ public class GpxImportDialogFragment extends DialogFragment {
         builder.setNegativeButton(android.R.string.cancel,
                 new DialogInterface.OnClickListener() {
                     public void onClick(DialogInterface dialog, int id) {
-                        isInterrupted = true;
+                        if (importer != null) importer.cancel();
                     }
                 }
         );
@@ -110,73 +104,21 @@ public class GpxImportDialogFragment extends DialogFragment {
     }
 
     private void startImport() {
+        importer = new GpxStreamImporter(gpxPath, (percent, points, pointsPerSecond) -> {
+            Activity activity = getActivity();
+            if (activity == null) return;
+            final String message = getString(R.string.gpx_import_processing) + "\n" +
+                    getString(R.string.gpx_import_progress, percent, points, pointsPerSecond);
+            activity.runOnUiThread(() -> alertDialog.setMessage(message));
+        });
         task = new StringAsyncTask(getActivity()) {
             protected String doBackgroundWork() {
                 try {
-                    File file = new File(gpxPath);
-                    String fileName = FileUtilities.getNameWithoutExtention(file);
-                    GpxParser parser = new GpxParser(gpxPath);
-                    if (parser.parse()) {
-                        List<WayPoint> wayPoints = parser.getWayPoints();
-                        if (wayPoints.size() > 0) {
-                            GpxItem item = new GpxItem();
-                            item.setName(fileName);
-                            item.setWidth("2"); //$NON-NLS-1$
-                            item.setVisible(false);
-                            item.setColor(ColorUtilities.BLUE.getHex()); //$NON-NLS-1$
-                            item.setData(wayPoints);
-                            DaoGpsLog.importGpxToMap(item);
-                        }
-                        List<GpxParser.TrackSegment> tracks = parser.getTracks();
-                        if (tracks.size() > 0) {
-                            for (GpxParser.TrackSegment trackSegment : tracks) {
-                                if (isInterrupted) break;
-                                String tName = trackSegment.getName();
-                                if (tName == null) {
-                                    tName = ""; //$NON-NLS-1$
-                                } else {
-                                    tName = " - " + tName; //$NON-NLS-1$
-                                }
-                                String name = fileName + tName;
-                                GpxItem item = new GpxItem();
-                                item.setName(name);
-                                item.setWidth("2"); //$NON-NLS-1$
-                                item.setVisible(false);
-                                item.setColor("red"); //$NON-NLS-1$
-                                item.setData(trackSegment);
-                                DaoGpsLog.importGpxToMap(item);
-                            }
-                        }
-                        List<GpxParser.Route> routes = parser.getRoutes();
-                        if (routes.size() > 0) {
-                            for (GpxParser.Route route : routes) {
-                                if (isInterrupted) break;
-                                String rName = route.getName();
-                                if (rName == null) {
-                                    rName = ""; //$NON-NLS-1$
-                                } else {
-                                    rName = " - " + rName; //$NON-NLS-1$
-                                }
-                                String name = fileName + rName;
-                                GpxItem item = new GpxItem();
-                                item.setName(name);
-                                item.setWidth("2"); //$NON-NLS-1$
-                                item.setVisible(false);
-                                item.setColor(ColorUtilities.GREEN.getHex()); //$NON-NLS-1$
-                                item.setData(route);
-                                DaoGpsLog.importGpxToMap(item);
-                            }
-                        }
-                    } else {
-                        if (GPLog.LOG)
-                            GPLog.addLogEntry(this, "ERROR"); //$NON-NLS-1$
-                    }
-
+                    importer.runImport();
                 } catch (IOException e) {
                     GPLog.error(this, e.getLocalizedMessage(), e);
                     return "ERROR: " + e.getLocalizedMessage();//NON-NLS
                 }
-
                 return "";
             }
 
@@ -185,7 +127,9 @@ public class GpxImportDialogFragment extends DialogFragment {
                 if (response.length() != 0) {
                     alertDialog.setMessage(response);
                 } else {
-                    alertDialog.setMessage(getString(R.string.gpx_file_imported));
+                    alertDialog.setMessage(getString(R.string.gpx_file_imported) + "\n" +
+                            getString(R.string.gpx_import_result, importer.getImportedLogs(), importer.getImportedPoints(),
+                                    importer.getImportedWayPoints(), importer.getPointsPerSecond()));
                     positiveButton.setEnabled(true);
                 }
             }
@@ -33,11 +33,8 @@ import androidx.fragment.app.DialogFragment;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import eu.geopaparazzi.core.GeopaparazziApplication;
 import eu.geopaparazzi.core.R;
@@ -47,8 +44,7 @@ import eu.geopaparazzi.core.database.DaoImages;
 import eu.geopaparazzi.core.database.DaoMetadata;
 import eu.geopaparazzi.core.database.DaoNotes;
 import eu.geopaparazzi.core.database.objects.Bookmark;
-import eu.geopaparazzi.core.database.objects.Line;
-import eu.geopaparazzi.core.database.objects.LogMapItem;
+import eu.geopaparazzi.core.database.objects.GpsLogExportItem;
 import eu.geopaparazzi.core.database.objects.Note;
 import eu.geopaparazzi.library.core.ResourcesManager;
 import eu.geopaparazzi.library.database.GPLog;
@@ -142,27 +138,10 @@ public class KmzExportDialogFragment extends DialogFragment {
                     /*
                      * add gps logs
                      */
-                    List<LogMapItem> gpslogs = DaoGpsLog.getGpslogs();
-                    HashMap<Long, LogMapItem> mapitemsMap = new HashMap<>();
-                    for (LogMapItem log : gpslogs) {
+                    List<GpsLogExportItem> logsList = DaoGpsLog.getGpsLogExportItems();
+                    for (GpsLogExportItem log : logsList) {
                         if (isInterrupted) break;
-                        mapitemsMap.put(log.getId(), log);
-                        hasAtLeastOne = true;
-                    }
-
-                    HashMap<Long, Line> linesMap = DaoGpsLog.getLinesMap();
-                    Collection<Map.Entry<Long, Line>> linesSet = linesMap.entrySet();
-                    for (Map.Entry<Long, Line> lineEntry : linesSet) {
-                        if (isInterrupted) break;
-                        Long id = lineEntry.getKey();
-                        Line line = lineEntry.getValue();
-                        LogMapItem mapItem = mapitemsMap.get(id);
-                        if (mapItem == null) continue;
-                        float width = mapItem.getWidth();
-                        String color = mapItem.getColor();
-                        line.setStyle(width, color);
-                        line.setName(mapItem.getName());
-                        kmlRepresenterList.add(line);
+                        kmlRepresenterList.add(log);
                         hasAtLeastOne = true;
                     }
                     /*
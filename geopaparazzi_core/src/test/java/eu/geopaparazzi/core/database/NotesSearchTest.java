@@ -0,0 +1,105 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.core.database;
+
+import org.junit.Test;
+
+import eu.geopaparazzi.library.database.NotesSearchUtilities;
+import eu.geopaparazzi.library.forms.FormUtilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for the text that goes into and is searched in the notes full text index.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class NotesSearchTest {
+
+    @Test
+    public void testMatchQueryWords() {
+        assertEquals("river*", NotesSearchUtilities.toMatchQuery("river"));
+        assertEquals("river* bank*", NotesSearchUtilities.toMatchQuery("  river   bank "));
+        assertEquals("sample* 12*", NotesSearchUtilities.toMatchQuery("sample 12"));
+        assertEquals("città* über*", NotesSearchUtilities.toMatchQuery("città über"));
+    }
+
+    @Test
+    public void testMatchQueryEmpty() {
+        assertNull(NotesSearchUtilities.toMatchQuery(null));
+        assertNull(NotesSearchUtilities.toMatchQuery(""));
+        assertNull(NotesSearchUtilities.toMatchQuery("   "));
+        assertNull(NotesSearchUtilities.toMatchQuery("\"*-:()^"));
+    }
+
+    @Test
+    public void testMatchQueryQuotes() {
+        assertEquals("river* bank*", NotesSearchUtilities.toMatchQuery("\"river bank\""));
+        assertEquals("river*", NotesSearchUtilities.toMatchQuery("\"river"));
+        assertEquals("l* acqua*", NotesSearchUtilities.toMatchQuery("l'acqua"));
+    }
+
+    @Test
+    public void testMatchQueryStarAndMinus() {
+        assertEquals("riv*", NotesSearchUtilities.toMatchQuery("riv*"));
+        assertEquals("river*", NotesSearchUtilities.toMatchQuery("-river"));
+        assertEquals("north* east*", NotesSearchUtilities.toMatchQuery("north-east"));
+        assertEquals("a* b*", NotesSearchUtilities.toMatchQuery("*a**b*"));
+    }
+
+    @Test
+    public void testMatchQueryOperators() {
+        // as prefix terms the operator keywords are plain words
+        assertEquals("river* OR* lake*", NotesSearchUtilities.toMatchQuery("river OR lake"));
+        assertEquals("river* AND* NOT* lake*", NotesSearchUtilities.toMatchQuery("river AND NOT lake"));
+        assertEquals("river* NEAR* 3* lake*", NotesSearchUtilities.toMatchQuery("river NEAR/3 lake"));
+        assertEquals("text* river*", NotesSearchUtilities.toMatchQuery("text:river"));
+        assertEquals("river* lake*", NotesSearchUtilities.toMatchQuery("(river) ^lake"));
+    }
+
+    @Test
+    public void testSearchableValues() throws Exception {
+        String form = "{\"sectionname\":\"survey\",\"forms\":[" +
+                "{\"formname\":\"main\",\"formitems\":[" +
+                "{\"key\":\"name\",\"value\":\" River bank \",\"type\":\"string\"}," +
+                "{\"key\":\"depth\",\"value\":\"12\",\"type\":\"double\"}," +
+                "{\"key\":\"empty\",\"value\":\"  \",\"type\":\"string\"}," +
+                "{\"key\":\"novalue\",\"type\":\"string\"}," +
+                "{\"key\":\"notype\",\"value\":\"x\"}," +
+                "{\"key\":\"photos\",\"value\":\"1;2\",\"type\":\"pictures\"}," +
+                "{\"key\":\"sketch\",\"value\":\"3\",\"type\":\"sketch\"}," +
+                "{\"key\":\"map\",\"value\":\"4\",\"type\":\"map\"}," +
+                "{\"key\":\"id\",\"value\":\"secret\",\"type\":\"hidden\"}" +
+                "]}," +
+                "{\"formname\":\"notes\",\"formitems\":[" +
+                "{\"key\":\"comment\",\"value\":\"muddy \\\"water\\\"\",\"type\":\"string\"}" +
+                "]}]}";
+        assertEquals("River bank\n12\nmuddy \"water\"\n", FormUtilities.getSearchableValues(form));
+    }
+
+    @Test
+    public void testSearchableValuesEmpty() throws Exception {
+        assertEquals("", FormUtilities.getSearchableValues(null));
+        assertEquals("", FormUtilities.getSearchableValues(""));
+        assertEquals("", FormUtilities.getSearchableValues("{\"sectionname\":\"survey\",\"forms\":[]}"));
+        assertEquals("", FormUtilities.getSearchableValues(
+                "{\"sectionname\":\"survey\",\"forms\":[{\"formname\":\"main\"}]}"));
+    }
+}
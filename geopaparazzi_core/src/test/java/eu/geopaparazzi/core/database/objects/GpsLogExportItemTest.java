@@ -0,0 +1,170 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.core.database.objects;
+
+import org.junit.Test;
+
+import java.io.Writer;
+
+import eu.geopaparazzi.library.database.GpsLogChunkUtilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link GpsLogExportItem}, with generated points in place of the database.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class GpsLogExportItemTest {
+    private static final int POINTS = 1000000;
+
+    @Test
+    public void testLargeLogIsStreamedToGpx() throws Exception {
+        GeneratedLogItem item = new GeneratedLogItem(POINTS, -1);
+        CheckingWriter writer = new CheckingWriter("<trkpt");
+        item.writeGpx(writer);
+
+        assertEquals(POINTS, writer.getCount());
+        assertTrue(writer.getTail().endsWith("</trkseg>\n</trk>\n"));
+        // nothing is built in memory, every write is about a point
+        assertTrue("Largest write: " + writer.maxWriteLength, writer.maxWriteLength < 1000);
+    }
+
+    @Test
+    public void testLargeLogIsStreamedToKml() throws Exception {
+        GeneratedLogItem item = new GeneratedLogItem(POINTS, -1);
+        CheckingWriter writer = new CheckingWriter(",1 \n");
+        item.writeKml(writer);
+
+        assertEquals(POINTS, writer.getCount());
+        assertTrue(writer.getTail().endsWith("</Style>\n</Placemark>\n"));
+        assertTrue("Largest write: " + writer.maxWriteLength, writer.maxWriteLength < 1000);
+    }
+
+    @Test
+    public void testFailingLogClosesItsElements() throws Exception {
+        GeneratedLogItem item = new GeneratedLogItem(1000, 100);
+        CheckingWriter writer = new CheckingWriter("<trkpt");
+        try {
+            item.writeGpx(writer);
+            fail();
+        } catch (IllegalStateException e) {
+            // the read error goes to the caller
+        }
+        assertEquals(100, writer.getCount());
+        assertTrue(writer.getTail().endsWith("</trkseg>\n</trk>\n"));
+
+        writer = new CheckingWriter(",1 \n");
+        try {
+            item.writeKml(writer);
+            fail();
+        } catch (IllegalStateException e) {
+            // the read error goes to the caller
+        }
+        assertEquals(100, writer.getCount());
+        assertTrue(writer.getTail().endsWith("</Style>\n</Placemark>\n"));
+    }
+
+    @Test
+    public void testPointsInZeroAreSkipped() throws Exception {
+        GpsLogExportItem item = new GpsLogExportItem(1, "log", "red", 3, -11, -47, -10, -46) {
+            @Override
+            protected void streamPoints(GpsLogChunkUtilities.IPointConsumer consumer) {
+                consumer.onPoint(1, -10.5, -46.5, 100, 1000);
+                consumer.onPoint(1, 0.00001, -0.00001, 100, 2000);
+                consumer.onPoint(1, -10.6, -46.6, 100, 3000);
+            }
+        };
+        CheckingWriter writer = new CheckingWriter(",1 \n");
+        item.writeKml(writer);
+        assertEquals(2, writer.getCount());
+    }
+
+    /**
+     * A log of generated points, failing after some if asked.
+     */
+    private static class GeneratedLogItem extends GpsLogExportItem {
+        private final int points;
+        private final int failAfter;
+
+        GeneratedLogItem(int points, int failAfter) {
+            super(1, "log & more", "red", 3, 11, 46, 12, 47);
+            this.points = points;
+            this.failAfter = failAfter;
+        }
+
+        @Override
+        protected void streamPoints(GpsLogChunkUtilities.IPointConsumer consumer) {
+            long time = 1500000000000L;
+            for (int i = 0; i < points; i++) {
+                if (i == failAfter) {
+                    throw new IllegalStateException("Chunk can't be read.");
+                }
+                consumer.onPoint(1, 11 + i * 1E-6, 46 + i * 1E-6, 1000 + i % 100, time + i * 1000L);
+            }
+        }
+    }
+
+    /**
+     * A writer that keeps no output, it counts a text in every write and keeps the end.
+     */
+    private static class CheckingWriter extends Writer {
+        private static final int TAIL_SIZE = 200;
+        private final String counted;
+        private final StringBuilder tail = new StringBuilder();
+        private int count = 0;
+        private int maxWriteLength = 0;
+
+        CheckingWriter(String counted) {
+            this.counted = counted;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            maxWriteLength = Math.max(maxWriteLength, len);
+            String text = new String(cbuf, off, len);
+            int index = text.indexOf(counted);
+            while (index != -1) {
+                count++;
+                index = text.indexOf(counted, index + counted.length());
+            }
+            tail.append(text);
+            if (tail.length() > 4 * TAIL_SIZE) {
+                tail.delete(0, tail.length() - TAIL_SIZE);
+            }
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        String getTail() {
+            return tail.toString();
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
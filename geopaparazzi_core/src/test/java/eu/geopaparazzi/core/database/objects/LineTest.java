@@ -0,0 +1,204 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.core.database.objects;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import eu.geopaparazzi.library.util.TrackStatistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link Line}.
+ * <p/>
+ * <p>The expected values are computed per segment as the old line did, with
+ * {@link TrackStatistics#distance} in place of the Location distance it matches.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class LineTest {
+    private static final int POINTS = 1000;
+    private static final int LARGE_LINE_POINTS = 1000000;
+    /**
+     * Generous for the one million points, which take about a second on a desktop, building the line included.
+     */
+    private static final long LARGE_LINE_TIMEOUT = 5000;
+
+    private final double[] lons = new double[POINTS];
+    private final double[] lats = new double[POINTS];
+    private final double[] elevs = new double[POINTS];
+    private final long[] timestamps = new long[POINTS];
+
+    @Test
+    public void testPointsAndSubLines() {
+        Line line = createLine();
+        assertEquals(POINTS, line.size());
+        assertPoints(line, 0);
+
+        Line subLine = line.subLine(200, 450);
+        assertEquals(250, subLine.size());
+        assertPoints(subLine, 200);
+        Line subSubLine = subLine.subLine(10, 20);
+        assertEquals(10, subSubLine.size());
+        assertPoints(subSubLine, 210);
+        assertEquals(0, line.subLine(5, 5).size());
+
+        try {
+            subLine.addPoint(11, 46, 0, 0);
+            fail();
+        } catch (IllegalStateException e) {
+            // views can't grow
+        }
+        try {
+            line.subLine(10, POINTS + 1);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // out of range
+        }
+    }
+
+    @Test
+    public void testLengthMatchesOldLength() {
+        Line line = createLine();
+        assertEquals(oldLength(0, POINTS), line.getLength(), 1E-6);
+        assertEquals(oldLength(300, 700), line.subLine(300, 700).getLength(), 1E-6);
+        assertEquals(0.0, line.subLine(3, 4).getLength(), 0.0);
+    }
+
+    @Test
+    public void testComputedColumns() {
+        Line line = createLine();
+        int[][] ranges = {{0, POINTS}, {100, 400}};
+        for (int[] range : ranges) {
+            int from = range[0];
+            int to = range[1];
+            Line checked = from == 0 && to == POINTS ? line : line.subLine(from, to);
+            double[] distances = checked.getProgressiveDistances();
+            double[] speeds = checked.getSpeeds();
+            assertEquals(to - from, distances.length);
+            assertEquals(to - from, speeds.length);
+
+            double summedDistance = 0;
+            double gain = 0;
+            for (int i = from; i < to; i++) {
+                double speedKmH = 0;
+                if (i > from) {
+                    double distance = TrackStatistics.distance(lats[i - 1], lons[i - 1], lats[i], lons[i]);
+                    summedDistance = summedDistance + distance;
+                    speedKmH = 3.6 * distance / ((timestamps[i] - timestamps[i - 1]) / 1000.0);
+                    double diff = elevs[i] - elevs[i - 1];
+                    if (diff > 0)
+                        gain = gain + diff;
+                }
+                assertEquals(summedDistance, distances[i - from], 1E-6);
+                assertEquals(speedKmH, speeds[i - from] * 3.6, 1E-6);
+            }
+            assertEquals(gain, checked.getElevationGain(), 1E-9);
+        }
+    }
+
+    @Test
+    public void testAddPointResetsComputedColumns() {
+        Line line = new Line("test");
+        line.addPoint(-11.0, -46.0, 100, 1000);
+        line.addPoint(0.00001, 0.00001, 100, 2000);
+        line.addPoint(-11.001, -46.001, 110, 3000);
+        // the point in 0,0 is skipped, negative coordinates are kept
+        assertEquals(2, line.size());
+        assertEquals(10.0, line.getElevationGain(), 1E-9);
+        assertEquals(2, line.getProgressiveDistances().length);
+
+        line.addPoint(-11.002, -46.002, 130, 4000);
+        assertEquals(30.0, line.getElevationGain(), 1E-9);
+        double[] distances = line.getProgressiveDistances();
+        assertEquals(3, distances.length);
+        assertEquals(TrackStatistics.distance(-46.0, -11.0, -46.001, -11.001)
+                + TrackStatistics.distance(-46.001, -11.001, -46.002, -11.002), distances[2], 1E-6);
+        assertEquals(-46.002, line.getMinLat(), 0.0);
+        assertEquals(-11.0, line.getMaxLon(), 0.0);
+    }
+
+    @Test(timeout = LARGE_LINE_TIMEOUT)
+    public void testLargeLine() {
+        Random random = new Random(13);
+        double lon = 11.3;
+        double lat = 46.5;
+        double elev = 800;
+        long time = 1500000000000L;
+        Line line = new Line("large", LARGE_LINE_POINTS);
+        for (int i = 0; i < LARGE_LINE_POINTS; i++) {
+            lon += (random.nextDouble() - 0.5) * 0.0002;
+            lat += (random.nextDouble() - 0.3) * 0.0002;
+            elev += (random.nextDouble() - 0.5) * 3;
+            time += 1000 + random.nextInt(2000);
+            line.addPoint(lon, lat, elev, time);
+        }
+        assertEquals(LARGE_LINE_POINTS, line.size());
+        assertEquals(LARGE_LINE_POINTS, line.getProgressiveDistances().length);
+        assertEquals(LARGE_LINE_POINTS, line.getSpeeds().length);
+        assertTrue(line.getElevationGain() > 0);
+        assertTrue(line.getLength() > 0);
+    }
+
+    private Line createLine() {
+        Random random = new Random(11);
+        double lon = 11.3;
+        double lat = 46.5;
+        double elev = 800;
+        long time = 1500000000000L;
+        Line line = new Line("test", POINTS);
+        for (int i = 0; i < POINTS; i++) {
+            lon += (random.nextDouble() - 0.5) * 0.0002;
+            lat += (random.nextDouble() - 0.3) * 0.0002;
+            elev += (random.nextDouble() - 0.5) * 3;
+            time += 1000 + random.nextInt(2000);
+            lons[i] = lon;
+            lats[i] = lat;
+            elevs[i] = elev;
+            timestamps[i] = time;
+            line.addPoint(lon, lat, elev, time);
+        }
+        return line;
+    }
+
+    private void assertPoints(Line line, int offset) {
+        for (int i = 0; i < line.size(); i++) {
+            assertEquals(lons[offset + i], line.getLon(i), 0.0);
+            assertEquals(lats[offset + i], line.getLat(i), 0.0);
+            assertEquals(elevs[offset + i], line.getAltim(i), 0.0);
+            assertEquals(timestamps[offset + i], line.getTime(i));
+        }
+    }
+
+    /**
+     * The length as the old line calculated it, with the elevation.
+     */
+    private double oldLength(int from, int to) {
+        double length = 0;
+        for (int i = from; i < to - 1; i++) {
+            double distance = TrackStatistics.distance(lats[i], lons[i], lats[i + 1], lons[i + 1]);
+            double deltaAltim = Math.abs(elevs[i + 1] - elevs[i]);
+            length = length + Math.sqrt(Math.pow(deltaAltim, 2.0) + Math.pow(distance, 2.0));
+        }
+        return length;
+    }
+}
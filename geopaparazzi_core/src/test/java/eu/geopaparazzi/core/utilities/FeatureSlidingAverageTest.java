@@ -0,0 +1,66 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.core.utilities;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import eu.geopaparazzi.library.util.TrackStatistics;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that {@link TrackStatistics#slidingAverage} smooths the profile chart
+ * as {@link FeatureSlidingAverage} did.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class FeatureSlidingAverageTest {
+
+    @Test
+    public void testSlidingAverageMatchesProfileSmoothing() {
+        Random random = new Random(3);
+        int[] sizes = {15, 16, 50, 79, 80, 81, 1000};
+        for (int size : sizes) {
+            double[] values = new double[size + 10];
+            List<Coordinate> coordinates = new ArrayList<>(size);
+            double summedDistance = 0;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = 1000 + random.nextDouble() * 50;
+                if (i >= 5 && i < size + 5) {
+                    summedDistance += 1 + random.nextDouble() * 10;
+                    coordinates.add(new Coordinate(summedDistance, values[i]));
+                }
+            }
+
+            // as the old profile chart
+            List<Coordinate> expected = new FeatureSlidingAverage(coordinates).smooth(20, false, 1);
+
+            double[] smoothed = new double[size];
+            TrackStatistics.slidingAverage(values, 5, size, 20, smoothed);
+            assertEquals(size, expected.size());
+            for (int i = 0; i < size; i++) {
+                assertEquals(expected.get(i).y, smoothed[i], 1E-9);
+            }
+        }
+    }
+}
@@ -39,7 +39,6 @@ import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import java.util.ArrayList;
 import java.util.List;
 
-import eu.geopaparazzi.library.GPApplication;
 import eu.geopaparazzi.library.R;
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.util.Compat;
@@ -84,7 +83,7 @@ public class LogAnalysisActivity extends ListActivity implements View.OnClickLis
         query = GPLog.getLogQuery();
 
         try {
-            database = GPApplication.getInstance().getDatabase();
+            database = GPLog.getLogDatabase();
             if (!database.isOpen()) {
                 database = null;
             }
@@ -214,6 +213,8 @@ public class LogAnalysisActivity extends ListActivity implements View.OnClickLis
 
     private void refreshList() {
         if (database != null && query != null) {
+            // show also the entries not yet written
+            GPLog.flush();
             messagesList.clear();
             checkSelections();
             Cursor cursor = database.rawQuery(query, null);
@@ -17,16 +17,12 @@
  */
 package eu.geopaparazzi.library.database;
 
-import android.content.ContentValues;
 import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
 import java.io.IOException;
 import java.util.Date;
-import java.util.Map.Entry;
-import java.util.Set;
 
-import eu.geopaparazzi.library.GPApplication;
 import eu.geopaparazzi.library.util.TimeUtilities;
 
 /**
@@ -136,20 +132,20 @@ public class GPLog {
 
     /**
      * Add a new log entry.
+     * <p/>
+     * <p>The entry is written to the log table in background by the {@link GPLogSink}.</p>
      *
      * @param logMessage the message to insert in the log.
      */
     public static void addLogEntry(String logMessage) {
+        addLogEntry(logMessage, false);
+    }
+
+    private static void addLogEntry(String logMessage, boolean isError) {
         try {
             Date date = new Date();
-            SQLiteDatabase sqliteDatabase = GPApplication.getInstance().getDatabase();
-            if (sqliteDatabase != null && sqliteDatabase.isOpen()) {
-                ContentValues values = new ContentValues();
-                long time = date.getTime();
-                values.put(COLUMN_DATAORA, time);
-                values.put(COLUMN_LOGMSG, logMessage);
-                insertOrThrow(sqliteDatabase, TABLE_LOG, values);
-            }
+            // errors are written right away, a crash could follow
+            GPLogSink.INSTANCE.add(date.getTime(), logMessage, isError);
 
             if (LOG_ANDROID) {
                 StringBuilder sb = new StringBuilder();
@@ -185,6 +181,10 @@ public class GPLog {
                                    String user, //
                                    String tag,//
                                    String logMessage) {
+        if (!LOG && !ERROR_TAG.equals(tag)) {
+            // filter before building the message
+            return;
+        }
 
         StringBuilder sb = new StringBuilder();
         if (user == null || user.length() == 0) {
@@ -203,7 +203,7 @@ public class GPLog {
         }
         sb.append(logMessage);
         try {
-            addLogEntry(sb.toString());
+            addLogEntry(sb.toString(), ERROR_TAG.equals(tag));
         } catch (Exception e) {
             Log.e(ERROR_TAG, "Error inserting in log.", e);
         }
@@ -248,30 +248,18 @@ public class GPLog {
     }
 
     /**
-     * Do an insert or throw with the proper error handling.
-     *
-     * @param table
-     * @param values
-     * @return
-     * @throws IOException
+     * Write the queued log entries and wait for them to be written.
      */
-    private static long insertOrThrow(SQLiteDatabase sqliteDatabase, String table, ContentValues values) throws Exception {
-        if (sqliteDatabase == null || !sqliteDatabase.isOpen()) {
-            throw new Exception("Database not ready!");
-        }
-        long id = sqliteDatabase.insertOrThrow(table, null, values);
-        if (id == -1) {
-            Set<Entry<String, Object>> valueSet = values.valueSet();
-            StringBuilder sb = new StringBuilder();
-            sb.append("Insert failed with: \n");
-            for (Entry<String, Object> entry : valueSet) {
-                sb.append("(").append(entry.getKey()).append(",");
-                sb.append(entry.getValue()).append(")\n");
-            }
-            String message = sb.toString();
-            throw new IOException(message);
-        }
-        return id;
+    public static void flush() {
+        GPLogSink.INSTANCE.flush();
+    }
+
+    /**
+     * @return the database holding the log table, which can be the project database or a separate one.
+     * @throws IOException if something goes wrong.
+     */
+    public static SQLiteDatabase getLogDatabase() throws IOException {
+        return GPLogSink.INSTANCE.getLogDatabase();
     }
 
     /**
@@ -281,6 +269,8 @@ public class GPLog {
      * @throws Exception if something goes wrong.
      */
     public static void clearLogTable(SQLiteDatabase db) throws Exception {
+        // queued entries are cleared too
+        flush();
         String deleteLogQuery = "delete from " + TABLE_LOG;
         db.beginTransaction();
         try {
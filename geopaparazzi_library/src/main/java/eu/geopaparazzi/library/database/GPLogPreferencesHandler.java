@@ -42,6 +42,11 @@ public class GPLogPreferencesHandler {
      */
     public static String PREFS_KEY_LOG_ABSURD = "PREFS_KEY_LOG_ABSURD";//NON-NLS
 
+    /**
+     * Preferences key for logging to a separate database.
+     */
+    public static String PREFS_KEY_LOG_SEPARATE_DB = "PREFS_KEY_LOG_SEPARATE_DB";//NON-NLS
+
     /**
      * @param doLog       log flag.
      * @param preferences the preferences.
@@ -105,4 +110,12 @@ public class GPLogPreferencesHandler {
         return doLog;
     }
 
+    /**
+     * @param preferences the preferences.
+     * @return if <code>true</code>, the log is kept in a separate database.
+     */
+    public static boolean checkLogSeparateDb(SharedPreferences preferences) {
+        return preferences.getBoolean(PREFS_KEY_LOG_SEPARATE_DB, false);
+    }
+
 }
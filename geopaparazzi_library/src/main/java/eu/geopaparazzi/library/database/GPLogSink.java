@@ -0,0 +1,288 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.geopaparazzi.library.GPApplication;
+
+/**
+ * Writes the entries of {@link GPLog} to the log table in background.
+ * <p/>
+ * <p>Entries are queued by the logging threads and written by a single writer thread
+ * in batches, each in one transaction. Errors are written right away, since a crash
+ * could follow them. The log table is kept in the project database
+ * or, if routed, in a separate log database, and is trimmed to a maximum age and number
+ * of entries.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public enum GPLogSink {
+    INSTANCE;
+
+    private static final String TAG = "GPLOGSINK";
+    /**
+     * Time the writer waits to collect entries before writing them.
+     */
+    private static final long WRITE_DELAY = 500;
+    private static final int BATCH_SIZE = 200;
+    /**
+     * Entries beyond this are dropped, if the writer can't keep up.
+     */
+    private static final int MAX_PENDING = 10000;
+    /**
+     * Number of batches after which the retention is applied.
+     */
+    private static final int COMPACT_INTERVAL = 50;
+
+    /**
+     * Default maximum age of log entries.
+     */
+    public static final long DEFAULT_MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+    /**
+     * Default maximum number of log entries.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 50000;
+
+    private static class Entry {
+        final long time;
+        final String message;
+
+        Entry(long time, String message) {
+            this.time = time;
+            this.message = message;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger dropped = new AtomicInteger();
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "GPLogSink");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private volatile SQLiteDatabase logDatabase;
+    private volatile long maxAge = DEFAULT_MAX_AGE;
+    private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+    private int batchesSinceCompact = COMPACT_INTERVAL;
+
+    /**
+     * Queue an entry.
+     *
+     * @param time    the time of the entry.
+     * @param message the message.
+     */
+    public void add(long time, String message) {
+        add(time, message, false);
+    }
+
+    /**
+     * Queue an entry.
+     *
+     * @param time     the time of the entry.
+     * @param message  the message.
+     * @param writeNow if <code>true</code>, the queue is written without waiting to collect more entries.
+     */
+    public void add(long time, String message, boolean writeNow) {
+        if (pending.incrementAndGet() > MAX_PENDING) {
+            pending.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+        queue.offer(new Entry(time, message));
+        if (writeNow) {
+            writer.execute(this::writePending);
+        } else if (writeScheduled.compareAndSet(false, true)) {
+            writer.schedule(() -> {
+                writeScheduled.set(false);
+                writePending();
+            }, WRITE_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Write all the queued entries, waiting for them to be written.
+     */
+    public void flush() {
+        Future<?> future = writer.submit(this::writePending);
+        try {
+            future.get(10, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            Log.e(TAG, "Error flushing the log.", e);
+        }
+    }
+
+    /**
+     * Route the log to a separate database instead of the project database.
+     * <p/>
+     * <p>Queued entries are written to the previous database first.</p>
+     *
+     * @param dbFile the log database file or <code>null</code> to log to the project database.
+     * @throws IOException if the database can't be opened.
+     */
+    public void setLogDatabaseFile(File dbFile) throws IOException {
+        flush();
+        SQLiteDatabase newDatabase = null;
+        if (dbFile != null) {
+            try {
+                File parentFile = dbFile.getParentFile();
+                if (parentFile != null && !parentFile.exists()) {
+                    parentFile.mkdirs();
+                }
+                newDatabase = SQLiteDatabase.openOrCreateDatabase(dbFile, null);
+                if (!hasLogTable(newDatabase)) {
+                    GPLog.createTables(newDatabase);
+                }
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e.getLocalizedMessage());
+            }
+        }
+        SQLiteDatabase oldDatabase = logDatabase;
+        logDatabase = newDatabase;
+        if (oldDatabase != null) {
+            writer.execute(oldDatabase::close);
+        }
+    }
+
+    /**
+     * Set the retention of the log.
+     *
+     * @param maxAge     the maximum age of entries in milliseconds.
+     * @param maxEntries the maximum number of entries.
+     */
+    public void setRetention(long maxAge, int maxEntries) {
+        this.maxAge = maxAge;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @return the database holding the log table.
+     * @throws IOException if the database can't be opened.
+     */
+    public SQLiteDatabase getLogDatabase() throws IOException {
+        SQLiteDatabase database = logDatabase;
+        if (database != null) {
+            return database;
+        }
+        return GPApplication.getInstance().getDatabase();
+    }
+
+    /**
+     * @return the number of entries dropped because the queue was full.
+     */
+    public int getDroppedCount() {
+        return dropped.get();
+    }
+
+    private static boolean hasLogTable(SQLiteDatabase database) {
+        try (Cursor cursor = database.rawQuery("SELECT name FROM sqlite_master WHERE type='table' AND name=?",
+                new String[]{GPLog.TABLE_LOG})) {
+            return cursor.moveToFirst();
+        }
+    }
+
+    /**
+     * Write the queued entries, runs on the writer thread.
+     */
+    private void writePending() {
+        if (queue.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase database;
+        try {
+            database = getLogDatabase();
+        } catch (Exception e) {
+            database = null;
+        }
+        if (database == null || !database.isOpen()) {
+            // as before, entries are lost if there is no database to write to
+            discardPending();
+            return;
+        }
+
+        String sql = "INSERT INTO " + GPLog.TABLE_LOG + " (" + GPLog.COLUMN_DATAORA + ", " + GPLog.COLUMN_LOGMSG + ") VALUES (?, ?)";
+        try {
+            while (!queue.isEmpty()) {
+                database.beginTransaction();
+                SQLiteStatement statement = database.compileStatement(sql);
+                try {
+                    for (int i = 0; i < BATCH_SIZE; i++) {
+                        Entry entry = queue.poll();
+                        if (entry == null) break;
+                        pending.decrementAndGet();
+                        statement.bindLong(1, entry.time);
+                        if (entry.message != null) {
+                            statement.bindString(2, entry.message);
+                        } else {
+                            statement.bindNull(2);
+                        }
+                        statement.executeInsert();
+                    }
+                    database.setTransactionSuccessful();
+                } finally {
+                    statement.close();
+                    database.endTransaction();
+                }
+                if (++batchesSinceCompact >= COMPACT_INTERVAL) {
+                    batchesSinceCompact = 0;
+                    compact(database);
+                }
+            }
+        } catch (Exception e) {
+            // don't log through GPLog, that would feed the sink
+            Log.e(TAG, "Error writing the log.", e);
+            discardPending();
+        }
+    }
+
+    private void discardPending() {
+        while (queue.poll() != null) {
+            pending.decrementAndGet();
+        }
+    }
+
+    /**
+     * Remove the entries older than the maximum age and the oldest beyond the maximum number.
+     */
+    private void compact(SQLiteDatabase database) {
+        long minTime = System.currentTimeMillis() - maxAge;
+        database.delete(GPLog.TABLE_LOG, GPLog.COLUMN_DATAORA + " < ?", new String[]{String.valueOf(minTime)});
+        database.execSQL("DELETE FROM " + GPLog.TABLE_LOG + " WHERE " + GPLog.COLUMN_ID + " <= (SELECT " + GPLog.COLUMN_ID +
+                " FROM " + GPLog.TABLE_LOG + " ORDER BY " + GPLog.COLUMN_ID + " DESC LIMIT 1 OFFSET " + maxEntries + ")");
+    }
+}
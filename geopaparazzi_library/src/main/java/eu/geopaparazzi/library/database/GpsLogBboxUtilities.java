@@ -0,0 +1,243 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static eu.geopaparazzi.library.database.TableDescriptions.GpsLogsBboxTableFields;
+import static eu.geopaparazzi.library.database.TableDescriptions.GpsLogsChunksTableFields;
+import static eu.geopaparazzi.library.database.TableDescriptions.GpsLogsDataTableFields;
+import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_GPSLOG_BBOX;
+import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_GPSLOG_CHUNKS;
+import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_GPSLOG_DATA;
+
+/**
+ * Utilities to handle the bounding boxes of gps logs.
+ * <p/>
+ * <p>The bounding boxes are kept in their own indexed table, so that the logs
+ * touching a map area can be found without reading their points.</p>
+ * <p/>
+ * <p>None of the methods opens a transaction, they have to be opened and closed if necessary.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class GpsLogBboxUtilities {
+
+    /**
+     * Create the bounding boxes table.
+     *
+     * @param sqliteDatabase the db to use.
+     * @throws IOException if something goes wrong.
+     */
+    public static void createTables(SQLiteDatabase sqliteDatabase) throws IOException {
+        StringBuilder sB = new StringBuilder();
+        sB.append("CREATE TABLE ");
+        sB.append(TABLE_GPSLOG_BBOX);
+        sB.append(" (");
+        sB.append(GpsLogsBboxTableFields.COLUMN_LOGID.getFieldName()).append(" INTEGER PRIMARY KEY, ");
+        sB.append(GpsLogsBboxTableFields.COLUMN_MINX.getFieldName()).append(" REAL NOT NULL, ");
+        sB.append(GpsLogsBboxTableFields.COLUMN_MAXX.getFieldName()).append(" REAL NOT NULL, ");
+        sB.append(GpsLogsBboxTableFields.COLUMN_MINY.getFieldName()).append(" REAL NOT NULL, ");
+        sB.append(GpsLogsBboxTableFields.COLUMN_MAXY.getFieldName()).append(" REAL NOT NULL");
+        sB.append(");");
+        String CREATE_TABLE = sB.toString();
+
+        sB = new StringBuilder();
+        sB.append("CREATE INDEX gpslog_bbox_x_idx ON ");
+        sB.append(TABLE_GPSLOG_BBOX);
+        sB.append(" ( ");
+        sB.append(GpsLogsBboxTableFields.COLUMN_MINX.getFieldName());
+        sB.append(", ");
+        sB.append(GpsLogsBboxTableFields.COLUMN_MAXX.getFieldName());
+        sB.append(" );");
+        String CREATE_INDEX = sB.toString();
+
+        try {
+            sqliteDatabase.execSQL(CREATE_TABLE);
+            sqliteDatabase.execSQL(CREATE_INDEX);
+        } catch (Exception e) {
+            throw new IOException(e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Calculate the bounding boxes of all the logs that have points.
+     * <p/>
+     * <p>Used to fill the table in existing projects.</p>
+     *
+     * @param sqliteDatabase the db to use.
+     */
+    public static void updateAllBboxes(SQLiteDatabase sqliteDatabase) {
+        String query = getUpdateFromDataQuery() + " group by " + GpsLogsDataTableFields.COLUMN_LOGID.getFieldName();
+        SQLiteStatement sqlUpdate = sqliteDatabase.compileStatement(query);
+        sqlUpdate.execute();
+        sqlUpdate.close();
+    }
+
+    /**
+     * (Re)calculate the bounding box of a log from its points, packed or not.
+     *
+     * @param sqliteDatabase the db to use.
+     * @param logId          the id of the log.
+     */
+    public static void updateBbox(SQLiteDatabase sqliteDatabase, long logId) {
+        deleteBbox(sqliteDatabase, logId);
+        String logIdField = GpsLogsDataTableFields.COLUMN_LOGID.getFieldName();
+        String query = getUpdateFromDataQuery() + " where " + logIdField + " = " + logId + " group by " + logIdField;
+        SQLiteStatement sqlUpdate = sqliteDatabase.compileStatement(query);
+        sqlUpdate.execute();
+        sqlUpdate.close();
+
+        // points of packed logs are in the chunks
+        query = "select min(" + GpsLogsChunksTableFields.COLUMN_MINX.getFieldName() + "), max(" +
+                GpsLogsChunksTableFields.COLUMN_MAXX.getFieldName() + "), min(" +
+                GpsLogsChunksTableFields.COLUMN_MINY.getFieldName() + "), max(" +
+                GpsLogsChunksTableFields.COLUMN_MAXY.getFieldName() + ") from " + TABLE_GPSLOG_CHUNKS +
+                " where " + GpsLogsChunksTableFields.COLUMN_LOGID.getFieldName() + " = " + logId;
+        try (Cursor c = sqliteDatabase.rawQuery(query, null)) {
+            if (c.moveToFirst() && !c.isNull(0)) {
+                expandBbox(sqliteDatabase, logId, c.getDouble(0), c.getDouble(2));
+                expandBbox(sqliteDatabase, logId, c.getDouble(1), c.getDouble(3));
+            }
+        }
+    }
+
+    private static String getUpdateFromDataQuery() {
+        StringBuilder sB = new StringBuilder();
+        sB.append("insert or replace into ");
+        sB.append(TABLE_GPSLOG_BBOX);
+        sB.append(" (");
+        sB.append(GpsLogsBboxTableFields.COLUMN_LOGID.getFieldName()).append(", ");
+        sB.append(GpsLogsBboxTableFields.COLUMN_MINX.getFieldName()).append(", ");
+        sB.append(GpsLogsBboxTableFields.COLUMN_MAXX.getFieldName()).append(", ");
+        sB.append(GpsLogsBboxTableFields.COLUMN_MINY.getFieldName()).append(", ");
+        sB.append(GpsLogsBboxTableFields.COLUMN_MAXY.getFieldName());
+        sB.append(") select ");
+        sB.append(GpsLogsDataTableFields.COLUMN_LOGID.getFieldName()).append(", ");
+        sB.append("min(").append(GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName()).append("), ");
+        sB.append("max(").append(GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName()).append("), ");
+        sB.append("min(").append(GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName()).append("), ");
+        sB.append("max(").append(GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName()).append(")");
+        sB.append(" from ");
+        sB.append(TABLE_GPSLOG_DATA);
+        return sB.toString();
+    }
+
+    /**
+     * The compiled statements of {@link #expandBbox}, by database. The statements
+     * reference their database, so closed databases are removed explicitly.
+     */
+    private static final Map<SQLiteDatabase, SQLiteStatement[]> expandStatements = new HashMap<>();
+
+    /**
+     * Expand the bounding box of a log to contain a new point.
+     * <p/>
+     * <p>If the log has no bounding box yet, it is created. Since this is called for every
+     * point added, the statements are compiled once per database and reused.</p>
+     *
+     * @param sqliteDatabase the db to use.
+     * @param logId          the id of the log.
+     * @param lon            the longitude of the point.
+     * @param lat            the latitude of the point.
+     */
+    public static void expandBbox(SQLiteDatabase sqliteDatabase, long logId, double lon, double lat) {
+        synchronized (expandStatements) {
+            SQLiteStatement[] statements = getExpandStatements(sqliteDatabase);
+            SQLiteStatement updateStatement = statements[0];
+            updateStatement.clearBindings();
+            updateStatement.bindDouble(1, lon);
+            updateStatement.bindDouble(2, lon);
+            updateStatement.bindDouble(3, lat);
+            updateStatement.bindDouble(4, lat);
+            updateStatement.bindLong(5, logId);
+            int changed = updateStatement.executeUpdateDelete();
+
+            if (changed == 0) {
+                SQLiteStatement insertStatement = statements[1];
+                insertStatement.clearBindings();
+                insertStatement.bindLong(1, logId);
+                insertStatement.bindDouble(2, lon);
+                insertStatement.bindDouble(3, lon);
+                insertStatement.bindDouble(4, lat);
+                insertStatement.bindDouble(5, lat);
+                insertStatement.executeInsert();
+            }
+        }
+    }
+
+    /**
+     * @return the update and insert statements of {@link #expandBbox} for the database.
+     */
+    private static SQLiteStatement[] getExpandStatements(SQLiteDatabase sqliteDatabase) {
+        SQLiteStatement[] statements = expandStatements.get(sqliteDatabase);
+        if (statements != null && sqliteDatabase.isOpen()) {
+            return statements;
+        }
+        Iterator<Map.Entry<SQLiteDatabase, SQLiteStatement[]>> iterator = expandStatements.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (!iterator.next().getKey().isOpen()) {
+                iterator.remove();
+            }
+        }
+        String minx = GpsLogsBboxTableFields.COLUMN_MINX.getFieldName();
+        String maxx = GpsLogsBboxTableFields.COLUMN_MAXX.getFieldName();
+        String miny = GpsLogsBboxTableFields.COLUMN_MINY.getFieldName();
+        String maxy = GpsLogsBboxTableFields.COLUMN_MAXY.getFieldName();
+
+        StringBuilder sB = new StringBuilder();
+        sB.append("update ").append(TABLE_GPSLOG_BBOX).append(" set ");
+        sB.append(minx).append(" = min(").append(minx).append(", ?), ");
+        sB.append(maxx).append(" = max(").append(maxx).append(", ?), ");
+        sB.append(miny).append(" = min(").append(miny).append(", ?), ");
+        sB.append(maxy).append(" = max(").append(maxy).append(", ?)");
+        sB.append(" where ").append(GpsLogsBboxTableFields.COLUMN_LOGID.getFieldName()).append(" = ?");
+        SQLiteStatement updateStatement = sqliteDatabase.compileStatement(sB.toString());
+
+        sB = new StringBuilder();
+        sB.append("insert into ").append(TABLE_GPSLOG_BBOX).append(" (");
+        sB.append(GpsLogsBboxTableFields.COLUMN_LOGID.getFieldName()).append(", ");
+        sB.append(minx).append(", ").append(maxx).append(", ").append(miny).append(", ").append(maxy);
+        sB.append(") values (?,?,?,?,?)");
+        SQLiteStatement insertStatement = sqliteDatabase.compileStatement(sB.toString());
+
+        statements = new SQLiteStatement[]{updateStatement, insertStatement};
+        expandStatements.put(sqliteDatabase, statements);
+        return statements;
+    }
+
+    /**
+     * Delete the bounding box of a log.
+     *
+     * @param sqliteDatabase the db to use.
+     * @param logId          the id of the log.
+     */
+    public static void deleteBbox(SQLiteDatabase sqliteDatabase, long logId) {
+        String query = "delete from " + TABLE_GPSLOG_BBOX + " where " + GpsLogsBboxTableFields.COLUMN_LOGID.getFieldName() + " = " + logId;
+        SQLiteStatement sqlUpdate = sqliteDatabase.compileStatement(query);
+        sqlUpdate.execute();
+        sqlUpdate.close();
+    }
+}
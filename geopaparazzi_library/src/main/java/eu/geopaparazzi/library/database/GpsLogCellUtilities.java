@@ -0,0 +1,144 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.IOException;
+
+import static eu.geopaparazzi.library.database.TableDescriptions.GpsLogsDataTableFields;
+import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_GPSLOG_DATA;
+
+/**
+ * Utilities to handle the grid cell index of gps log points.
+ * <p/>
+ * <p>The world is split in a regular lon/lat grid of {@link #GRID_COLUMNS} columns and
+ * half as many rows. Every point stores the number of its cell (<code>row * GRID_COLUMNS + column</code>),
+ * so that the cells of a row are contiguous and any area can be queried through
+ * one indexed range per row, instead of the lon only range of a lon/lat index.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class GpsLogCellUtilities {
+
+    /**
+     * Number of columns of the grid.
+     */
+    public static final int GRID_COLUMNS = 65536;
+    /**
+     * Number of rows of the grid.
+     */
+    public static final int GRID_ROWS = GRID_COLUMNS / 2;
+    /**
+     * Size of a cell in degrees (about 600 meters at the equator).
+     */
+    public static final double CELL_SIZE = 360.0 / GRID_COLUMNS;
+
+    /**
+     * Get the grid column of a longitude.
+     *
+     * @param lon the longitude.
+     * @return the column.
+     */
+    public static int getColumn(double lon) {
+        int col = (int) Math.floor((lon + 180.0) / CELL_SIZE);
+        return Math.max(0, Math.min(GRID_COLUMNS - 1, col));
+    }
+
+    /**
+     * Get the grid row of a latitude.
+     *
+     * @param lat the latitude.
+     * @return the row.
+     */
+    public static int getRow(double lat) {
+        int row = (int) Math.floor((lat + 90.0) / CELL_SIZE);
+        return Math.max(0, Math.min(GRID_ROWS - 1, row));
+    }
+
+    /**
+     * Get the cell number of a position.
+     *
+     * @param lon the longitude.
+     * @param lat the latitude.
+     * @return the cell number.
+     */
+    public static long getCell(double lon, double lat) {
+        return getCell(getColumn(lon), getRow(lat));
+    }
+
+    /**
+     * Get the cell number of a grid position.
+     *
+     * @param col the column.
+     * @param row the row.
+     * @return the cell number.
+     */
+    public static long getCell(int col, int row) {
+        return (long) row * GRID_COLUMNS + col;
+    }
+
+    /**
+     * Create the cell index.
+     *
+     * @param sqliteDatabase the db to use.
+     */
+    public static void createIndex(SQLiteDatabase sqliteDatabase) {
+        StringBuilder sB = new StringBuilder();
+        sB.append("CREATE INDEX gpslog_cell_idx ON ");
+        sB.append(TABLE_GPSLOG_DATA);
+        sB.append(" ( ");
+        sB.append(GpsLogsDataTableFields.COLUMN_DATA_CELL.getFieldName());
+        sB.append(" );");
+        sqliteDatabase.execSQL(sB.toString());
+    }
+
+    /**
+     * Add the cell column to a gps log data table that doesn't have it, fill it and index it.
+     * <p/>
+     * <p>Transactions have to be opened and closed if necessary.</p>
+     *
+     * @param sqliteDatabase the db to use.
+     * @throws IOException if something goes wrong.
+     */
+    public static void addCellColumn(SQLiteDatabase sqliteDatabase) throws IOException {
+        String cellField = GpsLogsDataTableFields.COLUMN_DATA_CELL.getFieldName();
+        String lonField = GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName();
+        String latField = GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName();
+        try {
+            sqliteDatabase.execSQL("ALTER TABLE " + TABLE_GPSLOG_DATA + " ADD COLUMN " + cellField + " INTEGER;");
+
+            // same as getCell, the values are never negative, so the cast is a floor
+            StringBuilder sB = new StringBuilder();
+            sB.append("UPDATE ");
+            sB.append(TABLE_GPSLOG_DATA);
+            sB.append(" SET ");
+            sB.append(cellField);
+            sB.append(" = max(0, min(").append(GRID_ROWS - 1).append(", CAST((");
+            sB.append(latField).append(" + 90.0) / ").append(CELL_SIZE).append(" AS INTEGER))) * ").append(GRID_COLUMNS);
+            sB.append(" + max(0, min(").append(GRID_COLUMNS - 1).append(", CAST((");
+            sB.append(lonField).append(" + 180.0) / ").append(CELL_SIZE).append(" AS INTEGER)))");
+            sqliteDatabase.execSQL(sB.toString());
+
+            createIndex(sqliteDatabase);
+        } catch (Exception e) {
+            throw new IOException(e.getLocalizedMessage());
+        }
+    }
+}
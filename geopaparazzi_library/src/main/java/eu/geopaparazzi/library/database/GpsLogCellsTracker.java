@@ -0,0 +1,77 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.database;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of the grid cells (see {@link GpsLogCellUtilities}) that got new gps log points.
+ * <p/>
+ * <p>Recording a log adds points to the gpslog data table all the time, so code that keeps
+ * points in memory uses this instead of the table version and reloads only the changed cells.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public enum GpsLogCellsTracker {
+    INSTANCE;
+
+    private long version = 0;
+    private final Map<Long, Long> cellVersions = new HashMap<>();
+
+    /**
+     * Notify that points have been added to cells.
+     *
+     * @param cells the cells of the added points.
+     */
+    public synchronized void notifyChanged(long... cells) {
+        if (cells.length == 0) {
+            return;
+        }
+        version++;
+        for (long cell : cells) {
+            cellVersions.put(cell, version);
+        }
+    }
+
+    /**
+     * @return the number of changes notified.
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Get the cells that changed after a version.
+     *
+     * @param sinceVersion the version the caller knows.
+     * @param changedCells the set to add the changed cells to.
+     * @return the current version.
+     */
+    public synchronized long getChangedCells(long sinceVersion, Set<Long> changedCells) {
+        if (sinceVersion < version) {
+            for (Map.Entry<Long, Long> entry : cellVersions.entrySet()) {
+                if (entry.getValue() > sinceVersion) {
+                    changedCells.add(entry.getKey());
+                }
+            }
+        }
+        return version;
+    }
+}
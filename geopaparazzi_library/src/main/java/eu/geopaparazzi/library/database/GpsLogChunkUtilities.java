@@ -0,0 +1,458 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static eu.geopaparazzi.library.database.TableDescriptions.GpsLogsChunksTableFields;
+import static eu.geopaparazzi.library.database.TableDescriptions.GpsLogsDataTableFields;
+import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_GPSLOG_CHUNKS;
+import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_GPSLOG_DATA;
+
+/**
+ * Utilities to handle the compact storage of gps logs.
+ * <p/>
+ * <p>A packed log has its points moved from the row per point data table into
+ * chunks of up to {@link #CHUNK_SIZE} points. A chunk stores its bounding box and a blob
+ * of delta encoded fixed point values (1E-7 degrees for coordinates, centimeters for
+ * elevations, milliseconds for timestamps), written as zigzag varints. Since consecutive
+ * fixes are close in space and time, most values take one or two bytes.</p>
+ * <p/>
+ * <p>A packed log that gets continued has its new points in the data table,
+ * after the ones of its chunks. Use {@link #readLog(SQLiteDatabase, long)} to read both.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class GpsLogChunkUtilities {
+
+    /**
+     * Max number of points of a chunk.
+     */
+    public static final int CHUNK_SIZE = 1024;
+
+    private static final double COORDINATE_SCALE = 1E7;
+    private static final double ELEVATION_SCALE = 100.0;
+
+    /**
+     * Receiver of decoded points.
+     */
+    public interface IPointConsumer {
+        /**
+         * Called for every decoded point, in log order.
+         *
+         * @param logId     the id of the log.
+         * @param lon       the longitude.
+         * @param lat       the latitude.
+         * @param elev      the elevation.
+         * @param timestamp the UTC timestamp.
+         */
+        void onPoint(long logId, double lon, double lat, double elev, long timestamp);
+    }
+
+    /**
+     * Create the chunks table.
+     *
+     * @param sqliteDatabase the db to use.
+     * @throws IOException if something goes wrong.
+     */
+    public static void createTables(SQLiteDatabase sqliteDatabase) throws IOException {
+        StringBuilder sB = new StringBuilder();
+        sB.append("CREATE TABLE ");
+        sB.append(TABLE_GPSLOG_CHUNKS);
+        sB.append(" (");
+        sB.append(GpsLogsChunksTableFields.COLUMN_ID.getFieldName()).append(" INTEGER PRIMARY KEY AUTOINCREMENT, ");
+        sB.append(GpsLogsChunksTableFields.COLUMN_LOGID.getFieldName()).append(" INTEGER NOT NULL, ");
+        sB.append(GpsLogsChunksTableFields.COLUMN_CHUNK_INDEX.getFieldName()).append(" INTEGER NOT NULL, ");
+        sB.append(GpsLogsChunksTableFields.COLUMN_POINTS_COUNT.getFieldName()).append(" INTEGER NOT NULL, ");
+        sB.append(GpsLogsChunksTableFields.COLUMN_MINX.getFieldName()).append(" REAL NOT NULL, ");
+        sB.append(GpsLogsChunksTableFields.COLUMN_MAXX.getFieldName()).append(" REAL NOT NULL, ");
+        sB.append(GpsLogsChunksTableFields.COLUMN_MINY.getFieldName()).append(" REAL NOT NULL, ");
+        sB.append(GpsLogsChunksTableFields.COLUMN_MAXY.getFieldName()).append(" REAL NOT NULL, ");
+        sB.append(GpsLogsChunksTableFields.COLUMN_DATA.getFieldName()).append(" BLOB NOT NULL");
+        sB.append(");");
+        String CREATE_TABLE = sB.toString();
+
+        sB = new StringBuilder();
+        sB.append("CREATE UNIQUE INDEX gpslog_chunks_logid_idx ON ");
+        sB.append(TABLE_GPSLOG_CHUNKS);
+        sB.append(" ( ");
+        sB.append(GpsLogsChunksTableFields.COLUMN_LOGID.getFieldName());
+        sB.append(", ");
+        sB.append(GpsLogsChunksTableFields.COLUMN_CHUNK_INDEX.getFieldName());
+        sB.append(" );");
+        String CREATE_INDEX_LOGID = sB.toString();
+
+        sB = new StringBuilder();
+        sB.append("CREATE INDEX gpslog_chunks_x_idx ON ");
+        sB.append(TABLE_GPSLOG_CHUNKS);
+        sB.append(" ( ");
+        sB.append(GpsLogsChunksTableFields.COLUMN_MINX.getFieldName());
+        sB.append(", ");
+        sB.append(GpsLogsChunksTableFields.COLUMN_MAXX.getFieldName());
+        sB.append(" );");
+        String CREATE_INDEX_BBOX = sB.toString();
+
+        try {
+            sqliteDatabase.execSQL(CREATE_TABLE);
+            sqliteDatabase.execSQL(CREATE_INDEX_LOGID);
+            sqliteDatabase.execSQL(CREATE_INDEX_BBOX);
+        } catch (Exception e) {
+            throw new IOException(e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Check if a log has packed points.
+     *
+     * @param sqliteDatabase the db to use.
+     * @param logId          the id of the log.
+     * @return <code>true</code> if the log has chunks.
+     */
+    public static boolean hasChunks(SQLiteDatabase sqliteDatabase, long logId) {
+        String query = "select " + GpsLogsChunksTableFields.COLUMN_ID.getFieldName() + " from " + TABLE_GPSLOG_CHUNKS +
+                " where " + GpsLogsChunksTableFields.COLUMN_LOGID.getFieldName() + " = " + logId + " limit 1";
+        try (Cursor c = sqliteDatabase.rawQuery(query, null)) {
+            return c.moveToFirst();
+        }
+    }
+
+    /**
+     * Read all the points of a log, packed or not, ordered by time.
+     *
+     * @param sqliteDatabase the db to use.
+     * @param logId          the id of the log.
+     * @return the points.
+     */
+    public static GpsLogPoints readLog(SQLiteDatabase sqliteDatabase, long logId) {
+        final GpsLogPoints points = new GpsLogPoints();
+        streamLog(sqliteDatabase, logId, (id, lon, lat, elev, timestamp) -> points.add(lon, lat, elev, timestamp));
+        return points;
+    }
+
+    /**
+     * Pass all the points of a log, packed or not, to a consumer, ordered by time.
+     * <p/>
+     * <p>Only one chunk at a time is held in memory.</p>
+     *
+     * @param sqliteDatabase the db to use.
+     * @param logId          the id of the log.
+     * @param consumer       the receiver of the points.
+     */
+    public static void streamLog(SQLiteDatabase sqliteDatabase, long logId, IPointConsumer consumer) {
+        readChunks(sqliteDatabase, GpsLogsChunksTableFields.COLUMN_LOGID.getFieldName() + " = " + logId, consumer);
+
+        String[] asColumnsToReturn = {//
+                GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName(), //
+                GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName(), //
+                GpsLogsDataTableFields.COLUMN_DATA_ALTIM.getFieldName(), //
+                GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName() //
+        };
+        String strSortOrder = GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName() + " ASC";
+        String strWhere = GpsLogsDataTableFields.COLUMN_LOGID.getFieldName() + "=" + logId;
+        try (Cursor c = sqliteDatabase.query(TABLE_GPSLOG_DATA, asColumnsToReturn, strWhere, null, null, null, strSortOrder)) {
+            while (c.moveToNext()) {
+                consumer.onPoint(logId, c.getDouble(0), c.getDouble(1), c.getDouble(2), c.getLong(3));
+            }
+        }
+    }
+
+    /**
+     * Decode the chunks matching a condition, ordered by log and chunk.
+     *
+     * @param sqliteDatabase the db to use.
+     * @param where          the where condition on the chunks table.
+     * @param consumer       the receiver of the points.
+     */
+    public static void readChunks(SQLiteDatabase sqliteDatabase, String where, IPointConsumer consumer) {
+        String logIdField = GpsLogsChunksTableFields.COLUMN_LOGID.getFieldName();
+        String query = "select " + logIdField + ", " + GpsLogsChunksTableFields.COLUMN_DATA.getFieldName() +
+                " from " + TABLE_GPSLOG_CHUNKS + " where " + where + " order by " + logIdField + ", " +
+                GpsLogsChunksTableFields.COLUMN_CHUNK_INDEX.getFieldName();
+        try (Cursor c = sqliteDatabase.rawQuery(query, null)) {
+            while (c.moveToNext()) {
+                decode(c.getBlob(1), c.getLong(0), consumer);
+            }
+        }
+    }
+
+    /**
+     * Decode only the first or the last chunk of a log.
+     * <p/>
+     * <p>Useful to get the start or end of a packed log without decoding all of it. Note
+     * that the data table points of a continued log come after the ones of the last chunk.</p>
+     *
+     * @param sqliteDatabase the db to use.
+     * @param logId          the id of the log.
+     * @param last           if <code>true</code>, the last chunk is read, else the first.
+     * @param consumer       the receiver of the points.
+     * @return <code>true</code> if the log has chunks.
+     */
+    public static boolean readBoundaryChunk(SQLiteDatabase sqliteDatabase, long logId, boolean last, IPointConsumer consumer) {
+        String query = "select " + GpsLogsChunksTableFields.COLUMN_DATA.getFieldName() + " from " + TABLE_GPSLOG_CHUNKS +
+                " where " + GpsLogsChunksTableFields.COLUMN_LOGID.getFieldName() + " = " + logId + " order by " +
+                GpsLogsChunksTableFields.COLUMN_CHUNK_INDEX.getFieldName() + (last ? " DESC" : " ASC") + " limit 1";
+        try (Cursor c = sqliteDatabase.rawQuery(query, null)) {
+            if (!c.moveToFirst()) {
+                return false;
+            }
+            decode(c.getBlob(0), logId, consumer);
+            return true;
+        }
+    }
+
+    /**
+     * Move the points of a log from the data table to chunks.
+     * <p/>
+     * <p>Existing chunks of the log are rewritten together with the new points. The points
+     * are read in the same transaction that deletes them, so points written meanwhile
+     * (ex. by a running {@link eu.geopaparazzi.library.gps.GpsPointRecorder}) are not lost.</p>
+     *
+     * @param sqliteDatabase the db to use.
+     * @param logId          the id of the log.
+     * @return the number of packed points.
+     * @throws IOException if something goes wrong.
+     */
+    public static int packLog(SQLiteDatabase sqliteDatabase, long logId) throws IOException {
+        GpsLogPoints points;
+        sqliteDatabase.beginTransaction();
+        try {
+            points = readLog(sqliteDatabase, logId);
+            if (points.count == 0) {
+                return 0;
+            }
+            deleteChunks(sqliteDatabase, logId);
+            String query = "delete from " + TABLE_GPSLOG_DATA + " where " + GpsLogsDataTableFields.COLUMN_LOGID.getFieldName() + " = " + logId;
+            SQLiteStatement sqlUpdate = sqliteDatabase.compileStatement(query);
+            sqlUpdate.execute();
+            sqlUpdate.close();
+
+            String sql = "INSERT INTO " + TABLE_GPSLOG_CHUNKS + " (" +
+                    GpsLogsChunksTableFields.COLUMN_LOGID.getFieldName() + ", " +
+                    GpsLogsChunksTableFields.COLUMN_CHUNK_INDEX.getFieldName() + ", " +
+                    GpsLogsChunksTableFields.COLUMN_POINTS_COUNT.getFieldName() + ", " +
+                    GpsLogsChunksTableFields.COLUMN_MINX.getFieldName() + ", " +
+                    GpsLogsChunksTableFields.COLUMN_MAXX.getFieldName() + ", " +
+                    GpsLogsChunksTableFields.COLUMN_MINY.getFieldName() + ", " +
+                    GpsLogsChunksTableFields.COLUMN_MAXY.getFieldName() + ", " +
+                    GpsLogsChunksTableFields.COLUMN_DATA.getFieldName() +
+                    ") VALUES (?,?,?,?,?,?,?,?)";
+            SQLiteStatement insertStatement = sqliteDatabase.compileStatement(sql);
+            try {
+                int chunkIndex = 0;
+                for (int from = 0; from < points.count; from += CHUNK_SIZE) {
+                    int count = Math.min(CHUNK_SIZE, points.count - from);
+                    double minX = Double.POSITIVE_INFINITY;
+                    double maxX = Double.NEGATIVE_INFINITY;
+                    double minY = Double.POSITIVE_INFINITY;
+                    double maxY = Double.NEGATIVE_INFINITY;
+                    for (int i = from; i < from + count; i++) {
+                        minX = Math.min(minX, points.lons[i]);
+                        maxX = Math.max(maxX, points.lons[i]);
+                        minY = Math.min(minY, points.lats[i]);
+                        maxY = Math.max(maxY, points.lats[i]);
+                    }
+                    insertStatement.bindLong(1, logId);
+                    insertStatement.bindLong(2, chunkIndex++);
+                    insertStatement.bindLong(3, count);
+                    insertStatement.bindDouble(4, minX);
+                    insertStatement.bindDouble(5, maxX);
+                    insertStatement.bindDouble(6, minY);
+                    insertStatement.bindDouble(7, maxY);
+                    insertStatement.bindBlob(8, encode(points, from, count));
+                    insertStatement.executeInsert();
+                    insertStatement.clearBindings();
+                }
+            } finally {
+                insertStatement.close();
+            }
+            sqliteDatabase.setTransactionSuccessful();
+        } catch (Exception e) {
+            GPLog.error("GPSLOGCHUNKUTILITIES", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        } finally {
+            sqliteDatabase.endTransaction();
+        }
+        return points.count;
+    }
+
+    /**
+     * Move the points of a packed log back to the data table.
+     *
+     * @param sqliteDatabase the db to use.
+     * @param logId          the id of the log.
+     * @return the number of unpacked points.
+     * @throws IOException if something goes wrong.
+     */
+    public static int unpackLog(SQLiteDatabase sqliteDatabase, long logId) throws IOException {
+        final GpsLogPoints points = new GpsLogPoints();
+        sqliteDatabase.beginTransaction();
+        try {
+            readChunks(sqliteDatabase, GpsLogsChunksTableFields.COLUMN_LOGID.getFieldName() + " = " + logId,
+                    (id, lon, lat, elev, timestamp) -> points.add(lon, lat, elev, timestamp));
+            if (points.count == 0) {
+                return 0;
+            }
+            String sql = "INSERT INTO " + TABLE_GPSLOG_DATA + " (" +
+                    GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName() + ", " +
+                    GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName() + ", " +
+                    GpsLogsDataTableFields.COLUMN_DATA_ALTIM.getFieldName() + ", " +
+                    GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName() + ", " +
+                    GpsLogsDataTableFields.COLUMN_LOGID.getFieldName() + ", " +
+                    GpsLogsDataTableFields.COLUMN_DATA_CELL.getFieldName() +
+                    ") VALUES (?,?,?,?,?,?)";
+            SQLiteStatement insertStatement = sqliteDatabase.compileStatement(sql);
+            try {
+                for (int i = 0; i < points.count; i++) {
+                    insertStatement.bindDouble(1, points.lons[i]);
+                    insertStatement.bindDouble(2, points.lats[i]);
+                    insertStatement.bindDouble(3, points.elevs[i]);
+                    insertStatement.bindLong(4, points.timestamps[i]);
+                    insertStatement.bindLong(5, logId);
+                    insertStatement.bindLong(6, GpsLogCellUtilities.getCell(points.lons[i], points.lats[i]));
+                    insertStatement.executeInsert();
+                    insertStatement.clearBindings();
+                }
+            } finally {
+                insertStatement.close();
+            }
+            deleteChunks(sqliteDatabase, logId);
+            sqliteDatabase.setTransactionSuccessful();
+        } catch (Exception e) {
+            GPLog.error("GPSLOGCHUNKUTILITIES", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        } finally {
+            sqliteDatabase.endTransaction();
+        }
+        return points.count;
+    }
+
+    /**
+     * Delete the chunks of a log.
+     * <p/>
+     * <p>Transactions have to be opened and closed if necessary.</p>
+     *
+     * @param sqliteDatabase the db to use.
+     * @param logId          the id of the log.
+     */
+    public static void deleteChunks(SQLiteDatabase sqliteDatabase, long logId) {
+        String query = "delete from " + TABLE_GPSLOG_CHUNKS + " where " + GpsLogsChunksTableFields.COLUMN_LOGID.getFieldName() + " = " + logId;
+        SQLiteStatement sqlUpdate = sqliteDatabase.compileStatement(query);
+        sqlUpdate.execute();
+        sqlUpdate.close();
+    }
+
+    /**
+     * Encode a range of points into a chunk blob.
+     *
+     * @param points the points.
+     * @param from   the index of the first point to encode.
+     * @param count  the number of points to encode.
+     * @return the blob.
+     */
+    public static byte[] encode(GpsLogPoints points, int from, int count) {
+        // 4 values of max 10 bytes per point, plus the count
+        byte[] buffer = new byte[count * 40 + 5];
+        int pos = writeVarint(buffer, 0, count);
+        long prevLon = 0;
+        long prevLat = 0;
+        long prevElev = 0;
+        long prevTs = 0;
+        for (int i = from; i < from + count; i++) {
+            long lon = Math.round(points.lons[i] * COORDINATE_SCALE);
+            long lat = Math.round(points.lats[i] * COORDINATE_SCALE);
+            long elev = Math.round(points.elevs[i] * ELEVATION_SCALE);
+            long ts = points.timestamps[i];
+            pos = writeVarint(buffer, pos, zigzag(lon - prevLon));
+            pos = writeVarint(buffer, pos, zigzag(lat - prevLat));
+            pos = writeVarint(buffer, pos, zigzag(elev - prevElev));
+            pos = writeVarint(buffer, pos, zigzag(ts - prevTs));
+            prevLon = lon;
+            prevLat = lat;
+            prevElev = elev;
+            prevTs = ts;
+        }
+        return Arrays.copyOf(buffer, pos);
+    }
+
+    /**
+     * Decode a chunk blob.
+     *
+     * @param data     the blob created by {@link #encode(GpsLogPoints, int, int)}.
+     * @param logId    the id of the log, passed to the consumer.
+     * @param consumer the receiver of the points.
+     */
+    public static void decode(byte[] data, long logId, IPointConsumer consumer) {
+        long[] cursor = {0};
+        int count = (int) readVarint(data, cursor);
+        long lon = 0;
+        long lat = 0;
+        long elev = 0;
+        long ts = 0;
+        for (int i = 0; i < count; i++) {
+            lon += unzigzag(readVarint(data, cursor));
+            lat += unzigzag(readVarint(data, cursor));
+            elev += unzigzag(readVarint(data, cursor));
+            ts += unzigzag(readVarint(data, cursor));
+            consumer.onPoint(logId, lon / COORDINATE_SCALE, lat / COORDINATE_SCALE, elev / ELEVATION_SCALE, ts);
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int writeVarint(byte[] buffer, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * Read a varint.
+     *
+     * @param data   the data to read from.
+     * @param cursor a one element array with the position to read at, updated after the read.
+     * @return the value.
+     */
+    private static long readVarint(byte[] data, long[] cursor) {
+        int pos = (int) cursor[0];
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[pos++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        cursor[0] = pos;
+        return value;
+    }
+}
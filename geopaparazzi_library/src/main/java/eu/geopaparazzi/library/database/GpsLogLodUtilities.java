@@ -0,0 +1,211 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import eu.geopaparazzi.library.routing.osmbonuspack.DouglasPeuckerReducer;
+
+import static eu.geopaparazzi.library.database.TableDescriptions.GpsLogsLodTableFields;
+import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_GPSLOG_LOD;
+
+/**
+ * Utilities to handle the pre-simplified levels of detail of gps logs.
+ * <p/>
+ * <p>Every level is a Douglas-Peucker simplification of the log with the
+ * tolerance (in degrees) given in {@link #LEVEL_TOLERANCES}. Each level is
+ * simplified from the previous one, so building the pyramid costs little more
+ * than simplifying the full log once.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class GpsLogLodUtilities {
+
+    /**
+     * The tolerances in degrees of the levels of detail (about 1m, 10m, 100m, 1km).
+     */
+    public static final double[] LEVEL_TOLERANCES = {0.00001, 0.0001, 0.001, 0.01};
+
+    /**
+     * Level to use to signal that the full resolution log is needed.
+     */
+    public static final int FULL_RESOLUTION = -1;
+
+    /**
+     * Create the levels of detail table.
+     *
+     * @param sqliteDatabase the db to use.
+     * @throws IOException if something goes wrong.
+     */
+    public static void createTables(SQLiteDatabase sqliteDatabase) throws IOException {
+        StringBuilder sB = new StringBuilder();
+        sB.append("CREATE TABLE ");
+        sB.append(TABLE_GPSLOG_LOD);
+        sB.append(" (");
+        sB.append(GpsLogsLodTableFields.COLUMN_ID.getFieldName()).append(" INTEGER PRIMARY KEY AUTOINCREMENT, ");
+        sB.append(GpsLogsLodTableFields.COLUMN_LOGID.getFieldName()).append(" INTEGER NOT NULL, ");
+        sB.append(GpsLogsLodTableFields.COLUMN_LEVEL.getFieldName()).append(" INTEGER NOT NULL, ");
+        sB.append(GpsLogsLodTableFields.COLUMN_POINTS_COUNT.getFieldName()).append(" INTEGER NOT NULL, ");
+        sB.append(GpsLogsLodTableFields.COLUMN_DATA.getFieldName()).append(" BLOB NOT NULL");
+        sB.append(");");
+        String CREATE_TABLE = sB.toString();
+
+        sB = new StringBuilder();
+        sB.append("CREATE UNIQUE INDEX gpslog_lod_logid_level_idx ON ");
+        sB.append(TABLE_GPSLOG_LOD);
+        sB.append(" ( ");
+        sB.append(GpsLogsLodTableFields.COLUMN_LOGID.getFieldName());
+        sB.append(", ");
+        sB.append(GpsLogsLodTableFields.COLUMN_LEVEL.getFieldName());
+        sB.append(" );");
+        String CREATE_INDEX = sB.toString();
+
+        sqliteDatabase.beginTransaction();
+        try {
+            sqliteDatabase.execSQL(CREATE_TABLE);
+            sqliteDatabase.execSQL(CREATE_INDEX);
+            sqliteDatabase.setTransactionSuccessful();
+        } catch (Exception e) {
+            throw new IOException(e.getLocalizedMessage());
+        } finally {
+            sqliteDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * Get the level of detail to use for a map zoom level.
+     * <p/>
+     * <p>The coarsest level whose tolerance stays below the size of a screen pixel is chosen.</p>
+     *
+     * @param zoom the map zoom level.
+     * @return the level or {@link #FULL_RESOLUTION}.
+     */
+    public static int getLevelForZoom(double zoom) {
+        double pixelSizeDeg = 360.0 / (256.0 * Math.pow(2, zoom));
+        int level = FULL_RESOLUTION;
+        for (int i = 0; i < LEVEL_TOLERANCES.length; i++) {
+            if (LEVEL_TOLERANCES[i] <= pixelSizeDeg) {
+                level = i;
+            }
+        }
+        return level;
+    }
+
+    /**
+     * (Re)build the levels of detail of a log.
+     *
+     * @param sqliteDatabase the db to use.
+     * @param logId          the id of the log.
+     * @throws IOException if something goes wrong.
+     */
+    public static void buildLods(SQLiteDatabase sqliteDatabase, long logId) throws IOException {
+        GpsLogPoints points = GpsLogChunkUtilities.readLog(sqliteDatabase, logId);
+        int count = points.count;
+        double[] lonLats = new double[count * 2];
+        for (int i = 0; i < count; i++) {
+            lonLats[i * 2] = points.lons[i];
+            lonLats[i * 2 + 1] = points.lats[i];
+        }
+
+        sqliteDatabase.beginTransaction();
+        try {
+            deleteLods(sqliteDatabase, logId);
+            if (count > 1) {
+                String sql = "INSERT INTO " + TABLE_GPSLOG_LOD + " (" +
+                        GpsLogsLodTableFields.COLUMN_LOGID.getFieldName() + ", " +
+                        GpsLogsLodTableFields.COLUMN_LEVEL.getFieldName() + ", " +
+                        GpsLogsLodTableFields.COLUMN_POINTS_COUNT.getFieldName() + ", " +
+                        GpsLogsLodTableFields.COLUMN_DATA.getFieldName() +
+                        ") VALUES (?,?,?,?)";
+                SQLiteStatement insertStatement = sqliteDatabase.compileStatement(sql);
+                try {
+                    double[] previous = lonLats;
+                    int previousCount = count;
+                    for (int level = 0; level < LEVEL_TOLERANCES.length; level++) {
+                        double[] reduced = DouglasPeuckerReducer.reduceWithTolerance(previous, previousCount, LEVEL_TOLERANCES[level]);
+                        int reducedCount = reduced.length / 2;
+                        insertStatement.bindLong(1, logId);
+                        insertStatement.bindLong(2, level);
+                        insertStatement.bindLong(3, reducedCount);
+                        insertStatement.bindBlob(4, toBlob(reduced, reducedCount));
+                        insertStatement.executeInsert();
+                        insertStatement.clearBindings();
+                        previous = reduced;
+                        previousCount = reducedCount;
+                    }
+                } finally {
+                    insertStatement.close();
+                }
+            }
+            sqliteDatabase.setTransactionSuccessful();
+        } catch (Exception e) {
+            GPLog.error("GPSLOGLODUTILITIES", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        } finally {
+            sqliteDatabase.endTransaction();
+        }
+        if (GPLog.LOG_HEAVY)
+            GPLog.addLogEntry("GPSLOGLODUTILITIES", "Built levels of detail for log " + logId + " with " + count + " points.");
+    }
+
+    /**
+     * Delete the levels of detail of a log.
+     * <p/>
+     * <p>Transactions have to be opened and closed if necessary.</p>
+     *
+     * @param sqliteDatabase the db to use.
+     * @param logId          the id of the log.
+     */
+    public static void deleteLods(SQLiteDatabase sqliteDatabase, long logId) {
+        String query = "delete from " + TABLE_GPSLOG_LOD + " where " + GpsLogsLodTableFields.COLUMN_LOGID.getFieldName() + " = " + logId;
+        SQLiteStatement sqlUpdate = sqliteDatabase.compileStatement(query);
+        sqlUpdate.execute();
+        sqlUpdate.close();
+    }
+
+    /**
+     * Pack lon/lat doubles into a blob.
+     *
+     * @param lonLats     the packed lon/lat array.
+     * @param pointsCount the number of points to use.
+     * @return the blob.
+     */
+    public static byte[] toBlob(double[] lonLats, int pointsCount) {
+        ByteBuffer buffer = ByteBuffer.allocate(pointsCount * 2 * 8).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asDoubleBuffer().put(lonLats, 0, pointsCount * 2);
+        return buffer.array();
+    }
+
+    /**
+     * Unpack a blob into lon/lat doubles.
+     *
+     * @param blob the blob created by {@link #toBlob(double[], int)}.
+     * @return the packed lon/lat array.
+     */
+    public static double[] fromBlob(byte[] blob) {
+        double[] lonLats = new double[blob.length / 8];
+        ByteBuffer.wrap(blob).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(lonLats);
+        return lonLats;
+    }
+}
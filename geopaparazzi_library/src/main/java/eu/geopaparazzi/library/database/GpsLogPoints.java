@@ -0,0 +1,104 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.database;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The points of a gps log held in growing primitive arrays.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class GpsLogPoints implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * The longitudes.
+     */
+    public double[] lons;
+    /**
+     * The latitudes.
+     */
+    public double[] lats;
+    /**
+     * The elevations.
+     */
+    public double[] elevs;
+    /**
+     * The UTC timestamps.
+     */
+    public long[] timestamps;
+    /**
+     * The number of valid points in the arrays.
+     */
+    public int count = 0;
+
+    /**
+     * Constructor with default initial capacity.
+     */
+    public GpsLogPoints() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the initial capacity.
+     */
+    public GpsLogPoints(int capacity) {
+        capacity = Math.max(1, capacity);
+        lons = new double[capacity];
+        lats = new double[capacity];
+        elevs = new double[capacity];
+        timestamps = new long[capacity];
+    }
+
+    /**
+     * Add a point.
+     *
+     * @param lon       the longitude.
+     * @param lat       the latitude.
+     * @param elev      the elevation.
+     * @param timestamp the UTC timestamp.
+     */
+    public void add(double lon, double lat, double elev, long timestamp) {
+        ensureCapacity(count + 1);
+        lons[count] = lon;
+        lats[count] = lat;
+        elevs[count] = elev;
+        timestamps[count] = timestamp;
+        count++;
+    }
+
+    /**
+     * Make sure the arrays can hold a number of points.
+     *
+     * @param capacity the number of points.
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > lons.length) {
+            int newCapacity = Math.max(capacity, lons.length * 2);
+            lons = Arrays.copyOf(lons, newCapacity);
+            lats = Arrays.copyOf(lats, newCapacity);
+            elevs = Arrays.copyOf(elevs, newCapacity);
+            timestamps = Arrays.copyOf(timestamps, newCapacity);
+        }
+    }
+}
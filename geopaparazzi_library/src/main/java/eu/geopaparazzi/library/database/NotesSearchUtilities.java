@@ -0,0 +1,216 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.IOException;
+
+import eu.geopaparazzi.library.forms.FormUtilities;
+
+import static eu.geopaparazzi.library.database.TableDescriptions.NotesSearchTableFields;
+import static eu.geopaparazzi.library.database.TableDescriptions.NotesTableFields;
+import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_NOTES;
+import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_NOTES_SEARCH;
+
+/**
+ * Utilities to handle the full text search index of the notes.
+ * <p/>
+ * <p>The index is a sqlite FTS4 table holding text, description and form values
+ * of every note, with the note id as docid.</p>
+ * <p/>
+ * <p>None of the methods opens a transaction, they have to be opened and closed if necessary.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class NotesSearchUtilities {
+
+    /**
+     * Create the search table.
+     *
+     * @param sqliteDatabase the db to use.
+     * @throws IOException if something goes wrong.
+     */
+    public static void createTables(SQLiteDatabase sqliteDatabase) throws IOException {
+        StringBuilder sB = new StringBuilder();
+        sB.append("CREATE VIRTUAL TABLE ");
+        sB.append(TABLE_NOTES_SEARCH);
+        sB.append(" USING fts4(");
+        sB.append(NotesSearchTableFields.COLUMN_TEXT.getFieldName()).append(", ");
+        sB.append(NotesSearchTableFields.COLUMN_DESCRIPTION.getFieldName()).append(", ");
+        sB.append(NotesSearchTableFields.COLUMN_FORMVALUES.getFieldName());
+        String createTable = sB.toString();
+
+        try {
+            // case and accents folding, if the tokenizer is available
+            sqliteDatabase.execSQL(createTable + ", tokenize=unicode61);");
+        } catch (Exception e) {
+            try {
+                sqliteDatabase.execSQL(createTable + ");");
+            } catch (Exception e1) {
+                throw new IOException(e1.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * Add or replace a note in the index.
+     *
+     * @param sqliteDatabase the db to use.
+     * @param noteId         the id of the note.
+     * @param text           the text of the note.
+     * @param description    the optional description.
+     * @param form           the optional form.
+     */
+    public static void indexNote(SQLiteDatabase sqliteDatabase, long noteId, String text, String description, String form) {
+        String query = "INSERT OR REPLACE INTO " + TABLE_NOTES_SEARCH + " (" +
+                NotesSearchTableFields.COLUMN_DOCID.getFieldName() + ", " +
+                NotesSearchTableFields.COLUMN_TEXT.getFieldName() + ", " +
+                NotesSearchTableFields.COLUMN_DESCRIPTION.getFieldName() + ", " +
+                NotesSearchTableFields.COLUMN_FORMVALUES.getFieldName() + ") VALUES (?, ?, ?, ?)";
+        SQLiteStatement statement = sqliteDatabase.compileStatement(query);
+        try {
+            bindNote(statement, noteId, text, description, form);
+            statement.executeInsert();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Re-index a note from the notes table.
+     *
+     * @param sqliteDatabase the db to use.
+     * @param noteId         the id of the note.
+     */
+    public static void reindexNote(SQLiteDatabase sqliteDatabase, long noteId) {
+        String query = "SELECT " + NotesTableFields.COLUMN_TEXT.getFieldName() + ", " +
+                NotesTableFields.COLUMN_DESCRIPTION.getFieldName() + ", " +
+                NotesTableFields.COLUMN_FORM.getFieldName() + " FROM " + TABLE_NOTES +
+                " WHERE " + NotesTableFields.COLUMN_ID.getFieldName() + " = " + noteId;
+        try (Cursor c = sqliteDatabase.rawQuery(query, null)) {
+            if (c.moveToFirst()) {
+                indexNote(sqliteDatabase, noteId, c.getString(0), c.getString(1), c.getString(2));
+            } else {
+                removeNote(sqliteDatabase, noteId);
+            }
+        }
+    }
+
+    /**
+     * Remove a note from the index.
+     *
+     * @param sqliteDatabase the db to use.
+     * @param noteId         the id of the note.
+     */
+    public static void removeNote(SQLiteDatabase sqliteDatabase, long noteId) {
+        sqliteDatabase.execSQL("DELETE FROM " + TABLE_NOTES_SEARCH + " WHERE " +
+                NotesSearchTableFields.COLUMN_DOCID.getFieldName() + " = " + noteId);
+    }
+
+    /**
+     * Remove the notes matching a condition from the index.
+     * <p/>
+     * <p>To be called before deleting them from the notes table.</p>
+     *
+     * @param sqliteDatabase the db to use.
+     * @param notesWhere     the where condition on the notes table.
+     */
+    public static void removeNotes(SQLiteDatabase sqliteDatabase, String notesWhere) {
+        sqliteDatabase.execSQL("DELETE FROM " + TABLE_NOTES_SEARCH + " WHERE " +
+                NotesSearchTableFields.COLUMN_DOCID.getFieldName() + " IN (SELECT " +
+                NotesTableFields.COLUMN_ID.getFieldName() + " FROM " + TABLE_NOTES + " WHERE " + notesWhere + ")");
+    }
+
+    /**
+     * Index all the notes.
+     * <p/>
+     * <p>Used to fill the table in existing projects.</p>
+     *
+     * @param sqliteDatabase the db to use.
+     */
+    public static void indexAllNotes(SQLiteDatabase sqliteDatabase) {
+        String selectQuery = "SELECT " + NotesTableFields.COLUMN_ID.getFieldName() + ", " +
+                NotesTableFields.COLUMN_TEXT.getFieldName() + ", " +
+                NotesTableFields.COLUMN_DESCRIPTION.getFieldName() + ", " +
+                NotesTableFields.COLUMN_FORM.getFieldName() + " FROM " + TABLE_NOTES;
+        String insertQuery = "INSERT OR REPLACE INTO " + TABLE_NOTES_SEARCH + " (" +
+                NotesSearchTableFields.COLUMN_DOCID.getFieldName() + ", " +
+                NotesSearchTableFields.COLUMN_TEXT.getFieldName() + ", " +
+                NotesSearchTableFields.COLUMN_DESCRIPTION.getFieldName() + ", " +
+                NotesSearchTableFields.COLUMN_FORMVALUES.getFieldName() + ") VALUES (?, ?, ?, ?)";
+        SQLiteStatement statement = sqliteDatabase.compileStatement(insertQuery);
+        try (Cursor c = sqliteDatabase.rawQuery(selectQuery, null)) {
+            while (c.moveToNext()) {
+                bindNote(statement, c.getLong(0), c.getString(1), c.getString(2), c.getString(3));
+                statement.executeInsert();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static void bindNote(SQLiteStatement statement, long noteId, String text, String description, String form) {
+        statement.clearBindings();
+        statement.bindLong(1, noteId);
+        bindString(statement, 2, text);
+        bindString(statement, 3, description);
+        String formValues = null;
+        if (form != null && form.length() > 0) {
+            try {
+                formValues = FormUtilities.getSearchableValues(form);
+            } catch (Exception e) {
+                // a broken form can't be searched, but the note can
+                GPLog.error("NotesSearchUtilities", "Could not read the form of note " + noteId, e);
+            }
+        }
+        bindString(statement, 4, formValues);
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value != null) {
+            statement.bindString(index, value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+    /**
+     * Create the full text query for a text typed by the user.
+     * <p/>
+     * <p>Every word of the text has to be found as start of a word of the note.</p>
+     *
+     * @param searchText the text to search.
+     * @return the query for MATCH or <code>null</code>, if the text has no words.
+     */
+    public static String toMatchQuery(String searchText) {
+        if (searchText == null) return null;
+        String[] words = searchText.split("[^\\p{L}\\p{N}]+");
+        StringBuilder sB = new StringBuilder();
+        for (String word : words) {
+            if (word.length() == 0) continue;
+            if (sB.length() > 0) sB.append(' ');
+            sB.append(word).append('*');
+        }
+        if (sB.length() == 0) return null;
+        return sB.toString();
+    }
+}
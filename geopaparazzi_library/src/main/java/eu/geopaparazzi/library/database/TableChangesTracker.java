@@ -0,0 +1,98 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.database;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a version number for the database tables that are changed by the application.
+ * <p/>
+ * <p>Code that writes into a table notifies the change, code that keeps data read from a table
+ * (for example the map layers) remembers the version it read and reloads only if it changed.</p>
+ * <p/>
+ * <p>Tables of the project database are identified by their name, tables of other databases
+ * by the key created with {@link #getKey(String, String)}.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public enum TableChangesTracker {
+    INSTANCE;
+
+    private static final String KEY_SEPARATOR = "#";
+
+    private final ConcurrentHashMap<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    /**
+     * Get the key of a table of a database other than the project database.
+     *
+     * @param dbPath    the path of the database.
+     * @param tableName the table name.
+     * @return the key.
+     */
+    public static String getKey(String dbPath, String tableName) {
+        return dbPath + KEY_SEPARATOR + tableName;
+    }
+
+    /**
+     * Notify that the content of tables changed.
+     *
+     * @param tables the names or keys of the changed tables.
+     */
+    public void notifyChanged(String... tables) {
+        for (String table : tables) {
+            AtomicLong version = versions.get(table);
+            if (version == null) {
+                AtomicLong newVersion = new AtomicLong();
+                version = versions.putIfAbsent(table, newVersion);
+                if (version == null) {
+                    version = newVersion;
+                }
+            }
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * Get the current version of a table.
+     *
+     * @param table the name or key of the table.
+     * @return the number of changes notified for the table.
+     */
+    public long getVersion(String table) {
+        AtomicLong version = versions.get(table);
+        if (version == null) {
+            return 0;
+        }
+        return version.get();
+    }
+
+    /**
+     * Get the sum of the versions of some tables, which changes if any of them changes.
+     *
+     * @param tables the names or keys of the tables.
+     * @return the sum of the versions.
+     */
+    public long getVersionSum(String... tables) {
+        long sum = 0;
+        for (String table : tables) {
+            sum += getVersion(table);
+        }
+        return sum;
+    }
+}
@@ -33,6 +33,10 @@ public class TableDescriptions {
      * The notes table name.
      */
     public static final String TABLE_NOTES = "notes";
+    /**
+     * The notes full text search table name.
+     */
+    public static final String TABLE_NOTES_SEARCH = "notessearch";
     /**
      * Image table name.
      */
@@ -53,6 +57,18 @@ public class TableDescriptions {
      * gpslog properties table name.
      */
     public static final String TABLE_GPSLOG_PROPERTIES = "gpslogsproperties";
+    /**
+     * gpslog levels of detail table name.
+     */
+    public static final String TABLE_GPSLOG_LOD = "gpslogslod";
+    /**
+     * gpslog bounding boxes table name.
+     */
+    public static final String TABLE_GPSLOG_BBOX = "gpslogsbbox";
+    /**
+     * gpslog compact data chunks table name.
+     */
+    public static final String TABLE_GPSLOG_CHUNKS = "gpslogschunks";
 
     public enum MetadataTableFields {
         /**
@@ -361,7 +377,11 @@ public class TableDescriptions {
         /**
          * the id of the parent gps log.
          */
-        COLUMN_LOGID("logid", Long.class);
+        COLUMN_LOGID("logid", Long.class),
+        /**
+         * the grid cell of the point (see {@link GpsLogCellUtilities}).
+         */
+        COLUMN_DATA_CELL("cell", Long.class);
 
         private String fieldName;
         private Class fieldClass;
@@ -419,4 +439,175 @@ public class TableDescriptions {
             return fieldClass;
         }
     }
+
+    @SuppressWarnings("HardCodedStringLiteral")
+    public static enum GpsLogsLodTableFields {
+        /**
+         * id of the log, Generated by the db.
+         */
+        COLUMN_ID("_id", Long.class),
+        /**
+         * the id of the parent gps log.
+         */
+        COLUMN_LOGID("logid", Long.class),
+        /**
+         * the level of detail, 0 being the most detailed simplification.
+         */
+        COLUMN_LEVEL("level", Integer.class),
+        /**
+         * the number of points of the simplified log.
+         */
+        COLUMN_POINTS_COUNT("pointscount", Integer.class),
+        /**
+         * the packed lon/lat doubles of the simplified log.
+         */
+        COLUMN_DATA("data", byte[].class);
+
+        private String fieldName;
+        private Class fieldClass;
+
+        GpsLogsLodTableFields(String fieldName, Class fieldClass) {
+            this.fieldName = fieldName;
+            this.fieldClass = fieldClass;
+        }
+
+        public String getFieldName() {
+            return fieldName;
+        }
+
+        public Class getFieldClass() {
+            return fieldClass;
+        }
+    }
+
+    @SuppressWarnings("HardCodedStringLiteral")
+    public static enum GpsLogsBboxTableFields {
+        /**
+         * the id of the gps log, also primary key.
+         */
+        COLUMN_LOGID("logid", Long.class),
+        /**
+         * the min longitude of the log.
+         */
+        COLUMN_MINX("minx", Double.class),
+        /**
+         * the max longitude of the log.
+         */
+        COLUMN_MAXX("maxx", Double.class),
+        /**
+         * the min latitude of the log.
+         */
+        COLUMN_MINY("miny", Double.class),
+        /**
+         * the max latitude of the log.
+         */
+        COLUMN_MAXY("maxy", Double.class);
+
+        private String fieldName;
+        private Class fieldClass;
+
+        GpsLogsBboxTableFields(String fieldName, Class fieldClass) {
+            this.fieldName = fieldName;
+            this.fieldClass = fieldClass;
+        }
+
+        public String getFieldName() {
+            return fieldName;
+        }
+
+        public Class getFieldClass() {
+            return fieldClass;
+        }
+    }
+
+    @SuppressWarnings("HardCodedStringLiteral")
+    public static enum GpsLogsChunksTableFields {
+        /**
+         * id of the chunk, Generated by the db.
+         */
+        COLUMN_ID("_id", Long.class),
+        /**
+         * the id of the parent gps log.
+         */
+        COLUMN_LOGID("logid", Long.class),
+        /**
+         * the position of the chunk in the log.
+         */
+        COLUMN_CHUNK_INDEX("chunkindex", Integer.class),
+        /**
+         * the number of points in the chunk.
+         */
+        COLUMN_POINTS_COUNT("pointscount", Integer.class),
+        /**
+         * the min longitude of the chunk.
+         */
+        COLUMN_MINX("minx", Double.class),
+        /**
+         * the max longitude of the chunk.
+         */
+        COLUMN_MAXX("maxx", Double.class),
+        /**
+         * the min latitude of the chunk.
+         */
+        COLUMN_MINY("miny", Double.class),
+        /**
+         * the max latitude of the chunk.
+         */
+        COLUMN_MAXY("maxy", Double.class),
+        /**
+         * the encoded points (see {@link GpsLogChunkUtilities}).
+         */
+        COLUMN_DATA("data", byte[].class);
+
+        private String fieldName;
+        private Class fieldClass;
+
+        GpsLogsChunksTableFields(String fieldName, Class fieldClass) {
+            this.fieldName = fieldName;
+            this.fieldClass = fieldClass;
+        }
+
+        public String getFieldName() {
+            return fieldName;
+        }
+
+        public Class getFieldClass() {
+            return fieldClass;
+        }
+    }
+
+    public static enum NotesSearchTableFields {
+        /**
+         * the id of the note, kept as docid of the full text table.
+         */
+        COLUMN_DOCID("docid", Long.class),
+        /**
+         * the text of the note.
+         */
+        COLUMN_TEXT("text", String.class),
+        /**
+         * the description of the note.
+         */
+        COLUMN_DESCRIPTION("description", String.class),
+        /**
+         * the values of the form of the note.
+         */
+        COLUMN_FORMVALUES("formvalues", String.class);
+
+        private String fieldName;
+        private Class fieldClass;
+
+        NotesSearchTableFields(String fieldName, Class fieldClass) {
+            this.fieldName = fieldName;
+            this.fieldClass = fieldClass;
+        }
+
+        public String getFieldName() {
+            return fieldName;
+        }
+
+        public Class getFieldClass() {
+            return fieldClass;
+        }
+    }
 }
@@ -750,6 +750,43 @@ public class FormUtilities {
         return sB.toString();
     }
 
+    /**
+     * Get the values of a form string that make sense to search for.
+     * <p/>
+     * <p>Images, sketches, maps and hidden values are left out.</p>
+     *
+     * @param formString the form.
+     * @return the values separated by newlines.
+     * @throws Exception if something goes wrong.
+     */
+    public static String getSearchableValues(String formString) throws Exception {
+        StringBuilder sB = new StringBuilder();
+        if (formString != null && formString.length() > 0) {
+            JSONObject sectionObject = new JSONObject(formString);
+            List<String> formsNames = TagsManager.getFormNames4Section(sectionObject);
+            for (String formName : formsNames) {
+                JSONObject form4Name = TagsManager.getForm4Name(formName, sectionObject);
+                JSONArray formItems = TagsManager.getFormItems(form4Name);
+                for (int i = 0; i < formItems.length(); i++) {
+                    JSONObject formItem = formItems.getJSONObject(i);
+                    if (!formItem.has(FormUtilities.TAG_VALUE) || !formItem.has(FormUtilities.TAG_TYPE)) {
+                        continue;
+                    }
+                    String type = formItem.getString(FormUtilities.TAG_TYPE);
+                    if (type.equals(FormUtilities.TYPE_PICTURES) || type.equals(FormUtilities.TYPE_MAP)
+                            || type.equals(FormUtilities.TYPE_SKETCH) || type.equals(FormUtilities.TYPE_HIDDEN)) {
+                        continue;
+                    }
+                    String value = formItem.getString(FormUtilities.TAG_VALUE).trim();
+                    if (value.length() > 0) {
+                        sB.append(value).append("\n");
+                    }
+                }
+            }
+        }
+        return sB.toString();
+    }
+
     /**
      * Get the images paths out of a form string.
      *
@@ -0,0 +1,273 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.gps;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.database.GpsLogCellUtilities;
+import eu.geopaparazzi.library.database.GpsLogCellsTracker;
+import eu.geopaparazzi.library.database.TableChangesTracker;
+
+import static eu.geopaparazzi.library.database.TableDescriptions.GpsLogsDataTableFields;
+import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_GPSLOG_DATA;
+
+/**
+ * A write-behind recorder for gps log points.
+ * <p/>
+ * <p>Points are kept in a bounded ring buffer of primitive arrays and written to
+ * the gpslog data table in a single transaction through a reused compiled statement,
+ * once the buffer reaches the flush size or the oldest buffered point gets too old.</p>
+ * <p/>
+ * <p>If the buffer is full and the database can't be written, the oldest points
+ * are dropped and counted.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class GpsPointRecorder {
+    /**
+     * Default number of points that triggers a flush.
+     */
+    public static final int DEFAULT_FLUSH_SIZE = 30;
+    /**
+     * Default max age of a buffered point before a flush is triggered.
+     */
+    public static final long DEFAULT_FLUSH_AGE_MILLIS = 30000;
+    /**
+     * Default capacity of the ring buffer.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final SQLiteDatabase database;
+    private final long logId;
+    private final int flushSize;
+    private final long flushAgeMillis;
+
+    private final double[] lons;
+    private final double[] lats;
+    private final double[] elevs;
+    private final long[] timestamps;
+    private int head = 0;
+    private int size = 0;
+    private long oldestBufferedMillis = -1;
+
+    private SQLiteStatement insertStatement;
+
+    private long bufferedCount = 0;
+    private long flushedCount = 0;
+    private long droppedCount = 0;
+
+    /**
+     * Constructor with default sizes.
+     *
+     * @param database the database to write to.
+     * @param logId    the id of the log the points belong to.
+     */
+    public GpsPointRecorder(SQLiteDatabase database, long logId) {
+        this(database, logId, DEFAULT_CAPACITY, DEFAULT_FLUSH_SIZE, DEFAULT_FLUSH_AGE_MILLIS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param database       the database to write to.
+     * @param logId          the id of the log the points belong to.
+     * @param capacity       the max number of points kept in memory.
+     * @param flushSize      the number of buffered points that triggers a flush.
+     * @param flushAgeMillis the age of the oldest buffered point that triggers a flush.
+     */
+    public GpsPointRecorder(SQLiteDatabase database, long logId, int capacity, int flushSize, long flushAgeMillis) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity needs to be positive.");
+        }
+        this.database = database;
+        this.logId = logId;
+        this.flushSize = Math.min(Math.max(1, flushSize), capacity);
+        this.flushAgeMillis = flushAgeMillis;
+        lons = new double[capacity];
+        lats = new double[capacity];
+        elevs = new double[capacity];
+        timestamps = new long[capacity];
+    }
+
+    /**
+     * Add a point to the buffer, flushing if necessary.
+     *
+     * @param lon       the longitude.
+     * @param lat       the latitude.
+     * @param elev      the elevation.
+     * @param timestamp the UTC timestamp of the point.
+     * @return <code>false</code> if the point was not valid and has been ignored.
+     */
+    public synchronized boolean addPoint(double lon, double lat, double elev, long timestamp) {
+        if (lon < -180 || lon > 180 || lat < -90 || lat > 90 || Double.isNaN(lon) || Double.isNaN(lat)) {
+            return false;
+        }
+        int capacity = lons.length;
+        if (size == capacity) {
+            // last chance before losing data
+            flush();
+            if (size == capacity) {
+                // overwrite the oldest point
+                head = (head + 1) % capacity;
+                size--;
+                droppedCount++;
+            }
+        }
+        int index = (head + size) % capacity;
+        lons[index] = lon;
+        lats[index] = lat;
+        elevs[index] = elev;
+        timestamps[index] = timestamp;
+        if (size == 0) {
+            oldestBufferedMillis = System.currentTimeMillis();
+        }
+        size++;
+        bufferedCount++;
+
+        if (size >= flushSize || isOlderThanFlushAge()) {
+            flush();
+        }
+        return true;
+    }
+
+    /**
+     * @return <code>true</code> if there are buffered points older than the flush age.
+     */
+    public synchronized boolean isOlderThanFlushAge() {
+        return size > 0 && System.currentTimeMillis() - oldestBufferedMillis >= flushAgeMillis;
+    }
+
+    /**
+     * Write all buffered points to the database in one transaction.
+     * <p/>
+     * <p>If the write fails, the points are kept in the buffer for the next attempt.</p>
+     *
+     * @return the number of points written.
+     */
+    public synchronized int flush() {
+        if (size == 0) {
+            return 0;
+        }
+        int written = 0;
+        long[] cells = new long[size];
+        database.beginTransaction();
+        try {
+            if (insertStatement == null) {
+                String sql = "INSERT INTO " + TABLE_GPSLOG_DATA + " (" +
+                        GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName() + ", " +
+                        GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName() + ", " +
+                        GpsLogsDataTableFields.COLUMN_DATA_ALTIM.getFieldName() + ", " +
+                        GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName() + ", " +
+                        GpsLogsDataTableFields.COLUMN_LOGID.getFieldName() + ", " +
+                        GpsLogsDataTableFields.COLUMN_DATA_CELL.getFieldName() +
+                        ") VALUES (?,?,?,?,?,?)";
+                insertStatement = database.compileStatement(sql);
+            }
+            int capacity = lons.length;
+            for (int i = 0; i < size; i++) {
+                int index = (head + i) % capacity;
+                insertStatement.bindDouble(1, lons[index]);
+                insertStatement.bindDouble(2, lats[index]);
+                insertStatement.bindDouble(3, elevs[index]);
+                insertStatement.bindLong(4, timestamps[index]);
+                insertStatement.bindLong(5, logId);
+                cells[i] = GpsLogCellUtilities.getCell(lons[index], lats[index]);
+                insertStatement.bindLong(6, cells[i]);
+                insertStatement.executeInsert();
+                insertStatement.clearBindings();
+            }
+            database.setTransactionSuccessful();
+            written = size;
+        } catch (Exception e) {
+            GPLog.error(this, "Could not flush the buffered gps points.", e);
+        } finally {
+            database.endTransaction();
+        }
+        if (written > 0) {
+            head = 0;
+            size = 0;
+            oldestBufferedMillis = -1;
+            flushedCount += written;
+            TableChangesTracker.INSTANCE.notifyChanged(TABLE_GPSLOG_DATA);
+            GpsLogCellsTracker.INSTANCE.notifyChanged(cells);
+        }
+        return written;
+    }
+
+    /**
+     * Flush the remaining points and release the compiled statement.
+     */
+    public synchronized void close() {
+        flush();
+        if (insertStatement != null) {
+            insertStatement.close();
+            insertStatement = null;
+        }
+    }
+
+    /**
+     * @return the id of the log the points are recorded to.
+     */
+    public long getLogId() {
+        return logId;
+    }
+
+    /**
+     * @return the max age of a buffered point before it gets flushed.
+     */
+    public long getFlushAgeMillis() {
+        return flushAgeMillis;
+    }
+
+    /**
+     * @return the number of points currently waiting in the buffer.
+     */
+    public synchronized int getPendingCount() {
+        return size;
+    }
+
+    /**
+     * @return the total number of points that entered the buffer.
+     */
+    public synchronized long getBufferedCount() {
+        return bufferedCount;
+    }
+
+    /**
+     * @return the total number of points written to the database.
+     */
+    public synchronized long getFlushedCount() {
+        return flushedCount;
+    }
+
+    /**
+     * @return the total number of points lost because the buffer was full.
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "GpsPointRecorder{logId=" + logId + ", buffered=" + bufferedCount + ", flushed=" + flushedCount +
+                ", dropped=" + droppedCount + ", pending=" + size + "}";
+    }
+}
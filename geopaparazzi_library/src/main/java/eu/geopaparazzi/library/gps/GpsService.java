@@ -37,7 +37,9 @@ import android.location.LocationManager;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Process;
 import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.widget.Toast;
@@ -54,6 +56,7 @@ import eu.geopaparazzi.library.database.IGpsLogDbHelper;
 import eu.geopaparazzi.library.util.LibraryConstants;
 import eu.geopaparazzi.library.util.PositionUtilities;
 import eu.geopaparazzi.library.util.TimeUtilities;
+import eu.geopaparazzi.library.util.TrackStatistics;
 import eu.geopaparazzi.library.util.debug.TestMock;
 
 import static eu.geopaparazzi.library.util.LibraryConstants.DEFAULT_LOG_WIDTH;
@@ -200,8 +203,15 @@ public class GpsService extends Service implements LocationListener, Listener {
 
     private GpsStatus mStatus;
     private long currentRecordedLogId = -1;
+    /**
+     * The write-behind recorder of the currently logged points.
+     */
+    private volatile GpsPointRecorder pointRecorder;
+    private HandlerThread loggingThread;
+    private Handler loggingHandler;
+    private LoggingSession loggingSession;
     private volatile boolean gotFix;
-    private boolean isDatabaseLogging = false;
+    private volatile boolean isDatabaseLogging = false;
     private boolean isListeningForUpdates = false;
     private boolean isProviderEnabled;
     private Handler toastHandler;
@@ -367,6 +377,11 @@ public class GpsService extends Service implements LocationListener, Listener {
 
     /**
      * Starts logging into the database.
+     * <p/>
+     * <p>Logging is a push pipeline fed by {@link #onLocationChanged(Location)}: every fix
+     * is handed to a dedicated handler thread, where it goes through the interval filter,
+     * the min distance filter and finally into the {@link GpsPointRecorder}. No polling
+     * is involved.</p>
      *
      * @param logName         a name for the new log or <code>null</code>.
      * @param continueLastLog if true, the last previous log is continued.
@@ -379,170 +394,270 @@ public class GpsService extends Service implements LocationListener, Listener {
         }
         isDatabaseLogging = true;
 
-        Thread t = new Thread() {
-
+        if (loggingThread != null) {
+            // leftover of a run that failed to start
+            loggingThread.quitSafely();
+        }
+        HandlerThread thread = new HandlerThread("GpsLoggingThread", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        loggingThread = thread;
+        loggingHandler = new Handler(thread.getLooper());
+        loggingSession = new LoggingSession(loggingHandler, logName, continueLastLog, dbHelper);
+        final LoggingSession session = loggingSession;
+        loggingHandler.post(new Runnable() {
+            @Override
             public void run() {
-                try {
+                session.start();
+            }
+        });
 
-                    SQLiteDatabase sqliteDatabase = dbHelper.getDatabase();
+        Toast.makeText(GpsService.this, R.string.gpsloggingon, Toast.LENGTH_SHORT).show();
+    }
 
-                    long gpsLogId = -1;
-                    if (continueLastLog) {
-                        try {
-                            log("Continue from last log...");
-                            gpsLogId = dbHelper.getLastLogId();
-                            log("...with log id: " + gpsLogId);
-                        } catch (Exception e) {
-                            // ignore and create a new one
-                        }
-                    }
+    private void stopDatabaseLogging() {
+        isDatabaseLogging = false;
+        final LoggingSession session = loggingSession;
+        Handler handler = loggingHandler;
+        HandlerThread thread = loggingThread;
+        loggingSession = null;
+        loggingHandler = null;
+        loggingThread = null;
+        final GpsPointRecorder recorder = pointRecorder;
+        if (handler != null && recorder != null) {
+            // flush before the pending fixes, the logging thread might not get to the stop if the service is destroyed
+            handler.postAtFrontOfQueue(new Runnable() {
+                @Override
+                public void run() {
+                    recorder.flush();
+                }
+            });
+        }
+        if (handler != null && session != null) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    session.stop();
+                }
+            });
+        }
+        if (thread != null) {
+            // pending fixes and the stop are still processed before the thread ends
+            thread.quitSafely();
+        }
+    }
 
-                    if (gpsLogId < 0) {
-                        long now = System.currentTimeMillis();
-                        gpsLogId = dbHelper.addGpsLog(now, now, 0, logName, DEFAULT_LOG_WIDTH, "red", true);
-                        log("Beginning a new log with log id: " + gpsLogId);
-                    }
-                    currentRecordedLogId = gpsLogId;
-                    log("GPS Start logging. Logid: " + gpsLogId);
+    /**
+     * Hands a new fix over to the logging thread, if logging is active.
+     *
+     * @param location the new location.
+     */
+    private void pushToLogging(final GpsLocation location) {
+        if (!isDatabaseLogging || !(gotFix || isMockMode)) {
+            return;
+        }
+        final LoggingSession session = loggingSession;
+        Handler handler = loggingHandler;
+        if (session != null && handler != null) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    session.onFix(location);
+                }
+            });
+        }
+    }
 
-                    // get preferences
-                    String minDistanceStr = preferences.getString(PREFS_KEY_GPSLOGGINGDISTANCE,
-                            String.valueOf(GPS_LOGGING_DISTANCE));
-                    float minDistance = 1f;
-                    try {
-                        minDistance = Float.parseFloat(minDistanceStr);
-                    } catch (Exception e) {
-                        GPLog.error(this, null, e);
-                    }
-                    String intervalStr = preferences
-                            .getString(PREFS_KEY_GPSLOGGINGINTERVAL, String.valueOf(GPS_LOGGING_INTERVAL));
-                    int waitForSecs = 3;
+    /**
+     * The state of a single logging run.
+     * <p/>
+     * <p>All methods are meant to be called on the logging thread.</p>
+     */
+    private class LoggingSession {
+        private final Handler handler;
+        private final String logName;
+        private final boolean continueLastLog;
+        private final IGpsLogDbHelper dbHelper;
+
+        private long gpsLogId = -1;
+        private GpsPointRecorder recorder;
+        private float minDistance = 1f;
+        private long minAddPointIntervalMillis = 3000L;
+
+        private GpsLocation previousLogLocation = null;
+        private long previousGpsLocationTime = -1;
+        private boolean ageFlushScheduled = false;
+
+        private long fixesReceived = 0;
+        private long fixesSkippedByInterval = 0;
+        private long fixesSkippedByDistance = 0;
+        private long startMillis;
+
+        private final Runnable ageFlushRunnable = new Runnable() {
+            @Override
+            public void run() {
+                ageFlushScheduled = false;
+                if (recorder != null) {
+                    recorder.flush();
+                }
+            }
+        };
+
+        LoggingSession(Handler handler, String logName, boolean continueLastLog, IGpsLogDbHelper dbHelper) {
+            this.handler = handler;
+            this.logName = logName;
+            this.continueLastLog = continueLastLog;
+            this.dbHelper = dbHelper;
+        }
+
+        void start() {
+            try {
+                startMillis = SystemClock.elapsedRealtime();
+                SQLiteDatabase sqliteDatabase = dbHelper.getDatabase();
+
+                if (continueLastLog) {
                     try {
-                        waitForSecs = Integer.parseInt(intervalStr);
+                        log("Continue from last log...");
+                        gpsLogId = dbHelper.getLastLogId();
+                        log("...with log id: " + gpsLogId);
                     } catch (Exception e) {
-                        GPLog.error(this, null, e);
-                    }
-                    long minAddPointIntervalMillis = waitForSecs * 1000L;
-                    if (DO_WHILE_LOOP_LOG) {
-                        GPLog.addLogEntry(GpsService.this, "GPS waiting interval: " + waitForSecs);
-                        GPLog.addLogEntry(GpsService.this, "GPS min distance: " + minDistance);
+                        // ignore and create a new one
                     }
+                }
 
-                    long defaultWaitMillis = 300;
-                    long previousGpsLocationTime = -1;
-                    currentPointsNum = 0;
-                    currentDistance = 0;
-                    GpsLocation previousLogLocation = null;
-                    while (isDatabaseLogging) {
-                        if (gotFix || isMockMode) {
-                            if (lastGpsLocation == null) {
-                                // no location or no previouslocation came in, we wait
-                                if (!holdABitAndCheckLoggingMillis(defaultWaitMillis)) {
-                                    break;
-                                }
-                                continue;
-                            }
-                            if (previousLogLocation == null) {
-                                previousLogLocation = lastGpsLocation;
-                                // no location or no previouslocation came in, we wait
-                                if (!holdABitAndCheckLoggingMillis(defaultWaitMillis)) {
-                                    break;
-                                }
-                                continue;
-                            }
-                            long time = lastGpsLocation.getTime();
-                            if (time - previousGpsLocationTime < minAddPointIntervalMillis) {
-                                // the min interval didn't pass, so not adding the point
-                                if (!holdABitAndCheckLoggingMillis(defaultWaitMillis)) {
-                                    break;
-                                }
-                                continue;
-                            }
-                            previousGpsLocationTime = time;
-
-                            double recLon = lastGpsLocation.getLongitude();
-                            double recLat = lastGpsLocation.getLatitude();
-                            double recAlt = lastGpsLocation.getAltitude();
-
-                            double lastDistance = lastGpsLocation.distanceTo(previousLogLocation);
-                            if (lastDistance < minDistance) {
-                                // the min distance filter didn't pass, we wait
-                                if (!holdABitAndCheckLoggingMillis(defaultWaitMillis)) {
-                                    break;
-                                }
-                                continue;
-                            }
-                            try {
-                                if (isDatabaseLogging) {
-                                    dbHelper.addGpsLogDataPoint(sqliteDatabase, gpsLogId, recLon, recLat, recAlt,
-                                            lastGpsLocation.getTime());
-                                }
-                                previousLogLocation = lastGpsLocation;
-                            } catch (Exception e) {
-                                // we log the exception and try to go on
-                                GPLog.error(this, "Point in db writing error!", e);
-                            }
-                            currentPointsNum++;
-                            currentDistance = currentDistance + lastDistance;
-                        }
-                        if (!holdABitAndCheckLoggingMillis(defaultWaitMillis)) {
-                            break;
-                        }
-                    }
+                if (gpsLogId < 0) {
+                    long now = System.currentTimeMillis();
+                    gpsLogId = dbHelper.addGpsLog(now, now, 0, logName, DEFAULT_LOG_WIDTH, "red", true);
+                    log("Beginning a new log with log id: " + gpsLogId);
+                }
+                currentRecordedLogId = gpsLogId;
+                recorder = new GpsPointRecorder(sqliteDatabase, gpsLogId);
+                pointRecorder = recorder;
+                log("GPS Start logging. Logid: " + gpsLogId);
+
+                // get preferences
+                String minDistanceStr = preferences.getString(PREFS_KEY_GPSLOGGINGDISTANCE,
+                        String.valueOf(GPS_LOGGING_DISTANCE));
+                try {
+                    minDistance = Float.parseFloat(minDistanceStr);
+                } catch (Exception e) {
+                    GPLog.error(this, null, e);
+                }
+                String intervalStr = preferences
+                        .getString(PREFS_KEY_GPSLOGGINGINTERVAL, String.valueOf(GPS_LOGGING_INTERVAL));
+                int waitForSecs = 3;
+                try {
+                    waitForSecs = Integer.parseInt(intervalStr);
+                } catch (Exception e) {
+                    GPLog.error(this, null, e);
+                }
+                minAddPointIntervalMillis = waitForSecs * 1000L;
+                if (DO_WHILE_LOOP_LOG) {
+                    GPLog.addLogEntry(GpsService.this, "GPS waiting interval: " + waitForSecs);
+                    GPLog.addLogEntry(GpsService.this, "GPS min distance: " + minDistance);
+                }
 
-                    if (currentPointsNum < 4 && !continueLastLog) {
-                        log("Removing gpslog, since too few points were added. Logid: " + gpsLogId);
-                        dbHelper.deleteGpslog(gpsLogId);
-                    } else {
-                        // set the end time stamp and the total distance for the track
-                        long end = System.currentTimeMillis();
-                        dbHelper.setEndTs(gpsLogId, end);
-                        dbHelper.setTrackLengthm(gpsLogId, currentDistance);
-                    }
+                currentPointsNum = 0;
+                currentDistance = 0;
+            } catch (Exception e) {
+                handleLoggingError(e);
+                isDatabaseLogging = false;
+                recorder = null;
+                pointRecorder = null;
+            }
+        }
 
-                    currentPointsNum = 0;
-                    currentDistance = 0;
-                    currentRecordedLogId = -1;
+        void onFix(GpsLocation location) {
+            if (recorder == null) {
+                return;
+            }
+            fixesReceived++;
 
-                } catch (SQLiteFullException e) {
-                    e.printStackTrace();
-                    String msg = getResources().getString(R.string.error_disk_full);
-                    GPLog.error(this, msg, e);
-                    toastHandler.post(new ToastRunnable(msg));
-                } catch (Exception e) {
-                    String msg = getResources().getString(R.string.cantwrite_gpslog);
-                    GPLog.error(this, msg, e);
-                    toastHandler.post(new ToastRunnable(msg));
-                } finally {
-                    isDatabaseLogging = false;
+            // interval filter
+            long time = location.getTime();
+            if (time - previousGpsLocationTime < minAddPointIntervalMillis) {
+                fixesSkippedByInterval++;
+                return;
+            }
+            previousGpsLocationTime = time;
+
+            // min distance filter
+            double lastDistance = 0;
+            if (previousLogLocation != null) {
+                lastDistance = TrackStatistics.distance(previousLogLocation.getLatitude(), previousLogLocation.getLongitude(),
+                        location.getLatitude(), location.getLongitude());
+                if (lastDistance < minDistance) {
+                    fixesSkippedByDistance++;
+                    return;
                 }
-                log("GPS Exit logging...");
             }
 
-            /**
-             * Waits a bit before next gps query.
-             *
-             * @param waitForMillis millis to wait.
-             * @return <code>false</code> if the gps logging got interrupted, <code>true</code> else.
-             */
-            private boolean holdABitAndCheckLoggingMillis(long waitForMillis) {
-                try {
-                    Thread.sleep(waitForMillis);
-                    return isDatabaseLogging;
-                } catch (InterruptedException e) {
-                    String msg = getResources().getString(R.string.cantwrite_gpslog);
-                    GPLog.error(this, msg, e);
-                    return true;
+            // persistence
+            try {
+                if (!recorder.addPoint(location.getLongitude(), location.getLatitude(), location.getAltitude(), time)) {
+                    // invalid coordinates, the point is not in the log
+                    return;
                 }
+                previousLogLocation = location;
+                currentPointsNum++;
+                currentDistance = currentDistance + lastDistance;
+            } catch (Exception e) {
+                // we log the exception and try to go on
+                GPLog.error(this, "Point in db writing error!", e);
             }
-        };
-        t.start();
 
-        Toast.makeText(GpsService.this, R.string.gpsloggingon, Toast.LENGTH_SHORT).show();
-    }
+            if (!ageFlushScheduled && recorder.getPendingCount() > 0) {
+                handler.postDelayed(ageFlushRunnable, recorder.getFlushAgeMillis());
+                ageFlushScheduled = true;
+            }
+        }
 
-    private void stopDatabaseLogging() {
-        isDatabaseLogging = false;
+        void stop() {
+            if (recorder == null) {
+                return;
+            }
+            handler.removeCallbacks(ageFlushRunnable);
+            try {
+                // write what is still buffered before closing the log
+                recorder.close();
+
+                long elapsed = SystemClock.elapsedRealtime() - startMillis;
+                log("GPS logging pipeline: fixes received=" + fixesReceived + ", skipped by interval=" + fixesSkippedByInterval +
+                        ", skipped by distance=" + fixesSkippedByDistance + ", elapsed millis=" + elapsed);
+                log("GPS points recorder: " + recorder);
+
+                if (currentPointsNum < 4 && !continueLastLog) {
+                    log("Removing gpslog, since too few points were added. Logid: " + gpsLogId);
+                    dbHelper.deleteGpslog(gpsLogId);
+                } else {
+                    // set the end time stamp and the total distance for the track
+                    long end = System.currentTimeMillis();
+                    dbHelper.setEndTs(gpsLogId, end);
+                    dbHelper.setTrackLengthm(gpsLogId, currentDistance);
+                }
+            } catch (Exception e) {
+                handleLoggingError(e);
+            } finally {
+                currentPointsNum = 0;
+                currentDistance = 0;
+                currentRecordedLogId = -1;
+                recorder = null;
+                if (pointRecorder != null && pointRecorder.getLogId() == gpsLogId) {
+                    pointRecorder = null;
+                }
+            }
+            log("GPS Exit logging...");
+        }
+
+        private void handleLoggingError(Exception e) {
+            String msg;
+            if (e instanceof SQLiteFullException) {
+                msg = getResources().getString(R.string.error_disk_full);
+            } else {
+                msg = getResources().getString(R.string.cantwrite_gpslog);
+            }
+            GPLog.error(this, msg, e);
+            toastHandler.post(new ToastRunnable(msg));
+        }
     }
 
     private static void log(String msg) {
@@ -601,6 +716,7 @@ public class GpsService extends Service implements LocationListener, Listener {
             PositionUtilities.putGpsLocationInPreferences(preferences, recLon, recLat, recAlt);
             previousLoc = loc;
 
+            pushToLogging(lastGpsLocation);
             broadcast("triggered by onLocationChanged");
         }
     }
@@ -21,8 +21,10 @@ import android.content.Context;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
 import java.util.Date;
 import java.util.List;
 
@@ -30,7 +32,9 @@ import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.util.TimeUtilities;
 
 /**
- * A kmz exporter for notes, logs and pics.
+ * A gpx exporter for notes and logs.
+ * <p/>
+ * <p>Every item is written straight to the file, so the memory used doesn't depend on the size of the export.</p>
  *
  * @author Andrea Antonello (www.hydrologis.com)
  */
@@ -63,9 +67,10 @@ public class GpxExport {
             name = "Geopaparazzi Gpx Export";
         }
 
+        long start = System.currentTimeMillis();
         BufferedWriter bW = null;
         try {
-            bW = new BufferedWriter(new FileWriter(outputFile));
+            bW = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), Charset.forName("UTF-8")));
             bW.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
             bW.write("<gpx\n");
             bW.write("  version=\"1.0\"\n");
@@ -92,7 +97,8 @@ public class GpxExport {
                     + "\"/>\n");
             for (GpxRepresenter gpxRepresenter : gpxRepresenters) {
                 try {
-                    bW.write(gpxRepresenter.toGpxString());
+                    // a failing item closes its elements, the export goes on with the next
+                    gpxRepresenter.writeGpx(bW);
                 } catch (Exception e) {
                     GPLog.error(this, e.getLocalizedMessage(), e);
                 }
@@ -102,5 +108,8 @@ public class GpxExport {
             if (bW != null)
                 bW.close();
         }
+        if (GPLog.LOG_HEAVY)
+            GPLog.addLogEntry(this, "Exported " + gpxRepresenters.size() + " items to " + outputFile + " in " +
+                    (System.currentTimeMillis() - start) + " ms");
     }
 }
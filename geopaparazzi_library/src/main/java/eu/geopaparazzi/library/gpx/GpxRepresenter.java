@@ -18,6 +18,7 @@
 package eu.geopaparazzi.library.gpx;
 
 import java.io.Serializable;
+import java.io.Writer;
 
 /**
  * Interface for objects that are able to represent themself as gpx item.
@@ -53,4 +54,16 @@ public interface GpxRepresenter extends Serializable {
      * @throws Exception if something goes wrong.
      */
     String toGpxString() throws Exception;
+
+    /**
+     * Writes the gpx representation of the object.
+     * <p/>
+     * <p>Large objects should override this to write without building the whole string.</p>
+     *
+     * @param writer the writer to use.
+     * @throws Exception if something goes wrong.
+     */
+    default void writeGpx(Writer writer) throws Exception {
+        writer.write(toGpxString());
+    }
 }
@@ -76,6 +76,58 @@ public class GpxParser {
     private final static Pattern ISO8601_TIME = Pattern
             .compile("(\\d{4})-(\\d\\d)-(\\d\\d)T(\\d\\d):(\\d\\d):(\\d\\d)(?:(\\.\\d+))?(Z)?"); //$NON-NLS-1$
 
+    /**
+     * Converts the string description of the time into milliseconds since epoch.
+     *
+     * @param timeString the string data.
+     * @return date in milliseconds.
+     */
+    static long computeTime(String timeString) {
+        // Time looks like: 2008-04-05T19:24:50Z
+        Matcher m = ISO8601_TIME.matcher(timeString);
+        if (m.matches()) {
+            // get the various elements and reconstruct time as a long.
+            try {
+                int year = Integer.parseInt(m.group(1));
+                int month = Integer.parseInt(m.group(2));
+                int date = Integer.parseInt(m.group(3));
+                int hourOfDay = Integer.parseInt(m.group(4));
+                int minute = Integer.parseInt(m.group(5));
+                int second = Integer.parseInt(m.group(6));
+
+                // handle the optional parameters.
+                int milliseconds = 0;
+
+                String subSecondGroup = m.group(7);
+                if (subSecondGroup != null) {
+                    milliseconds = (int) (1000 * Double.parseDouble(subSecondGroup));
+                }
+
+                boolean utcTime = m.group(8) != null;
+
+                // now we convert into milliseconds since epoch.
+                Calendar c;
+                if (utcTime) {
+                    c = Calendar.getInstance(TimeZone.getTimeZone("GMT")); //$NON-NLS-1$
+                } else {
+                    c = Calendar.getInstance();
+                }
+
+                // calendar months are 0 based
+                c.set(year, month - 1, date, hourOfDay, minute, second);
+                c.set(Calendar.MILLISECOND, 0);
+
+                return c.getTimeInMillis() + milliseconds;
+            } catch (NumberFormatException e) {
+                // format is invalid, we'll return -1 below.
+            }
+
+        }
+
+        // invalid time!
+        return -1;
+    }
+
     /**
      * Handler for the SAX parser.
      */
@@ -188,56 +240,6 @@ public class GpxParser {
             mSuccess = false;
         }
 
-        /**
-         * Converts the string description of the time into milliseconds since epoch.
-         *
-         * @param timeString the string data.
-         * @return date in milliseconds.
-         */
-        private static long computeTime(String timeString) {
-            // Time looks like: 2008-04-05T19:24:50Z
-            Matcher m = ISO8601_TIME.matcher(timeString);
-            if (m.matches()) {
-                // get the various elements and reconstruct time as a long.
-                try {
-                    int year = Integer.parseInt(m.group(1));
-                    int month = Integer.parseInt(m.group(2));
-                    int date = Integer.parseInt(m.group(3));
-                    int hourOfDay = Integer.parseInt(m.group(4));
-                    int minute = Integer.parseInt(m.group(5));
-                    int second = Integer.parseInt(m.group(6));
-
-                    // handle the optional parameters.
-                    int milliseconds = 0;
-
-                    String subSecondGroup = m.group(7);
-                    if (subSecondGroup != null) {
-                        milliseconds = (int) (1000 * Double.parseDouble(subSecondGroup));
-                    }
-
-                    boolean utcTime = m.group(8) != null;
-
-                    // now we convert into milliseconds since epoch.
-                    Calendar c;
-                    if (utcTime) {
-                        c = Calendar.getInstance(TimeZone.getTimeZone("GMT")); //$NON-NLS-1$
-                    } else {
-                        c = Calendar.getInstance();
-                    }
-
-                    c.set(year, month, date, hourOfDay, minute, second);
-
-                    return c.getTimeInMillis() + milliseconds;
-                } catch (NumberFormatException e) {
-                    // format is invalid, we'll return -1 below.
-                }
-
-            }
-
-            // invalid time!
-            return -1;
-        }
-
         /**
          * Handles the location attributes and store them into a {@link LocationPoint}.
          *
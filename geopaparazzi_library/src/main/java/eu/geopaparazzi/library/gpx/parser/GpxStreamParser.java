@@ -0,0 +1,451 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.geopaparazzi.library.gpx.parser;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import eu.geopaparazzi.library.database.GPLog;
+
+/**
+ * A GPX and KML parser that doesn't keep anything in memory.
+ * <p/>
+ * <p>Differently from {@link GpxParser} and {@link KmlParser}, which build the whole
+ * content of the file, every waypoint and line point is passed to an {@link IGpxStreamHandler}
+ * as soon as it is read, so the memory used doesn't depend on the size of the file.</p>
+ * <p/>
+ * <p>Supported are GPX waypoints, tracks (one line per segment) and routes, and KML
+ * placemarks with a Point or a LineString.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class GpxStreamParser {
+    // gpx
+    private final static String NODE_WAYPOINT = "wpt";
+    private final static String NODE_TRACK = "trk";
+    private final static String NODE_TRACK_SEGMENT = "trkseg";
+    private final static String NODE_TRACK_POINT = "trkpt";
+    private final static String NODE_ROUTE = "rte";
+    private final static String NODE_ROUTE_POINT = "rtept";
+    private final static String NODE_NAME = "name";
+    private final static String NODE_TIME = "time";
+    private final static String NODE_ELEVATION = "ele";
+    private final static String NODE_DESCRIPTION = "desc";
+    private final static String ATTR_LONGITUDE = "lon";
+    private final static String ATTR_LATITUDE = "lat";
+    // kml
+    private final static String NODE_PLACEMARK = "Placemark";
+    private final static String NODE_KML_DESCRIPTION = "description";
+    private final static String NODE_POINT = "Point";
+    private final static String NODE_LINESTRING = "LineString";
+    private final static String NODE_COORDINATES = "coordinates";
+
+    private static SAXParserFactory sParserFactory;
+
+    static {
+        sParserFactory = SAXParserFactory.newInstance();
+        sParserFactory.setNamespaceAware(true);
+    }
+
+    /**
+     * The receiver of the parsed data.
+     * <p/>
+     * <p>The line methods are always called in the order start, points, end.</p>
+     */
+    public interface IGpxStreamHandler {
+        /**
+         * A waypoint (or KML point placemark) has been read.
+         *
+         * @param lon         the longitude.
+         * @param lat         the latitude.
+         * @param elev        the elevation or 0.
+         * @param name        the name or <code>null</code>.
+         * @param description the description or <code>null</code>.
+         * @throws Exception if something goes wrong, which stops the parsing.
+         */
+        void onWayPoint(double lon, double lat, double elev, String name, String description) throws Exception;
+
+        /**
+         * A track segment or route starts.
+         *
+         * @param name    the name or <code>null</code>.
+         * @param isRoute <code>true</code> if the line is a route.
+         * @throws Exception if something goes wrong, which stops the parsing.
+         */
+        void onLineStart(String name, boolean isRoute) throws Exception;
+
+        /**
+         * A point of the current line has been read.
+         *
+         * @param lon  the longitude.
+         * @param lat  the latitude.
+         * @param elev the elevation or 0.
+         * @param time the UTC time of the point or -1 if not available.
+         * @throws Exception if something goes wrong, which stops the parsing.
+         */
+        void onLinePoint(double lon, double lat, double elev, long time) throws Exception;
+
+        /**
+         * The current line ended.
+         *
+         * @throws Exception if something goes wrong, which stops the parsing.
+         */
+        void onLineEnd() throws Exception;
+
+        /**
+         * Report the reading progress.
+         *
+         * @param readBytes  the bytes read so far.
+         * @param totalBytes the size of the file.
+         */
+        void onProgress(long readBytes, long totalBytes);
+    }
+
+    private final String fileName;
+    private volatile boolean isCancelled = false;
+
+    /**
+     * Constructor.
+     *
+     * @param fileName the full path of the GPX or KML file to parse.
+     */
+    public GpxStreamParser(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * Stop the parsing as soon as possible.
+     * <p/>
+     * <p>The line being read is closed normally.</p>
+     */
+    public void cancel() {
+        isCancelled = true;
+    }
+
+    /**
+     * @return <code>true</code> if the parsing has been cancelled.
+     */
+    public boolean isCancelled() {
+        return isCancelled;
+    }
+
+    /**
+     * Parse the file.
+     *
+     * @param handler the receiver of the data.
+     * @throws IOException if the file can't be read or the handler fails.
+     */
+    public void parse(IGpxStreamHandler handler) throws IOException {
+        File file = new File(fileName);
+        StreamHandler streamHandler = new StreamHandler(handler);
+        try (InputStream inputStream = new ProgressInputStream(new BufferedInputStream(new FileInputStream(file)), file.length(), handler)) {
+            SAXParser parser = sParserFactory.newSAXParser();
+            // the encoding is taken from the xml declaration
+            parser.parse(new InputSource(inputStream), streamHandler);
+        } catch (CancelledException e) {
+            // close the line being read
+            try {
+                streamHandler.endLine();
+            } catch (Exception ex) {
+                throw new IOException(ex.getLocalizedMessage());
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            GPLog.error(this, null, e);
+            throw new IOException(e.getLocalizedMessage());
+        }
+    }
+
+    private static class CancelledException extends SAXException {
+        CancelledException() {
+            super("Parsing cancelled.");
+        }
+    }
+
+    /**
+     * A stream that reports how much of the file has been read.
+     */
+    private static class ProgressInputStream extends FilterInputStream {
+        private final long totalBytes;
+        private final IGpxStreamHandler handler;
+        private long readBytes = 0;
+
+        ProgressInputStream(InputStream in, long totalBytes, IGpxStreamHandler handler) {
+            super(in);
+            this.totalBytes = totalBytes;
+            this.handler = handler;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read != -1) {
+                readBytes++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                readBytes += read;
+                handler.onProgress(readBytes, totalBytes);
+            }
+            return read;
+        }
+    }
+
+    /**
+     * Handler for the SAX parser, it keeps only the state of the current point.
+     */
+    private class StreamHandler extends DefaultHandler {
+        private final IGpxStreamHandler handler;
+        private final StringBuilder mStringAccumulator = new StringBuilder();
+
+        // current point
+        private boolean inPoint = false;
+        private boolean isValidPoint = false;
+        private double lon;
+        private double lat;
+        private double elev;
+        private long time;
+        private String pointName;
+        private String pointDescription;
+
+        // current line
+        private String trackName;
+        private String routeName;
+        private boolean inRoute = false;
+        private boolean inLine = false;
+
+        // kml
+        private boolean inPlacemark = false;
+        private boolean inKmlPoint = false;
+        private boolean inKmlLine = false;
+        private boolean inCoordinates = false;
+        private final StringBuilder tupleAccumulator = new StringBuilder();
+
+        StreamHandler(IGpxStreamHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String name, Attributes attributes) throws SAXException {
+            if (isCancelled) {
+                throw new CancelledException();
+            }
+            try {
+                if (NODE_TRACK_POINT.equals(localName) || NODE_ROUTE_POINT.equals(localName) || NODE_WAYPOINT.equals(localName)) {
+                    startPoint();
+                    try {
+                        lon = Double.parseDouble(attributes.getValue(ATTR_LONGITUDE));
+                        lat = Double.parseDouble(attributes.getValue(ATTR_LATITUDE));
+                        isValidPoint = true;
+                    } catch (Exception e) {
+                        // wrong data, the point is ignored
+                        isValidPoint = false;
+                    }
+                    if (NODE_ROUTE_POINT.equals(localName) && !inLine) {
+                        // the route name comes before its points
+                        startLine(routeName, true);
+                    }
+                } else if (NODE_TRACK.equals(localName)) {
+                    trackName = null;
+                } else if (NODE_TRACK_SEGMENT.equals(localName)) {
+                    startLine(trackName, false);
+                } else if (NODE_ROUTE.equals(localName)) {
+                    routeName = null;
+                    inRoute = true;
+                } else if (NODE_PLACEMARK.equals(localName)) {
+                    inPlacemark = true;
+                    startPoint();
+                } else if (inPlacemark && NODE_POINT.equals(localName)) {
+                    inKmlPoint = true;
+                } else if (inPlacemark && NODE_LINESTRING.equals(localName)) {
+                    inKmlLine = true;
+                    startLine(pointName, false);
+                } else if (NODE_COORDINATES.equals(localName)) {
+                    inCoordinates = inKmlPoint || inKmlLine;
+                    tupleAccumulator.setLength(0);
+                }
+            } catch (SAXException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new SAXException(e);
+            } finally {
+                mStringAccumulator.setLength(0);
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            if (inCoordinates) {
+                // coordinates of long lines are consumed tuple by tuple, never as a whole
+                for (int i = start; i < start + length; i++) {
+                    char c = ch[i];
+                    if (Character.isWhitespace(c)) {
+                        consumeTuple();
+                    } else {
+                        tupleAccumulator.append(c);
+                    }
+                }
+            } else {
+                mStringAccumulator.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String name) throws SAXException {
+            try {
+                if (NODE_TRACK_POINT.equals(localName) || NODE_ROUTE_POINT.equals(localName)) {
+                    if (inLine && isValidPoint) {
+                        handler.onLinePoint(lon, lat, elev, time);
+                    }
+                    inPoint = false;
+                } else if (NODE_WAYPOINT.equals(localName)) {
+                    if (isValidPoint) {
+                        handler.onWayPoint(lon, lat, elev, pointName, pointDescription);
+                    }
+                    inPoint = false;
+                } else if (NODE_TRACK_SEGMENT.equals(localName)) {
+                    endLine();
+                } else if (NODE_ROUTE.equals(localName)) {
+                    endLine();
+                    inRoute = false;
+                } else if (NODE_NAME.equals(localName)) {
+                    String text = mStringAccumulator.toString().trim();
+                    if (inPoint) {
+                        pointName = text;
+                    } else if (inRoute) {
+                        routeName = text;
+                    } else if (!inLine) {
+                        trackName = text;
+                    }
+                } else if (NODE_DESCRIPTION.equals(localName) || NODE_KML_DESCRIPTION.equals(localName)) {
+                    if (inPoint) {
+                        pointDescription = mStringAccumulator.toString().trim();
+                    }
+                } else if (NODE_ELEVATION.equals(localName)) {
+                    if (inPoint) {
+                        try {
+                            elev = Double.parseDouble(mStringAccumulator.toString().trim());
+                        } catch (NumberFormatException e) {
+                            // keep the default
+                        }
+                    }
+                } else if (NODE_TIME.equals(localName)) {
+                    if (inPoint) {
+                        time = GpxParser.computeTime(mStringAccumulator.toString().trim());
+                    }
+                } else if (NODE_COORDINATES.equals(localName)) {
+                    if (inCoordinates) {
+                        consumeTuple();
+                        inCoordinates = false;
+                    }
+                } else if (NODE_POINT.equals(localName)) {
+                    inKmlPoint = false;
+                } else if (NODE_LINESTRING.equals(localName)) {
+                    endLine();
+                    inKmlLine = false;
+                } else if (NODE_PLACEMARK.equals(localName)) {
+                    if (isValidPoint) {
+                        handler.onWayPoint(lon, lat, elev, pointName, pointDescription);
+                    }
+                    inPlacemark = false;
+                    inPoint = false;
+                }
+            } catch (SAXException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new SAXException(e);
+            }
+        }
+
+        private void startPoint() {
+            inPoint = true;
+            isValidPoint = false;
+            lon = 0;
+            lat = 0;
+            elev = 0;
+            time = -1;
+            pointName = null;
+            pointDescription = null;
+        }
+
+        private void startLine(String lineName, boolean isRoute) throws Exception {
+            endLine();
+            handler.onLineStart(lineName, isRoute);
+            inLine = true;
+        }
+
+        void endLine() throws Exception {
+            if (inLine) {
+                inLine = false;
+                handler.onLineEnd();
+            }
+        }
+
+        /**
+         * Parse a kml lon,lat[,elev] tuple and pass it on.
+         */
+        private void consumeTuple() throws SAXException {
+            if (tupleAccumulator.length() == 0) {
+                return;
+            }
+            String tuple = tupleAccumulator.toString();
+            tupleAccumulator.setLength(0);
+            String[] split = tuple.split(",");
+            if (split.length < 2) {
+                return;
+            }
+            try {
+                double tupleLon = Double.parseDouble(split[0]);
+                double tupleLat = Double.parseDouble(split[1]);
+                double tupleElev = split.length > 2 ? Double.parseDouble(split[2]) : 0;
+                if (inKmlLine) {
+                    handler.onLinePoint(tupleLon, tupleLat, tupleElev, -1);
+                } else {
+                    lon = tupleLon;
+                    lat = tupleLat;
+                    elev = tupleElev;
+                    isValidPoint = true;
+                }
+            } catch (NumberFormatException e) {
+                // wrong data, the tuple is ignored
+            } catch (Exception e) {
+                throw new SAXException(e);
+            }
+        }
+    }
+}
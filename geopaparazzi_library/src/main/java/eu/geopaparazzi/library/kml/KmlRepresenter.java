@@ -18,6 +18,7 @@
 package eu.geopaparazzi.library.kml;
 
 import java.io.Serializable;
+import java.io.Writer;
 import java.util.List;
 
 /**
@@ -34,6 +35,18 @@ public interface KmlRepresenter extends Serializable {
      */
     String toKmlString() throws Exception;
 
+    /**
+     * Writes the kml representation of the object.
+     * <p/>
+     * <p>Large objects should override this to write without building the whole string.</p>
+     *
+     * @param writer the writer to use.
+     * @throws Exception if something goes wrong.
+     */
+    default void writeKml(Writer writer) throws Exception {
+        writer.write(toKmlString());
+    }
+
     /**
      * Getter for image flag.
      *
@@ -19,9 +19,13 @@ package eu.geopaparazzi.library.kml;
 
 import android.content.Context;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.util.List;
 import java.util.TreeSet;
@@ -36,6 +40,8 @@ import eu.geopaparazzi.library.database.Image;
 
 /**
  * A kmz exporter for notes, logs and pics.
+ * <p/>
+ * <p>The kml is written straight into the zip entry, so the memory used doesn't depend on the size of the export.</p>
  *
  * @author Andrea Antonello (www.hydrologis.com)
  */
@@ -68,98 +74,98 @@ public class KmzExport {
             name = "Geopaparazzi Export";
         }
 
-        /*
-         * write the internal kml file
-         */
-        StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-        stringBuilder.append("<kml xmlns=\"http://www.opengis.net/kml/2.2\" xmlns:gx=\"http://www.google.com/kml/ext/2.2\"\n");
-        stringBuilder.append("xmlns:kml=\"http://www.opengis.net/kml/2.2\" xmlns:atom=\"http://www.w3.org/2005/Atom\">\n");
-        stringBuilder.append("<Document>\n");
-        stringBuilder.append("<name>");
-        stringBuilder.append(name);
-        stringBuilder.append("</name>\n");
-        addMarker(stringBuilder, "red-pushpin", "http://maps.google.com/mapfiles/kml/pushpin/red-pushpin.png", 20, 2);
-        addMarker(stringBuilder, "yellow-pushpin", "http://maps.google.com/mapfiles/kml/pushpin/ylw-pushpin.png", 20, 2);
-        addMarker(stringBuilder, "bookmark-icon", "http://maps.google.com/mapfiles/kml/pal4/icon39.png", 16, 16);
-        addMarker(stringBuilder, "camera-icon", "http://maps.google.com/mapfiles/kml/pal4/icon38.png", 16, 16);
-        addMarker(stringBuilder, "info-icon", "http://maps.google.com/mapfiles/kml/pal3/icon35.png", 16, 16);
+        long start = System.currentTimeMillis();
+        FileOutputStream fos = new FileOutputStream(outputFile);
+        ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(fos));
+        try {
+            /*
+             * write the internal kml file straight into the zip entry
+             */
+            ZipEntry entry = new ZipEntry("kml.kml");
+            entry.setMethod(ZipEntry.DEFLATED);
+            zos.putNextEntry(entry);
 
-        for (KmlRepresenter kmlRepresenter : kmlRepresenters) {
-            try {
-                stringBuilder.append(kmlRepresenter.toKmlString());
-            } catch (Exception e) {
-                GPLog.error(this, e.getLocalizedMessage(), e);
-                e.printStackTrace();
-            }
-        }
-        stringBuilder.append("</Document>\n");
-        stringBuilder.append("</kml>\n");
+            // not closed, since that would close the zip
+            Writer writer = new BufferedWriter(new OutputStreamWriter(zos, Charset.forName("UTF-8")));
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            writer.write("<kml xmlns=\"http://www.opengis.net/kml/2.2\" xmlns:gx=\"http://www.google.com/kml/ext/2.2\"\n");
+            writer.write("xmlns:kml=\"http://www.opengis.net/kml/2.2\" xmlns:atom=\"http://www.w3.org/2005/Atom\">\n");
+            writer.write("<Document>\n");
+            writer.write("<name>");
+            writer.write(name);
+            writer.write("</name>\n");
+            addMarker(writer, "red-pushpin", "http://maps.google.com/mapfiles/kml/pushpin/red-pushpin.png", 20, 2);
+            addMarker(writer, "yellow-pushpin", "http://maps.google.com/mapfiles/kml/pushpin/ylw-pushpin.png", 20, 2);
+            addMarker(writer, "bookmark-icon", "http://maps.google.com/mapfiles/kml/pal4/icon39.png", 16, 16);
+            addMarker(writer, "camera-icon", "http://maps.google.com/mapfiles/kml/pal4/icon38.png", 16, 16);
+            addMarker(writer, "info-icon", "http://maps.google.com/mapfiles/kml/pal3/icon35.png", 16, 16);
 
-        byte[] kmlBytes = stringBuilder.toString().getBytes(Charset.forName("UTF-8"));
+            for (KmlRepresenter kmlRepresenter : kmlRepresenters) {
+                try {
+                    // a failing item closes its elements, the export goes on with the next
+                    kmlRepresenter.writeKml(writer);
+                } catch (Exception e) {
+                    GPLog.error(this, e.getLocalizedMessage(), e);
+                    e.printStackTrace();
+                }
+            }
+            writer.write("</Document>\n");
+            writer.write("</kml>\n");
+            writer.flush();
+            zos.closeEntry();
 
-        /*
-         * start adding the kml part
-         */
-        FileOutputStream fos = new FileOutputStream(outputFile);
-        ZipOutputStream zos = new ZipOutputStream(fos);
-        CRC32 crc = new CRC32();
-        String kmlName = "kml.kml";
-        crc.update(kmlBytes);
-        ZipEntry entry = new ZipEntry(kmlName);
-        entry.setMethod(ZipEntry.STORED);
-        entry.setCompressedSize(kmlBytes.length);
-        entry.setSize(kmlBytes.length);
-        entry.setCrc(crc.getValue());
-        zos.putNextEntry(entry);
-        zos.write(kmlBytes);
+            /*
+             * now add all images
+             */
+            CRC32 crc = new CRC32();
+            IImagesDbHelper imagesDbHelper = DefaultHelperClasses.getDefaulfImageHelper();
+            TreeSet<String> addedImages = new TreeSet<String>();
+            for (KmlRepresenter kmlRepresenter : kmlRepresenters) {
+                if (kmlRepresenter.hasImages()) {
+                    List<String> imageIds = kmlRepresenter.getImageIds();
+                    for (String imageId : imageIds) {
+                        long id = Long.parseLong(imageId);
+                        Image image = imagesDbHelper.getImage(id);
+                        String imageName = image.getName();
 
-        /*
-         * now add all images
-         */
-        IImagesDbHelper imagesDbHelper = DefaultHelperClasses.getDefaulfImageHelper();
-        TreeSet<String> addedImages = new TreeSet<String>();
-        for (KmlRepresenter kmlRepresenter : kmlRepresenters) {
-            if (kmlRepresenter.hasImages()) {
-                List<String> imageIds = kmlRepresenter.getImageIds();
-                for (String imageId : imageIds) {
-                    long id = Long.parseLong(imageId);
-                    Image image = imagesDbHelper.getImage(id);
-                    String imageName = image.getName();
+                        if (!addedImages.add(imageName)) {
+                            // don't add double images
+                            continue;
+                        }
+                        byte[] imageData = imagesDbHelper.getImageData(id);
 
-                    if (!addedImages.add(imageName)) {
-                        // don't add double images
-                        continue;
+                        crc.reset();
+                        crc.update(imageData);
+                        ZipEntry imageEntry = new ZipEntry(imageName);
+                        imageEntry.setMethod(ZipEntry.STORED);
+                        imageEntry.setCompressedSize(imageData.length);
+                        imageEntry.setSize(imageData.length);
+                        imageEntry.setCrc(crc.getValue());
+                        zos.putNextEntry(imageEntry);
+                        zos.write(imageData);
                     }
-                    byte[] imageData = imagesDbHelper.getImageData(id);
-
-                    crc.reset();
-                    crc.update(imageData);
-                    ZipEntry imageEntry = new ZipEntry(imageName);
-                    imageEntry.setMethod(ZipEntry.STORED);
-                    imageEntry.setCompressedSize(imageData.length);
-                    imageEntry.setSize(imageData.length);
-                    imageEntry.setCrc(crc.getValue());
-                    zos.putNextEntry(imageEntry);
-                    zos.write(imageData);
                 }
             }
+        } finally {
+            zos.close();
         }
-        zos.close();
+        if (GPLog.LOG_HEAVY)
+            GPLog.addLogEntry(this, "Exported " + kmlRepresenters.size() + " items to " + outputFile + " in " +
+                    (System.currentTimeMillis() - start) + " ms");
     }
 
-    private void addMarker(StringBuilder sb, String alias, String url, int x, int y) throws IOException {
-        sb.append("<Style id=\"" + alias + "\">\n");
-        sb.append("<IconStyle>\n");
-        sb.append("<scale>1.1</scale>\n");
-        sb.append("<Icon>\n");
-        sb.append("<href>" + url + "\n");
-        sb.append("</href>\n");
-        sb.append("</Icon>\n");
-        sb.append("<hotSpot x=\"" + x + "\" y=\"" + y + "\" xunits=\"pixels\" yunits=\"pixels\" />\n");
-        sb.append("</IconStyle>\n");
-        sb.append("<ListStyle>\n");
-        sb.append("</ListStyle>\n");
-        sb.append("</Style>\n");
+    private void addMarker(Writer writer, String alias, String url, int x, int y) throws IOException {
+        writer.write("<Style id=\"" + alias + "\">\n");
+        writer.write("<IconStyle>\n");
+        writer.write("<scale>1.1</scale>\n");
+        writer.write("<Icon>\n");
+        writer.write("<href>" + url + "\n");
+        writer.write("</href>\n");
+        writer.write("</Icon>\n");
+        writer.write("<hotSpot x=\"" + x + "\" y=\"" + y + "\" xunits=\"pixels\" yunits=\"pixels\" />\n");
+        writer.write("</IconStyle>\n");
+        writer.write("<ListStyle>\n");
+        writer.write("</ListStyle>\n");
+        writer.write("</Style>\n");
     }
 }
@@ -19,6 +19,7 @@
 package eu.geopaparazzi.library.routing.osmbonuspack;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Reduces the number of points in a shape using the Douglas-Peucker algorithm. <br>
@@ -151,4 +152,83 @@ public class DouglasPeuckerReducer {
 
         return (area / bottom * 2.0);
     }
+
+    /**
+     * Reduce the number of points of a packed lon/lat shape using the Douglas-Peucker algorithm.
+     * <p/>
+     * <p>Works on primitives and without recursion, so that also very long
+     * gps logs can be reduced without running out of stack.</p>
+     *
+     * @param lonLats     the packed shape as [lon1, lat1, lon2, lat2, ...].
+     * @param pointsCount the number of points to consider from the packed array.
+     * @param tolerance   the tolerance in the unit of the coordinates.
+     * @return the reduced packed shape.
+     */
+    public static double[] reduceWithTolerance(double[] lonLats, int pointsCount, double tolerance) {
+        if (tolerance <= 0 || pointsCount < 3) {
+            return Arrays.copyOf(lonLats, pointsCount * 2);
+        }
+        boolean[] marked = new boolean[pointsCount];
+        marked[0] = marked[pointsCount - 1] = true;
+        int keptCount = 2;
+
+        // stack of [first, last] index pairs still to process
+        int[] stack = new int[64];
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+        stack[stackSize++] = pointsCount - 1;
+        while (stackSize > 0) {
+            int lastIdx = stack[--stackSize];
+            int firstIdx = stack[--stackSize];
+            if (lastIdx <= firstIdx + 1) {
+                continue;
+            }
+            double x1 = lonLats[firstIdx * 2];
+            double y1 = lonLats[firstIdx * 2 + 1];
+            double x2 = lonLats[lastIdx * 2];
+            double y2 = lonLats[lastIdx * 2 + 1];
+            double dx = x2 - x1;
+            double dy = y2 - y1;
+            double segmentLength = Math.hypot(dx, dy);
+
+            double maxDistance = 0.0;
+            int indexFarthest = 0;
+            for (int idx = firstIdx + 1; idx < lastIdx; idx++) {
+                double x = lonLats[idx * 2];
+                double y = lonLats[idx * 2 + 1];
+                double distance;
+                if (segmentLength == 0) {
+                    distance = Math.hypot(x - x1, y - y1);
+                } else {
+                    distance = Math.abs(dy * x - dx * y + x2 * y1 - y2 * x1) / segmentLength;
+                }
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    indexFarthest = idx;
+                }
+            }
+
+            if (maxDistance > tolerance) {
+                marked[indexFarthest] = true;
+                keptCount++;
+                if (stackSize + 4 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[stackSize++] = firstIdx;
+                stack[stackSize++] = indexFarthest;
+                stack[stackSize++] = indexFarthest;
+                stack[stackSize++] = lastIdx;
+            }
+        }
+
+        double[] reduced = new double[keptCount * 2];
+        int index = 0;
+        for (int i = 0; i < pointsCount; i++) {
+            if (marked[i]) {
+                reduced[index++] = lonLats[i * 2];
+                reduced[index++] = lonLats[i * 2 + 1];
+            }
+        }
+        return reduced;
+    }
 }
@@ -212,6 +212,11 @@ public interface LibraryConstants {
      */
     String PREFS_KEY_GPSLOGGINGDISTANCE = "PREFS_KEY_GPS_LOGGING_DISTANCE"; //$NON-NLS-1$
 
+    /**
+     * Key used to store and retrieve if finished gps logs are stored in compact form.
+     */
+    String PREFS_KEY_GPSLOG_COMPACT_STORAGE = "PREFS_KEY_GPSLOG_COMPACT_STORAGE"; //$NON-NLS-1$
+
     /**
      * Key used to store and retrieve the gps mode to use (apply on android listener or just on application base).
      */
@@ -332,6 +337,14 @@ public interface LibraryConstants {
      * Key for tilesource title in preferences.
      */
     String PREFS_KEY_TILESOURCE_TITLE = "PREFS_KEY_TILESOURCE_TITLE";
+    /**
+     * Key for the size budget of the online tile services cache in preferences, in MB.
+     */
+    String PREFS_KEY_TILECACHE_SIZE = "PREFS_KEY_TILECACHE_SIZE";
+    /**
+     * Default size budget of the online tile services cache, in MB.
+     */
+    int DEFAULT_TILECACHE_SIZE = 200;
 
     /**
      * Key to passdatabase ids of objects through intents.
@@ -0,0 +1,293 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.util;
+
+/**
+ * Distances and statistics of tracks held in primitive arrays.
+ * <p/>
+ * <p>The static methods work on ranges of the arrays and write into arrays given by the caller,
+ * so that long logs are processed without allocating per point. Distances are calculated on the
+ * WGS84 ellipsoid as done by {@link android.location.Location#distanceBetween}.</p>
+ * <p/>
+ * <p>An instance holds the summary of a track and can be reused.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TrackStatistics {
+    private static final int MAX_ITERATIONS = 20;
+    private static final double WGS84_A = 6378137.0;
+    private static final double WGS84_B = 6356752.3142;
+    private static final double WGS84_F = (WGS84_A - WGS84_B) / WGS84_A;
+    private static final double A_SQ_MINUS_B_SQ_OVER_B_SQ = (WGS84_A * WGS84_A - WGS84_B * WGS84_B) / (WGS84_B * WGS84_B);
+
+    private double length;
+    private double elevationGain;
+    private double elevationLoss;
+    private long duration;
+    private double maxSpeed;
+
+    /**
+     * Calculate the distance between two points.
+     *
+     * @param lat1 the latitude of the first point.
+     * @param lon1 the longitude of the first point.
+     * @param lat2 the latitude of the second point.
+     * @param lon2 the longitude of the second point.
+     * @return the distance in meters.
+     */
+    public static double distance(double lat1, double lon1, double lat2, double lon2) {
+        if (lat1 == lat2 && lon1 == lon2) {
+            return 0.0;
+        }
+        // Vincenty inverse formula
+        lat1 = Math.toRadians(lat1);
+        lat2 = Math.toRadians(lat2);
+        double l = Math.toRadians(lon2 - lon1);
+
+        double u1 = Math.atan((1.0 - WGS84_F) * Math.tan(lat1));
+        double u2 = Math.atan((1.0 - WGS84_F) * Math.tan(lat2));
+        double cosU1 = Math.cos(u1);
+        double cosU2 = Math.cos(u2);
+        double sinU1 = Math.sin(u1);
+        double sinU2 = Math.sin(u2);
+        double cosU1cosU2 = cosU1 * cosU2;
+        double sinU1sinU2 = sinU1 * sinU2;
+
+        double a = 0.0;
+        double sigma = 0.0;
+        double deltaSigma = 0.0;
+        double lambda = l;
+        for (int iter = 0; iter < MAX_ITERATIONS; iter++) {
+            double lambdaOrig = lambda;
+            double cosLambda = Math.cos(lambda);
+            double sinLambda = Math.sin(lambda);
+            double t1 = cosU2 * sinLambda;
+            double t2 = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+            double sinSigma = Math.sqrt(t1 * t1 + t2 * t2);
+            double cosSigma = sinU1sinU2 + cosU1cosU2 * cosLambda;
+            sigma = Math.atan2(sinSigma, cosSigma);
+            double sinAlpha = (sinSigma == 0) ? 0.0 : cosU1cosU2 * sinLambda / sinSigma;
+            double cosSqAlpha = 1.0 - sinAlpha * sinAlpha;
+            double cos2SM = (cosSqAlpha == 0) ? 0.0 : cosSigma - 2.0 * sinU1sinU2 / cosSqAlpha;
+
+            double uSquared = cosSqAlpha * A_SQ_MINUS_B_SQ_OVER_B_SQ;
+            a = 1 + (uSquared / 16384.0) * (4096.0 + uSquared * (-768 + uSquared * (320.0 - 175.0 * uSquared)));
+            double b = (uSquared / 1024.0) * (256.0 + uSquared * (-128.0 + uSquared * (74.0 - 47.0 * uSquared)));
+            double c = (WGS84_F / 16.0) * cosSqAlpha * (4.0 + WGS84_F * (4.0 - 3.0 * cosSqAlpha));
+            double cos2SMSq = cos2SM * cos2SM;
+            deltaSigma = b * sinSigma * (cos2SM + (b / 4.0) * (cosSigma * (-1.0 + 2.0 * cos2SMSq)
+                    - (b / 6.0) * cos2SM * (-3.0 + 4.0 * sinSigma * sinSigma) * (-3.0 + 4.0 * cos2SMSq)));
+
+            lambda = l + (1.0 - c) * WGS84_F * sinAlpha
+                    * (sigma + c * sinSigma * (cos2SM + c * cosSigma * (-1.0 + 2.0 * cos2SM * cos2SM)));
+            if (Math.abs((lambda - lambdaOrig) / lambda) < 1.0e-12) {
+                break;
+            }
+        }
+        return WGS84_B * a * (sigma - deltaSigma);
+    }
+
+    /**
+     * Calculate the distance of every point from the start of a track.
+     *
+     * @param lons      the longitudes.
+     * @param lats      the latitudes.
+     * @param offset    the index of the first point.
+     * @param count     the number of points.
+     * @param distances the array to fill, starting from index 0, with the distances in meters.
+     * @return the length of the track in meters.
+     */
+    public static double progressiveDistances(double[] lons, double[] lats, int offset, int count, double[] distances) {
+        if (count == 0) return 0;
+        distances[0] = 0;
+        double summed = 0;
+        for (int i = 1; i < count; i++) {
+            int p = offset + i;
+            summed += distance(lats[p - 1], lons[p - 1], lats[p], lons[p]);
+            distances[i] = summed;
+        }
+        return summed;
+    }
+
+    /**
+     * Calculate the speed at every point of a track, over the segment leading to it.
+     * <p/>
+     * <p>The first point and points with the same time as the previous have speed 0.</p>
+     *
+     * @param distances  the progressive distances, as given by {@link #progressiveDistances}.
+     * @param timestamps the times in milliseconds.
+     * @param offset     the index of the first point in the timestamps.
+     * @param count      the number of points.
+     * @param speeds     the array to fill, starting from index 0, with the speeds in meters per second.
+     */
+    public static void speeds(double[] distances, long[] timestamps, int offset, int count, double[] speeds) {
+        if (count == 0) return;
+        speeds[0] = 0;
+        for (int i = 1; i < count; i++) {
+            long deltaTime = timestamps[offset + i] - timestamps[offset + i - 1];
+            speeds[i] = deltaTime > 0 ? (distances[i] - distances[i - 1]) * 1000.0 / deltaTime : 0;
+        }
+    }
+
+    /**
+     * Smooth values with a sliding average.
+     * <p/>
+     * <p>The window is reduced for short series, as in the sliding average of geometries.
+     * The values at the borders, where the window doesn't fit, are kept.</p>
+     *
+     * @param values   the values.
+     * @param offset   the index of the first value.
+     * @param count    the number of values.
+     * @param window   the number of values to average, made odd if necessary.
+     * @param smoothed the array to fill, starting from index 0. It must not be the values array.
+     */
+    public static void slidingAverage(double[] values, int offset, int count, int window, double[] smoothed) {
+        if (count < 4 * window) {
+            window = (int) Math.floor(count * 0.2);
+        }
+        if (window % 2 == 0) {
+            window++;
+        }
+        if (window < 3) {
+            System.arraycopy(values, offset, smoothed, 0, count);
+            return;
+        }
+        int half = window / 2;
+
+        double sum = 0;
+        for (int i = 0; i < window; i++) {
+            sum += values[offset + i];
+        }
+        for (int i = 0; i < count; i++) {
+            if (i < half || i + half >= count - 1) {
+                smoothed[i] = values[offset + i];
+            } else {
+                smoothed[i] = sum / window;
+                sum += values[offset + i + half + 1] - values[offset + i - half];
+            }
+        }
+    }
+
+    /**
+     * Calculate the sum of the elevation increases of a track.
+     *
+     * @param elevs  the elevations.
+     * @param offset the index of the first point.
+     * @param count  the number of points.
+     * @return the elevation gain in meters.
+     */
+    public static double elevationGain(double[] elevs, int offset, int count) {
+        double gain = 0;
+        for (int i = offset + 1; i < offset + count; i++) {
+            double delta = elevs[i] - elevs[i - 1];
+            if (delta > 0)
+                gain += delta;
+        }
+        return gain;
+    }
+
+    /**
+     * Calculate the summary of a track in one pass.
+     *
+     * @param lons       the longitudes.
+     * @param lats       the latitudes.
+     * @param elevs      the elevations.
+     * @param timestamps the times in milliseconds.
+     * @param offset     the index of the first point.
+     * @param count      the number of points.
+     * @return this object, holding the summary.
+     */
+    public TrackStatistics compute(double[] lons, double[] lats, double[] elevs, long[] timestamps, int offset, int count) {
+        length = 0;
+        elevationGain = 0;
+        elevationLoss = 0;
+        duration = 0;
+        maxSpeed = 0;
+        if (count == 0) return this;
+
+        for (int p = offset + 1; p < offset + count; p++) {
+            double distance = distance(lats[p - 1], lons[p - 1], lats[p], lons[p]);
+            length += distance;
+
+            double deltaElev = elevs[p] - elevs[p - 1];
+            if (deltaElev > 0) {
+                elevationGain += deltaElev;
+            } else {
+                elevationLoss -= deltaElev;
+            }
+
+            long deltaTime = timestamps[p] - timestamps[p - 1];
+            if (deltaTime > 0) {
+                maxSpeed = Math.max(maxSpeed, distance * 1000.0 / deltaTime);
+            }
+        }
+        duration = timestamps[offset + count - 1] - timestamps[offset];
+        return this;
+    }
+
+    /**
+     * @return the length in meters.
+     */
+    public double getLength() {
+        return length;
+    }
+
+    /**
+     * @return the sum of the elevation increases in meters.
+     */
+    public double getElevationGain() {
+        return elevationGain;
+    }
+
+    /**
+     * @return the sum of the elevation decreases in meters, as positive value.
+     */
+    public double getElevationLoss() {
+        return elevationLoss;
+    }
+
+    /**
+     * @return the time from the first to the last point in milliseconds.
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return the highest speed over a segment in meters per second.
+     */
+    public double getMaxSpeed() {
+        return maxSpeed;
+    }
+
+    /**
+     * @return the average speed in meters per second.
+     */
+    public double getAverageSpeed() {
+        if (duration <= 0) return 0;
+        return length * 1000.0 / duration;
+    }
+
+    /**
+     * @return the average pace in seconds per kilometer, or 0 if the track has no length.
+     */
+    public double getPace() {
+        if (length <= 0) return 0;
+        return duration / length;
+    }
+}
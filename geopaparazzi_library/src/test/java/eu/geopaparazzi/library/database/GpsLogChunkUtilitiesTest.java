@@ -0,0 +1,122 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.database;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trip tests for the chunk encoding of {@link GpsLogChunkUtilities}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class GpsLogChunkUtilitiesTest {
+    private static final double COORDINATE_DELTA = 0.5E-7;
+    private static final double ELEVATION_DELTA = 0.005;
+
+    @Test
+    public void testRandomWalk() {
+        Random random = new Random(42);
+        GpsLogPoints points = new GpsLogPoints();
+        double lon = 11.0;
+        double lat = 46.0;
+        double elev = 250.0;
+        long ts = 1476000000000L;
+        for (int i = 0; i < GpsLogChunkUtilities.CHUNK_SIZE; i++) {
+            lon += (random.nextDouble() - 0.5) * 1E-4;
+            lat += (random.nextDouble() - 0.5) * 1E-4;
+            elev += (random.nextDouble() - 0.5) * 2;
+            ts += 1000 + random.nextInt(100);
+            points.add(lon, lat, elev, ts);
+        }
+        byte[] data = GpsLogChunkUtilities.encode(points, 0, points.count);
+        checkRoundTrip(points, 0, points.count, data);
+        // close fixes should take a few bytes each
+        assertTrue(data.length < points.count * 12);
+    }
+
+    @Test
+    public void testNegativeValuesAndLargeDeltas() {
+        GpsLogPoints points = new GpsLogPoints();
+        points.add(-180.0, -90.0, -420.5, 0);
+        points.add(180.0, 90.0, 8848.86, Long.MAX_VALUE);
+        points.add(0.0, 0.0, 0.0, 0);
+        points.add(-0.0000001, 0.0000001, -0.01, -1);
+        points.add(179.9999999, -89.9999999, 0.01, Long.MIN_VALUE);
+        points.add(-179.9999999, 89.9999999, -0.01, 1);
+        byte[] data = GpsLogChunkUtilities.encode(points, 0, points.count);
+        checkRoundTrip(points, 0, points.count, data);
+    }
+
+    @Test
+    public void testZeros() {
+        GpsLogPoints points = new GpsLogPoints();
+        for (int i = 0; i < 5; i++) {
+            points.add(0.0, 0.0, 0.0, 0);
+        }
+        byte[] data = GpsLogChunkUtilities.encode(points, 0, points.count);
+        checkRoundTrip(points, 0, points.count, data);
+        // the count and one byte per value
+        assertEquals(1 + 5 * 4, data.length);
+    }
+
+    @Test
+    public void testEmptyAndSinglePoint() {
+        GpsLogPoints points = new GpsLogPoints();
+        checkRoundTrip(points, 0, 0, GpsLogChunkUtilities.encode(points, 0, 0));
+
+        points.add(11.1234567, 46.7654321, 1234.56, 1476000000000L);
+        checkRoundTrip(points, 0, 1, GpsLogChunkUtilities.encode(points, 0, 1));
+    }
+
+    @Test
+    public void testChunkBoundaries() {
+        int chunkSize = GpsLogChunkUtilities.CHUNK_SIZE;
+        GpsLogPoints points = new GpsLogPoints();
+        for (int i = 0; i < chunkSize * 2 + 1; i++) {
+            points.add(-70.0 + i * 1E-5, -33.0 - i * 1E-5, 500.0 - i * 0.01, 1476000000000L + i * 1000L);
+        }
+        for (int from = 0; from < points.count; from += chunkSize) {
+            int count = Math.min(chunkSize, points.count - from);
+            checkRoundTrip(points, from, count, GpsLogChunkUtilities.encode(points, from, count));
+        }
+    }
+
+    private void checkRoundTrip(GpsLogPoints expected, int from, int count, byte[] data) {
+        GpsLogPoints decoded = new GpsLogPoints();
+        final long[] logIds = {-1};
+        GpsLogChunkUtilities.decode(data, 7, (logId, lon, lat, elev, timestamp) -> {
+            logIds[0] = logId;
+            decoded.add(lon, lat, elev, timestamp);
+        });
+        assertEquals(count, decoded.count);
+        if (count > 0) {
+            assertEquals(7, logIds[0]);
+        }
+        for (int i = 0; i < count; i++) {
+            assertEquals(expected.lons[from + i], decoded.lons[i], COORDINATE_DELTA);
+            assertEquals(expected.lats[from + i], decoded.lats[i], COORDINATE_DELTA);
+            assertEquals(expected.elevs[from + i], decoded.elevs[i], ELEVATION_DELTA);
+            assertEquals(expected.timestamps[from + i], decoded.timestamps[i]);
+        }
+    }
+}
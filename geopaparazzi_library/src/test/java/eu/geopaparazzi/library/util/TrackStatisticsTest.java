@@ -0,0 +1,281 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link TrackStatistics}, against the computations it replaces.
+ * <p/>
+ * <p>The old code measured with {@link android.location.Location#distanceTo}, which is a stub
+ * in local tests, so its algorithm is copied here as {@link #locationDistance}.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TrackStatisticsTest {
+    private static final int POINTS = 2000;
+    private static final int LARGE_TRACK_POINTS = 1000000;
+    /**
+     * Generous for a pass over one million points, which takes under a second on a desktop.
+     */
+    private static final long LARGE_TRACK_TIMEOUT = 5000;
+
+    @Test
+    public void testDistanceMatchesLocation() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            double lat1 = random.nextDouble() * 160 - 80;
+            double lon1 = random.nextDouble() * 360 - 180;
+            double lat2;
+            double lon2;
+            if (i % 2 == 0) {
+                // gps log steps
+                lat2 = lat1 + (random.nextDouble() - 0.5) * 0.001;
+                lon2 = lon1 + (random.nextDouble() - 0.5) * 0.001;
+            } else {
+                lat2 = random.nextDouble() * 160 - 80;
+                lon2 = random.nextDouble() * 360 - 180;
+            }
+            float expected = locationDistance(lat2, lon2, lat1, lon1);
+            double distance = TrackStatistics.distance(lat1, lon1, lat2, lon2);
+            assertEquals(expected, distance, tolerance(expected));
+        }
+        assertEquals(0.0, TrackStatistics.distance(46.5, 11.3, 46.5, 11.3), 0.0);
+    }
+
+    @Test
+    public void testDistanceOnReferenceLine() {
+        // Flinders Peak to Buninyong, the example of Vincenty's paper
+        double lat1 = -(37 + 57 / 60.0 + 3.72030 / 3600.0);
+        double lon1 = 144 + 25 / 60.0 + 29.52440 / 3600.0;
+        double lat2 = -(37 + 39 / 60.0 + 10.15610 / 3600.0);
+        double lon2 = 143 + 55 / 60.0 + 35.38390 / 3600.0;
+        assertEquals(54972.271, TrackStatistics.distance(lat1, lon1, lat2, lon2), 0.01);
+    }
+
+    @Test
+    public void testProgressiveDistancesAndSpeedsMatchProfile() {
+        double[] lons = new double[POINTS];
+        double[] lats = new double[POINTS];
+        double[] elevs = new double[POINTS];
+        long[] timestamps = new long[POINTS];
+        createTrack(lons, lats, elevs, timestamps);
+
+        int[][] ranges = {{0, POINTS}, {500, 700}, {0, 1}};
+        for (int[] range : ranges) {
+            int offset = range[0];
+            int count = range[1];
+            double[] distances = new double[count];
+            double[] speeds = new double[count];
+            double length = TrackStatistics.progressiveDistances(lons, lats, offset, count, distances);
+            TrackStatistics.speeds(distances, timestamps, offset, count, speeds);
+
+            // the loop of the old profile chart
+            double summedDistance = 0;
+            for (int i = 0; i < count; i++) {
+                int p = offset + i;
+                double distance = 0.0;
+                double speedKmH = 0.0;
+                if (i > 0) {
+                    distance = locationDistance(lats[p], lons[p], lats[p - 1], lons[p - 1]);
+                    double timeSeconds = (timestamps[p] - timestamps[p - 1]) / 1000.0;
+                    speedKmH = 3.6 * distance / timeSeconds;
+                }
+                summedDistance = summedDistance + distance;
+
+                assertEquals(summedDistance, distances[i], tolerance(summedDistance));
+                assertEquals(speedKmH, speeds[i] * 3.6, tolerance(speedKmH));
+            }
+            assertEquals(summedDistance, length, tolerance(summedDistance));
+        }
+    }
+
+    @Test
+    public void testComputeMatchesOldSummaries() {
+        double[] lons = new double[POINTS];
+        double[] lats = new double[POINTS];
+        double[] elevs = new double[POINTS];
+        long[] timestamps = new long[POINTS];
+        createTrack(lons, lats, elevs, timestamps);
+
+        TrackStatistics statistics = new TrackStatistics();
+        int[][] ranges = {{0, POINTS}, {100, 300}};
+        for (int[] range : ranges) {
+            int offset = range[0];
+            int count = range[1];
+            statistics.compute(lons, lats, elevs, timestamps, offset, count);
+
+            // the length of the old log length update, the rest as the old profile and info
+            double length = 0;
+            double maxSpeed = 0;
+            double gain = 0;
+            double loss = 0;
+            for (int p = offset + 1; p < offset + count; p++) {
+                float distance = locationDistance(lats[p], lons[p], lats[p - 1], lons[p - 1]);
+                length = length + distance;
+                maxSpeed = Math.max(maxSpeed, distance / ((timestamps[p] - timestamps[p - 1]) / 1000.0));
+                double diff = elevs[p] - elevs[p - 1];
+                if (diff > 0) {
+                    gain += diff;
+                } else {
+                    loss -= diff;
+                }
+            }
+            long duration = timestamps[offset + count - 1] - timestamps[offset];
+
+            assertEquals(length, statistics.getLength(), tolerance(length));
+            assertEquals(maxSpeed, statistics.getMaxSpeed(), tolerance(maxSpeed));
+            assertEquals(gain, statistics.getElevationGain(), 1E-9);
+            assertEquals(loss, statistics.getElevationLoss(), 1E-9);
+            assertEquals(gain, TrackStatistics.elevationGain(elevs, offset, count), 1E-9);
+            assertEquals(duration, statistics.getDuration());
+            assertEquals(length * 1000.0 / duration, statistics.getAverageSpeed(), tolerance(length) / duration * 1000.0);
+        }
+
+        statistics.compute(lons, lats, elevs, timestamps, 0, 0);
+        assertEquals(0.0, statistics.getLength(), 0.0);
+        assertEquals(0.0, statistics.getAverageSpeed(), 0.0);
+        assertEquals(0.0, statistics.getPace(), 0.0);
+    }
+
+    @Test(timeout = LARGE_TRACK_TIMEOUT)
+    public void testLargeTrack() {
+        double[] lons = new double[LARGE_TRACK_POINTS];
+        double[] lats = new double[LARGE_TRACK_POINTS];
+        double[] elevs = new double[LARGE_TRACK_POINTS];
+        long[] timestamps = new long[LARGE_TRACK_POINTS];
+        createTrack(lons, lats, elevs, timestamps);
+
+        TrackStatistics statistics = new TrackStatistics().compute(lons, lats, elevs, timestamps, 0, LARGE_TRACK_POINTS);
+
+        assertTrue(statistics.getLength() > 0);
+        assertTrue(statistics.getElevationGain() > 0);
+        assertTrue(statistics.getMaxSpeed() > 0);
+    }
+
+    @Test
+    public void testSpeedOfPointsWithSameTime() {
+        double[] distances = {0, 10, 20};
+        long[] timestamps = {1000, 2000, 2000};
+        double[] speeds = new double[3];
+        TrackStatistics.speeds(distances, timestamps, 0, 3, speeds);
+        assertEquals(0.0, speeds[0], 0.0);
+        assertEquals(10.0, speeds[1], 1E-9);
+        assertEquals(0.0, speeds[2], 0.0);
+    }
+
+    /**
+     * The float result of the old code allows a relative error of a few float ulps.
+     */
+    private static double tolerance(double value) {
+        return Math.max(1E-3, Math.abs(value) * 1E-6);
+    }
+
+    private static void createTrack(double[] lons, double[] lats, double[] elevs, long[] timestamps) {
+        Random random = new Random(7);
+        double lon = 11.3;
+        double lat = 46.5;
+        double elev = 1200;
+        long time = 1500000000000L;
+        for (int i = 0; i < lons.length; i++) {
+            lon += (random.nextDouble() - 0.3) * 0.0002;
+            lat += (random.nextDouble() - 0.4) * 0.0002;
+            elev += (random.nextDouble() - 0.5) * 4;
+            time += 1000 + random.nextInt(4000);
+            lons[i] = lon;
+            lats[i] = lat;
+            elevs[i] = elev;
+            timestamps[i] = time;
+        }
+    }
+
+    /**
+     * The distance of {@link android.location.Location#distanceBetween}, from the Android sources.
+     */
+    private static float locationDistance(double lat1, double lon1, double lat2, double lon2) {
+        int MAXITERS = 20;
+        lat1 *= Math.PI / 180.0;
+        lat2 *= Math.PI / 180.0;
+        lon1 *= Math.PI / 180.0;
+        lon2 *= Math.PI / 180.0;
+
+        double a = 6378137.0;
+        double b = 6356752.3142;
+        double f = (a - b) / a;
+        double aSqMinusBSqOverBSq = (a * a - b * b) / (b * b);
+
+        double L = lon2 - lon1;
+        double A = 0.0;
+        double U1 = Math.atan((1.0 - f) * Math.tan(lat1));
+        double U2 = Math.atan((1.0 - f) * Math.tan(lat2));
+
+        double cosU1 = Math.cos(U1);
+        double cosU2 = Math.cos(U2);
+        double sinU1 = Math.sin(U1);
+        double sinU2 = Math.sin(U2);
+        double cosU1cosU2 = cosU1 * cosU2;
+        double sinU1sinU2 = sinU1 * sinU2;
+
+        double sigma = 0.0;
+        double deltaSigma = 0.0;
+        double cosSqAlpha;
+        double cos2SM;
+        double cosSigma;
+        double sinSigma;
+        double cosLambda;
+        double sinLambda;
+
+        double lambda = L;
+        for (int iter = 0; iter < MAXITERS; iter++) {
+            double lambdaOrig = lambda;
+            cosLambda = Math.cos(lambda);
+            sinLambda = Math.sin(lambda);
+            double t1 = cosU2 * sinLambda;
+            double t2 = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+            double sinSqSigma = t1 * t1 + t2 * t2;
+            sinSigma = Math.sqrt(sinSqSigma);
+            cosSigma = sinU1sinU2 + cosU1cosU2 * cosLambda;
+            sigma = Math.atan2(sinSigma, cosSigma);
+            double sinAlpha = (sinSigma == 0) ? 0.0 : cosU1cosU2 * sinLambda / sinSigma;
+            cosSqAlpha = 1.0 - sinAlpha * sinAlpha;
+            cos2SM = (cosSqAlpha == 0) ? 0.0 : cosSigma - 2.0 * sinU1sinU2 / cosSqAlpha;
+
+            double uSquared = cosSqAlpha * aSqMinusBSqOverBSq;
+            A = 1 + (uSquared / 16384.0) * (4096.0 + uSquared * (-768 + uSquared * (320.0 - 175.0 * uSquared)));
+            double B = (uSquared / 1024.0) * (256.0 + uSquared * (-128.0 + uSquared * (74.0 - 47.0 * uSquared)));
+            double C = (f / 16.0) * cosSqAlpha * (4.0 + f * (4.0 - 3.0 * cosSqAlpha));
+            double cos2SMSq = cos2SM * cos2SM;
+            deltaSigma = B * sinSigma * (cos2SM + (B / 4.0) * (cosSigma * (-1.0 + 2.0 * cos2SMSq)
+                    - (B / 6.0) * cos2SM * (-3.0 + 4.0 * sinSigma * sinSigma) * (-3.0 + 4.0 * cos2SMSq)));
+
+            lambda = L + (1.0 - C) * f * sinAlpha
+                    * (sigma + C * sinSigma * (cos2SM + C * cosSigma * (-1.0 + 2.0 * cos2SM * cos2SM)));
+
+            double delta = (lambda - lambdaOrig) / lambda;
+            if (Math.abs(delta) < 1.0e-12) {
+                break;
+            }
+        }
+        return (float) (b * A * (sigma - deltaSigma));
+    }
+}
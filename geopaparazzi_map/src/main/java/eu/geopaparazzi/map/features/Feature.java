@@ -27,7 +27,7 @@ import org.locationtech.jts.io.ParseException;
 import org.locationtech.jts.io.WKBReader;
 import org.locationtech.jts.io.WKBWriter;
 
-import java.text.MessageFormat;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -35,49 +35,63 @@ import eu.geopaparazzi.library.database.GPLog;
 
 /**
  * A spatial feature container.
+ * <p/>
+ * <p>The feature is a view on a row of a {@link FeatureBatch}, the attribute names and types
+ * are the ones of the shared {@link FeatureSchema}.</p>
  *
  * @author Andrea Antonello (www.hydrologis.com)
  */
 public class Feature implements Parcelable {
 
-    private int idIndex = -1;
-    private int geometryIndex = -1;
-
-    private String tableName;
-    private String databasePath;
-
-    private List<String> attributeNames = new ArrayList<>();
-    private List<Object> attributeValues = new ArrayList<>();
-    private List<String> attributeTypes = new ArrayList<>();
+    private final FeatureBatch batch;
+    private final FeatureSchema schema;
+    private final int row;
+    private final List<Object> attributeValues;
 
     private boolean isDirty = false;
 
     /**
-     * Constructor for case with geometry.
+     * Constructor, used by the batch the feature belongs to.
      *
-     * @param tableName     the table the feature belongs to.
-     * @param databasePath  the path to the containing db.
-     * @param idIndex       the index of the primary key of the feature, which can be used for example for updates.
-     * @param geometryIndex the index of the geometry in the data.
+     * @param batch the batch holding the values.
+     * @param row   the row of the feature in the batch.
      */
-    public Feature(String tableName, String databasePath, int idIndex, int geometryIndex) {
-        this.tableName = tableName;
-        this.databasePath = databasePath;
-        this.idIndex = idIndex;
-        this.geometryIndex = geometryIndex;
+    Feature(FeatureBatch batch, int row) {
+        this.batch = batch;
+        this.schema = batch.getSchema();
+        this.row = row;
+        attributeValues = new AbstractList<Object>() {
+            @Override
+            public Object get(int index) {
+                return batch.get(row, index);
+            }
+
+            @Override
+            public Object set(int index, Object element) {
+                Object previous = batch.get(row, index);
+                batch.set(row, index, element);
+                return previous;
+            }
+
+            @Override
+            public int size() {
+                return schema.getAttributeCount();
+            }
+        };
     }
 
     public int getIdIndex() {
-        return idIndex;
+        return schema.getIdIndex();
     }
 
     public String getIdFieldName() {
+        int idIndex = schema.getIdIndex();
         if (idIndex == -1) return null;
-        return attributeNames.get(idIndex);
+        return schema.getAttributeNames().get(idIndex);
     }
 
     public long getIdFieldValue() {
-        Object o = attributeValues.get(idIndex);
+        Object o = batch.get(row, schema.getIdIndex());
         if (o instanceof Number) {
             return ((Number) o).longValue();
         }
@@ -86,25 +100,7 @@ public class Feature implements Parcelable {
 
 
     public int getGeometryIndex() {
-        return geometryIndex;
-    }
-
-
-    /**
-     * Add a new attribute.
-     *
-     * @param name  name of the field.
-     * @param value value of the field as string.
-     * @param type  type of the field.
-     */
-    public synchronized void addAttribute(String name, Object value, String type) {
-        if (attributeNames.contains(name)) {
-            throw new IllegalArgumentException(MessageFormat.format(
-                    "Attribute already present: {0}. Use setAttribute instead.", name)); //$NON-NLS-1$
-        }
-        attributeNames.add(name);
-        attributeValues.add(value);
-        attributeTypes.add(type);
+        return schema.getGeometryIndex();
     }
 
     /**
@@ -114,7 +110,7 @@ public class Feature implements Parcelable {
      * @param value the new value to set.
      */
     public void setAttribute(String field, Object value) {
-        int indexOf = attributeNames.indexOf(field);
+        int indexOf = schema.indexOf(field);
         if (indexOf != -1) {
             setAttribute(indexOf, value);
         }
@@ -127,7 +123,7 @@ public class Feature implements Parcelable {
      * @param value the new value to set.
      */
     public void setAttribute(int index, Object value) {
-        attributeValues.set(index, value);
+        batch.set(row, index, value);
         isDirty = true;
     }
 
@@ -138,9 +134,9 @@ public class Feature implements Parcelable {
      * @return the attribute.
      */
     public Object getAttribute(String name) {
-        int indexOf = attributeNames.indexOf(name);
+        int indexOf = schema.indexOf(name);
         if (indexOf != -1) {
-            return attributeValues.get(indexOf);
+            return batch.get(row, indexOf);
         }
         return null;
     }
@@ -149,20 +145,21 @@ public class Feature implements Parcelable {
      * @return the default geometry.
      */
     public Geometry getDefaultGeometry() {
+        int geometryIndex = schema.getGeometryIndex();
         if (geometryIndex == -1)
             return null;
-        return (Geometry) attributeValues.get(geometryIndex);
+        return (Geometry) batch.get(row, geometryIndex);
     }
 
     /**
      * @return the list of attributes names.
      */
     public List<String> getAttributeNames() {
-        return attributeNames;
+        return schema.getAttributeNames();
     }
 
     /**
-     * @return the list of attribute values in string representation.
+     * @return the list of attribute values, backed by the feature.
      */
     public List<Object> getAttributeValues() {
         return attributeValues;
@@ -172,21 +169,28 @@ public class Feature implements Parcelable {
      * @return the list of attributes classes.
      */
     public List<String> getAttributeTypes() {
-        return attributeTypes;
+        return schema.getAttributeTypes();
+    }
+
+    /**
+     * @return the schema shared with the other features of the batch.
+     */
+    public FeatureSchema getSchema() {
+        return schema;
     }
 
     /**
      * @return the name of the table the feature is part of.
      */
     public String getTableName() {
-        return tableName;
+        return schema.getTableName();
     }
 
     /**
      * @return the path to the containing database.
      */
     public String getDatabasePath() {
-        return databasePath;
+        return schema.getDatabasePath();
     }
 
     /**
@@ -201,14 +205,15 @@ public class Feature implements Parcelable {
     }
 
     public void writeToParcel(Parcel dest, int flags) {
-        dest.writeInt(idIndex);
+        int geometryIndex = schema.getGeometryIndex();
+        dest.writeInt(schema.getIdIndex());
         dest.writeInt(geometryIndex);
-        dest.writeString(tableName);
-        dest.writeString(databasePath);
-        dest.writeList(attributeNames);
-        dest.writeList(attributeTypes);
-        for (int i = 0; i < attributeValues.size(); i++) {
-            Object obj = attributeValues.get(i);
+        dest.writeString(schema.getTableName());
+        dest.writeString(schema.getDatabasePath());
+        dest.writeList(schema.getAttributeNames());
+        dest.writeList(schema.getAttributeTypes());
+        for (int i = 0; i < schema.getAttributeCount(); i++) {
+            Object obj = batch.get(row, i);
             if (i == geometryIndex) {
                 if (obj == null) {
                     dest.writeByteArray(null);
@@ -218,8 +223,7 @@ public class Feature implements Parcelable {
                     dest.writeByteArray(wkbWriter.write(geom));
                 }
             } else {
-                String type = attributeTypes.get(i);
-                EDataType type4Name = EDataType.getType4Name(type);
+                EDataType type4Name = schema.getDataType(i);
                 switch (type4Name) {
                     case TEXT: {
                         if (obj == null) {
@@ -332,11 +336,10 @@ public class Feature implements Parcelable {
                 }
             }
 
-            Feature feature = new Feature(tableName, databasePath, idIndex, geometryIndex);
-            feature.attributeNames = attributeNames;
-            feature.attributeValues = attributeValues;
-            feature.attributeTypes = attributeTypes;
-            return feature;
+            FeatureSchema schema = new FeatureSchema(tableName, databasePath, idIndex, geometryIndex, attributeNames, attributeTypes);
+            FeatureBatch batch = new FeatureBatch(schema, 1);
+            int row = batch.addRow(attributeValues.toArray());
+            return batch.getFeature(row);
         }
 
         public Feature[] newArray(int size) {
@@ -0,0 +1,354 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.geopaparazzi.map.features;
+
+import org.hortonmachine.dbs.compat.objects.QueryResult;
+import org.hortonmachine.dbs.datatypes.EDataType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The attribute values of a set of features sharing the same {@link FeatureSchema}, stored by column.
+ * <p/>
+ * <p>Numeric columns are kept in primitive arrays. If a value of a different kind turns up
+ * in a column, as sqlite allows, the column falls back to plain objects.</p>
+ * <p/>
+ * <p>The {@link Feature}s of the batch are views on its rows.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class FeatureBatch {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final FeatureSchema schema;
+    private final Column[] columns;
+    private int size = 0;
+    private int capacity;
+
+    /**
+     * Constructor.
+     *
+     * @param schema   the schema of the features.
+     * @param capacity the expected number of features.
+     */
+    public FeatureBatch(FeatureSchema schema, int capacity) {
+        this.schema = schema;
+        this.capacity = Math.max(capacity, 1);
+        int count = schema.getAttributeCount();
+        columns = new Column[count];
+        for (int i = 0; i < count; i++) {
+            EDataType type = schema.getDataType(i);
+            boolean isNumeric = type == EDataType.INTEGER || type == EDataType.LONG || type == EDataType.FLOAT || type == EDataType.DOUBLE;
+            if (!isNumeric || i == schema.getGeometryIndex()) {
+                columns[i] = new ObjectColumn(this.capacity);
+            }
+            // numeric columns are created with the first value, which tells the java type
+        }
+    }
+
+    /**
+     * Create a batch from the result of a query.
+     *
+     * @param tableName   the table queried.
+     * @param dbPath      the path to the database.
+     * @param queryResult the query result.
+     * @return the batch.
+     */
+    public static FeatureBatch fromQueryResult(String tableName, String dbPath, QueryResult queryResult) {
+        FeatureSchema schema = new FeatureSchema(tableName, dbPath, queryResult.pkIndex, queryResult.geometryIndex, queryResult.names, queryResult.types);
+        int rows = queryResult.data.size();
+        FeatureBatch batch = new FeatureBatch(schema, rows > 0 ? rows : DEFAULT_CAPACITY);
+        for (Object[] data : queryResult.data) {
+            batch.addRow(data);
+        }
+        return batch;
+    }
+
+    /**
+     * @return the schema of the features.
+     */
+    public FeatureSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * @return the number of features.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Add a feature.
+     *
+     * @param values the attribute values, in the order of the schema.
+     * @return the row of the new feature.
+     */
+    public synchronized int addRow(Object[] values) {
+        if (size == capacity) {
+            capacity = capacity + (capacity >> 1) + 1;
+            for (Column column : columns) {
+                if (column != null)
+                    column.grow(capacity);
+            }
+        }
+        int row = size++;
+        for (int i = 0; i < columns.length; i++) {
+            set(row, i, values[i]);
+        }
+        return row;
+    }
+
+    /**
+     * Get a value.
+     *
+     * @param row    the feature row.
+     * @param column the attribute index.
+     * @return the value.
+     */
+    public synchronized Object get(int row, int column) {
+        checkRow(row);
+        Column c = columns[column];
+        if (c == null) return null;
+        return c.get(row);
+    }
+
+    /**
+     * Set a value.
+     *
+     * @param row    the feature row.
+     * @param column the attribute index.
+     * @param value  the new value.
+     */
+    public synchronized void set(int row, int column, Object value) {
+        checkRow(row);
+        Column c = columns[column];
+        if (c == null) {
+            if (value == null) return;
+            c = createColumn(value);
+            // the rows before were all null
+            c.setNulls(size);
+            columns[column] = c;
+        }
+        if (!c.set(row, value)) {
+            ObjectColumn objectColumn = new ObjectColumn(capacity);
+            for (int i = 0; i < size; i++) {
+                objectColumn.set(i, c.get(i));
+            }
+            objectColumn.set(row, value);
+            columns[column] = objectColumn;
+        }
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    private Column createColumn(Object value) {
+        if (value instanceof Integer) {
+            return new IntColumn(capacity);
+        } else if (value instanceof Long) {
+            return new LongColumn(capacity);
+        } else if (value instanceof Double) {
+            return new DoubleColumn(capacity);
+        } else if (value instanceof Float) {
+            return new FloatColumn(capacity);
+        }
+        return new ObjectColumn(capacity);
+    }
+
+    /**
+     * Get a view on a feature.
+     *
+     * @param row the feature row.
+     * @return the feature.
+     */
+    public Feature getFeature(int row) {
+        checkRow(row);
+        return new Feature(this, row);
+    }
+
+    /**
+     * @return views on all the features.
+     */
+    public List<Feature> getFeatures() {
+        List<Feature> features = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            features.add(new Feature(this, i));
+        }
+        return features;
+    }
+
+    private static abstract class Column {
+        abstract Object get(int row);
+
+        /**
+         * @return <code>false</code> if the value can't be kept in this column.
+         */
+        abstract boolean set(int row, Object value);
+
+        abstract void grow(int capacity);
+
+        void setNulls(int toRow) {
+        }
+    }
+
+    private static abstract class PrimitiveColumn extends Column {
+        final BitSet nulls = new BitSet();
+
+        @Override
+        void setNulls(int toRow) {
+            nulls.set(0, toRow);
+        }
+    }
+
+    private static class ObjectColumn extends Column {
+        private Object[] values;
+
+        ObjectColumn(int capacity) {
+            values = new Object[capacity];
+        }
+
+        Object get(int row) {
+            return values[row];
+        }
+
+        boolean set(int row, Object value) {
+            values[row] = value;
+            return true;
+        }
+
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    private static class IntColumn extends PrimitiveColumn {
+        private int[] values;
+
+        IntColumn(int capacity) {
+            values = new int[capacity];
+        }
+
+        Object get(int row) {
+            return nulls.get(row) ? null : values[row];
+        }
+
+        boolean set(int row, Object value) {
+            if (value == null) {
+                nulls.set(row);
+                return true;
+            }
+            if (!(value instanceof Integer)) return false;
+            values[row] = (Integer) value;
+            nulls.clear(row);
+            return true;
+        }
+
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    private static class LongColumn extends PrimitiveColumn {
+        private long[] values;
+
+        LongColumn(int capacity) {
+            values = new long[capacity];
+        }
+
+        Object get(int row) {
+            return nulls.get(row) ? null : values[row];
+        }
+
+        boolean set(int row, Object value) {
+            if (value == null) {
+                nulls.set(row);
+                return true;
+            }
+            if (!(value instanceof Long)) return false;
+            values[row] = (Long) value;
+            nulls.clear(row);
+            return true;
+        }
+
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    private static class DoubleColumn extends PrimitiveColumn {
+        private double[] values;
+
+        DoubleColumn(int capacity) {
+            values = new double[capacity];
+        }
+
+        Object get(int row) {
+            return nulls.get(row) ? null : values[row];
+        }
+
+        boolean set(int row, Object value) {
+            if (value == null) {
+                nulls.set(row);
+                return true;
+            }
+            if (!(value instanceof Double)) return false;
+            values[row] = (Double) value;
+            nulls.clear(row);
+            return true;
+        }
+
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    private static class FloatColumn extends PrimitiveColumn {
+        private float[] values;
+
+        FloatColumn(int capacity) {
+            values = new float[capacity];
+        }
+
+        Object get(int row) {
+            return nulls.get(row) ? null : values[row];
+        }
+
+        boolean set(int row, Object value) {
+            if (value == null) {
+                nulls.set(row);
+                return true;
+            }
+            if (!(value instanceof Float)) return false;
+            values[row] = (Float) value;
+            nulls.clear(row);
+            return true;
+        }
+
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.geopaparazzi.map.features;
+
+import org.hortonmachine.dbs.datatypes.EDataType;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The immutable description of the attributes of a set of features, shared by all of them.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class FeatureSchema {
+
+    private final String tableName;
+    private final String databasePath;
+    private final int idIndex;
+    private final int geometryIndex;
+
+    private final List<String> attributeNames;
+    private final List<String> attributeTypes;
+    private final EDataType[] dataTypes;
+    private final HashMap<String, Integer> nameToIndex = new HashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param tableName      the table the features belong to.
+     * @param databasePath   the path to the containing db.
+     * @param idIndex        the index of the primary key.
+     * @param geometryIndex  the index of the geometry.
+     * @param attributeNames the names of the attributes.
+     * @param attributeTypes the type names of the attributes.
+     */
+    public FeatureSchema(String tableName, String databasePath, int idIndex, int geometryIndex, List<String> attributeNames, List<String> attributeTypes) {
+        this.tableName = tableName;
+        this.databasePath = databasePath;
+        this.idIndex = idIndex;
+        this.geometryIndex = geometryIndex;
+
+        int count = attributeNames.size();
+        List<String> types = new ArrayList<>(count);
+        dataTypes = new EDataType[count];
+        for (int i = 0; i < count; i++) {
+            String name = attributeNames.get(i);
+            if (nameToIndex.put(name, i) != null) {
+                throw new IllegalArgumentException(MessageFormat.format(
+                        "Attribute already present: {0}.", name)); //$NON-NLS-1$
+            }
+            String typeStr = attributeTypes.get(i);
+            EDataType type = EDataType.getType4Name(typeStr);
+            dataTypes[i] = type;
+            types.add(type != null ? type.name() : typeStr);
+        }
+        this.attributeNames = Collections.unmodifiableList(new ArrayList<>(attributeNames));
+        this.attributeTypes = Collections.unmodifiableList(types);
+    }
+
+    /**
+     * @return the name of the table the features are part of.
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * @return the path to the containing database.
+     */
+    public String getDatabasePath() {
+        return databasePath;
+    }
+
+    public int getIdIndex() {
+        return idIndex;
+    }
+
+    public int getGeometryIndex() {
+        return geometryIndex;
+    }
+
+    /**
+     * @return the number of attributes.
+     */
+    public int getAttributeCount() {
+        return dataTypes.length;
+    }
+
+    /**
+     * Get the index of an attribute.
+     *
+     * @param name the attribute name.
+     * @return the index or -1 if the attribute doesn't exist.
+     */
+    public int indexOf(String name) {
+        Integer index = nameToIndex.get(name);
+        if (index == null) return -1;
+        return index;
+    }
+
+    /**
+     * @return the unmodifiable list of attributes names.
+     */
+    public List<String> getAttributeNames() {
+        return attributeNames;
+    }
+
+    /**
+     * @return the unmodifiable list of attributes type names.
+     */
+    public List<String> getAttributeTypes() {
+        return attributeTypes;
+    }
+
+    /**
+     * Get the type of an attribute.
+     *
+     * @param index the attribute index.
+     * @return the type or <code>null</code> if it is not a known type.
+     */
+    public EDataType getDataType(int index) {
+        return dataTypes[index];
+    }
+}
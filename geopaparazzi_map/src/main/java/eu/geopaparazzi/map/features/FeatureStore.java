@@ -0,0 +1,104 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.geopaparazzi.map.features;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In process store of feature selections handed over between activities.
+ * <p/>
+ * <p>Intents only carry the token of a selection, so that big selections are neither
+ * serialized nor limited by the binder transaction size.</p>
+ * <p/>
+ * <p>The store does not survive the process, so the receiving side has to handle
+ * a token that is not found anymore.</p>
+ * <p/>
+ * <p>As with parcelled features, the deposited features are copies, so that edits
+ * on one side, also the ones cancelled, don't reach the other.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public enum FeatureStore {
+    INSTANCE;
+
+    private static final String TOKEN_PREFIX = "features-"; //$NON-NLS-1$
+
+    private final ConcurrentHashMap<String, List<Feature>> selections = new ConcurrentHashMap<>();
+    private final AtomicLong counter = new AtomicLong();
+
+    /**
+     * Deposit a selection.
+     *
+     * @param features the features, which are copied.
+     * @return the token to get the selection back.
+     */
+    public String put(List<Feature> features) {
+        String token = TOKEN_PREFIX + counter.incrementAndGet();
+        selections.put(token, copy(features));
+        return token;
+    }
+
+    /**
+     * Copy features into new batches, one per schema.
+     *
+     * @param features the features to copy.
+     * @return the copies, not dirty.
+     */
+    private static List<Feature> copy(List<Feature> features) {
+        IdentityHashMap<FeatureSchema, FeatureBatch> batches = new IdentityHashMap<>();
+        List<Feature> copies = new ArrayList<>(features.size());
+        for (Feature feature : features) {
+            FeatureSchema schema = feature.getSchema();
+            FeatureBatch batch = batches.get(schema);
+            if (batch == null) {
+                batch = new FeatureBatch(schema, features.size());
+                batches.put(schema, batch);
+            }
+            int row = batch.addRow(feature.getAttributeValues().toArray());
+            copies.add(batch.getFeature(row));
+        }
+        return copies;
+    }
+
+    /**
+     * Get a selection, leaving it in the store.
+     *
+     * @param token the selection token.
+     * @return the features or <code>null</code>, if the token is not in the store.
+     */
+    public List<Feature> get(String token) {
+        if (token == null) return null;
+        return selections.get(token);
+    }
+
+    /**
+     * Get a selection and remove it from the store.
+     *
+     * @param token the selection token.
+     * @return the features or <code>null</code>, if the token is not in the store.
+     */
+    public List<Feature> remove(String token) {
+        if (token == null) return null;
+        return selections.remove(token);
+    }
+}
@@ -54,6 +54,11 @@ public class FeatureUtilities {
      */
     public static final String KEY_FEATURESLIST = "KEY_FEATURESLIST";
 
+    /**
+     * Key to pass the {@link FeatureStore} token of a features selection through activities.
+     */
+    public static final String KEY_FEATURES_TOKEN = "KEY_FEATURES_TOKEN";
+
     /**
      * Key to pass a readonly flag through activities.
      */
@@ -43,11 +43,13 @@ public class ResourceStorage {
 
     // the layer to which resources will be linked
     private String tableName;
-    private ASpatialDb database;
+    private String databasePath;
+    private ELayerTypes layerType;
 
-    protected ResourceStorage(String tableName, ASpatialDb database) {
+    protected ResourceStorage(String tableName, String databasePath, ELayerTypes layerType) {
         this.tableName = tableName;
-        this.database = database;
+        this.databasePath = databasePath;
+        this.layerType = layerType;
     }
 
     public String getTableName() {
@@ -55,7 +57,31 @@ public class ResourceStorage {
     }
 
     public String getDbPath() {
-        return this.database.getDatabasePath();
+        return this.databasePath;
+    }
+
+    /**
+     * Run a read on the database, on a spatialite read connection if possible.
+     */
+    private <T> T read(SpatialiteConnectionsHandler.IDbTask<T> task) throws java.lang.Exception {
+        if (layerType == ELayerTypes.SPATIALITE) {
+            return SpatialiteConnectionsHandler.INSTANCE.read(databasePath, task);
+        }
+        return task.execute(GeopackageConnectionsHandler.INSTANCE.getDb(databasePath));
+    }
+
+    /**
+     * Run a write on the database, serialized with the other spatialite writes if possible.
+     */
+    private static <T> T write(String databasePath, ELayerTypes layerType, SpatialiteConnectionsHandler.IDbTask<T> task) throws java.lang.Exception {
+        if (layerType == ELayerTypes.SPATIALITE) {
+            return SpatialiteConnectionsHandler.INSTANCE.write(databasePath, task);
+        }
+        return task.execute(GeopackageConnectionsHandler.INSTANCE.getDb(databasePath));
+    }
+
+    private <T> T write(SpatialiteConnectionsHandler.IDbTask<T> task) throws java.lang.Exception {
+        return write(databasePath, layerType, task);
     }
 
     public List<Resource> getThumbnails(long rowIdFk) {
@@ -69,7 +95,7 @@ public class ResourceStorage {
 
         String sqlCommand = buffer.toString();
         try {
-            return database.execOnConnection(connection -> {
+            return read(database -> database.execOnConnection(connection -> {
                 ArrayList<Resource> result = new ArrayList<Resource>();
                 try (IHMStatement stmt = connection.createStatement(); IHMResultSet rs = stmt.executeQuery(sqlCommand)) {
                     while (rs.next()) {
@@ -91,7 +117,7 @@ public class ResourceStorage {
                     }
                     return result;
                 }
-            });
+            }));
         } catch (java.lang.Exception e) {
             GPLog.error("DAO" +
                             "SPATIALITE",
@@ -138,7 +164,7 @@ public class ResourceStorage {
 
         String sqlCommand = buffer.toString();
         try {
-            return database.execOnConnection(connection -> {
+            return read(database -> database.execOnConnection(connection -> {
                 try (IHMStatement stmt = connection.createStatement(); IHMResultSet rs = stmt.executeQuery(sqlCommand)) {
                     if (rs.next()) {
                         int i = 1;
@@ -164,11 +190,11 @@ public class ResourceStorage {
                     }
                     return null;
                 }
-            });
+            }));
         } catch (java.lang.Exception e) {
             GPLog.error("DAO" +
                             "SPATIALITE",
-                    "Error in getResource sql[" + sqlCommand + "] db[" + database.getDatabasePath() + "]", e);
+                    "Error in getResource sql[" + sqlCommand + "] db[" + getDbPath() + "]", e);
         }
 
         return null;
@@ -201,11 +227,11 @@ public class ResourceStorage {
 
         String sqlCommand = buffer.toString();
         try {
-            database.executeInsertUpdateDeleteSql(sqlCommand);
+            write(database -> database.executeInsertUpdateDeleteSql(sqlCommand));
         } catch (java.lang.Exception e) {
             GPLog.error("DAO" +
                             "SPATIALITE",
-                    "Error in insertResource sql[" + sqlCommand + "] db[" + database.getDatabasePath() + "]", e);
+                    "Error in insertResource sql[" + sqlCommand + "] db[" + getDbPath() + "]", e);
         }
     }
 
@@ -231,11 +257,11 @@ public class ResourceStorage {
             } else { // legacy way, use type enum
                 mimeType = res.getType().toString();
             }
-            database.executeInsertUpdateDeletePreparedSql(sqlCommand, new Object[]{tableName, rowIdFk, mimeType, res.getName(), res.getBlob(), res.getThumbnail()});
+            write(database -> database.executeInsertUpdateDeletePreparedSql(sqlCommand, new Object[]{tableName, rowIdFk, mimeType, res.getName(), res.getBlob(), res.getThumbnail()}));
         } catch (java.lang.Exception e) {
             GPLog.error("DAO" +
                             "SPATIALITE",
-                    "Error in insertResource sql[" + sqlCommand + "] db[" + database.getDatabasePath() + "]", e);
+                    "Error in insertResource sql[" + sqlCommand + "] db[" + getDbPath() + "]", e);
         }
     }
 
@@ -246,11 +272,11 @@ public class ResourceStorage {
         buffer.append(ID_FIELD).append("=").append(rowId);
         String sqlCommand = buffer.toString();
         try {
-            database.executeInsertUpdateDeleteSql(sqlCommand);
+            write(database -> database.executeInsertUpdateDeleteSql(sqlCommand));
         } catch (java.lang.Exception e) {
             GPLog.error("DAO" +
                             "SPATIALITE",
-                    "Error in deleteResource sql[" + sqlCommand + "] db[" + database.getDatabasePath() + "]", e);
+                    "Error in deleteResource sql[" + sqlCommand + "] db[" + getDbPath() + "]", e);
         }
     }
 
@@ -266,19 +292,14 @@ public class ResourceStorage {
     }
 
     public static ResourceStorage getStorage(String tableName, String databasePath) throws java.lang.Exception {
-        ASpatialDb db = null;
-
         ELayerTypes layerType = ELayerTypes.fromFileExt(databasePath);
-        if (layerType == ELayerTypes.SPATIALITE) {
-            db = SpatialiteConnectionsHandler.INSTANCE.getDb(databasePath);
-        } else if (layerType == ELayerTypes.GEOPACKAGE) {
-            db = GeopackageConnectionsHandler.INSTANCE.getDb(databasePath);
-        }
-
-        if (!db.hasTable(AUX_TABLE_NAME)) {
-            addResTable(db);
-        }
-        return new ResourceStorage(tableName, db);
+        write(databasePath, layerType, db -> {
+            if (!db.hasTable(AUX_TABLE_NAME)) {
+                addResTable(db);
+            }
+            return null;
+        });
+        return new ResourceStorage(tableName, databasePath, layerType);
     }
 
 
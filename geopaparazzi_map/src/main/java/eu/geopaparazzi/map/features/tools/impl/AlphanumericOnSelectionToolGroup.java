@@ -7,7 +7,6 @@ import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Point;
 import android.graphics.PorterDuff.Mode;
-import android.os.Parcelable;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.View.OnClickListener;
@@ -29,6 +28,7 @@ import eu.geopaparazzi.map.GPMapPosition;
 import eu.geopaparazzi.map.GPMapView;
 import eu.geopaparazzi.map.R;
 import eu.geopaparazzi.map.features.Feature;
+import eu.geopaparazzi.map.features.FeatureStore;
 import eu.geopaparazzi.map.features.FeatureUtilities;
 import eu.geopaparazzi.map.features.editing.EditManager;
 import eu.geopaparazzi.map.features.editing.EditingView;
@@ -180,8 +180,7 @@ public class AlphanumericOnSelectionToolGroup implements ToolGroup, OnClickListe
             if (selectedFeatures.size() > 0) {
                 Context context = v.getContext();
                 Intent intent = new Intent(context, FeaturePagerActivity.class);
-                intent.putParcelableArrayListExtra(FeatureUtilities.KEY_FEATURESLIST,
-                        (ArrayList<? extends Parcelable>) selectedFeatures);
+                intent.putExtra(FeatureUtilities.KEY_FEATURES_TOKEN, FeatureStore.INSTANCE.put(selectedFeatures));
                 intent.putExtra(FeatureUtilities.KEY_READONLY, false);
                 if (context instanceof Activity) {
                     Activity activity = (Activity) context;
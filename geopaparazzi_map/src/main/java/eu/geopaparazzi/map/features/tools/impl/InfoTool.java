@@ -23,10 +23,8 @@ import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Point;
 import android.graphics.Rect;
-import android.os.Parcelable;
 import android.view.MotionEvent;
 
-import org.hortonmachine.dbs.compat.ASpatialDb;
 import org.hortonmachine.dbs.compat.GeometryColumn;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Envelope;
@@ -43,6 +41,7 @@ import eu.geopaparazzi.library.util.StringAsyncTask;
 import eu.geopaparazzi.map.GPMapView;
 import eu.geopaparazzi.map.R;
 import eu.geopaparazzi.map.features.Feature;
+import eu.geopaparazzi.map.features.FeatureStore;
 import eu.geopaparazzi.map.features.FeatureUtilities;
 import eu.geopaparazzi.map.features.editing.EditManager;
 import eu.geopaparazzi.map.features.tools.MapTool;
@@ -218,10 +217,11 @@ public class InfoTool extends MapTool {
                                     ELayerTypes layerType = ELayerTypes.fromFileExt(vectorLayer.getDbPath());
                                     List<Feature> featuresList = new ArrayList<>();
                                     if (layerType == ELayerTypes.SPATIALITE) {
-                                        ASpatialDb db = SpatialiteConnectionsHandler.INSTANCE.getDb(vectorLayer.getDbPath());
                                         int mapSrid = LibraryConstants.SRID_WGS84_4326;
-                                        GeometryColumn gcol = db.getGeometryColumnsForTable(vectorLayer.getName());
-                                        Envelope repEnv = db.reproject(env, mapSrid, gcol.srid);
+                                        Envelope repEnv = SpatialiteConnectionsHandler.INSTANCE.read(vectorLayer.getDbPath(), db -> {
+                                            GeometryColumn gcol = db.getGeometryColumnsForTable(vectorLayer.getName());
+                                            return db.reproject(env, mapSrid, gcol.srid);
+                                        });
                                         featuresList.addAll(vectorLayer.getFeatures(repEnv));
                                     } else if (layerType == ELayerTypes.GEOPACKAGE) {
                                         featuresList.addAll(vectorLayer.getFeatures(env));
@@ -253,8 +253,7 @@ public class InfoTool extends MapTool {
                     } else {
                         if (features.size() > 0) {
                             Intent intent = new Intent(context, FeaturePagerActivity.class);
-                            intent.putParcelableArrayListExtra(FeatureUtilities.KEY_FEATURESLIST,
-                                    (ArrayList<? extends Parcelable>) features);
+                            intent.putExtra(FeatureUtilities.KEY_FEATURES_TOKEN, FeatureStore.INSTANCE.put(features));
                             intent.putExtra(FeatureUtilities.KEY_READONLY, true); //true);
                             context.startActivity(intent);
                         }
@@ -28,7 +28,6 @@ import android.os.AsyncTask;
 import android.view.MotionEvent;
 import android.widget.Toast;
 
-import org.hortonmachine.dbs.compat.ASpatialDb;
 import org.hortonmachine.dbs.compat.GeometryColumn;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Envelope;
@@ -280,10 +279,12 @@ public class PolygonCutExtendTool extends MapTool {
                         IVectorDbLayer vectorDbLayer = (IVectorDbLayer) editLayer;
                         ELayerTypes layerType = ELayerTypes.fromFileExt(vectorDbLayer.getDbPath());
                         if(layerType==ELayerTypes.SPATIALITE) {
-                            ASpatialDb db = SpatialiteConnectionsHandler.INSTANCE.getDb(vectorDbLayer.getDbPath());
                             int mapSrid = LibraryConstants.SRID_WGS84_4326;
-                            GeometryColumn gcol = db.getGeometryColumnsForTable(vectorDbLayer.getName());
-                            env = db.reproject(env, mapSrid, gcol.srid);
+                            Envelope wgsEnv = env;
+                            env = SpatialiteConnectionsHandler.INSTANCE.read(vectorDbLayer.getDbPath(), db -> {
+                                GeometryColumn gcol = db.getGeometryColumnsForTable(vectorDbLayer.getName());
+                                return db.reproject(wgsEnv, mapSrid, gcol.srid);
+                            });
                         }
                     }
 
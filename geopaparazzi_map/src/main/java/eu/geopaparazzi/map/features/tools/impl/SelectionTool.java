@@ -27,7 +27,6 @@ import android.os.AsyncTask;
 import android.view.MotionEvent;
 import android.widget.Toast;
 
-import org.hortonmachine.dbs.compat.ASpatialDb;
 import org.hortonmachine.dbs.compat.GeometryColumn;
 import org.hortonmachine.dbs.datatypes.EGeometryType;
 import org.locationtech.jts.geom.Coordinate;
@@ -214,10 +213,11 @@ public class SelectionTool extends MapTool {
                         IVectorDbLayer vectorDbLayer = (IVectorDbLayer) editLayer;
                         ELayerTypes layerType = ELayerTypes.fromFileExt(vectorDbLayer.getDbPath());
                         if (layerType == ELayerTypes.SPATIALITE) {
-                            ASpatialDb db = SpatialiteConnectionsHandler.INSTANCE.getDb(vectorDbLayer.getDbPath());
                             int mapSrid = LibraryConstants.SRID_WGS84_4326;
-                            GeometryColumn gcol = db.getGeometryColumnsForTable(vectorDbLayer.getName());
-                            Envelope repEnv = db.reproject(env, mapSrid, gcol.srid);
+                            Envelope repEnv = SpatialiteConnectionsHandler.INSTANCE.read(vectorDbLayer.getDbPath(), db -> {
+                                GeometryColumn gcol = db.getGeometryColumnsForTable(vectorDbLayer.getName());
+                                return db.reproject(env, mapSrid, gcol.srid);
+                            });
                             this.features = vectorDbLayer.getFeatures(repEnv);
                         } else if (layerType == ELayerTypes.GEOPACKAGE) {
                             this.features = vectorDbLayer.getFeatures(env);
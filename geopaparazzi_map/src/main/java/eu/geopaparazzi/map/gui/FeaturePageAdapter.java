@@ -185,18 +185,13 @@ public class FeaturePageAdapter extends PagerAdapter {
             try {
                 String databasePath = feature.getDatabasePath();
                 ELayerTypes layerType = ELayerTypes.fromFileExt(databasePath);
-                ASpatialDb db = null;
+                Geometry reprojected = null;
                 if (layerType == ELayerTypes.SPATIALITE) {
-                    db = SpatialiteConnectionsHandler.INSTANCE.getDb(databasePath);
+                    reprojected = SpatialiteConnectionsHandler.INSTANCE.read(databasePath,
+                            db -> reprojectToTable(db, feature.getTableName(), defaultGeometry));
                 } else if (layerType == ELayerTypes.GEOPACKAGE) {
-                    db = GeopackageConnectionsHandler.INSTANCE.getDb(databasePath);
-                }
-                GeometryColumn gcol = db.getGeometryColumnsForTable(feature.getTableName());
-                Geometry reprojected=defaultGeometry;
-                try {
-                    reprojected = db.reproject(defaultGeometry, LibraryConstants.SRID_WGS84_4326, gcol.srid);
-                }catch (Exception e){
-                    // ignore, if the format doesn't support it, it needs to be 4326
+                    ASpatialDb db = GeopackageConnectionsHandler.INSTANCE.getDb(databasePath);
+                    reprojected = reprojectToTable(db, feature.getTableName(), defaultGeometry);
                 }
 
                 TextView areaTextView = new TextView(context);
@@ -222,6 +217,16 @@ public class FeaturePageAdapter extends PagerAdapter {
         return scrollView;
     }
 
+    private static Geometry reprojectToTable(ASpatialDb db, String tableName, Geometry geometry) throws Exception {
+        GeometryColumn gcol = db.getGeometryColumnsForTable(tableName);
+        try {
+            return db.reproject(geometry, LibraryConstants.SRID_WGS84_4326, gcol.srid);
+        } catch (Exception e) {
+            // ignore, if the format doesn't support it, it needs to be 4326
+            return geometry;
+        }
+    }
+
     @Override
     public void destroyItem(ViewGroup container, int position, Object object) {
         container.removeView((View) object);
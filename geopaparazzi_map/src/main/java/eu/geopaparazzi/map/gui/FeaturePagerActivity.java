@@ -34,8 +34,8 @@ import org.hortonmachine.dbs.compat.ASpatialDb;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Geometry;
 
-import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.util.GPDialogs;
@@ -44,6 +44,7 @@ import eu.geopaparazzi.library.util.StringAsyncTask;
 import eu.geopaparazzi.map.MapsSupportService;
 import eu.geopaparazzi.map.R;
 import eu.geopaparazzi.map.features.Feature;
+import eu.geopaparazzi.map.features.FeatureStore;
 import eu.geopaparazzi.map.features.FeatureUtilities;
 import eu.geopaparazzi.map.features.editing.EditManager;
 import eu.geopaparazzi.map.features.tools.impl.LineOnSelectionToolGroup;
@@ -65,7 +66,8 @@ public class FeaturePagerActivity extends AppCompatActivity implements OnPageCha
 
     private TextView tableNameView;
     private TextView featureCounterView;
-    private ArrayList<Feature> featuresList;
+    private String featuresToken;
+    private List<Feature> featuresList;
     private TextView dbNameView;
     private Feature selectedFeature;
     private boolean isReadOnly;
@@ -84,8 +86,14 @@ public class FeaturePagerActivity extends AppCompatActivity implements OnPageCha
         getSupportActionBar().setDisplayHomeAsUpEnabled(true);
 
         Bundle extras = getIntent().getExtras();
-        featuresList = extras.getParcelableArrayList(FeatureUtilities.KEY_FEATURESLIST);
+        featuresToken = extras.getString(FeatureUtilities.KEY_FEATURES_TOKEN);
+        featuresList = FeatureStore.INSTANCE.get(featuresToken);
         isReadOnly = extras.getBoolean(FeatureUtilities.KEY_READONLY);
+        if (featuresList == null || featuresList.size() == 0) {
+            // the selection is gone with the process that made it
+            finish();
+            return;
+        }
 
         selectedFeature = featuresList.get(0);
         PagerAdapter featureAdapter = new FeaturePageAdapter(this, featuresList, isReadOnly, getSupportFragmentManager());
@@ -157,8 +165,7 @@ public class FeaturePagerActivity extends AppCompatActivity implements OnPageCha
                         GPDialogs.errorDialog(FeaturePagerActivity.this, ex, null);
                     }
                     Intent result = new Intent();
-                    result.putParcelableArrayListExtra(FeatureUtilities.KEY_FEATURESLIST,
-                            featuresList);
+                    result.putExtra(FeatureUtilities.KEY_FEATURES_TOKEN, FeatureStore.INSTANCE.put(featuresList));
                     FeaturePagerActivity.this.setResult(RESULT_OK, result);
                     finish();
                 }
@@ -173,6 +180,7 @@ public class FeaturePagerActivity extends AppCompatActivity implements OnPageCha
     @Override
     protected void onDestroy() {
         if (saveDataTask != null) saveDataTask.dispose();
+        if (isFinishing()) FeatureStore.INSTANCE.remove(featuresToken);
         super.onDestroy();
     }
 
@@ -181,13 +189,15 @@ public class FeaturePagerActivity extends AppCompatActivity implements OnPageCha
             if (feature.isDirty()) {
                 String databasePath = feature.getDatabasePath();
                 ELayerTypes layerType = ELayerTypes.fromFileExt(databasePath);
-                ASpatialDb db = null;
                 if (layerType == ELayerTypes.SPATIALITE) {
-                    db = SpatialiteConnectionsHandler.INSTANCE.getDb(databasePath);
+                    SpatialiteConnectionsHandler.INSTANCE.write(databasePath, db -> {
+                        SpatialiteUtilities.updateFeatureAlphanumericAttributes(db, feature);
+                        return null;
+                    });
                 } else if (layerType == ELayerTypes.GEOPACKAGE) {
-                    db = GeopackageConnectionsHandler.INSTANCE.getDb(databasePath);
+                    ASpatialDb db = GeopackageConnectionsHandler.INSTANCE.getDb(databasePath);
+                    SpatialiteUtilities.updateFeatureAlphanumericAttributes(db, feature);
                 }
-                SpatialiteUtilities.updateFeatureAlphanumericAttributes(db, feature);
             }
         }
     }
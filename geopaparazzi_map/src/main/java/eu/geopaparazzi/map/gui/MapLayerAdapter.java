@@ -62,12 +62,16 @@ import eu.geopaparazzi.library.style.Style;
 import eu.geopaparazzi.library.util.Compat;
 import eu.geopaparazzi.library.util.GPDialogs;
 import eu.geopaparazzi.library.util.LibraryConstants;
+import eu.geopaparazzi.library.util.StringAsyncTask;
+import eu.geopaparazzi.map.GPBBox;
+import eu.geopaparazzi.map.GPMapView;
 import eu.geopaparazzi.map.GPMapThemes;
 import eu.geopaparazzi.map.MapsSupportService;
 import eu.geopaparazzi.map.R;
 import eu.geopaparazzi.map.layers.ELayerTypes;
 import eu.geopaparazzi.map.layers.LayerManager;
 import eu.geopaparazzi.map.layers.interfaces.IGpLayer;
+import eu.geopaparazzi.map.layers.userlayers.BitmapTileServiceLayer;
 import eu.geopaparazzi.map.layers.userlayers.GeopackageTableLayer;
 import eu.geopaparazzi.map.layers.utils.ColorStrokeObject;
 import eu.geopaparazzi.map.layers.utils.GeopackageColorStrokeDialogFragment;
@@ -76,9 +80,14 @@ import eu.geopaparazzi.map.layers.utils.GeopackageLabelDialogFragment;
 import eu.geopaparazzi.map.layers.utils.SpatialiteColorStrokeDialogFragment;
 import eu.geopaparazzi.map.layers.utils.SpatialiteConnectionsHandler;
 import eu.geopaparazzi.map.layers.utils.SpatialiteLabelDialogFragment;
+import eu.geopaparazzi.map.layers.utils.TileSeeder;
 import eu.geopaparazzi.map.utils.MapUtilities;
 
 class MapLayerAdapter extends DragItemAdapter<MapLayerItem, MapLayerAdapter.ViewHolder> {
+    /**
+     * Number of zoom levels downloaded for offline use, starting from the current one.
+     */
+    private static final int SEED_ZOOM_LEVELS = 4;
 
     private MapLayerListFragment mapLayerListFragment;
     private int mLayoutId;
@@ -95,6 +104,7 @@ class MapLayerAdapter extends DragItemAdapter<MapLayerItem, MapLayerAdapter.View
     private String disableEditing;
     private String setTheme;
     private String labelling;
+    private String seedTiles;
 
 
     MapLayerAdapter(MapLayerListFragment mapLayerListFragment, ArrayList<MapLayerItem> list, int layoutId, int grabHandleId, boolean dragOnLongPress) {
@@ -114,6 +124,7 @@ class MapLayerAdapter extends DragItemAdapter<MapLayerItem, MapLayerAdapter.View
         setTheme = activity.getString(R.string.menu_select_theme);
         zoomTo = activity.getString(R.string.menu_select_zoomto);
         labelling = activity.getString(R.string.menu_select_labelling);
+        seedTiles = activity.getString(R.string.menu_seed_tiles);
 
         setItemList(list);
     }
@@ -177,6 +188,7 @@ class MapLayerAdapter extends DragItemAdapter<MapLayerItem, MapLayerAdapter.View
                                 }
                                 case BITMAPTILESERVICE: {
                                     popup.getMenu().add(setAlpha);
+                                    popup.getMenu().add(seedTiles);
                                     break;
                                 }
                                 case GEOPACKAGE: {
@@ -348,6 +360,8 @@ class MapLayerAdapter extends DragItemAdapter<MapLayerItem, MapLayerAdapter.View
                                         }
                                     });
 
+                                } else if (actionName.equals(seedTiles)) {
+                                    seedTiles(selMapLayerItem.name);
                                 } else if (actionName.equals(setStyle)) {
                                     List<JSONObject> userLayersDefinitions = LayerManager.INSTANCE.getUserLayersDefinitions();
                                     JSONObject jsonObject = userLayersDefinitions.get(finalSelIndex);
@@ -451,9 +465,8 @@ class MapLayerAdapter extends DragItemAdapter<MapLayerItem, MapLayerAdapter.View
                                     String tableName = jsonObject.getString(IGpLayer.LAYERNAME_TAG);
                                     String dbPath = jsonObject.getString(IGpLayer.LAYERPATH_TAG);
                                     if (layerType == ELayerTypes.SPATIALITE) {
-                                        ASpatialDb db = SpatialiteConnectionsHandler.INSTANCE.getDb(dbPath);
-                                        GeometryColumn gc = db.getGeometryColumnsForTable(tableName);
-                                        List<String[]> tableColumns = db.getTableColumns(tableName);
+                                        GeometryColumn gc = SpatialiteConnectionsHandler.INSTANCE.read(dbPath, db -> db.getGeometryColumnsForTable(tableName));
+                                        List<String[]> tableColumns = SpatialiteConnectionsHandler.INSTANCE.read(dbPath, db -> db.getTableColumns(tableName));
                                         List<String> possibleFields = new ArrayList<>();
                                         for (String[] tableColumn : tableColumns) {
                                             if (!tableColumn[0].equals(gc.geometryColumnName)) {
@@ -514,6 +527,77 @@ class MapLayerAdapter extends DragItemAdapter<MapLayerItem, MapLayerAdapter.View
         holder.itemView.setTag(mItemList.get(position));
     }
 
+    /**
+     * Download the tiles of the visible map area of an online tile service into its cache.
+     *
+     * @param layerName the name of the tile service layer.
+     */
+    private void seedTiles(String layerName) {
+        FragmentActivity activity = mapLayerListFragment.getActivity();
+        GPMapView mapView = LayerManager.INSTANCE.getLoadedMapView();
+        BitmapTileServiceLayer tileServiceLayer = null;
+        if (mapView != null) {
+            for (IGpLayer layer : mapView.getLayers()) {
+                if (layer instanceof BitmapTileServiceLayer && layer.getName().equals(layerName)) {
+                    tileServiceLayer = (BitmapTileServiceLayer) layer;
+                    break;
+                }
+            }
+        }
+        if (tileServiceLayer == null) {
+            GPDialogs.warningDialog(activity, activity.getString(R.string.seed_tiles_no_map), null);
+            return;
+        }
+
+        GPBBox bbox = mapView.getBoundingBox();
+        int minZoom = Math.min(mapView.getMapPosition().getZoomLevel(), tileServiceLayer.getMaxZoom());
+        int maxZoom = Math.min(minZoom + SEED_ZOOM_LEVELS, tileServiceLayer.getMaxZoom());
+        int tilesCount = TileSeeder.countTiles(bbox.getMinLongitude(), bbox.getMinLatitude(),
+                bbox.getMaxLongitude(), bbox.getMaxLatitude(), minZoom, maxZoom);
+        TileSeeder seeder = tileServiceLayer.getSeeder(TileSeeder.DEFAULT_PARALLELISM);
+        String prompt = activity.getString(R.string.seed_tiles_prompt, tilesCount, minZoom, maxZoom);
+        GPDialogs.yesNoMessageDialog(activity, prompt, () -> {
+            StringAsyncTask task = new StringAsyncTask(activity) {
+                private TileSeeder.SeedProgress progress;
+
+                @Override
+                protected String doBackgroundWork() {
+                    StringAsyncTask seedTask = this;
+                    try {
+                        progress = seeder.seed(bbox.getMinLongitude(), bbox.getMinLatitude(), bbox.getMaxLongitude(),
+                                bbox.getMaxLatitude(), minZoom, maxZoom, new TileSeeder.ISeedListener() {
+                                    @Override
+                                    public void onProgress(TileSeeder.SeedProgress current) {
+                                        publishProgress(current.getDone());
+                                    }
+
+                                    @Override
+                                    public boolean isCancelled() {
+                                        return seedTask.isCancelled();
+                                    }
+                                });
+                        return null;
+                    } catch (Exception e) {
+                        GPLog.error(this, null, e);
+                        return e.getLocalizedMessage();
+                    }
+                }
+
+                @Override
+                protected void doUiPostWork(String response) {
+                    if (response != null) {
+                        GPDialogs.warningDialog(activity, response, null);
+                    } else {
+                        GPDialogs.infoDialog(activity, activity.getString(R.string.seed_tiles_done,
+                                progress.downloaded, progress.skipped, progress.failed), null);
+                    }
+                }
+            };
+            task.setProgressDialog(null, activity.getString(R.string.seed_tiles_progress), false, tilesCount);
+            task.execute();
+        }, null);
+    }
+
     private void updateEditingColor(@NonNull ViewHolder holder, boolean isEditing) {
         Context context = mapLayerListFragment.getContext();
         if (context != null) {
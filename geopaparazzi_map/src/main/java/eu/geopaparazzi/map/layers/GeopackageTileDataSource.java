@@ -1,8 +1,5 @@
 package eu.geopaparazzi.map.layers;
 
-import android.graphics.BitmapFactory;
-
-import org.hortonmachine.dbs.geopackage.android.GPGeopackageDb;
 import org.oscim.android.canvas.AndroidGraphics;
 import org.oscim.backend.canvas.Bitmap;
 import org.oscim.layers.tile.MapTile;
@@ -13,9 +10,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-
-import eu.geopaparazzi.library.images.ImageUtilities;
 
 import static org.oscim.tiling.QueryResult.FAILED;
 
@@ -28,27 +22,18 @@ import static org.oscim.tiling.QueryResult.FAILED;
 public class GeopackageTileDataSource implements ITileDataSource {
     static final Logger log = LoggerFactory.getLogger(GeopackageTileDataSource.class);
 
-    private final GPGeopackageDb adb;
-    private final Integer transparentColor;
-    private Integer alpha;
-    private String tableName;
+    private final RasterTileDbPool dbPool;
+    private final TransparentTileProcessor transparentTileProcessor;
 
     /**
-     * Build a tile data source.
+     * Build a tile data source for a tile loader thread.
      *
-     * @param dbPath           the path to the mbtiles database.
-     * @param alpha            an optional alpha value [0-255] to make the tile transparent.
-     * @param transparentColor an optional color that will be made transparent in the bitmap.
-     * @throws Exception
+     * @param dbPool                   the connections pool of the geopackage database, shared with the other loaders.
+     * @param transparentTileProcessor the optional processor for transparency, shared with the other loaders.
      */
-    GeopackageTileDataSource(String dbPath, String tableName, Integer alpha, Integer transparentColor) throws Exception {
-        this.tableName = tableName;
-        adb = new GPGeopackageDb();
-        boolean exists = adb.open(dbPath);
-        if (!exists)
-            throw new RuntimeException("needs to exist");
-        this.alpha = alpha;
-        this.transparentColor = transparentColor;
+    GeopackageTileDataSource(RasterTileDbPool dbPool, TransparentTileProcessor transparentTileProcessor) {
+        this.dbPool = dbPool;
+        this.transparentTileProcessor = transparentTileProcessor;
     }
 
     @Override
@@ -56,22 +41,18 @@ public class GeopackageTileDataSource implements ITileDataSource {
         QueryResult res = FAILED;
 
         try {
-            byte[] imageBytes = adb.getTile(tableName, tile.tileX, tile.tileY, tile.zoomLevel);
-            if (transparentColor != null || alpha != null) {
-                android.graphics.Bitmap bmp = BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
-                if (transparentColor != null) {
-                    bmp = ImageUtilities.makeTransparent(bmp, transparentColor);
-                }
-                if (alpha != null) {
-                    bmp = ImageUtilities.makeBitmapTransparent(bmp, alpha);
+            Bitmap bitmap;
+            if (transparentTileProcessor != null) {
+                bitmap = transparentTileProcessor.getCached(tile);
+                if (bitmap == null) {
+                    byte[] imageBytes = dbPool.getTile(tile.tileX, tile.tileY, tile.zoomLevel);
+                    bitmap = transparentTileProcessor.process(tile, imageBytes);
                 }
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                bmp.compress(android.graphics.Bitmap.CompressFormat.PNG, 100, bos);
-                imageBytes = bos.toByteArray();
+            } else {
+                byte[] imageBytes = dbPool.getTile(tile.tileX, tile.tileY, tile.zoomLevel);
+                bitmap = AndroidGraphics.decodeBitmap(new ByteArrayInputStream(imageBytes));
             }
 
-            Bitmap bitmap = AndroidGraphics.decodeBitmap(new ByteArrayInputStream(imageBytes));
-
             sink.setTileImage(bitmap);
             res = QueryResult.SUCCESS;
         } catch (Exception e) {
@@ -83,19 +64,11 @@ public class GeopackageTileDataSource implements ITileDataSource {
 
     @Override
     public void dispose() {
-        try {
-            adb.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        // the connections and the cache belong to the tile source
     }
 
     @Override
     public void cancel() {
-        try {
-            adb.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        // a running tile read is short, nothing to interrupt
     }
-}
\ No newline at end of file
+}
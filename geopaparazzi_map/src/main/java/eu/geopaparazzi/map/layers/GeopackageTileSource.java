@@ -9,24 +9,30 @@ import org.oscim.tiling.TileSource;
  * @author Andrea Antonello
  */
 public class GeopackageTileSource extends TileSource {
-    private final GeopackageTileDataSource ds;
+    private final RasterTileDbPool dbPool;
+    private TransparentTileProcessor transparentTileProcessor;
 
     /**
      * Build a tile source.
      *
      * @param dbPath           the path to the mbtiles database.
+     * @param tableName        the name of the tiles table.
      * @param alpha            an optional alpha value [0-255] to make the tile transparent.
      * @param transparentColor an optional color that will be made transparent in the bitmap.
      * @throws Exception
      */
     public GeopackageTileSource(String dbPath, String tableName, Integer alpha, Integer transparentColor) throws Exception {
-        ds = new GeopackageTileDataSource(dbPath, tableName, alpha, transparentColor);
+        dbPool = RasterTileDbPool.forGeopackage(dbPath, tableName);
+        if (TransparentTileProcessor.isNeeded(alpha, transparentColor)) {
+            transparentTileProcessor = new TransparentTileProcessor(alpha, transparentColor);
+        }
     }
 
 
     @Override
     public ITileDataSource getDataSource() {
-        return ds;
+        // called once per tile loader thread, the loaders read from the same pool
+        return new GeopackageTileDataSource(dbPool, transparentTileProcessor);
     }
 
     @Override
@@ -36,7 +42,10 @@ public class GeopackageTileSource extends TileSource {
 
     @Override
     public void close() {
-        ds.dispose();
+        dbPool.close();
+        if (transparentTileProcessor != null) {
+            transparentTileProcessor.clear();
+        }
     }
 
 }
@@ -13,24 +13,30 @@ import org.oscim.layers.tile.vector.labeling.LabelLayer;
 import org.oscim.map.Layers;
 
 import java.io.File;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import eu.geopaparazzi.library.GPApplication;
 import eu.geopaparazzi.library.core.ResourcesManager;
 import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.database.TableChangesTracker;
 import eu.geopaparazzi.library.profiles.Profile;
 import eu.geopaparazzi.library.profiles.ProfilesHandler;
 import eu.geopaparazzi.library.profiles.objects.ProfileBasemaps;
 import eu.geopaparazzi.library.profiles.objects.ProfileSpatialitemaps;
 import eu.geopaparazzi.library.util.FileUtilities;
 import eu.geopaparazzi.library.util.IActivitySupporter;
+import eu.geopaparazzi.library.util.LibraryConstants;
 import eu.geopaparazzi.map.GPMapThemes;
 import eu.geopaparazzi.map.GPMapView;
 import eu.geopaparazzi.map.features.editing.EditManager;
+import eu.geopaparazzi.map.layers.interfaces.IDbTablesLayer;
 import eu.geopaparazzi.map.layers.interfaces.IEditableLayer;
 import eu.geopaparazzi.map.layers.interfaces.IGpLayer;
 import eu.geopaparazzi.map.layers.interfaces.ISystemLayer;
@@ -67,6 +73,35 @@ public enum LayerManager {
     private List<JSONObject> userLayersDefinitions = new ArrayList<>();
     private List<JSONObject> systemLayersDefinitions = new ArrayList<>();
 
+    /**
+     * The preferences read by the layers when they are created, a change forces a reload.
+     */
+    private static final String[] LAYERS_PREFERENCES_KEYS = {
+            MapUtilities.PREFERENCES_KEY_THEME,
+            LibraryConstants.PREFS_KEY_NOTES_VISIBLE,
+            LibraryConstants.PREFS_KEY_NOTES_TEXT_VISIBLE,
+            LibraryConstants.PREFS_KEY_NOTES_CHECK,
+            LibraryConstants.PREFS_KEY_NOTES_TEXT_SIZE,
+            LibraryConstants.PREFS_KEY_NOTES_CUSTOMCOLOR,
+            LibraryConstants.PREFS_KEY_NOTES_OPACITY,
+            LibraryConstants.PREFS_KEY_NOTES_SIZE,
+            LibraryConstants.PREFS_KEY_IMAGES_VISIBLE,
+            LibraryConstants.PREFS_KEY_IMAGES_TEXT_VISIBLE
+    };
+
+    /**
+     * The map view the layers are loaded in, they are kept there across pause and resume.
+     */
+    private WeakReference<GPMapView> loadedMapView;
+    /**
+     * The definitions and preferences the loaded layers have been created with.
+     */
+    private String loadedLayersSignature;
+    /**
+     * The version of the tables of the loaded layers at the time their data were read.
+     */
+    private final Map<IDbTablesLayer, Long> loadedTablesVersions = new HashMap<>();
+
     /**
      * Initialize the layers from preferences
      */
@@ -171,6 +206,14 @@ public enum LayerManager {
      * @throws JSONException
      */
     public void loadInMap(GPMapView mapView, IActivitySupporter activitySupporter) throws Exception {
+        // the layers are kept across pause and resume, so they are disposed only when replaced
+        for (Layer layer : mapView.map().layers()) {
+            if (layer instanceof IGpLayer) {
+                ((IGpLayer) layer).dispose();
+            }
+        }
+        loadedTablesVersions.clear();
+
         //--  Remove all the layers From Map:
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
             mapView.map().layers().removeIf(layer -> layer instanceof IGpLayer || layer instanceof BuildingLayer || layer instanceof LabelLayer);
@@ -440,6 +483,9 @@ public enum LayerManager {
      * Dispose all the layers and save the state to preferences.
      */
     public void dispose(GPMapView mapView) throws JSONException {
+        loadedMapView = null;
+        loadedLayersSignature = null;
+        loadedTablesVersions.clear();
         if (mapView != null) {
             JSONArray usersLayersArray = new JSONArray();
             JSONObject usersRoot = new JSONObject();
@@ -508,12 +554,41 @@ public enum LayerManager {
 //    }
 
 
+    /**
+     * Resume the layers of the map view.
+     * <p/>
+     * <p>The layers loaded before the pause are kept, unless their definitions or the preferences
+     * they are created with changed. Of the kept layers only the ones whose database tables changed
+     * meanwhile reload their data.</p>
+     *
+     * @param mapView           the map view.
+     * @param activitySupporter the activity supporter.
+     */
     public void onResume(GPMapView mapView, IActivitySupporter activitySupporter) {
         if (mapView != null) {
+            long start = System.currentTimeMillis();
             Layers layers = mapView.map().layers();
-            // right now we dispose and reload
+            boolean isReload = false;
+            int reloadedCount = 0;
             try {
-                loadInMap(mapView, activitySupporter);
+                String signature = getLayersSignature();
+                isReload = loadedMapView == null || loadedMapView.get() != mapView || ProfilesHandler.INSTANCE.ProfileChanged
+                        || !signature.equals(loadedLayersSignature);
+                if (isReload) {
+                    loadedMapView = null;
+                    loadInMap(mapView, activitySupporter);
+                    // loading can add definitions, for example the default basemap
+                    loadedLayersSignature = getLayersSignature();
+                    loadedMapView = new WeakReference<>(mapView);
+                    for (Layer layer : layers) {
+                        if (layer instanceof IDbTablesLayer) {
+                            IDbTablesLayer tablesLayer = (IDbTablesLayer) layer;
+                            loadedTablesVersions.put(tablesLayer, TableChangesTracker.INSTANCE.getVersionSum(tablesLayer.getTableKeys()));
+                        }
+                    }
+                } else {
+                    reloadedCount = reloadChangedLayers(layers);
+                }
             } catch (Exception e) {
                 GPLog.error(this, null, e);
             }
@@ -523,38 +598,105 @@ public enum LayerManager {
                     gpLayer.onResume();
                 }
             }
-            //ToDo Debug
-            int count = 0;
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-                count = (int) layers.stream().filter(l -> l instanceof IVectorTileOfflineLayer || l instanceof IVectorTileOnlineLayer).count();
-            } else {
-                // TODO remove when minsdk is 24
-                for (Layer l : layers) {
-                    if (l instanceof IVectorTileOfflineLayer || l instanceof IVectorTileOnlineLayer) {
-                        count++;
+            if (isReload) {
+                int count = 0;
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                    count = (int) layers.stream().filter(l -> l instanceof IVectorTileOfflineLayer || l instanceof IVectorTileOnlineLayer).count();
+                } else {
+                    // TODO remove when minsdk is 24
+                    for (Layer l : layers) {
+                        if (l instanceof IVectorTileOfflineLayer || l instanceof IVectorTileOnlineLayer) {
+                            count++;
+                        }
                     }
                 }
+                if (count > 0) {
+                    SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(GPApplication.getInstance());
+                    String themeLabel = preferences.getString(MapUtilities.PREFERENCES_KEY_THEME, GPMapThemes.DEFAULT.getThemeLabel());
+                    mapView.setTheme(GPMapThemes.fromLabel(themeLabel));
+                }
+            }
+            if (GPLog.LOG) {
+                String mode = isReload ? "all layers reloaded" : "layers kept, " + reloadedCount + " with changed data reloaded";
+                GPLog.addLogEntry(this, "Map layers resumed in " + (System.currentTimeMillis() - start) + " ms: " + mode);
             }
-            if (count > 0) {
-                SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(GPApplication.getInstance());
-                String themeLabel = preferences.getString(MapUtilities.PREFERENCES_KEY_THEME, GPMapThemes.DEFAULT.getThemeLabel());
-                mapView.setTheme(GPMapThemes.fromLabel(themeLabel));
+        }
+    }
+
+    /**
+     * Reload the data of the layers whose tables changed since they were read.
+     * <p/>
+     * <p>Layers that load their data in background also reload them in background.</p>
+     *
+     * @param layers the map layers.
+     * @return the number of reloaded layers.
+     */
+    private int reloadChangedLayers(Layers layers) {
+        int reloadedCount = 0;
+        for (Layer layer : layers) {
+            if (layer instanceof IDbTablesLayer) {
+                IDbTablesLayer tablesLayer = (IDbTablesLayer) layer;
+                // read before the reload, so that changes made meanwhile are not missed
+                long version = TableChangesTracker.INSTANCE.getVersionSum(tablesLayer.getTableKeys());
+                Long loadedVersion = loadedTablesVersions.get(tablesLayer);
+                if (loadedVersion == null || loadedVersion != version) {
+                    try {
+                        tablesLayer.reloadChangedData();
+                        reloadedCount++;
+                    } catch (Exception e) {
+                        GPLog.error(this, "Unable to reload layer: " + tablesLayer.getName(), e);
+                    }
+                    loadedTablesVersions.put(tablesLayer, version);
+                }
             }
         }
+        return reloadedCount;
+    }
+
+    /**
+     * @return a string that changes if the layers definitions or the preferences used by the layers change.
+     */
+    private String getLayersSignature() {
+        StringBuilder sb = new StringBuilder();
+        for (JSONObject definition : userLayersDefinitions) {
+            sb.append(definition.toString()).append('\n');
+        }
+        for (JSONObject definition : systemLayersDefinitions) {
+            sb.append(definition.toString()).append('\n');
+        }
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(GPApplication.getInstance());
+        Map<String, ?> allPreferences = preferences.getAll();
+        for (String key : LAYERS_PREFERENCES_KEYS) {
+            sb.append(key).append('=').append(allPreferences.get(key)).append('\n');
+        }
+        return sb.toString();
     }
 
+    /**
+     * Get the map view the layers are loaded in.
+     * <p/>
+     * <p>The view is kept while the map is paused, for example while the layers list is shown.</p>
+     *
+     * @return the map view or <code>null</code> if the layers are not loaded.
+     */
+    public GPMapView getLoadedMapView() {
+        WeakReference<GPMapView> mapViewReference = loadedMapView;
+        return mapViewReference != null ? mapViewReference.get() : null;
+    }
+
+    /**
+     * Pause the layers of the map view.
+     * <p/>
+     * <p>The layers and their data are kept, they are disposed when replaced or with {@link #dispose(GPMapView)}.</p>
+     *
+     * @param mapView the map view.
+     */
     public void onPause(GPMapView mapView) {
         if (mapView != null) {
-//            for (Layer layer : mapView.map().layers()) {
-//                if (layer instanceof IGpLayer) {
-//                    IGpLayer gpLayer = (IGpLayer) layer;
-//                    gpLayer.onPause();
-//                }
-//            }
             for (Layer layer : mapView.map().layers()) {
                 if (layer instanceof IGpLayer) {
                     IGpLayer gpLayer = (IGpLayer) layer;
-                    gpLayer.dispose();
+                    gpLayer.onPause();
                 }
             }
         }
@@ -9,7 +9,8 @@ import org.oscim.tiling.TileSource;
  * @author Andrea Antonello
  */
 public class MBTilesTileSource extends TileSource {
-    private final MBTilesTileDataSource ds;
+    private final RasterTileDbPool dbPool;
+    private TransparentTileProcessor transparentTileProcessor;
 
     /**
      * Build a tile source.
@@ -20,13 +21,17 @@ public class MBTilesTileSource extends TileSource {
      * @throws Exception
      */
     public MBTilesTileSource(String dbPath, Integer alpha, Integer transparentColor) throws Exception {
-        ds = new MBTilesTileDataSource(dbPath, alpha, transparentColor);
+        dbPool = RasterTileDbPool.forMbtiles(dbPath);
+        if (TransparentTileProcessor.isNeeded(alpha, transparentColor)) {
+            transparentTileProcessor = new TransparentTileProcessor(alpha, transparentColor);
+        }
     }
 
 
     @Override
     public ITileDataSource getDataSource() {
-        return ds;
+        // called once per tile loader thread, the loaders read from the same pool
+        return new MBTilesTileDataSource(dbPool, transparentTileProcessor);
     }
 
     @Override
@@ -36,7 +41,10 @@ public class MBTilesTileSource extends TileSource {
 
     @Override
     public void close() {
-        ds.dispose();
+        dbPool.close();
+        if (transparentTileProcessor != null) {
+            transparentTileProcessor.clear();
+        }
     }
 
 }
@@ -0,0 +1,197 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.map.layers;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.geopaparazzi.library.database.GPLog;
+
+/**
+ * A pool of read only connections to a raster tile database (MBTiles or GeoPackage).
+ * <p/>
+ * <p>The tile loader threads of a layer each borrow a connection for a single tile read,
+ * so that reads run in parallel instead of being serialized on one connection.
+ * The tile lookup query is always the same, so it is compiled once per connection and then
+ * taken from the statement cache of the connection.</p>
+ * <p/>
+ * <p>The time spent waiting for a connection and the time spent in the query are tracked.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+class RasterTileDbPool {
+    /**
+     * Max number of connections, based on the available processors.
+     * <p/>
+     * <p>It doesn't depend on the number of tile loader threads of the layer: connections are
+     * opened only when needed, so fewer loaders use fewer connections, while more loaders
+     * wait for a free one.</p>
+     */
+    static final int MAX_CONNECTIONS = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+    private static final int METRICS_LOG_INTERVAL = 500;
+
+    private final String dbPath;
+    private final String tileQuery;
+    private final boolean isTms;
+    private final ArrayBlockingQueue<SQLiteDatabase> idleConnections = new ArrayBlockingQueue<>(MAX_CONNECTIONS);
+    private final List<SQLiteDatabase> allConnections = new ArrayList<>();
+    private boolean isClosed = false;
+
+    private final AtomicLong queriesCount = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong queryNanos = new AtomicLong();
+
+    /**
+     * Create a pool for an MBTiles database.
+     *
+     * @param dbPath the path to the database.
+     * @return the pool.
+     */
+    static RasterTileDbPool forMbtiles(String dbPath) {
+        return new RasterTileDbPool(dbPath, "tiles", true);
+    }
+
+    /**
+     * Create a pool for a GeoPackage tiles table.
+     *
+     * @param dbPath    the path to the database.
+     * @param tableName the tiles table.
+     * @return the pool.
+     */
+    static RasterTileDbPool forGeopackage(String dbPath, String tableName) {
+        return new RasterTileDbPool(dbPath, "\"" + tableName + "\"", false);
+    }
+
+    /**
+     * @param dbPath    the path to the database.
+     * @param tileTable the (quoted if necessary) tiles table.
+     * @param isTms     if <code>true</code>, the rows are counted from the south.
+     */
+    private RasterTileDbPool(String dbPath, String tileTable, boolean isTms) {
+        this.dbPath = dbPath;
+        this.isTms = isTms;
+        // the casts make the comparisons work also for columns without integer affinity
+        tileQuery = "SELECT tile_data FROM " + tileTable +
+                " WHERE zoom_level = CAST(? AS INTEGER) AND tile_column = CAST(? AS INTEGER) AND tile_row = CAST(? AS INTEGER)";
+        // fail early if the database can't be opened
+        release(acquireNew());
+    }
+
+    /**
+     * Read the image of a tile.
+     *
+     * @param tileX the tile column in the xyz schema.
+     * @param tileY the tile row in the xyz schema.
+     * @param zoom  the zoom level.
+     * @return the image bytes or <code>null</code> if the tile doesn't exist.
+     * @throws InterruptedException if interrupted while waiting for a connection.
+     */
+    byte[] getTile(int tileX, int tileY, int zoom) throws InterruptedException {
+        long start = System.nanoTime();
+        SQLiteDatabase connection = acquire();
+        long acquired = System.nanoTime();
+        try {
+            int row = isTms ? (1 << zoom) - 1 - tileY : tileY;
+            String[] args = {String.valueOf(zoom), String.valueOf(tileX), String.valueOf(row)};
+            try (Cursor cursor = connection.rawQuery(tileQuery, args)) {
+                if (cursor.moveToFirst()) {
+                    return cursor.getBlob(0);
+                }
+                return null;
+            }
+        } finally {
+            release(connection);
+            waitNanos.addAndGet(acquired - start);
+            queryNanos.addAndGet(System.nanoTime() - acquired);
+            long count = queriesCount.incrementAndGet();
+            if (GPLog.LOG_HEAVY && count % METRICS_LOG_INTERVAL == 0)
+                GPLog.addLogEntry(this, getMetrics());
+        }
+    }
+
+    private SQLiteDatabase acquire() throws InterruptedException {
+        SQLiteDatabase connection = idleConnections.poll();
+        if (connection != null) {
+            return connection;
+        }
+        synchronized (this) {
+            if (isClosed) {
+                throw new IllegalStateException("The tile database pool is closed: " + dbPath);
+            }
+            if (allConnections.size() < MAX_CONNECTIONS) {
+                return acquireNew();
+            }
+        }
+        return idleConnections.take();
+    }
+
+    private synchronized SQLiteDatabase acquireNew() {
+        SQLiteDatabase connection = SQLiteDatabase.openDatabase(dbPath, null,
+                SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+        allConnections.add(connection);
+        return connection;
+    }
+
+    private void release(SQLiteDatabase connection) {
+        synchronized (this) {
+            if (isClosed) {
+                connection.close();
+                return;
+            }
+        }
+        idleConnections.offer(connection);
+    }
+
+    /**
+     * Close all the connections.
+     * <p/>
+     * <p>Connections in use are closed when they are released.</p>
+     */
+    synchronized void close() {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        SQLiteDatabase connection;
+        while ((connection = idleConnections.poll()) != null) {
+            connection.close();
+        }
+        if (GPLog.LOG_HEAVY)
+            GPLog.addLogEntry(this, getMetrics());
+    }
+
+    /**
+     * @return a description of the connections usage and timings.
+     */
+    String getMetrics() {
+        long count = Math.max(1, queriesCount.get());
+        int connections;
+        synchronized (this) {
+            connections = allConnections.size();
+        }
+        return "Tile reads of " + dbPath + ": " + queriesCount.get() + " queries on " + connections +
+                " connections, average wait " + waitNanos.get() / count / 1000 + " us, average query " +
+                queryNanos.get() / count / 1000 + " us";
+    }
+}
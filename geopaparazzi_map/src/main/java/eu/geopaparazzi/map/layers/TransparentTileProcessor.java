@@ -0,0 +1,149 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.map.layers;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.LruCache;
+
+import org.oscim.android.canvas.AndroidBitmap;
+import org.oscim.layers.tile.MapTile;
+
+/**
+ * Applies the transparent color and alpha of a raster tile layer.
+ * <p/>
+ * <p>Every tile is decoded once into a mutable bitmap, its pixels are processed in place
+ * through a buffer that is reused by the loader thread, and the bitmap is handed on as is.
+ * A copy of the processed tiles is kept in a per layer cache, so that tiles seen before
+ * are not read and processed again.</p>
+ * <p/>
+ * <p>The tile loader threads share one instance.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+class TransparentTileProcessor {
+    /**
+     * Max size of the processed tiles cache of a layer.
+     */
+    private static final int CACHE_SIZE_BYTES = 8 * 1024 * 1024;
+
+    private final Integer alpha;
+    private final Integer transparentColor;
+
+    private final ThreadLocal<int[]> pixelsBuffer = new ThreadLocal<>();
+    private final LruCache<Long, Bitmap> cache = new LruCache<Long, Bitmap>(CACHE_SIZE_BYTES) {
+        @Override
+        protected int sizeOf(Long key, Bitmap value) {
+            return value.getByteCount();
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param alpha            an optional alpha value [0-255] to make the tile transparent.
+     * @param transparentColor an optional color that will be made transparent in the bitmap.
+     */
+    TransparentTileProcessor(Integer alpha, Integer transparentColor) {
+        this.alpha = alpha;
+        this.transparentColor = transparentColor;
+    }
+
+    /**
+     * @param alpha            the optional alpha.
+     * @param transparentColor the optional transparent color.
+     * @return <code>true</code> if tiles with these settings need processing.
+     */
+    static boolean isNeeded(Integer alpha, Integer transparentColor) {
+        return transparentColor != null || (alpha != null && alpha < 255);
+    }
+
+    /**
+     * Get a processed tile from the cache.
+     *
+     * @param tile the tile.
+     * @return a new bitmap for the tile or <code>null</code> if it is not cached.
+     */
+    org.oscim.backend.canvas.Bitmap getCached(MapTile tile) {
+        Bitmap cached = cache.get(getKey(tile));
+        if (cached == null) {
+            return null;
+        }
+        // the sink owns the bitmap it gets and might recycle it
+        return new AndroidBitmap(cached.copy(Bitmap.Config.ARGB_8888, false));
+    }
+
+    /**
+     * Decode and process the image of a tile.
+     *
+     * @param tile       the tile.
+     * @param imageBytes the encoded image.
+     * @return the processed bitmap.
+     */
+    org.oscim.backend.canvas.Bitmap process(MapTile tile, byte[] imageBytes) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap bitmap = BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length, options);
+        if (bitmap == null) {
+            throw new IllegalArgumentException("Could not decode the image of tile " + tile);
+        }
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int size = width * height;
+        int[] pixels = pixelsBuffer.get();
+        if (pixels == null || pixels.length < size) {
+            pixels = new int[size];
+            pixelsBuffer.set(pixels);
+        }
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+
+        boolean hasColor = transparentColor != null;
+        int color = hasColor ? transparentColor : 0;
+        boolean hasAlpha = alpha != null && alpha < 255;
+        int alphaValue = hasAlpha ? Math.max(0, alpha) : 255;
+        for (int i = 0; i < size; i++) {
+            int pixel = pixels[i];
+            if (hasColor && pixel == color) {
+                pixels[i] = 0;
+            } else if (hasAlpha) {
+                int pixelAlpha = (pixel >>> 24) * alphaValue / 255;
+                pixels[i] = (pixelAlpha << 24) | (pixel & 0x00FFFFFF);
+            }
+        }
+
+        // opaque formats like jpeg decode to bitmaps that ignore alpha
+        bitmap.setHasAlpha(true);
+        bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+
+        cache.put(getKey(tile), bitmap.copy(Bitmap.Config.ARGB_8888, false));
+        return new AndroidBitmap(bitmap);
+    }
+
+    /**
+     * Empty the cache.
+     */
+    void clear() {
+        cache.evictAll();
+    }
+
+    private static long getKey(MapTile tile) {
+        return ((long) tile.zoomLevel << 56) | ((long) tile.tileX << 28) | tile.tileY;
+    }
+}
@@ -6,6 +6,9 @@ import org.oscim.tiling.source.UrlTileDataSource;
 import org.oscim.tiling.source.UrlTileSource;
 import org.oscim.tiling.source.mvt.TileDecoder;
 
+import eu.geopaparazzi.map.layers.utils.VectorTileCache;
+import eu.geopaparazzi.map.layers.utils.VectorTileCacheDataSource;
+
 @SuppressWarnings("ALL")
 public class VectorTilesOnlineSource extends UrlTileSource {
 
@@ -14,6 +17,7 @@ public class VectorTilesOnlineSource extends UrlTileSource {
 
     public static class Builder<T extends Builder<T>> extends UrlTileSource.Builder<T> {
         private String locale = "";
+        private VectorTileCache vectorTileCache;
 
         public Builder() {
             super(DEFAULT_URL, DEFAULT_PATH);
@@ -25,6 +29,11 @@ public class VectorTilesOnlineSource extends UrlTileSource {
             return self();
         }
 
+        public T vectorTileCache(VectorTileCache vectorTileCache) {
+            this.vectorTileCache = vectorTileCache;
+            return self();
+        }
+
         public T url(String url) {
             this.url = url;
             return self();
@@ -47,10 +56,12 @@ public class VectorTilesOnlineSource extends UrlTileSource {
     }
 
     private final String locale;
+    private final VectorTileCache vectorTileCache;
 
     public VectorTilesOnlineSource(Builder<?> builder) {
         super(builder);
         this.locale = builder.locale;
+        this.vectorTileCache = builder.vectorTileCache;
     }
 
     public VectorTilesOnlineSource() {
@@ -63,6 +74,9 @@ public class VectorTilesOnlineSource extends UrlTileSource {
 
     @Override
     public ITileDataSource getDataSource() {
+        if (vectorTileCache != null) {
+            return new OverzoomTileDataSource(new VectorTileCacheDataSource(this, new TileDecoder(locale), vectorTileCache), mOverZoom);
+        }
         return new OverzoomTileDataSource(new UrlTileDataSource(this, new TileDecoder(locale), getHttpEngine()), mOverZoom);
     }
 }
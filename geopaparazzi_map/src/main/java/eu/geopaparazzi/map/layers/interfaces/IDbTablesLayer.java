@@ -0,0 +1,27 @@
+package eu.geopaparazzi.map.layers.interfaces;
+
+/**
+ * A layer that shows data read from database tables.
+ * <p/>
+ * <p>The layer is kept across pause and resume of the map and its data are reloaded only
+ * if one of its tables has been changed meanwhile.</p>
+ */
+public interface IDbTablesLayer extends IGpLayer {
+
+    /**
+     * @return the names or keys of the tables the data of the layer come from, as notified
+     * to the {@link eu.geopaparazzi.library.database.TableChangesTracker}.
+     */
+    String[] getTableKeys();
+
+    /**
+     * Reload the data after one of the tables changed, called from the UI thread on resume.
+     * <p/>
+     * <p>Layers that read their data in background when loaded have to do the same here.</p>
+     *
+     * @throws Exception if something goes wrong.
+     */
+    default void reloadChangedData() throws Exception {
+        reloadData();
+    }
+}
@@ -31,9 +31,10 @@ import eu.geopaparazzi.library.util.LibraryConstants;
 import eu.geopaparazzi.map.GPMapView;
 import eu.geopaparazzi.map.R;
 import eu.geopaparazzi.map.layers.LayerGroups;
+import eu.geopaparazzi.map.layers.interfaces.IDbTablesLayer;
 import eu.geopaparazzi.map.layers.interfaces.ISystemLayer;
 
-public class BookmarkLayer extends ItemizedLayer<MarkerItem> implements ItemizedLayer.OnItemGestureListener<MarkerItem>, ISystemLayer {
+public class BookmarkLayer extends ItemizedLayer<MarkerItem> implements ItemizedLayer.OnItemGestureListener<MarkerItem>, ISystemLayer, IDbTablesLayer {
     private static final int FG_COLOR = 0xFF000000; // 100 percent black. AARRGGBB
     private static final int BG_COLOR = 0x80FF69B4; // 50 percent pink. AARRGGBB
     private static final int TRANSP_WHITE = 0x80FFFFFF; // 50 percent white. AARRGGBB
@@ -187,6 +188,11 @@ public class BookmarkLayer extends ItemizedLayer<MarkerItem> implements Itemized
         return toDefaultJson();
     }
 
+    @Override
+    public String[] getTableKeys() {
+        return new String[]{TABLE_BOOKMARKS};
+    }
+
     @Override
     public void onResume() {
 
@@ -15,6 +15,8 @@ import org.oscim.layers.vector.geometries.Style;
 import org.oscim.map.Layers;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import eu.geopaparazzi.library.GPApplication;
 import eu.geopaparazzi.library.database.GPLog;
@@ -27,12 +29,21 @@ import eu.geopaparazzi.map.layers.LayerGroups;
 import eu.geopaparazzi.map.layers.interfaces.IPositionLayer;
 import eu.geopaparazzi.map.layers.interfaces.ISystemLayer;
 import eu.geopaparazzi.map.layers.utils.GpsLog;
+import eu.geopaparazzi.map.layers.utils.GpsLogChunks;
 import eu.geopaparazzi.map.utils.MapUtilities;
 
 public class CurrentGpsLogLayer extends VectorLayer implements IPositionLayer, ISystemLayer {
     public static String NAME = null;
     private GeometryFactory gf = new GeometryFactory();
     private GpsLog lastLog;
+    /**
+     * The points of the current log, appended incrementally.
+     */
+    private final GpsLogChunks track = new GpsLogChunks();
+    /**
+     * The drawables of the track chunks, by chunk index (null for chunks with a single point).
+     */
+    private final List<LineDrawable> chunkDrawables = new ArrayList<>();
     private Style lineStyle;
     private GPMapView mapView;
 
@@ -59,6 +70,14 @@ public class CurrentGpsLogLayer extends VectorLayer implements IPositionLayer, I
         if (lastLog == null) {
             SQLiteDatabase sqliteDatabase = GPApplication.getInstance().getDatabase();
             lastLog = MapUtilities.getLastGpsLog(sqliteDatabase);
+            track.clear();
+            if (lastLog != null) {
+                for (Coordinate coordinate : lastLog.gpslogGeoPoints) {
+                    track.addPoint(coordinate.x, coordinate.y);
+                }
+                // from now on the points are kept in the chunks only
+                lastLog.gpslogGeoPoints = null;
+            }
         }
         if (lastLog != null && lineStyle == null)
             lineStyle = Style.builder()
@@ -68,19 +87,53 @@ public class CurrentGpsLogLayer extends VectorLayer implements IPositionLayer, I
                     .build();
     }
 
+    /**
+     * Rebuild all the drawables of the current log.
+     */
     public void reloadData() {
         try {
             createLogAndStyle();
         } catch (IOException e) {
             GPLog.error(this, "ERRROR loading log/style", e);//NON-NLS
         }
-        if (lastLog.gpslogGeoPoints.size() > 1) {
-            LineString lineString = gf.createLineString(lastLog.gpslogGeoPoints.toArray(new Coordinate[0]));
-            tmpDrawables.clear();
-            mDrawables.clear();
-            add(new LineDrawable(lineString, lineStyle));
-            update();
+        tmpDrawables.clear();
+        mDrawables.clear();
+        chunkDrawables.clear();
+        for (int i = 0; i < track.getChunksCount(); i++) {
+            LineString lineString = track.getChunkLine(gf, i);
+            LineDrawable drawable = null;
+            if (lineString != null) {
+                drawable = new LineDrawable(lineString, lineStyle);
+                add(drawable);
+            }
+            chunkDrawables.add(drawable);
         }
+        update();
+    }
+
+    /**
+     * Append a point to the current log, rebuilding only the geometry of the last chunk.
+     *
+     * @param lon the longitude.
+     * @param lat the latitude.
+     */
+    private void appendPoint(double lon, double lat) {
+        track.addPoint(lon, lat);
+        int lastIndex = track.getChunksCount() - 1;
+        if (chunkDrawables.size() > lastIndex) {
+            LineDrawable oldDrawable = chunkDrawables.remove(lastIndex);
+            if (oldDrawable != null) {
+                remove(oldDrawable);
+            }
+        }
+        LineString lineString = track.getChunkLine(gf, lastIndex);
+        LineDrawable drawable = null;
+        if (lineString != null) {
+            drawable = new LineDrawable(lineString, lineStyle);
+            add(drawable);
+        }
+        chunkDrawables.add(drawable);
+        update();
     }
 
 
@@ -100,11 +153,12 @@ public class CurrentGpsLogLayer extends VectorLayer implements IPositionLayer, I
                     e.printStackTrace();
                 }
             } else if (lastGpsPosition != null) {
-                lastLog.gpslogGeoPoints.add(new Coordinate(lastGpsPosition[0], lastGpsPosition[1]));
-                reloadData();
+                appendPoint(lastGpsPosition[0], lastGpsPosition[1]);
             }
         } else {
             lastLog = null;
+            track.clear();
+            chunkDrawables.clear();
             tmpDrawables.clear();
             mDrawables.clear();
         }
@@ -153,7 +207,15 @@ public class CurrentGpsLogLayer extends VectorLayer implements IPositionLayer, I
 
     @Override
     public void onResume() {
-
+        if (lastLog != null) {
+            // the layer is kept while paused, the points logged meanwhile are only in the database
+            lastLog = null;
+            try {
+                preLoadData();
+            } catch (IOException e) {
+                GPLog.error(this, null, e);
+            }
+        }
     }
 
     @Override
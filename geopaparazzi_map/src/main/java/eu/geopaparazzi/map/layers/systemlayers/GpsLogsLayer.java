@@ -7,35 +7,83 @@ import android.preference.PreferenceManager;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.LineString;
 import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequenceFactory;
 import org.oscim.backend.canvas.Paint;
 import org.oscim.layers.vector.VectorLayer;
+import org.oscim.layers.vector.geometries.Drawable;
 import org.oscim.layers.vector.geometries.LineDrawable;
 import org.oscim.layers.vector.geometries.PointDrawable;
 import org.oscim.layers.vector.geometries.Style;
 import org.oscim.map.Layers;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import eu.geopaparazzi.library.GPApplication;
 import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.database.GpsLogLodUtilities;
+import eu.geopaparazzi.library.database.TableDescriptions;
 import eu.geopaparazzi.library.style.ColorUtilities;
+import eu.geopaparazzi.map.GPBBox;
 import eu.geopaparazzi.map.GPMapView;
 import eu.geopaparazzi.map.R;
 import eu.geopaparazzi.map.layers.LayerGroups;
+import eu.geopaparazzi.map.layers.interfaces.IDbTablesLayer;
 import eu.geopaparazzi.map.layers.interfaces.ISystemLayer;
 import eu.geopaparazzi.map.layers.utils.GpsLog;
 import eu.geopaparazzi.map.utils.MapUtilities;
 
-public class GpsLogsLayer extends VectorLayer implements ISystemLayer {
+public class GpsLogsLayer extends VectorLayer implements ISystemLayer, IDbTablesLayer {
+
+    /**
+     * The fraction of the viewport size loaded around it, to avoid reloading at every pan.
+     */
+    private static final double VIEWPORT_MARGIN = 0.5;
 
     public static String NAME = null;
     private final SharedPreferences peferences;
     private GPMapView mapView;
+    /**
+     * The level of detail currently drawn, depending on the map zoom.
+     */
+    private volatile int currentLodLevel;
+    /**
+     * The drawables of the loaded logs by log id, only accessed by the loading thread.
+     */
+    private final Map<Long, List<Drawable>> loadedLogs = new LinkedHashMap<>();
+    /**
+     * The area (viewport plus margin) the loaded logs have been chosen for, as [w, e, s, n].
+     */
+    private volatile double[] loadedBounds;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean isLoadPending = new AtomicBoolean(false);
+    /**
+     * Incremented at every reload, to drop the loads of the previous data.
+     */
+    private final AtomicInteger generation = new AtomicInteger();
+    private final GPMapView.GPMapUpdateListener mapUpdateListener = mapPosition -> {
+        int lodLevel = GpsLogLodUtilities.getLevelForZoom(mapPosition.getZoomLevel());
+        if (lodLevel != currentLodLevel) {
+            currentLodLevel = lodLevel;
+            reloadData();
+        } else if (!isViewportLoaded()) {
+            submitLoad(false);
+        }
+    };
 
     public GpsLogsLayer(GPMapView mapView) {
         super(mapView.map());
@@ -44,11 +92,10 @@ public class GpsLogsLayer extends VectorLayer implements ISystemLayer {
         this.mapView = mapView;
         getName(mapView.getContext());
 
-        try {
-            reloadData();
-        } catch (IOException e) {
-            GPLog.error(this, null, e);
-        }
+        currentLodLevel = GpsLogLodUtilities.getLevelForZoom(mapView.getMapPosition().getZoomLevel());
+        mapView.addMapUpdateListener(mapUpdateListener);
+
+        reloadData();
     }
 
     public static String getName(Context context) {
@@ -58,21 +105,136 @@ public class GpsLogsLayer extends VectorLayer implements ISystemLayer {
         return NAME;
     }
 
-    public void reloadData() throws IOException {
+    /**
+     * Drop the loaded logs and load the viewport again in background.
+     */
+    public void reloadData() {
+        generation.incrementAndGet();
+        loadedBounds = null;
+        submitLoad(true);
+    }
+
+    private void submitLoad(final boolean clear) {
+        if (!clear && !isLoadPending.compareAndSet(false, true)) {
+            // a load is already queued and will read the viewport when it runs
+            return;
+        }
+        final int loadGeneration = generation.get();
+        try {
+            executor.execute(() -> {
+                if (!clear) {
+                    // map changes during the load trigger a new one
+                    isLoadPending.set(false);
+                }
+                try {
+                    if (clear) {
+                        clearDrawables();
+                    }
+                    loadViewport(loadGeneration);
+                } catch (Exception e) {
+                    GPLog.error(this, null, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // disposed
+        }
+    }
+
+    private void clearDrawables() {
+        synchronized (this) {
+            tmpDrawables.clear();
+            mDrawables.clear();
+        }
+        loadedLogs.clear();
+    }
+
+    /**
+     * @return <code>true</code> if the current viewport is inside the loaded area.
+     */
+    private boolean isViewportLoaded() {
+        double[] bounds = loadedBounds;
+        if (bounds == null) {
+            return false;
+        }
+        GPBBox bbox = mapView.getBoundingBox();
+        return bbox.getMinLongitude() >= bounds[0] && bbox.getMaxLongitude() <= bounds[1] &&
+                bbox.getMinLatitude() >= bounds[2] && bbox.getMaxLatitude() <= bounds[3];
+    }
+
+    /**
+     * Load the logs that intersect the viewport plus a margin and evict the ones that don't anymore.
+     * <p/>
+     * <p>Runs on the loading thread. The database is read before touching the layer,
+     * the result is dropped if a reload has been requested in the meanwhile.</p>
+     *
+     * @param loadGeneration the generation the load has been requested for.
+     */
+    private void loadViewport(int loadGeneration) throws IOException {
+        if (loadGeneration != generation.get()) {
+            return;
+        }
+        int lodLevel = currentLodLevel;
+        GPBBox bbox = mapView.getBoundingBox();
+        double marginX = bbox.getLongitudeSpan() * VIEWPORT_MARGIN;
+        double marginY = bbox.getLatitudeSpan() * VIEWPORT_MARGIN;
+        double[] bounds = {
+                bbox.getMinLongitude() - marginX,
+                bbox.getMaxLongitude() + marginX,
+                bbox.getMinLatitude() - marginY,
+                bbox.getMaxLatitude() + marginY
+        };
+
         SQLiteDatabase sqliteDatabase = GPApplication.getInstance().getDatabase();
-        List<GpsLog> logsList = MapUtilities.getGpsLogs(sqliteDatabase);
-        GeometryFactory gf = new GeometryFactory();
+        Set<Long> logIds = MapUtilities.getGpsLogIdsInBounds(sqliteDatabase, bounds[3], bounds[2], bounds[1], bounds[0]);
+        List<Long> logIdsToLoad = null;
+        if (logIds != null) {
+            logIdsToLoad = new ArrayList<>();
+            for (Long logId : logIds) {
+                if (!loadedLogs.containsKey(logId)) {
+                    logIdsToLoad.add(logId);
+                }
+            }
+        } else if (!loadedLogs.isEmpty()) {
+            // no bounding boxes available, everything has been loaded already
+            loadedBounds = bounds;
+            return;
+        }
+
+        List<GpsLog> logsList = new ArrayList<>();
+        if (logIdsToLoad == null || !logIdsToLoad.isEmpty()) {
+            logsList = MapUtilities.getGpsLogs(sqliteDatabase, lodLevel, logIdsToLoad);
+        }
+        if (loadGeneration != generation.get()) {
+            // stale, a reload is queued
+            return;
+        }
 
-        tmpDrawables.clear();
-        mDrawables.clear();
+        if (logIds != null) {
+            Iterator<Map.Entry<Long, List<Drawable>>> iterator = loadedLogs.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Long, List<Drawable>> entry = iterator.next();
+                if (!logIds.contains(entry.getKey())) {
+                    for (Drawable drawable : entry.getValue()) {
+                        remove(drawable);
+                    }
+                    iterator.remove();
+                }
+            }
+        }
+
+        GeometryFactory gf = new GeometryFactory();
         for (GpsLog gpsLog : logsList) {
-            LineString lineString = gf.createLineString(gpsLog.gpslogGeoPoints.toArray(new Coordinate[0]));
+            CoordinateSequence coordinateSequence = PackedCoordinateSequenceFactory.DOUBLE_FACTORY.create(gpsLog.getTrimmedLonLats(), 2);
+            // the buffer is not needed anymore
+            gpsLog.lonLats = null;
+            LineString lineString = gf.createLineString(coordinateSequence);
             Style lineStyle = Style.builder()
                     .strokeColor(ColorUtilities.toColor(gpsLog.color))
                     .strokeWidth((float) gpsLog.width)
                     .cap(Paint.Cap.ROUND)
                     .build();
-            add(new LineDrawable(lineString, lineStyle));
+            LineDrawable lineDrawable = new LineDrawable(lineString, lineStyle);
+            add(lineDrawable);
 
             Point startPoint = lineString.getStartPoint();
 
@@ -83,8 +245,15 @@ public class GpsLogsLayer extends VectorLayer implements ISystemLayer {
                     .scaleZoomLevel(19)
                     .fillAlpha(1)
                     .build();
-            add(new PointDrawable(startPoint.getY(), startPoint.getX(), pointStyle));
+            PointDrawable pointDrawable = new PointDrawable(startPoint.getY(), startPoint.getX(), pointStyle);
+            add(pointDrawable);
+
+            List<Drawable> drawables = new ArrayList<>(2);
+            drawables.add(lineDrawable);
+            drawables.add(pointDrawable);
+            loadedLogs.put(gpsLog.id, drawables);
         }
+        loadedBounds = bounds;
         update();
     }
 
@@ -125,8 +294,15 @@ public class GpsLogsLayer extends VectorLayer implements ISystemLayer {
     }
 
     @Override
-    public void dispose() {
+    public String[] getTableKeys() {
+        return new String[]{TableDescriptions.TABLE_GPSLOGS, TableDescriptions.TABLE_GPSLOG_PROPERTIES};
+    }
 
+    @Override
+    public void dispose() {
+        mapView.removeMapUpdateListener(mapUpdateListener);
+        generation.incrementAndGet();
+        executor.shutdown();
     }
 
     @Override
@@ -40,12 +40,13 @@ import eu.geopaparazzi.library.util.TimeUtilities;
 import eu.geopaparazzi.map.GPMapView;
 import eu.geopaparazzi.map.R;
 import eu.geopaparazzi.map.layers.LayerGroups;
+import eu.geopaparazzi.map.layers.interfaces.IDbTablesLayer;
 import eu.geopaparazzi.map.layers.interfaces.ISystemLayer;
 
 import static eu.geopaparazzi.library.util.LibraryConstants.PREFS_KEY_IMAGES_TEXT_VISIBLE;
 import static eu.geopaparazzi.library.util.LibraryConstants.PREFS_KEY_IMAGES_VISIBLE;
 
-public class ImagesLayer extends ItemizedLayer<MarkerItem> implements ItemizedLayer.OnItemGestureListener<MarkerItem>, ISystemLayer {
+public class ImagesLayer extends ItemizedLayer<MarkerItem> implements ItemizedLayer.OnItemGestureListener<MarkerItem>, ISystemLayer, IDbTablesLayer {
     private static final int FG_COLOR = 0xFF000000; // 100 percent black. AARRGGBB
     private static final int BG_COLOR = 0x80FF69B4; // 50 percent pink. AARRGGBB
     private static final int TRANSP_WHITE = 0x80FFFFFF; // 50 percent white. AARRGGBB
@@ -269,6 +270,11 @@ public class ImagesLayer extends ItemizedLayer<MarkerItem> implements ItemizedLa
         return toDefaultJson();
     }
 
+    @Override
+    public String[] getTableKeys() {
+        return new String[]{TableDescriptions.TABLE_IMAGES};
+    }
+
     @Override
     public void dispose() {
 
@@ -11,6 +11,8 @@ import eu.geopaparazzi.map.GPMapView;
 import eu.geopaparazzi.map.layers.LayerGroups;
 import eu.geopaparazzi.map.layers.interfaces.IRasterTileOnlineLayer;
 import eu.geopaparazzi.map.layers.utils.EOnlineTileSources;
+import eu.geopaparazzi.map.layers.utils.TileCacheTrimmer;
+import eu.geopaparazzi.map.layers.utils.TileSeeder;
 
 public class BitmapTileServiceLayer extends BitmapTileLayer implements IRasterTileOnlineLayer {
 
@@ -20,19 +22,25 @@ public class BitmapTileServiceLayer extends BitmapTileLayer implements IRasterTi
     private final String tilePath;
     private final int maxZoom;
     private float bitmapAlpha;
+    private final BitmapTileSource tileSource;
+    private final TileCache tileCache;
+    private final TileCacheTrimmer cacheTrimmer;
 
     public BitmapTileServiceLayer(GPMapView mapView, EOnlineTileSources onlineTileSource, float bitmapAlpha) {
-        super(mapView.map(), getTileSource(mapView, onlineTileSource.getUrl(), onlineTileSource.getTilePath(), onlineTileSource.getMaxZoom()), bitmapAlpha);
-
-        this.mapView = mapView;
-        this.name = onlineTileSource.getName();
-        this.url = onlineTileSource.getUrl();
-        this.tilePath = onlineTileSource.getTilePath();
-        this.maxZoom = onlineTileSource.getMaxZoom();
+        this(mapView, onlineTileSource.getName(), onlineTileSource.getUrl(), onlineTileSource.getTilePath(), onlineTileSource.getMaxZoom(), bitmapAlpha);
     }
 
     public BitmapTileServiceLayer(GPMapView mapView, String name, String url, String tilePath, int maxZoom, float bitmapAlpha) {
-        super(mapView.map(), getTileSource(mapView, url, tilePath, maxZoom), bitmapAlpha);
+        this(mapView, name, url, tilePath, maxZoom, bitmapAlpha, getTileSource(url, tilePath, maxZoom));
+    }
+
+    private BitmapTileServiceLayer(GPMapView mapView, String name, String url, String tilePath, int maxZoom, float bitmapAlpha, BitmapTileSource tileSource) {
+        // the cache has to be set in the source before the layer creates its loaders
+        this(mapView, name, url, tilePath, maxZoom, bitmapAlpha, tileSource, getTileCache(mapView, tileSource));
+    }
+
+    private BitmapTileServiceLayer(GPMapView mapView, String name, String url, String tilePath, int maxZoom, float bitmapAlpha, BitmapTileSource tileSource, TileCache tileCache) {
+        super(mapView.map(), tileSource, bitmapAlpha);
 
         this.mapView = mapView;
         this.name = name != null ? name : url;
@@ -40,25 +48,50 @@ public class BitmapTileServiceLayer extends BitmapTileLayer implements IRasterTi
         this.tilePath = tilePath;
         this.maxZoom = maxZoom;
         this.bitmapAlpha = bitmapAlpha;
+        this.tileSource = tileSource;
+        this.tileCache = tileCache;
+        cacheTrimmer = new TileCacheTrimmer(mapView.getContext(), getCacheName(tileSource), TileCacheTrimmer.getCacheBudget(mapView.getContext()));
     }
 
-    private static BitmapTileSource getTileSource(GPMapView mapView, String url, String tilePath, int maxZoom) {
-        BitmapTileSource tileSource = BitmapTileSource.builder()
+    private static BitmapTileSource getTileSource(String url, String tilePath, int maxZoom) {
+        return BitmapTileSource.builder()
                 .url(url)
                 .tilePath(tilePath)
                 .zoomMax(maxZoom).build();
+    }
 
-        String cacheFile = tileSource.getUrl()
+    private static String getCacheName(BitmapTileSource tileSource) {
+        return tileSource.getUrl()
                 .toString()
                 .replaceFirst("https?://", "")//NON-NLS
                 .replaceAll("/", "-");
+    }
 
+    private static TileCache getTileCache(GPMapView mapView, BitmapTileSource tileSource) {
+        String cacheFile = getCacheName(tileSource);
         log.debug("use bitmap cache {}", cacheFile);//NON-NLS
         TileCache mCache = new TileCache(mapView.getContext(), null, cacheFile);
-        mCache.setCacheSize(512 * (1 << 10));
+        // the budget is kept by the trimmer, removing the least used tiles
+        mCache.setCacheSize(TileCacheTrimmer.getHardLimit(TileCacheTrimmer.getCacheBudget(mapView.getContext())));
         tileSource.setCache(mCache);
+        return mCache;
+    }
 
-        return tileSource;
+    /**
+     * Create a seeder that downloads areas of this service into its cache.
+     *
+     * @param parallelism the max number of parallel downloads.
+     * @return the seeder.
+     */
+    public TileSeeder getSeeder(int parallelism) {
+        return new TileSeeder(tileSource, tileCache, cacheTrimmer, parallelism, TileSeeder.DEFAULT_RETRIES);
+    }
+
+    /**
+     * @return the max zoom level of the service.
+     */
+    public int getMaxZoom() {
+        return maxZoom;
     }
 
     @Override
@@ -94,7 +127,7 @@ public class BitmapTileServiceLayer extends BitmapTileLayer implements IRasterTi
 
     @Override
     public void onPause() {
-
+        cacheTrimmer.trimAsync();
     }
 
     @Override
@@ -6,7 +6,6 @@ import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.util.DisplayMetrics;
-import android.util.LongSparseArray;
 import android.util.TypedValue;
 
 import org.hortonmachine.dbs.compat.ASpatialDb;
@@ -28,31 +27,35 @@ import org.locationtech.jts.geom.LineString;
 import org.locationtech.jts.geom.Point;
 import org.locationtech.jts.geom.Polygon;
 import org.locationtech.jts.index.quadtree.Quadtree;
-import org.oscim.backend.canvas.Paint;
 import org.oscim.layers.vector.VectorLayer;
 import org.oscim.layers.vector.geometries.Drawable;
 import org.oscim.layers.vector.geometries.Style;
 import org.oscim.map.Layers;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.database.TableChangesTracker;
 import eu.geopaparazzi.library.style.ColorUtilities;
 import eu.geopaparazzi.library.util.StringAsyncTask;
 import eu.geopaparazzi.map.GPMapView;
 import eu.geopaparazzi.map.features.Feature;
 import eu.geopaparazzi.map.layers.LayerGroups;
+import eu.geopaparazzi.map.layers.interfaces.IDbTablesLayer;
 import eu.geopaparazzi.map.layers.interfaces.ILabeledLayer;
 import eu.geopaparazzi.map.layers.interfaces.IVectorDbLayer;
 import eu.geopaparazzi.map.layers.layerobjects.GPLineDrawable;
 import eu.geopaparazzi.map.layers.layerobjects.GPPointDrawable;
 import eu.geopaparazzi.map.layers.layerobjects.GPPolygonDrawable;
-import eu.geopaparazzi.map.layers.layerobjects.IGPDrawable;
+import eu.geopaparazzi.map.layers.utils.DrawableRecord;
 import eu.geopaparazzi.map.layers.utils.GeopackageConnectionsHandler;
+import eu.geopaparazzi.map.layers.utils.ThemedStylesRegistry;
+import eu.geopaparazzi.map.layers.utils.ViewportCellsLoader;
 import eu.geopaparazzi.map.proj.OverlayViewProjection;
 import eu.geopaparazzi.map.utils.MapUtilities;
 
-public class GeopackageTableLayer extends VectorLayer implements IVectorDbLayer, ILabeledLayer {
+public class GeopackageTableLayer extends VectorLayer implements IVectorDbLayer, ILabeledLayer, IDbTablesLayer {
 
     private GPMapView mapView;
     private final String dbPath;
@@ -61,11 +64,10 @@ public class GeopackageTableLayer extends VectorLayer implements IVectorDbLayer,
     private EGeometryType geometryType;
     private GeometryColumn gCol;
 
-    private Style pointStyle = null;
-    private Style lineStyle = null;
-    private Style polygonStyle = null;
+    private ThemedStylesRegistry stylesRegistry;
 
-    private LongSparseArray<IGPDrawable> drawablesMap = null;
+    private String idField;
+    private final ViewportCellsLoader cellsLoader;
     private ASpatialDb db;
     private eu.geopaparazzi.library.style.Style gpStyle;
     private int labelColor;
@@ -84,11 +86,35 @@ public class GeopackageTableLayer extends VectorLayer implements IVectorDbLayer,
         labelsBackgroundPaint.setColor(Color.WHITE);
         labelsBackgroundPaint.setAlpha(170);
         labelsBackgroundPaint.setStyle(android.graphics.Paint.Style.FILL);
+
+        cellsLoader = new ViewportCellsLoader(mapView, this, new ViewportCellsLoader.IRecordsProvider() {
+            @Override
+            public List<DrawableRecord> readRecords(Envelope env, int limit) throws Exception {
+                return GeopackageConnectionsHandler.INSTANCE.getDrawableRecords(dbPath, tableName, idField, gpStyle, env, limit);
+            }
+
+            @Override
+            public List<Drawable> createDrawables(DrawableRecord record) {
+                return GeopackageTableLayer.this.createDrawables(record);
+            }
+        });
     }
 
     public void load() {
         Layers layers = mapView.map().layers();
         layers.add(GeopackageTableLayer.this, LayerGroups.GROUP_MAPLAYERS.getGroupId());
+        reloadDataInBackground();
+    }
+
+    @Override
+    public void reloadChangedData() {
+        reloadDataInBackground();
+    }
+
+    /**
+     * Reload the data in background, the database reads must not block the UI thread.
+     */
+    private void reloadDataInBackground() {
         try {
             new StringAsyncTask(mapView.getContext()) {
                 @Override
@@ -96,7 +122,7 @@ public class GeopackageTableLayer extends VectorLayer implements IVectorDbLayer,
                     try {
                         reloadData();
                     } catch (Exception e) {
-                        e.printStackTrace();
+                        GPLog.error(GeopackageTableLayer.this, null, e);
                     }
                     return null;
                 }
@@ -108,20 +134,17 @@ public class GeopackageTableLayer extends VectorLayer implements IVectorDbLayer,
         } catch (Exception e) {
             GPLog.error(this, null, e);
         }
-
     }
 
     @Override
     public void reloadData() throws Exception {
-        mDrawables.clear();
-        tmpDrawables.clear();
-
         GeopackageConnectionsHandler.INSTANCE.openTable(dbPath, tableName);
 
         db = GeopackageConnectionsHandler.INSTANCE.getDb(dbPath);
         gCol = db.getGeometryColumnsForTable(tableName);
         geometryType = GeopackageConnectionsHandler.INSTANCE.getGeometryType(dbPath, tableName);
         gpStyle = GeopackageConnectionsHandler.INSTANCE.getStyleForTable(dbPath, tableName, null);
+        stylesRegistry = new ThemedStylesRegistry(geometryType, gpStyle);
 
         if (gpStyle.strokecolor != null) {
             labelColor = ColorUtilities.toColor(gpStyle.strokecolor);
@@ -131,118 +154,38 @@ public class GeopackageTableLayer extends VectorLayer implements IVectorDbLayer,
             labelColor = Color.BLACK;
         }
 
-        List<Feature> features = getFeatures(null);
-        drawablesMap = new LongSparseArray<>(features.size());
+        idField = ((GPGeopackageDb) db).getPrimaryKey(tableName);
 
-        for (Feature feature : features) {
-            Geometry geom = feature.getDefaultGeometry();
-            long id = feature.getIdFieldValue();
-
-            eu.geopaparazzi.library.style.Style themeStyle = null;
-            if (gpStyle.themeField != null) {
-                String userData = geom.getUserData().toString();
-                String[] split = userData.split(GeopackageConnectionsHandler.LABEL_THEME_SEPARATOR);
-//                    String label = split[0];
-                String themeFieldValue = split[1];
-                themeStyle = gpStyle.themeMap.get(themeFieldValue);
-            }
+        // only what is needed to draw is read, for the viewport if the table is big
+        cellsLoader.reset(db.getCount(tableName));
+    }
 
-            IGPDrawable drawable = null;
+    /**
+     * Create the drawables of a record, with the style of its theme value if any.
+     *
+     * @param record the record.
+     * @return the drawables.
+     */
+    private List<Drawable> createDrawables(DrawableRecord record) {
+        List<Drawable> drawables = new ArrayList<>();
+        Geometry geom = record.geometry;
+        if (geom == null) {
+            return drawables;
+        }
+        Style style = stylesRegistry.getStyle(record.theme);
+        int numGeometries = geom.getNumGeometries();
+        for (int i = 0; i < numGeometries; i++) {
+            Geometry geometryN = geom.getGeometryN(i);
             if (geometryType == EGeometryType.POINT || geometryType == EGeometryType.MULTIPOINT) {
-                if (pointStyle == null) {
-                    pointStyle = Style.builder()
-                            .buffer(gpStyle.size)
-                            .strokeWidth(gpStyle.width)
-                            .strokeColor(ColorUtilities.toColor(gpStyle.strokecolor))
-                            .fillColor(ColorUtilities.toColor(gpStyle.fillcolor))
-                            .fillAlpha(gpStyle.fillalpha)
-                            .scaleZoomLevel(19)
-                            .build();
-                }
-                if (geom != null) {
-                    int numGeometries = geom.getNumGeometries();
-                    for (int i = 0; i < numGeometries; i++) {
-                        Geometry geometryN = geom.getGeometryN(i);
-                        Coordinate c = geometryN.getCoordinate();
-                        if (themeStyle != null) {
-                            Style pointThemeStyle = Style.builder()
-                                    .buffer(themeStyle.size)
-                                    .strokeWidth(themeStyle.width)
-                                    .strokeColor(ColorUtilities.toColor(themeStyle.strokecolor))
-                                    .fillColor(ColorUtilities.toColor(themeStyle.fillcolor))
-                                    .fillAlpha(themeStyle.fillalpha)
-                                    .scaleZoomLevel(19)
-                                    .build();
-                            drawable = new GPPointDrawable(c.y, c.x, pointThemeStyle, id);
-                            add((Drawable) drawable);
-                        } else {
-                            drawable = new GPPointDrawable(c.y, c.x, pointStyle, id);
-                            add((Drawable) drawable);
-                        }
-                    }
-                }
+                Coordinate c = geometryN.getCoordinate();
+                drawables.add(new GPPointDrawable(c.y, c.x, style, record.id));
             } else if (geometryType == EGeometryType.LINESTRING || geometryType == EGeometryType.MULTILINESTRING) {
-                if (lineStyle == null) {
-                    lineStyle = Style.builder()
-                            .strokeColor(ColorUtilities.toColor(gpStyle.strokecolor))
-                            .strokeWidth(gpStyle.width)
-                            .cap(Paint.Cap.ROUND)
-                            .build();
-                }
-                if (geom != null) {
-                    int numGeometries = geom.getNumGeometries();
-                    for (int i = 0; i < numGeometries; i++) {
-                        Geometry geometryN = geom.getGeometryN(i);
-                        if (themeStyle != null) {
-                            Style lineThemeStyle = Style.builder()
-                                    .strokeColor(ColorUtilities.toColor(themeStyle.strokecolor))
-                                    .strokeWidth(themeStyle.width)
-                                    .cap(Paint.Cap.ROUND)
-                                    .build();
-                            drawable = new GPLineDrawable(geometryN, lineThemeStyle, id);
-                            add((Drawable) drawable);
-                        } else {
-                            drawable = new GPLineDrawable(geometryN, lineStyle, id);
-                            add((Drawable) drawable);
-                        }
-                    }
-                }
+                drawables.add(new GPLineDrawable(geometryN, style, record.id));
             } else if (geometryType == EGeometryType.POLYGON || geometryType == EGeometryType.MULTIPOLYGON) {
-                if (polygonStyle == null) {
-                    polygonStyle = Style.builder()
-                            .strokeColor(ColorUtilities.toColor(gpStyle.strokecolor))
-                            .strokeWidth(gpStyle.width)
-                            .fillColor(ColorUtilities.toColor(gpStyle.fillcolor))
-                            .fillAlpha(gpStyle.fillalpha)
-                            .cap(Paint.Cap.ROUND)
-                            .build();
-                }
-                if (geom != null) {
-                    int numGeometries = geom.getNumGeometries();
-                    for (int i = 0; i < numGeometries; i++) {
-                        Geometry geometryN = geom.getGeometryN(i);
-                        if (themeStyle != null) {
-                            Style polygonThemeStyle = Style.builder()
-                                    .strokeColor(ColorUtilities.toColor(themeStyle.strokecolor))
-                                    .strokeWidth(themeStyle.width)
-                                    .fillColor(ColorUtilities.toColor(themeStyle.fillcolor))
-                                    .fillAlpha(themeStyle.fillalpha)
-                                    .cap(Paint.Cap.ROUND)
-                                    .build();
-                            drawable = new GPPolygonDrawable(geometryN, polygonThemeStyle, id);
-                            add((Drawable) drawable);
-                        } else {
-                            drawable = new GPPolygonDrawable(geometryN, polygonStyle, id);
-                            add((Drawable) drawable);
-                        }
-                    }
-                }
-            }
-            if (drawable != null) {
-                drawablesMap.put(id, drawable);
+                drawables.add(new GPPolygonDrawable(geometryN, style, record.id));
             }
         }
-        update();
+        return drawables;
     }
 
     @Override
@@ -285,6 +228,7 @@ public class GeopackageTableLayer extends VectorLayer implements IVectorDbLayer,
 
     @Override
     public void dispose() {
+        cellsLoader.dispose();
     }
 
     @Override
@@ -310,6 +254,11 @@ public class GeopackageTableLayer extends VectorLayer implements IVectorDbLayer,
         return dbPath;
     }
 
+    @Override
+    public String[] getTableKeys() {
+        return new String[]{TableChangesTracker.getKey(dbPath, tableName)};
+    }
+
     private long insertGeometry(ASpatialDb db, String tableName, Geometry geometry) throws Exception {
         int epsg = 4326;
         String pk = ((GPGeopackageDb) db).getPrimaryKey(tableName);
@@ -410,35 +359,8 @@ public class GeopackageTableLayer extends VectorLayer implements IVectorDbLayer,
         update();
     }
 
-    private void addNewGeometry(Geometry geometry, long id) {
-        if (geometryType == EGeometryType.POINT || geometryType == EGeometryType.MULTIPOINT) {
-            int numGeometries = geometry.getNumGeometries();
-            for (int i = 0; i < numGeometries; i++) {
-                Geometry geometryN = geometry.getGeometryN(i);
-                Coordinate c = geometryN.getCoordinate();
-
-                GPPointDrawable drawable = new GPPointDrawable(c.y, c.x, pointStyle, id);
-                add(drawable);
-                drawablesMap.put(id, drawable);
-
-            }
-        } else if (geometryType == EGeometryType.LINESTRING || geometryType == EGeometryType.MULTILINESTRING) {
-            int numGeometries = geometry.getNumGeometries();
-            for (int i = 0; i < numGeometries; i++) {
-                Geometry geometryN = geometry.getGeometryN(i);
-                GPLineDrawable drawable = new GPLineDrawable(geometryN, lineStyle, id);
-                add(drawable);
-                drawablesMap.put(id, drawable);
-            }
-        } else if (geometryType == EGeometryType.POLYGON || geometryType == EGeometryType.MULTIPOLYGON) {
-            int numGeometries = geometry.getNumGeometries();
-            for (int i = 0; i < numGeometries; i++) {
-                Geometry geometryN = geometry.getGeometryN(i);
-                GPPolygonDrawable drawable = new GPPolygonDrawable(geometryN, polygonStyle, id);
-                add(drawable);
-                drawablesMap.put(id, drawable);
-            }
-        }
+    private void addNewGeometry(Geometry geometry, long id) throws Exception {
+        cellsLoader.putRecord(id, geometry);
     }
 
     @Override
@@ -447,11 +369,6 @@ public class GeopackageTableLayer extends VectorLayer implements IVectorDbLayer,
         updateGeometry(db, gCol.tableName, feature.getIdFieldValue(), geometry);
 
         long id = feature.getIdFieldValue();
-        IGPDrawable drawable = drawablesMap.get(id);
-        if (drawable != null)
-            remove((Drawable) drawable);
-        drawablesMap.remove(id);
-
         addNewGeometry(geometry, id);
         update();
     }
@@ -483,11 +400,7 @@ public class GeopackageTableLayer extends VectorLayer implements IVectorDbLayer,
         db.executeInsertUpdateDeleteSql(updateQuery);
 
         for (Feature feature : features) {
-            long id = feature.getIdFieldValue();
-            IGPDrawable drawable = drawablesMap.get(id);
-            if (drawable != null)
-                remove((Drawable) drawable);
-            drawablesMap.remove(id);
+            cellsLoader.removeRecord(feature.getIdFieldValue());
         }
         update();
     }
@@ -514,18 +427,18 @@ public class GeopackageTableLayer extends VectorLayer implements IVectorDbLayer,
 
             Quadtree labelTree = new Quadtree();
 
-            List<Feature> features = getFeatures(env);
-            for (Feature f : features) {
-                Object attribute = f.getAttribute(gpStyle.labelfield);
-                if (attribute != null) {
-                    String txt = attribute.toString();
+            // the labels are read with the loaded geometries, no need to query the database
+            List<DrawableRecord> records = cellsLoader.getRecords(env);
+            for (DrawableRecord record : records) {
+                String txt = record.label;
+                if (txt != null) {
                     if (txt.length() > 0) {
                         labelPaint.getTextBounds(txt, 0, txt.length(), rect);
                         int textWidth = rect.width();
                         int textHeight = rect.height();
 
                         if (geometryType == EGeometryType.POINT || geometryType == EGeometryType.MULTIPOINT) {
-                            Point p = f.getDefaultGeometry().getCentroid();
+                            Point p = record.geometry.getCentroid();
                             prj.toPixels(p.getCoordinate(), drawPoint);
 
                             int x = drawPoint.x - textWidth / 2;
@@ -553,7 +466,7 @@ public class GeopackageTableLayer extends VectorLayer implements IVectorDbLayer,
                                 labelTree.insert(lenv, lenv);
                             }
                         } else if (geometryType == EGeometryType.POLYGON || geometryType == EGeometryType.MULTIPOLYGON) {
-                            Geometry geometry = f.getDefaultGeometry();
+                            Geometry geometry = record.geometry;
                             int numGeometries = geometry.getNumGeometries();
                             for (int i = 0; i < numGeometries; i++) {
                                 Polygon polygon = (Polygon) geometry.getGeometryN(i);
@@ -587,7 +500,7 @@ public class GeopackageTableLayer extends VectorLayer implements IVectorDbLayer,
                                 }
                             }
                         } else if (geometryType == EGeometryType.LINESTRING || geometryType == EGeometryType.MULTILINESTRING) {
-                            Geometry geometry = f.getDefaultGeometry();
+                            Geometry geometry = record.geometry;
                             int numGeometries = geometry.getNumGeometries();
                             for (int i = 0; i < numGeometries; i++) {
                                 LineString polygon = (LineString) geometry.getGeometryN(i);
@@ -6,10 +6,8 @@ import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.util.DisplayMetrics;
-import android.util.LongSparseArray;
 import android.util.TypedValue;
 
-import org.hortonmachine.dbs.compat.ASpatialDb;
 import org.hortonmachine.dbs.compat.GeometryColumn;
 import org.hortonmachine.dbs.compat.objects.QueryResult;
 import org.hortonmachine.dbs.datatypes.EDataType;
@@ -26,33 +24,37 @@ import org.locationtech.jts.geom.LineString;
 import org.locationtech.jts.geom.Point;
 import org.locationtech.jts.geom.Polygon;
 import org.locationtech.jts.index.quadtree.Quadtree;
-import org.oscim.backend.canvas.Paint;
 import org.oscim.layers.vector.VectorLayer;
 import org.oscim.layers.vector.geometries.Drawable;
 import org.oscim.layers.vector.geometries.Style;
 import org.oscim.map.Layers;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.database.TableChangesTracker;
 import eu.geopaparazzi.library.style.ColorUtilities;
 import eu.geopaparazzi.library.util.LibraryConstants;
 import eu.geopaparazzi.library.util.StringAsyncTask;
 import eu.geopaparazzi.map.GPMapView;
 import eu.geopaparazzi.map.features.Feature;
 import eu.geopaparazzi.map.layers.LayerGroups;
+import eu.geopaparazzi.map.layers.interfaces.IDbTablesLayer;
 import eu.geopaparazzi.map.layers.interfaces.ILabeledLayer;
 import eu.geopaparazzi.map.layers.interfaces.IVectorDbLayer;
 import eu.geopaparazzi.map.layers.layerobjects.GPLineDrawable;
 import eu.geopaparazzi.map.layers.layerobjects.GPPointDrawable;
 import eu.geopaparazzi.map.layers.layerobjects.GPPolygonDrawable;
-import eu.geopaparazzi.map.layers.layerobjects.IGPDrawable;
+import eu.geopaparazzi.map.layers.utils.DrawableRecord;
 import eu.geopaparazzi.map.layers.utils.SpatialiteConnectionsHandler;
 import eu.geopaparazzi.map.layers.utils.SpatialiteUtilities;
+import eu.geopaparazzi.map.layers.utils.ThemedStylesRegistry;
+import eu.geopaparazzi.map.layers.utils.ViewportCellsLoader;
 import eu.geopaparazzi.map.proj.OverlayViewProjection;
 import eu.geopaparazzi.map.utils.MapUtilities;
 
-public class SpatialiteTableLayer extends VectorLayer implements IVectorDbLayer, ILabeledLayer {
+public class SpatialiteTableLayer extends VectorLayer implements IVectorDbLayer, ILabeledLayer, IDbTablesLayer {
 
     private GPMapView mapView;
     private final String dbPath;
@@ -62,11 +64,10 @@ public class SpatialiteTableLayer extends VectorLayer implements IVectorDbLayer,
     private GeometryColumn gCol;
     private List<String[]> tableColumnInfos;
 
-    private Style pointStyle = null;
-    private Style lineStyle = null;
-    private Style polygonStyle = null;
+    private ThemedStylesRegistry stylesRegistry;
 
-    private LongSparseArray<IGPDrawable> drawablesMap = null;
+    private String idField;
+    private final ViewportCellsLoader cellsLoader;
 
     private eu.geopaparazzi.library.style.Style gpStyle;
     private int labelColor;
@@ -83,11 +84,35 @@ public class SpatialiteTableLayer extends VectorLayer implements IVectorDbLayer,
         labelsBackgroundPaint.setColor(Color.WHITE);
         labelsBackgroundPaint.setAlpha(170);
         labelsBackgroundPaint.setStyle(android.graphics.Paint.Style.FILL);
+
+        cellsLoader = new ViewportCellsLoader(mapView, this, new ViewportCellsLoader.IRecordsProvider() {
+            @Override
+            public List<DrawableRecord> readRecords(Envelope env, int limit) throws Exception {
+                return SpatialiteConnectionsHandler.INSTANCE.getDrawableRecords(dbPath, tableName, idField, gpStyle, env, limit);
+            }
+
+            @Override
+            public List<Drawable> createDrawables(DrawableRecord record) {
+                return SpatialiteTableLayer.this.createDrawables(record);
+            }
+        });
     }
 
     public void load() {
         Layers layers = mapView.map().layers();
         layers.add(SpatialiteTableLayer.this, LayerGroups.GROUP_MAPLAYERS.getGroupId());
+        reloadDataInBackground();
+    }
+
+    @Override
+    public void reloadChangedData() {
+        reloadDataInBackground();
+    }
+
+    /**
+     * Reload the data in background, the database reads must not block the UI thread.
+     */
+    private void reloadDataInBackground() {
         try {
             new StringAsyncTask(mapView.getContext()) {
                 @Override
@@ -95,14 +120,13 @@ public class SpatialiteTableLayer extends VectorLayer implements IVectorDbLayer,
                     try {
                         reloadData();
                     } catch (Exception e) {
-                        e.printStackTrace();
+                        GPLog.error(SpatialiteTableLayer.this, null, e);
                     }
                     return null;
                 }
 
                 @Override
                 protected void doUiPostWork(String response) {
-
                 }
             }.execute();
         } catch (Exception e) {
@@ -110,19 +134,15 @@ public class SpatialiteTableLayer extends VectorLayer implements IVectorDbLayer,
         }
     }
 
-
     @Override
     public void reloadData() throws Exception {
-        mDrawables.clear();
-        tmpDrawables.clear();
-
         SpatialiteConnectionsHandler.INSTANCE.openTable(dbPath, tableName);
 
-        ASpatialDb db = SpatialiteConnectionsHandler.INSTANCE.getDb(dbPath);
-        gCol = db.getGeometryColumnsForTable(tableName);
-        tableColumnInfos = db.getTableColumns(tableName);
-        geometryType = SpatialiteConnectionsHandler.INSTANCE.getGeometryType(dbPath, tableName);
+        gCol = SpatialiteConnectionsHandler.INSTANCE.read(dbPath, db -> db.getGeometryColumnsForTable(tableName));
+        tableColumnInfos = SpatialiteConnectionsHandler.INSTANCE.read(dbPath, db -> db.getTableColumns(tableName));
+        geometryType = gCol.geometryType;
         gpStyle = SpatialiteConnectionsHandler.INSTANCE.getStyleForTable(dbPath, tableName, null);
+        stylesRegistry = new ThemedStylesRegistry(geometryType, gpStyle);
         if (gpStyle.strokecolor != null) {
             labelColor = ColorUtilities.toColor(gpStyle.strokecolor);
         } else if (gpStyle.fillcolor != null) {
@@ -131,118 +151,44 @@ public class SpatialiteTableLayer extends VectorLayer implements IVectorDbLayer,
             labelColor = Color.BLACK;
         }
 
-        List<Feature> features = getFeatures(null);
-        drawablesMap = new LongSparseArray<>(features.size());
-
-        for (Feature feature : features) {
-            Geometry geom = feature.getDefaultGeometry();
-            long id = feature.getIdFieldValue();
-
-            eu.geopaparazzi.library.style.Style themeStyle = null;
-            if (gpStyle.themeField != null) {
-                String userData = geom.getUserData().toString();
-                String[] split = userData.split(SpatialiteUtilities.LABEL_THEME_SEPARATOR);
-//                    String label = split[0];
-                String themeFieldValue = split[1];
-                themeStyle = gpStyle.themeMap.get(themeFieldValue);
+        idField = SpatialiteUtilities.ROWID_PK;
+        for (String[] columnInfo : tableColumnInfos) {
+            if (columnInfo[2].equals("1")) {
+                idField = columnInfo[0];
+                break;
             }
+        }
+
+        // only what is needed to draw is read, for the viewport if the table is big
+        cellsLoader.reset(SpatialiteConnectionsHandler.INSTANCE.read(dbPath, db -> db.getCount(tableName)));
+    }
 
-            IGPDrawable drawable = null;
+    /**
+     * Create the drawables of a record, with the style of its theme value if any.
+     *
+     * @param record the record.
+     * @return the drawables.
+     */
+    private List<Drawable> createDrawables(DrawableRecord record) {
+        List<Drawable> drawables = new ArrayList<>();
+        Geometry geom = record.geometry;
+        if (geom == null) {
+            return drawables;
+        }
+        Style style = stylesRegistry.getStyle(record.theme);
+        int numGeometries = geom.getNumGeometries();
+        for (int i = 0; i < numGeometries; i++) {
+            Geometry geometryN = geom.getGeometryN(i);
             if (geometryType == EGeometryType.POINT || geometryType == EGeometryType.MULTIPOINT) {
-                if (pointStyle == null) {
-                    pointStyle = Style.builder()
-                            .buffer(gpStyle.size)
-                            .strokeWidth(gpStyle.width)
-                            .strokeColor(ColorUtilities.toColor(gpStyle.strokecolor))
-                            .fillColor(ColorUtilities.toColor(gpStyle.fillcolor))
-                            .fillAlpha(gpStyle.fillalpha)
-                            .scaleZoomLevel(19)
-                            .build();
-                }
-                if (geom != null) {
-                    int numGeometries = geom.getNumGeometries();
-                    for (int i = 0; i < numGeometries; i++) {
-                        Geometry geometryN = geom.getGeometryN(i);
-                        Coordinate c = geometryN.getCoordinate();
-                        if (themeStyle != null) {
-                            Style pointThemeStyle = Style.builder()
-                                    .buffer(themeStyle.size)
-                                    .strokeWidth(themeStyle.width)
-                                    .strokeColor(ColorUtilities.toColor(themeStyle.strokecolor))
-                                    .fillColor(ColorUtilities.toColor(themeStyle.fillcolor))
-                                    .fillAlpha(themeStyle.fillalpha)
-                                    .scaleZoomLevel(19)
-                                    .build();
-                            drawable = new GPPointDrawable(c.y, c.x, pointThemeStyle, id);
-                            add((Drawable) drawable);
-                        } else {
-                            drawable = new GPPointDrawable(c.y, c.x, pointStyle, id);
-                            add((Drawable) drawable);
-                        }
-                    }
-                }
+                Coordinate c = geometryN.getCoordinate();
+                drawables.add(new GPPointDrawable(c.y, c.x, style, record.id));
             } else if (geometryType == EGeometryType.LINESTRING || geometryType == EGeometryType.MULTILINESTRING) {
-                if (lineStyle == null) {
-                    lineStyle = Style.builder()
-                            .strokeColor(ColorUtilities.toColor(gpStyle.strokecolor))
-                            .strokeWidth(gpStyle.width)
-                            .cap(Paint.Cap.ROUND)
-                            .build();
-                }
-                if (geom != null) {
-                    int numGeometries = geom.getNumGeometries();
-                    for (int i = 0; i < numGeometries; i++) {
-                        Geometry geometryN = geom.getGeometryN(i);
-                        if (themeStyle != null) {
-                            Style lineThemeStyle = Style.builder()
-                                    .strokeColor(ColorUtilities.toColor(themeStyle.strokecolor))
-                                    .strokeWidth(themeStyle.width)
-                                    .cap(Paint.Cap.ROUND)
-                                    .build();
-                            drawable = new GPLineDrawable(geometryN, lineThemeStyle, id);
-                            add((Drawable) drawable);
-                        } else {
-                            drawable = new GPLineDrawable(geometryN, lineStyle, id);
-                            add((Drawable) drawable);
-                        }
-                    }
-                }
+                drawables.add(new GPLineDrawable(geometryN, style, record.id));
             } else if (geometryType == EGeometryType.POLYGON || geometryType == EGeometryType.MULTIPOLYGON) {
-                if (polygonStyle == null) {
-                    polygonStyle = Style.builder()
-                            .strokeColor(ColorUtilities.toColor(gpStyle.strokecolor))
-                            .strokeWidth(gpStyle.width)
-                            .fillColor(ColorUtilities.toColor(gpStyle.fillcolor))
-                            .fillAlpha(gpStyle.fillalpha)
-                            .cap(Paint.Cap.ROUND)
-                            .build();
-                }
-                if (geom != null) {
-                    int numGeometries = geom.getNumGeometries();
-                    for (int i = 0; i < numGeometries; i++) {
-                        Geometry geometryN = geom.getGeometryN(i);
-                        if (themeStyle != null) {
-                            Style polygonThemeStyle = Style.builder()
-                                    .strokeColor(ColorUtilities.toColor(themeStyle.strokecolor))
-                                    .strokeWidth(themeStyle.width)
-                                    .fillColor(ColorUtilities.toColor(themeStyle.fillcolor))
-                                    .fillAlpha(themeStyle.fillalpha)
-                                    .cap(Paint.Cap.ROUND)
-                                    .build();
-                            drawable = new GPPolygonDrawable(geometryN, polygonThemeStyle, id);
-                            add((Drawable) drawable);
-                        } else {
-                            drawable = new GPPolygonDrawable(geometryN, polygonStyle, id);
-                            add((Drawable) drawable);
-                        }
-                    }
-                }
-            }
-            if (drawable != null) {
-                drawablesMap.put(id, drawable);
+                drawables.add(new GPPolygonDrawable(geometryN, style, record.id));
             }
         }
-        update();
+        return drawables;
     }
 
     @Override
@@ -285,6 +231,7 @@ public class SpatialiteTableLayer extends VectorLayer implements IVectorDbLayer,
 
     @Override
     public void dispose() {
+        cellsLoader.dispose();
     }
 
     @Override
@@ -299,8 +246,8 @@ public class SpatialiteTableLayer extends VectorLayer implements IVectorDbLayer,
 
     @Override
     public List<Feature> getFeatures(Envelope env) throws Exception {
-        ASpatialDb db = SpatialiteConnectionsHandler.INSTANCE.getDb(dbPath);
-        QueryResult queryResult = db.getTableRecordsMapIn(getName(), env, -1, LibraryConstants.SRID_WGS84_4326, null);
+        QueryResult queryResult = SpatialiteConnectionsHandler.INSTANCE.read(dbPath,
+                db -> db.getTableRecordsMapIn(getName(), env, -1, LibraryConstants.SRID_WGS84_4326, null));
 
         return MapUtilities.fromQueryResult(getName(), dbPath, queryResult);
     }
@@ -311,200 +258,179 @@ public class SpatialiteTableLayer extends VectorLayer implements IVectorDbLayer,
         return dbPath;
     }
 
+    @Override
+    public String[] getTableKeys() {
+        return new String[]{TableChangesTracker.getKey(dbPath, tableName)};
+    }
+
     @Override
     public void addNewFeatureByGeometry(Geometry geometry, int geometrySrid)
             throws Exception {
-        ASpatialDb db = SpatialiteConnectionsHandler.INSTANCE.getDb(getDbPath());
-
-
-        String geometryFieldName = gCol.geometryColumnName;
-        int srid = gCol.srid;
-        ESpatialiteGeometryType spatialiteGeometryType = geometryType.toSpatialiteGeometryType();
-        String geometryTypeCast = spatialiteGeometryType.getGeometryTypeCast();
-        String spaceDimensionsCast = spatialiteGeometryType.getSpaceDimensionsCast();
-        String multiSingleCast = spatialiteGeometryType.getMultiSingleCast();
-
-
-        long newId = -1;
-        // get list of non geom fields and default values
-        String nonGeomFieldsNames = "";
-        String nonGeomFieldsValues = "";
-        for (String[] columnInfo : tableColumnInfos) {
-            String field = columnInfo[0];
-            String fieldType = columnInfo[1];
-            boolean ignore = SpatialiteUtilities.doIgnoreField(field);
-            if (!ignore) {
-                EDataType tableFieldType = EDataType.getType4Name(fieldType);
-                if (tableFieldType != null) {
-                    nonGeomFieldsNames = nonGeomFieldsNames + "," + field;
-                    String valueToSet = tableFieldType.getDefaultValueForSql();
-                    if (columnInfo[2].equals("1")) {
-                        long max = db.getMax(tableName, field);
-                        newId = max + 1;
-                        valueToSet = String.valueOf(newId);
+        // the new id and the insert must not interleave with other writes
+        DrawableRecord record = SpatialiteConnectionsHandler.INSTANCE.write(getDbPath(), db -> {
+            String geometryFieldName = gCol.geometryColumnName;
+            int srid = gCol.srid;
+            ESpatialiteGeometryType spatialiteGeometryType = geometryType.toSpatialiteGeometryType();
+            String geometryTypeCast = spatialiteGeometryType.getGeometryTypeCast();
+            String spaceDimensionsCast = spatialiteGeometryType.getSpaceDimensionsCast();
+            String multiSingleCast = spatialiteGeometryType.getMultiSingleCast();
+
+
+            long newId = -1;
+            // get list of non geom fields and default values
+            String nonGeomFieldsNames = "";
+            String nonGeomFieldsValues = "";
+            for (String[] columnInfo : tableColumnInfos) {
+                String field = columnInfo[0];
+                String fieldType = columnInfo[1];
+                boolean ignore = SpatialiteUtilities.doIgnoreField(field);
+                if (!ignore) {
+                    EDataType tableFieldType = EDataType.getType4Name(fieldType);
+                    if (tableFieldType != null) {
+                        nonGeomFieldsNames = nonGeomFieldsNames + "," + field;
+                        String valueToSet = tableFieldType.getDefaultValueForSql();
+                        if (columnInfo[2].equals("1")) {
+                            long max = db.getMax(tableName, field);
+                            newId = max + 1;
+                            valueToSet = String.valueOf(newId);
+                        }
+                        nonGeomFieldsValues = nonGeomFieldsValues + "," + valueToSet;
                     }
-                    nonGeomFieldsValues = nonGeomFieldsValues + "," + valueToSet;
                 }
             }
-        }
 
-        boolean doTransform = true;
-        if (srid == geometrySrid) {
-            doTransform = false;
-        }
+            boolean doTransform = true;
+            if (srid == geometrySrid) {
+                doTransform = false;
+            }
 
-        StringBuilder sbIn = new StringBuilder();
-        sbIn.append("insert into \"").append(tableName);//NON-NLS
-        sbIn.append("\" (");
-        sbIn.append(geometryFieldName);
-        // add fields
-        if (nonGeomFieldsNames.length() > 0) {
-            sbIn.append(nonGeomFieldsNames);
-        }
-        sbIn.append(") values (");//NON-NLS
-        if (doTransform)
-            sbIn.append("ST_Transform(");//NON-NLS
-        if (multiSingleCast != null)
-            sbIn.append(multiSingleCast).append("(");
-        if (spaceDimensionsCast != null)
-            sbIn.append(spaceDimensionsCast).append("(");
-        if (geometryTypeCast != null)
-            sbIn.append(geometryTypeCast).append("(");
-        sbIn.append("GeomFromText('");//NON-NLS
-        sbIn.append(geometry.toText());
-        sbIn.append("' , ");
-        sbIn.append(geometrySrid);
-        sbIn.append(")");
-        if (geometryTypeCast != null)
-            sbIn.append(")");
-        if (spaceDimensionsCast != null)
-            sbIn.append(")");
-        if (multiSingleCast != null)
+            StringBuilder sbIn = new StringBuilder();
+            sbIn.append("insert into \"").append(tableName);//NON-NLS
+            sbIn.append("\" (");
+            sbIn.append(geometryFieldName);
+            // add fields
+            if (nonGeomFieldsNames.length() > 0) {
+                sbIn.append(nonGeomFieldsNames);
+            }
+            sbIn.append(") values (");//NON-NLS
+            if (doTransform)
+                sbIn.append("ST_Transform(");//NON-NLS
+            if (multiSingleCast != null)
+                sbIn.append(multiSingleCast).append("(");
+            if (spaceDimensionsCast != null)
+                sbIn.append(spaceDimensionsCast).append("(");
+            if (geometryTypeCast != null)
+                sbIn.append(geometryTypeCast).append("(");
+            sbIn.append("GeomFromText('");//NON-NLS
+            sbIn.append(geometry.toText());
+            sbIn.append("' , ");
+            sbIn.append(geometrySrid);
             sbIn.append(")");
-        if (doTransform) {
-            sbIn.append(",");
-            sbIn.append(srid);
+            if (geometryTypeCast != null)
+                sbIn.append(")");
+            if (spaceDimensionsCast != null)
+                sbIn.append(")");
+            if (multiSingleCast != null)
+                sbIn.append(")");
+            if (doTransform) {
+                sbIn.append(",");
+                sbIn.append(srid);
+                sbIn.append(")");
+            }
+            // add field default values
+            if (nonGeomFieldsNames.length() > 0) {
+                sbIn.append(nonGeomFieldsValues);
+            }
             sbIn.append(")");
-        }
-        // add field default values
-        if (nonGeomFieldsNames.length() > 0) {
-            sbIn.append(nonGeomFieldsValues);
-        }
-        sbIn.append(")");
-        String insertQuery = sbIn.toString();
+            String insertQuery = sbIn.toString();
 
-        db.executeInsertUpdateDeleteSql(insertQuery);
+            db.executeInsertUpdateDeleteSql(insertQuery);
 
 
-        /*
-         * if everything went well, add also geometry to the layer
-         */
-        addNewGeometry(geometry, newId);
+            /*
+             * if everything went well, add also geometry to the layer
+             */
+            Geometry g = geometry;
+            if (geometrySrid != LibraryConstants.SRID_WGS84_4326) {
+                // the drawables are in WGS84
+                g = db.reproject(geometry, geometrySrid, LibraryConstants.SRID_WGS84_4326);
+            }
+            return new DrawableRecord(newId, g, null, null);
+        });
+        addNewGeometry(record.geometry, record.id);
         update();
     }
 
-    private void addNewGeometry(Geometry geometry, long id) {
-        if (geometryType == EGeometryType.POINT || geometryType == EGeometryType.MULTIPOINT) {
-            int numGeometries = geometry.getNumGeometries();
-            for (int i = 0; i < numGeometries; i++) {
-                Geometry geometryN = geometry.getGeometryN(i);
-                Coordinate c = geometryN.getCoordinate();
-
-                GPPointDrawable drawable = new GPPointDrawable(c.y, c.x, pointStyle, id);
-                add(drawable);
-                drawablesMap.put(id, drawable);
-
-            }
-        } else if (geometryType == EGeometryType.LINESTRING || geometryType == EGeometryType.MULTILINESTRING) {
-            int numGeometries = geometry.getNumGeometries();
-            for (int i = 0; i < numGeometries; i++) {
-                Geometry geometryN = geometry.getGeometryN(i);
-                GPLineDrawable drawable = new GPLineDrawable(geometryN, lineStyle, id);
-                add(drawable);
-                drawablesMap.put(id, drawable);
-            }
-        } else if (geometryType == EGeometryType.POLYGON || geometryType == EGeometryType.MULTIPOLYGON) {
-            int numGeometries = geometry.getNumGeometries();
-            for (int i = 0; i < numGeometries; i++) {
-                Geometry geometryN = geometry.getGeometryN(i);
-                GPPolygonDrawable drawable = new GPPolygonDrawable(geometryN, polygonStyle, id);
-                add(drawable);
-                drawablesMap.put(id, drawable);
-            }
-        }
+    private void addNewGeometry(Geometry geometry, long id) throws Exception {
+        cellsLoader.putRecord(id, geometry);
     }
 
     @Override
     public void updateFeatureGeometry(Feature feature, Geometry geometry, int geometrySrid)
             throws Exception {
-        ASpatialDb db = SpatialiteConnectionsHandler.INSTANCE.getDb(feature.getDatabasePath());
-        String geometryFieldName = gCol.geometryColumnName;
-        int srid = gCol.srid;
-        ESpatialiteGeometryType spatialiteGeometryType = geometryType.toSpatialiteGeometryType();
-        String geometryTypeCast = spatialiteGeometryType.getGeometryTypeCast();
-        String spaceDimensionsCast = spatialiteGeometryType.getSpaceDimensionsCast();
-        String multiSingleCast = spatialiteGeometryType.getMultiSingleCast();
-
-        boolean doTransform = true;
-        if (srid == geometrySrid) {
-            doTransform = false;
-        }
+        Geometry newGeometry = SpatialiteConnectionsHandler.INSTANCE.write(feature.getDatabasePath(), db -> {
+            String geometryFieldName = gCol.geometryColumnName;
+            int srid = gCol.srid;
+            ESpatialiteGeometryType spatialiteGeometryType = geometryType.toSpatialiteGeometryType();
+            String geometryTypeCast = spatialiteGeometryType.getGeometryTypeCast();
+            String spaceDimensionsCast = spatialiteGeometryType.getSpaceDimensionsCast();
+            String multiSingleCast = spatialiteGeometryType.getMultiSingleCast();
+
+            boolean doTransform = true;
+            if (srid == geometrySrid) {
+                doTransform = false;
+            }
 
-        StringBuilder sbIn = new StringBuilder();
-        sbIn.append("update \"").append(tableName);//NON-NLS
-        sbIn.append("\" set ");//NON-NLS
-        sbIn.append(geometryFieldName);
-        sbIn.append(" = ");
-        if (doTransform)
-            sbIn.append("ST_Transform(");//NON-NLS
-        if (multiSingleCast != null)
-            sbIn.append(multiSingleCast).append("(");
-        if (spaceDimensionsCast != null)
-            sbIn.append(spaceDimensionsCast).append("(");
-        if (geometryTypeCast != null)
-            sbIn.append(geometryTypeCast).append("(");
-        sbIn.append("GeomFromText('");//NON-NLS
-        sbIn.append(geometry.toText());
-        sbIn.append("' , ");
-        sbIn.append(geometrySrid);
-        sbIn.append(")");
-        if (geometryTypeCast != null)
-            sbIn.append(")");
-        if (spaceDimensionsCast != null)
+            StringBuilder sbIn = new StringBuilder();
+            sbIn.append("update \"").append(tableName);//NON-NLS
+            sbIn.append("\" set ");//NON-NLS
+            sbIn.append(geometryFieldName);
+            sbIn.append(" = ");
+            if (doTransform)
+                sbIn.append("ST_Transform(");//NON-NLS
+            if (multiSingleCast != null)
+                sbIn.append(multiSingleCast).append("(");
+            if (spaceDimensionsCast != null)
+                sbIn.append(spaceDimensionsCast).append("(");
+            if (geometryTypeCast != null)
+                sbIn.append(geometryTypeCast).append("(");
+            sbIn.append("GeomFromText('");//NON-NLS
+            sbIn.append(geometry.toText());
+            sbIn.append("' , ");
+            sbIn.append(geometrySrid);
             sbIn.append(")");
-        if (multiSingleCast != null)
-            sbIn.append(")");
-        if (doTransform) {
-            sbIn.append(",");
-            sbIn.append(srid);
-            sbIn.append(")");
-        }
-        sbIn.append("");
-        sbIn.append(" where ");//NON-NLS
-        sbIn.append(feature.getIdFieldName()).append("=");
-        sbIn.append(feature.getIdFieldValue());
-        String insertQuery = sbIn.toString();
-        db.executeInsertUpdateDeleteSql(insertQuery);
-
-
-        long id = feature.getIdFieldValue();
-        IGPDrawable drawable = drawablesMap.get(id);
-        if (drawable != null)
-            remove((Drawable) drawable);
-        drawablesMap.remove(id);
-
-        Geometry g = geometry;
-        if (doTransform) {
-            g = db.reproject(geometry, geometrySrid, srid);
-        }
-        addNewGeometry(g, id);
+            if (geometryTypeCast != null)
+                sbIn.append(")");
+            if (spaceDimensionsCast != null)
+                sbIn.append(")");
+            if (multiSingleCast != null)
+                sbIn.append(")");
+            if (doTransform) {
+                sbIn.append(",");
+                sbIn.append(srid);
+                sbIn.append(")");
+            }
+            sbIn.append("");
+            sbIn.append(" where ");//NON-NLS
+            sbIn.append(feature.getIdFieldName()).append("=");
+            sbIn.append(feature.getIdFieldValue());
+            String insertQuery = sbIn.toString();
+            db.executeInsertUpdateDeleteSql(insertQuery);
+
+            Geometry g = geometry;
+            if (geometrySrid != LibraryConstants.SRID_WGS84_4326) {
+                // the drawables are in WGS84
+                g = db.reproject(geometry, geometrySrid, LibraryConstants.SRID_WGS84_4326);
+            }
+            return g;
+        });
+        addNewGeometry(newGeometry, feature.getIdFieldValue());
         update();
     }
 
     public void deleteFeatures(List<Feature> features) throws Exception {
         if (features.size() == 0) return;
         Feature firstFeature = features.get(0);
-        ASpatialDb db = SpatialiteConnectionsHandler.INSTANCE.getDb(firstFeature.getDatabasePath());
         String tableName = firstFeature.getTableName();
 
         StringBuilder sbIn = new StringBuilder();
@@ -525,14 +451,10 @@ public class SpatialiteTableLayer extends VectorLayer implements IVectorDbLayer,
         sbIn.append(valuesPart);
 
         String updateQuery = sbIn.toString();
-        db.executeInsertUpdateDeleteSql(updateQuery);
+        SpatialiteConnectionsHandler.INSTANCE.write(firstFeature.getDatabasePath(), db -> db.executeInsertUpdateDeleteSql(updateQuery));
 
         for (Feature feature : features) {
-            long id = feature.getIdFieldValue();
-            IGPDrawable drawable = drawablesMap.get(id);
-            if (drawable != null)
-                remove((Drawable) drawable);
-            drawablesMap.remove(id);
+            cellsLoader.removeRecord(feature.getIdFieldValue());
         }
         update();
     }
@@ -557,26 +479,20 @@ public class SpatialiteTableLayer extends VectorLayer implements IVectorDbLayer,
             Coordinate ur = prj.fromPixels(bounds.right, bounds.top);
             Envelope env = new Envelope(ll, ur);
 
-            if (LibraryConstants.SRID_WGS84_4326 != gCol.srid) {
-                ASpatialDb db = SpatialiteConnectionsHandler.INSTANCE.getDb(getDbPath());
-                env = db.reproject(env, LibraryConstants.SRID_WGS84_4326, gCol.srid);
-            }
-
             Quadtree labelTree = new Quadtree();
 
-            List<Feature> features = getFeatures(env);
-            for (Feature f : features) {
-
-                Object attribute = f.getAttribute(gpStyle.labelfield);
-                if (attribute != null) {
-                    String txt = attribute.toString();
+            // the labels are read with the loaded geometries, no need to query the database
+            List<DrawableRecord> records = cellsLoader.getRecords(env);
+            for (DrawableRecord record : records) {
+                String txt = record.label;
+                if (txt != null) {
                     if (txt.length() > 0) {
                         labelPaint.getTextBounds(txt, 0, txt.length(), rect);
                         int textWidth = rect.width();
                         int textHeight = rect.height();
 
                         if (geometryType == EGeometryType.POINT || geometryType == EGeometryType.MULTIPOINT) {
-                            Point p = f.getDefaultGeometry().getCentroid();
+                            Point p = record.geometry.getCentroid();
                             prj.toPixels(p.getCoordinate(), drawPoint);
 
                             int x = drawPoint.x - textWidth / 2;
@@ -605,7 +521,7 @@ public class SpatialiteTableLayer extends VectorLayer implements IVectorDbLayer,
                                 labelTree.insert(lenv, lenv);
                             }
                         } else if (geometryType == EGeometryType.POLYGON || geometryType == EGeometryType.MULTIPOLYGON) {
-                            Geometry geometry = f.getDefaultGeometry();
+                            Geometry geometry = record.geometry;
                             int numGeometries = geometry.getNumGeometries();
                             for (int i = 0; i < numGeometries; i++) {
                                 Polygon polygon = (Polygon) geometry.getGeometryN(i);
@@ -640,7 +556,7 @@ public class SpatialiteTableLayer extends VectorLayer implements IVectorDbLayer,
                                 }
                             }
                         } else if (geometryType == EGeometryType.LINESTRING || geometryType == EGeometryType.MULTILINESTRING) {
-                            Geometry geometry = f.getDefaultGeometry();
+                            Geometry geometry = record.geometry;
                             int numGeometries = geometry.getNumGeometries();
                             for (int i = 0; i < numGeometries; i++) {
                                 LineString polygon = (LineString) geometry.getGeometryN(i);
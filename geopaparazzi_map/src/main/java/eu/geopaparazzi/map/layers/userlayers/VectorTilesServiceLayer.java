@@ -7,10 +7,13 @@ import org.oscim.map.Layers;
 import org.oscim.tiling.source.OkHttpEngine;
 import org.oscim.tiling.source.UrlTileSource;
 
+import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.map.GPMapView;
 import eu.geopaparazzi.map.layers.LayerGroups;
 import eu.geopaparazzi.map.layers.VectorTilesOnlineSource;
 import eu.geopaparazzi.map.layers.interfaces.IVectorTileOnlineLayer;
+import eu.geopaparazzi.map.layers.utils.TileCacheTrimmer;
+import eu.geopaparazzi.map.layers.utils.VectorTileCache;
 
 public class VectorTilesServiceLayer extends OsmTileLayer implements IVectorTileOnlineLayer {
 
@@ -19,6 +22,7 @@ public class VectorTilesServiceLayer extends OsmTileLayer implements IVectorTile
     private String url;
     private String tilePath;
     private UrlTileSource tileSource;
+    private VectorTileCache vectorTileCache;
 
     public VectorTilesServiceLayer(GPMapView mapView, String name, String url, String tilePath) {
         super(mapView.map());
@@ -30,19 +34,20 @@ public class VectorTilesServiceLayer extends OsmTileLayer implements IVectorTile
     }
 
     public void load() {
+        if (vectorTileCache != null)
+            vectorTileCache.close();
+        // cache the tiles into a local database, revisited areas are drawn from disk
+        vectorTileCache = new VectorTileCache(mapView.getContext(), url, TileCacheTrimmer.getCacheBudget(mapView.getContext()));
+
         tileSource = VectorTilesOnlineSource.builder()
 //                .apiKey("xxxxxxx") // Put a proper API key
                 .url(url).tilePath(tilePath)
                 .zoomMin(0).zoomMax(20)
                 .httpFactory(new OkHttpEngine.OkHttpFactory())
+                .vectorTileCache(vectorTileCache)
                 //.locale("en")
                 .build();
 
-//            // Cache the tiles into a local SQLite database
-//            mCache = new TileCache(this, null, "tile.db");
-//            mCache.setCacheSize(512 * (1 << 10));
-//            tileSource.setCache(mCache);
-
         setTileSource(tileSource);
 
         Layers layers = mapView.map().layers();
@@ -67,7 +72,18 @@ public class VectorTilesServiceLayer extends OsmTileLayer implements IVectorTile
 
     @Override
     public void onPause() {
+        if (vectorTileCache != null) {
+            if (GPLog.LOG)
+                GPLog.addLogEntry(this, vectorTileCache.toString());
+            vectorTileCache.trimAsync();
+        }
+    }
 
+    /**
+     * @return the tile cache of the layer, with its hit and miss counters, or <code>null</code> if not loaded.
+     */
+    public VectorTileCache getVectorTileCache() {
+        return vectorTileCache;
     }
 
     @Override
@@ -97,5 +113,8 @@ public class VectorTilesServiceLayer extends OsmTileLayer implements IVectorTile
     public void dispose() {
         if (tileSource != null)
             tileSource.close();
+        // loaders still running get no tiles from the closed cache
+        if (vectorTileCache != null)
+            vectorTileCache.close();
     }
 }
@@ -0,0 +1,49 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.map.layers.utils;
+
+import org.locationtech.jts.geom.Geometry;
+
+/**
+ * The part of a table record needed to draw it: id, geometry in WGS84, label and theme value.
+ * <p/>
+ * <p>The other attributes are read from the database only when needed, for example by the info tool.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class DrawableRecord {
+    public final long id;
+    public final Geometry geometry;
+    public final String label;
+    public final String theme;
+
+    /**
+     * Constructor.
+     *
+     * @param id       the id of the record.
+     * @param geometry the geometry in WGS84.
+     * @param label    the optional label.
+     * @param theme    the optional theme field value.
+     */
+    public DrawableRecord(long id, Geometry geometry, String label, String theme) {
+        this.id = id;
+        this.geometry = geometry;
+        this.label = label;
+        this.theme = theme;
+    }
+}
@@ -151,6 +151,58 @@ public enum GeopackageConnectionsHandler {
     }
 
 
+    /**
+     * Get the records of a table needed to draw it, without the other attributes.
+     *
+     * @param dbPath    the db path.
+     * @param tableName the name of the table.
+     * @param idField   the id field of the table.
+     * @param gpStyle   the style of the table, for the label field.
+     * @param env       the optional envelope to read the records of.
+     * @param limit     the max number of records or -1.
+     * @return the records.
+     * @throws Exception
+     */
+    public List<DrawableRecord> getDrawableRecords(String dbPath, String tableName, String idField, Style gpStyle, Envelope env, int limit) throws Exception {
+        ASpatialDb db = getDb(dbPath);
+        GeometryColumn gCol = db.getGeometryColumnsForTable(tableName);
+        StringBuilder qSb = new StringBuilder();
+        qSb.append("SELECT ");
+        qSb.append(idField);
+        qSb.append(",");
+        qSb.append(gCol.geometryColumnName);
+        if (gpStyle.labelvisible == 1 && gpStyle.labelfield != null && gpStyle.labelfield.length() > 0) {
+            qSb.append(",");
+            qSb.append(gpStyle.labelfield);
+        } else {
+            qSb.append(",NULL");
+        }
+        qSb.append(" FROM ");
+        qSb.append("\"").append(tableName).append("\"");
+        if (env != null) {
+            String spatialindexBBoxWherePiece = db.getSpatialindexBBoxWherePiece(tableName, null, env.getMinX(), env.getMinY(), env.getMaxX(), env.getMaxY());
+            qSb.append(" WHERE ").append(spatialindexBBoxWherePiece);
+        }
+        if (limit > 0) {
+            qSb.append(" LIMIT ").append(limit);
+        }
+        String query = qSb.toString();
+
+        IGeometryParser gp = db.getType().getGeometryParser();
+        return db.execOnConnection(connection -> {
+            List<DrawableRecord> tmp = new ArrayList<>();
+            try (IHMStatement stmt = connection.createStatement(); IHMResultSet rs = stmt.executeQuery(query)) {
+                while (rs.next()) {
+                    Geometry geometry = gp.fromResultSet(rs, 2);
+                    if (geometry != null) {
+                        tmp.add(new DrawableRecord(rs.getLong(1), geometry, rs.getString(3), null));
+                    }
+                }
+            }
+            return tmp;
+        });
+    }
+
     /**
      * Create data query.
      *
@@ -5,7 +5,47 @@ import org.locationtech.jts.geom.Coordinate;
 import java.util.List;
 
 public class GpsLog {
+    public long id;
     public String color;
     public double width;
     public List<Coordinate> gpslogGeoPoints;
+
+    /**
+     * Packed lon/lat pairs of the log, as filled by the bulk loader.
+     * Only the first {@link #pointsCount} pairs are valid.
+     */
+    public double[] lonLats;
+    /**
+     * The number of points in {@link #lonLats}.
+     */
+    public int pointsCount;
+
+    /**
+     * Append a point to the packed buffer, growing it if necessary.
+     *
+     * @param lon the longitude.
+     * @param lat the latitude.
+     */
+    public void addLonLat(double lon, double lat) {
+        if (lonLats == null) {
+            lonLats = new double[256];
+        } else if (pointsCount * 2 + 1 >= lonLats.length) {
+            double[] newArray = new double[lonLats.length * 2];
+            System.arraycopy(lonLats, 0, newArray, 0, pointsCount * 2);
+            lonLats = newArray;
+        }
+        lonLats[pointsCount * 2] = lon;
+        lonLats[pointsCount * 2 + 1] = lat;
+        pointsCount++;
+    }
+
+    /**
+     * @return a copy of the packed buffer trimmed to the points count.
+     */
+    public double[] getTrimmedLonLats() {
+        double[] trimmed = new double[pointsCount * 2];
+        if (pointsCount > 0)
+            System.arraycopy(lonLats, 0, trimmed, 0, trimmed.length);
+        return trimmed;
+    }
 }
@@ -0,0 +1,149 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.map.layers.utils;
+
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequenceFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A growing gps track held as chunks of primitive lon/lat arrays.
+ * <p/>
+ * <p>Only the last chunk ever changes, so a renderer needs to rebuild only
+ * the geometry of that chunk when a point is appended. Consecutive chunks share
+ * their junction point, so that the rendered lines are continuous.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class GpsLogChunks {
+    /**
+     * Default number of points per chunk.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 256;
+
+    private final int chunkSize;
+    private final List<double[]> chunks = new ArrayList<>();
+    private int lastChunkPointsCount = 0;
+    private int pointsCount = 0;
+
+    /**
+     * Create the track with the default chunk size.
+     */
+    public GpsLogChunks() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Create the track.
+     *
+     * @param chunkSize the max number of points of a chunk.
+     */
+    public GpsLogChunks(int chunkSize) {
+        if (chunkSize < 2) {
+            throw new IllegalArgumentException("A chunk needs to hold at least 2 points.");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Append a point to the track.
+     *
+     * @param lon the longitude.
+     * @param lat the latitude.
+     * @return <code>true</code> if a new chunk was started by this point.
+     */
+    public boolean addPoint(double lon, double lat) {
+        boolean newChunk = false;
+        if (chunks.isEmpty()) {
+            chunks.add(new double[chunkSize * 2]);
+            lastChunkPointsCount = 0;
+            newChunk = true;
+        } else if (lastChunkPointsCount == chunkSize) {
+            double[] previous = chunks.get(chunks.size() - 1);
+            double[] chunk = new double[chunkSize * 2];
+            // repeat the junction point
+            chunk[0] = previous[chunkSize * 2 - 2];
+            chunk[1] = previous[chunkSize * 2 - 1];
+            chunks.add(chunk);
+            lastChunkPointsCount = 1;
+            newChunk = true;
+        }
+        double[] chunk = chunks.get(chunks.size() - 1);
+        chunk[lastChunkPointsCount * 2] = lon;
+        chunk[lastChunkPointsCount * 2 + 1] = lat;
+        lastChunkPointsCount++;
+        pointsCount++;
+        return newChunk;
+    }
+
+    /**
+     * @return the number of chunks.
+     */
+    public int getChunksCount() {
+        return chunks.size();
+    }
+
+    /**
+     * Get the number of points of a chunk.
+     *
+     * @param index the chunk index.
+     * @return the number of points, junction point included.
+     */
+    public int getChunkPointsCount(int index) {
+        if (index == chunks.size() - 1) {
+            return lastChunkPointsCount;
+        }
+        return chunkSize;
+    }
+
+    /**
+     * @return the number of points added to the track.
+     */
+    public int size() {
+        return pointsCount;
+    }
+
+    /**
+     * Create the line of a chunk.
+     *
+     * @param gf    the geometry factory to use.
+     * @param index the chunk index.
+     * @return the line or <code>null</code>, if the chunk has less than 2 points.
+     */
+    public LineString getChunkLine(GeometryFactory gf, int index) {
+        int count = getChunkPointsCount(index);
+        if (count < 2) {
+            return null;
+        }
+        double[] packed = new double[count * 2];
+        System.arraycopy(chunks.get(index), 0, packed, 0, packed.length);
+        return gf.createLineString(PackedCoordinateSequenceFactory.DOUBLE_FACTORY.create(packed, 2));
+    }
+
+    /**
+     * Remove all points.
+     */
+    public void clear() {
+        chunks.clear();
+        lastChunkPointsCount = 0;
+        pointsCount = 0;
+    }
+}
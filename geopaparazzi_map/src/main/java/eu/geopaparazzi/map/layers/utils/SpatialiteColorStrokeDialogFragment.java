@@ -44,7 +44,6 @@ import android.widget.TextView;
 
 import androidx.fragment.app.DialogFragment;
 
-import org.hortonmachine.dbs.compat.ASpatialDb;
 
 import eu.geopaparazzi.library.R;
 import eu.geopaparazzi.library.database.GPLog;
@@ -294,7 +293,6 @@ public class SpatialiteColorStrokeDialogFragment extends DialogFragment {
         builder.setPositiveButton(R.string.set_properties,
                 (dialog, id) -> {
                     try {
-                        ASpatialDb db = SpatialiteConnectionsHandler.INSTANCE.getDb(mCurrentColorStrokeObject.dbPath);
                         Style style = SpatialiteConnectionsHandler.INSTANCE.getStyleForTable(mCurrentColorStrokeObject.dbPath, mCurrentColorStrokeObject.tableName, null);
                         style.fillcolor = ColorUtilities.getHex(mCurrentColorStrokeObject.fillColor);
                         style.fillalpha = mCurrentColorStrokeObject.fillAlpha / 255f;
@@ -304,7 +302,10 @@ public class SpatialiteColorStrokeDialogFragment extends DialogFragment {
                         style.shape = mCurrentColorStrokeObject.shapeWKT;
                         style.size = mCurrentColorStrokeObject.shapeSize;
 
-                        SpatialiteUtilities.updateStyle(db, style);
+                        SpatialiteConnectionsHandler.INSTANCE.write(mCurrentColorStrokeObject.dbPath, db -> {
+                            SpatialiteUtilities.updateStyle(db, style);
+                            return null;
+                        });
                     } catch (Exception e) {
                         GPLog.error(this, null, e);
                     }
@@ -1,83 +1,208 @@
 package eu.geopaparazzi.map.layers.utils;
 
 import org.hortonmachine.dbs.compat.ASpatialDb;
-import org.hortonmachine.dbs.compat.EDb;
 import org.hortonmachine.dbs.compat.GeometryColumn;
 import org.hortonmachine.dbs.compat.IGeometryParser;
 import org.hortonmachine.dbs.compat.IHMResultSet;
 import org.hortonmachine.dbs.compat.IHMStatement;
 import org.hortonmachine.dbs.datatypes.EGeometryType;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import eu.geopaparazzi.library.style.Style;
 
+/**
+ * Handles the connections to the spatialite databases of the map layers.
+ * <p/>
+ * <p>Every database has one writer connection, on which the writes are serialized by a dedicated thread,
+ * and a small pool of read only connections. Reads run on the calling thread with
+ * {@link #read(String, IDbTask)} or in the background with {@link #submitRead(String, IDbTask)},
+ * writes always run on the writer thread through {@link #write(String, IDbTask)} or
+ * {@link #submitWrite(String, IDbTask)}.</p>
+ * <p/>
+ * <p>The connections of a database are kept until the last table opened on it is disposed. A task
+ * on a database with no open table runs on a single connection of its own, closed when it is done.
+ * The writes of those tasks are serialized on a thread shared by all such databases.</p>
+ */
 public enum SpatialiteConnectionsHandler {
     INSTANCE;
 
-    HashMap<String, List<String>> connection2TablesMap = new HashMap<>();
-    HashMap<String, ASpatialDb> connection2DbsMap = new HashMap<>();
+    /**
+     * Number of threads that run background reads.
+     */
+    private static final int READ_THREADS = 4;
+
+    /**
+     * A task to run on a connection to a database.
+     *
+     * @param <T> the result type.
+     */
+    public interface IDbTask<T> {
+        /**
+         * @param db the database connection.
+         * @return the result.
+         * @throws Exception if something goes wrong.
+         */
+        T execute(ASpatialDb db) throws Exception;
+    }
+
+    private final HashMap<String, SpatialiteDbConnections> connectionsMap = new HashMap<>();
+    private final ExecutorService readExecutor = Executors.newFixedThreadPool(READ_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "spatialite reader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * Runs the writes to databases with no open table.
+     */
+    private final ExecutorService unopenedWriteExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "spatialite unopened writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private synchronized SpatialiteDbConnections getConnections(String dbPath) throws Exception {
+        SpatialiteDbConnections connections = connectionsMap.get(dbPath);
+        if (connections == null) {
+            connections = new SpatialiteDbConnections(dbPath);
+            connectionsMap.put(dbPath, connections);
+        }
+        return connections;
+    }
+
+    /**
+     * @param dbPath the db path.
+     * @return the connections of a db with open tables or <code>null</code>.
+     */
+    private synchronized SpatialiteDbConnections getOpenConnections(String dbPath) {
+        return connectionsMap.get(dbPath);
+    }
+
+    /**
+     * Run a read task on a read only connection, in the current thread.
+     *
+     * @param dbPath the db path.
+     * @param task   the task.
+     * @param <T>    the result type.
+     * @return the result of the task.
+     * @throws Exception if the task fails.
+     */
+    public <T> T read(String dbPath, IDbTask<T> task) throws Exception {
+        SpatialiteDbConnections connections = getOpenConnections(dbPath);
+        if (connections != null) {
+            return connections.read(task);
+        }
+        // not kept, since no table would dispose it
+        return SpatialiteDbConnections.runOnce(dbPath, true, task);
+    }
+
+    /**
+     * Run a read task on a read only connection, in the background.
+     *
+     * @param dbPath the db path.
+     * @param task   the task.
+     * @param <T>    the result type.
+     * @return the future result of the task.
+     */
+    public <T> Future<T> submitRead(String dbPath, IDbTask<T> task) {
+        return readExecutor.submit(() -> read(dbPath, task));
+    }
+
+    /**
+     * Queue a task on the writer connection.
+     *
+     * @param dbPath the db path.
+     * @param task   the task.
+     * @param <T>    the result type.
+     * @return the future result of the task.
+     * @throws Exception if the db can't be opened.
+     */
+    public <T> Future<T> submitWrite(String dbPath, IDbTask<T> task) throws Exception {
+        SpatialiteDbConnections connections = getOpenConnections(dbPath);
+        if (connections != null) {
+            return connections.submitWrite(task);
+        }
+        // closed once the task has run
+        return unopenedWriteExecutor.submit(() -> SpatialiteDbConnections.runOnce(dbPath, false, task));
+    }
+
+    /**
+     * Run a task on the writer connection and wait for it.
+     *
+     * @param dbPath the db path.
+     * @param task   the task.
+     * @param <T>    the result type.
+     * @return the result of the task.
+     * @throws Exception if the task fails.
+     */
+    public <T> T write(String dbPath, IDbTask<T> task) throws Exception {
+        SpatialiteDbConnections connections = getOpenConnections(dbPath);
+        if (connections != null && connections.isWriterThread()) {
+            return task.execute(connections.getWriter());
+        }
+        Future<T> future = connections != null ? connections.submitWrite(task) : submitWrite(dbPath, task);
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
 
     /**
      * Call this to mark a table as in use.
      *
-     * <p>This helps keeping trak of layers of a same database. Spatialite is singlethread, so one connection should be used
-     * in order to not mess in write mode.</p>
+     * <p>This helps keeping trak of layers of a same database, the connections are kept
+     * as long as one of its tables is in use.</p>
      *
      * @param dbPath    the db path.
      * @param tableName the table to mark as opened.
      * @throws Exception
      */
     public void openTable(String dbPath, String tableName) throws Exception {
-        ASpatialDb db = getDb(dbPath);
-        if (db.hasTable(tableName)) {
-            List<String> openTables = connection2TablesMap.get(dbPath);
-            if (openTables == null) {
-                openTables = new ArrayList<>();
-                connection2TablesMap.put(dbPath, openTables);
-            }
-            if (!openTables.contains(tableName))
-                openTables.add(tableName);
+        // checked before creating the connections, which no table would dispose otherwise
+        if (!read(dbPath, db -> db.hasTable(tableName))) {
+            return;
+        }
+        synchronized (this) {
+            getConnections(dbPath).addTable(tableName);
         }
     }
 
     /**
      * Dispose a previously opened table.
      *
-     * <p>If this is the last table in use, then also the db connection is closed.</p>
+     * <p>If this is the last table in use, then also the db connections are closed.</p>
      *
      * @param dbPath    the db path.
      * @param tableName the table to dispose.
      * @throws Exception
      */
     public void disposeTable(String dbPath, String tableName) throws Exception {
-        ASpatialDb db = connection2DbsMap.get(dbPath);
-        if (db == null)
+        SpatialiteDbConnections connections;
+        synchronized (this) {
+            connections = connectionsMap.get(dbPath);
+        }
+        if (connections == null || !connections.read(db -> db.hasTable(tableName)))
             return;
-        if (db.hasTable(tableName)) {
-            List<String> openTables = connection2TablesMap.get(dbPath);
-            if (openTables == null) {
-                // this should not happen
-                throw new IllegalArgumentException("The requested db has no open tables.");
-            }
-            if (!openTables.contains(tableName)) {
-                throw new IllegalArgumentException("The requested db does not have an open table: " + tableName);
-            }
-
-            openTables.remove(tableName);
-
-            if (openTables.size() == 0) {
-                // also close the connection to the db and remove it
-                connection2TablesMap.remove(dbPath);
-                ASpatialDb removed = connection2DbsMap.remove(dbPath);
-                if (removed != null) {
-                    removed.close();
-                }
-            }
+        synchronized (this) {
+            if (!connections.removeTable(tableName) || connectionsMap.get(dbPath) != connections)
+                return;
+            connectionsMap.remove(dbPath);
         }
+        // also close the connections to the db
+        connections.close();
     }
 
 
@@ -91,65 +216,89 @@ public enum SpatialiteConnectionsHandler {
      * @throws Exception
      */
     public EGeometryType getGeometryType(String dbPath, String tableName) throws Exception {
-        ASpatialDb db = getDb(dbPath);
-        GeometryColumn geometryColumn = db.getGeometryColumnsForTable(tableName);
-        return geometryColumn.geometryType;
+        return read(dbPath, db -> {
+            GeometryColumn geometryColumn = db.getGeometryColumnsForTable(tableName);
+            return geometryColumn.geometryType;
+        });
     }
 
     public Style getStyleForTable(String dbPath, String tableName, String labelField) throws Exception {
-        ASpatialDb db = getDb(dbPath);
-        Style style4Table = SpatialiteUtilities.getStyle4Table(db, tableName, labelField);
-        return style4Table;
+        // the styles table is created if missing, so this needs the writer
+        return write(dbPath, db -> SpatialiteUtilities.getStyle4Table(db, tableName, labelField));
     }
 
     public List<Geometry> getGeometries(String dbPath, String tableName, Style gpStyle) throws Exception {
-        ASpatialDb db = getDb(dbPath);
-        GeometryColumn gCol = db.getGeometryColumnsForTable(tableName);
-        String query = SpatialiteUtilities.buildGeometriesInBoundsQuery(db, tableName, gCol, gpStyle, 4326, null);
-
-        IGeometryParser gp = db.getType().getGeometryParser();
-        List<Geometry> geoms = db.execOnConnection(connection -> {
-            List<Geometry> tmp = new ArrayList<>();
-            try (IHMStatement stmt = connection.createStatement(); IHMResultSet rs = stmt.executeQuery(query)) {
-                while (rs.next()) {
-                    Geometry geometry = gp.fromResultSet(rs, 1);
-                    if (geometry != null) {
-                        String label = rs.getString(2);
-                        String theme = rs.getString(3);
-                        geometry.setUserData(label + SpatialiteUtilities.LABEL_THEME_SEPARATOR + theme);
-                        tmp.add(geometry);
+        return read(dbPath, db -> {
+            GeometryColumn gCol = db.getGeometryColumnsForTable(tableName);
+            String query = SpatialiteUtilities.buildGeometriesInBoundsQuery(db, tableName, gCol, gpStyle, 4326, null);
+
+            IGeometryParser gp = db.getType().getGeometryParser();
+            return db.execOnConnection(connection -> {
+                List<Geometry> tmp = new ArrayList<>();
+                try (IHMStatement stmt = connection.createStatement(); IHMResultSet rs = stmt.executeQuery(query)) {
+                    while (rs.next()) {
+                        Geometry geometry = gp.fromResultSet(rs, 1);
+                        if (geometry != null) {
+                            String label = rs.getString(2);
+                            String theme = rs.getString(3);
+                            geometry.setUserData(label + SpatialiteUtilities.LABEL_THEME_SEPARATOR + theme);
+                            tmp.add(geometry);
+                        }
                     }
                 }
-            }
-            return tmp;
+                return tmp;
+            });
         });
-        return geoms;
     }
 
-    public Geometry getFirstGeometry(String dbPath, String tableName) throws Exception {
-        ASpatialDb db = getDb(dbPath);
-        GeometryColumn gCol = db.getGeometryColumnsForTable(tableName);
-        String query = SpatialiteUtilities.buildGetFirstGeometry(db, tableName, gCol, 4326);
-
-        IGeometryParser gp = db.getType().getGeometryParser();
-        return db.execOnConnection(connection -> {
-            try (IHMStatement stmt = connection.createStatement(); IHMResultSet rs = stmt.executeQuery(query)) {
-                if (rs.next()) {
-                    Geometry geometry = gp.fromResultSet(rs, 1);
-                    return geometry;
+    /**
+     * Get the records of a table needed to draw it, without the other attributes.
+     *
+     * @param dbPath    the db path.
+     * @param tableName the name of the table.
+     * @param idField   the id field of the table.
+     * @param gpStyle   the style of the table, for the label and theme fields.
+     * @param env       the optional WGS84 envelope to read the records of.
+     * @param limit     the max number of records or -1.
+     * @return the records with the geometries in WGS84.
+     * @throws Exception
+     */
+    public List<DrawableRecord> getDrawableRecords(String dbPath, String tableName, String idField, Style gpStyle, Envelope env, int limit) throws Exception {
+        return read(dbPath, db -> {
+            GeometryColumn gCol = db.getGeometryColumnsForTable(tableName);
+            String query = SpatialiteUtilities.buildDrawableRecordsQuery(tableName, gCol, idField, gpStyle, 4326, env, limit);
+
+            IGeometryParser gp = db.getType().getGeometryParser();
+            return db.execOnConnection(connection -> {
+                List<DrawableRecord> tmp = new ArrayList<>();
+                try (IHMStatement stmt = connection.createStatement(); IHMResultSet rs = stmt.executeQuery(query)) {
+                    while (rs.next()) {
+                        Geometry geometry = gp.fromResultSet(rs, 2);
+                        if (geometry != null) {
+                            tmp.add(new DrawableRecord(rs.getLong(1), geometry, rs.getString(3), rs.getString(4)));
+                        }
+                    }
                 }
-            }
-            return null;
+                return tmp;
+            });
         });
     }
 
-    public ASpatialDb getDb(String dbPath) throws Exception {
-        ASpatialDb spatialDb = connection2DbsMap.get(dbPath);
-        if (spatialDb == null) {
-            spatialDb = EDb.SPATIALITE4ANDROID.getSpatialDb();
-            spatialDb.open(dbPath);
-            connection2DbsMap.put(dbPath, spatialDb);
-        }
-        return spatialDb;
+    public Geometry getFirstGeometry(String dbPath, String tableName) throws Exception {
+        return read(dbPath, db -> {
+            GeometryColumn gCol = db.getGeometryColumnsForTable(tableName);
+            String query = SpatialiteUtilities.buildGetFirstGeometry(db, tableName, gCol, 4326);
+
+            IGeometryParser gp = db.getType().getGeometryParser();
+            return db.execOnConnection(connection -> {
+                try (IHMStatement stmt = connection.createStatement(); IHMResultSet rs = stmt.executeQuery(query)) {
+                    if (rs.next()) {
+                        Geometry geometry = gp.fromResultSet(rs, 1);
+                        return geometry;
+                    }
+                }
+                return null;
+            });
+        });
     }
 }
@@ -0,0 +1,263 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.map.layers.utils;
+
+import org.hortonmachine.dbs.compat.ASpatialDb;
+import org.hortonmachine.dbs.compat.EDb;
+import org.hortonmachine.dbs.spatialite.android.GPSpatialiteDb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import eu.geopaparazzi.library.database.GPLog;
+import jsqlite.Database;
+
+/**
+ * The connections to a spatialite database.
+ * <p/>
+ * <p>All the writes are serialized on a single writer connection, owned by its own thread.
+ * Reads borrow one of a small pool of read only connections, so that the layers of the
+ * same database can load in parallel.</p>
+ * <p/>
+ * <p>The database is referenced by the tables opened on it, when the last one is disposed
+ * the connections are closed.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+class SpatialiteDbConnections {
+    /**
+     * Max number of read only connections to a database.
+     */
+    static final int MAX_READERS = 3;
+    /**
+     * Time a connection waits for a lock held by another one, before failing.
+     */
+    private static final int BUSY_TIMEOUT_MS = 10000;
+    /**
+     * Time a read waiting for a connection checks if the connections have been closed meanwhile.
+     */
+    private static final int READER_POLL_MS = 500;
+
+    private final String dbPath;
+    private final ASpatialDb writer;
+    private final ExecutorService writerExecutor;
+    private volatile Thread writerThread;
+
+    private final ArrayBlockingQueue<ASpatialDb> idleReaders = new ArrayBlockingQueue<>(MAX_READERS);
+    private final List<ASpatialDb> allReaders = new ArrayList<>();
+    private final Set<String> openTables = new HashSet<>();
+    private volatile boolean isClosed = false;
+
+    /**
+     * Open the writer connection to a database.
+     *
+     * @param dbPath the path to the database.
+     * @throws Exception if the database can't be opened.
+     */
+    SpatialiteDbConnections(String dbPath) throws Exception {
+        this.dbPath = dbPath;
+        writer = openConnection(dbPath, false);
+        String threadName = "spatialite writer " + new File(dbPath).getName();
+        writerExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            writerThread = thread;
+            return thread;
+        });
+    }
+
+    private static ASpatialDb openConnection(String dbPath, boolean readOnly) throws Exception {
+        ASpatialDb db = EDb.SPATIALITE4ANDROID.getSpatialDb();
+        db.open(dbPath);
+        if (db instanceof GPSpatialiteDb) {
+            Database database = ((GPSpatialiteDb) db).getDatabase();
+            database.busy_timeout(BUSY_TIMEOUT_MS);
+            if (readOnly) {
+                try {
+                    database.exec("PRAGMA query_only = 1", null);
+                } catch (Exception e) {
+                    // older sqlite versions, the connection is still used only for reads
+                    GPLog.error("SpatialiteDbConnections", "Could not make the connection read only: " + dbPath, e);
+                }
+            }
+        }
+        return db;
+    }
+
+    /**
+     * Run a task on a single connection of its own, closed when the task is done.
+     * <p/>
+     * <p>For databases with no open table, which have no connections to share.</p>
+     *
+     * @param dbPath   the path to the database.
+     * @param readOnly if the connection is used only for reads.
+     * @param task     the task.
+     * @param <T>      the result type.
+     * @return the result.
+     * @throws Exception if the task fails.
+     */
+    static <T> T runOnce(String dbPath, boolean readOnly, SpatialiteConnectionsHandler.IDbTask<T> task) throws Exception {
+        ASpatialDb db = openConnection(dbPath, readOnly);
+        try {
+            return task.execute(db);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * @return the writer connection.
+     */
+    ASpatialDb getWriter() {
+        return writer;
+    }
+
+    /**
+     * @return <code>true</code> if the current thread is the one of the writer.
+     */
+    boolean isWriterThread() {
+        return Thread.currentThread() == writerThread;
+    }
+
+    /**
+     * Queue a task on the writer connection.
+     *
+     * @param task the task.
+     * @param <T>  the result type.
+     * @return the future result.
+     */
+    <T> Future<T> submitWrite(SpatialiteConnectionsHandler.IDbTask<T> task) {
+        // after close the executor is shut down and rejects the task
+        return writerExecutor.submit(() -> task.execute(writer));
+    }
+
+    /**
+     * Run a task on a read only connection, in the current thread.
+     * <p/>
+     * <p>If all the connections are in use, it waits for one to be released. Once the
+     * connections are closed, reads fail instead of opening new ones.</p>
+     *
+     * @param task the task.
+     * @param <T>  the result type.
+     * @return the result.
+     * @throws Exception if the task fails.
+     */
+    <T> T read(SpatialiteConnectionsHandler.IDbTask<T> task) throws Exception {
+        ASpatialDb reader = acquireReader();
+        try {
+            return task.execute(reader);
+        } finally {
+            releaseReader(reader);
+        }
+    }
+
+    private ASpatialDb acquireReader() throws Exception {
+        ASpatialDb reader = idleReaders.poll();
+        if (reader != null) {
+            return reader;
+        }
+        synchronized (this) {
+            if (isClosed) {
+                throw new IllegalStateException("The database connections are closed: " + dbPath);
+            }
+            if (allReaders.size() < MAX_READERS) {
+                reader = openConnection(dbPath, true);
+                allReaders.add(reader);
+                return reader;
+            }
+        }
+        // a bounded wait, so that a close meanwhile is noticed
+        while (!isClosed) {
+            reader = idleReaders.poll(READER_POLL_MS, TimeUnit.MILLISECONDS);
+            if (reader != null) {
+                return reader;
+            }
+        }
+        throw new IllegalStateException("The database connections are closed: " + dbPath);
+    }
+
+    private synchronized void releaseReader(ASpatialDb reader) throws Exception {
+        if (isClosed) {
+            reader.close();
+            return;
+        }
+        idleReaders.offer(reader);
+    }
+
+    /**
+     * Add a table to the ones using the database.
+     *
+     * @param tableName the table.
+     */
+    synchronized void addTable(String tableName) {
+        openTables.add(tableName);
+    }
+
+    /**
+     * Remove a table from the ones using the database.
+     *
+     * @param tableName the table.
+     * @return <code>true</code> if no table uses the database anymore.
+     */
+    synchronized boolean removeTable(String tableName) {
+        if (!openTables.remove(tableName)) {
+            throw new IllegalArgumentException("The requested db does not have an open table: " + tableName);
+        }
+        return openTables.isEmpty();
+    }
+
+    /**
+     * Close all the connections.
+     * <p/>
+     * <p>The queued writes are run before the writer is closed, the readers in use are closed
+     * when released.</p>
+     */
+    void close() {
+        synchronized (this) {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+            ASpatialDb reader;
+            while ((reader = idleReaders.poll()) != null) {
+                try {
+                    reader.close();
+                } catch (Exception e) {
+                    GPLog.error(this, null, e);
+                }
+            }
+        }
+        writerExecutor.execute(() -> {
+            try {
+                writer.close();
+            } catch (Exception e) {
+                GPLog.error(this, null, e);
+            }
+        });
+        writerExecutor.shutdown();
+    }
+}
@@ -34,7 +34,6 @@ import android.widget.TextView;
 
 import androidx.fragment.app.DialogFragment;
 
-import org.hortonmachine.dbs.compat.ASpatialDb;
 import org.hortonmachine.dbs.geopackage.android.GPGeopackageDb;
 import org.hortonmachine.dbs.utils.BasicStyle;
 
@@ -142,14 +141,16 @@ public class SpatialiteLabelDialogFragment extends DialogFragment {
                     public void onClick(DialogInterface dialog, int id) {
 
                         try {
-                            ASpatialDb db = SpatialiteConnectionsHandler.INSTANCE.getDb(mCurrentLabelObject.dbPath);
                             Style style = SpatialiteConnectionsHandler.INSTANCE.getStyleForTable(mCurrentLabelObject.dbPath, mCurrentLabelObject.tableName, null);
 
                             style.labelfield = mCurrentLabelObject.label;
                             style.labelsize = mCurrentLabelObject.labelSize;
                             style.labelvisible = mCurrentLabelObject.hasLabel ? 1 : 0;
 
-                            SpatialiteUtilities.updateStyle(db, style);
+                            SpatialiteConnectionsHandler.INSTANCE.write(mCurrentLabelObject.dbPath, db -> {
+                                SpatialiteUtilities.updateStyle(db, style);
+                                return null;
+                            });
                         } catch (Exception e) {
                             GPLog.error(this, null, e);
                         }
@@ -35,6 +35,7 @@ import java.util.Iterator;
 import java.util.List;
 
 import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.database.TableChangesTracker;
 import eu.geopaparazzi.library.style.Style;
 import eu.geopaparazzi.map.features.Feature;
 
@@ -241,6 +242,7 @@ public class SpatialiteUtilities implements ISpatialiteTableAndFieldsNames {
 
         String updateQuery = sbIn.toString();
         database.executeInsertUpdateDeleteSql(updateQuery);
+        TableChangesTracker.INSTANCE.notifyChanged(TableChangesTracker.getKey(database.getDatabasePath(), style.name));
     }
 
     /**
@@ -427,18 +429,7 @@ public class SpatialiteUtilities implements ISpatialiteTableAndFieldsNames {
 
         StringBuilder qSb = new StringBuilder();
         qSb.append("SELECT ");
-        qSb.append("ST_AsBinary(");
-        qSb.append("CastToXY(");
-        if (doTransform)
-            qSb.append("ST_Transform(");
-        qSb.append(tableGeometryColumn.geometryColumnName);
-        if (doTransform) {
-            qSb.append(",");
-            qSb.append(destSrid);
-            qSb.append(")");
-        }
-        qSb.append(")");
-        qSb.append(")");
+        appendGeometry(qSb, tableGeometryColumn, destSrid, doTransform);
         if (tableStyle.labelvisible == 1) {
             qSb.append(",");
             qSb.append(tableStyle.labelfield);
@@ -455,52 +446,118 @@ public class SpatialiteUtilities implements ISpatialiteTableAndFieldsNames {
         qSb.append("\"").append(tableName).append("\"");
 
         if (env != null) {
-            StringBuilder mbrSb = new StringBuilder();
-            if (doTransform)
-                mbrSb.append("ST_Transform(");
-            mbrSb.append("BuildMBR(");
-            mbrSb.append(env.getMinX());
-            mbrSb.append(",");
-            mbrSb.append(env.getMaxY());
-            mbrSb.append(",");
-            mbrSb.append(env.getMaxX());
-            mbrSb.append(",");
-            mbrSb.append(env.getMinY());
-            if (doTransform) {
-                mbrSb.append(",");
-                mbrSb.append(destSrid);
-                mbrSb.append("),");
-                mbrSb.append(tableGeometryColumn.srid);
-            }
-            mbrSb.append(")");
-            String mbr = mbrSb.toString();
-
-            // the SpatialIndex would be searching for a square, the ST_Intersects the Geometry
-            // the SpatialIndex could be fulfilled, but checking the Geometry could return the result
-            // that it is not
-            qSb.append(" WHERE ST_Intersects(");
-            qSb.append(tableGeometryColumn.geometryColumnName);
-            qSb.append(", ");
-            qSb.append(mbr);
-            qSb.append(") = 1 AND ");
-            qSb.append(ROWID_PK);
-            qSb.append("  IN (SELECT ");
-            qSb.append(ROWID_PK);
-            qSb.append(" FROM Spatialindex WHERE f_table_name ='");
-            qSb.append(tableName);
-            qSb.append("'");
-            // if a table has more than 1 geometry, the column-name MUST be given, otherwise no results.
-            qSb.append(" AND f_geometry_column = '");
-            qSb.append(tableGeometryColumn.geometryColumnName);
-            qSb.append("'");
-            qSb.append(" AND search_frame = ");
-            qSb.append(mbr);
-            qSb.append(");");
+            appendBoundsWhere(qSb, tableName, tableGeometryColumn, destSrid, doTransform, env);
+            qSb.append(";");
         }
         String q = qSb.toString();
         return q;
     }
 
+    /**
+     * Create the query for the {@link DrawableRecord}s of a table.
+     * <p/>
+     * <p>Only id, geometry, label and theme field are read, the label and theme are null
+     * if not set in the style.</p>
+     *
+     * @param tableName           the table to query.
+     * @param tableGeometryColumn the table geom column.
+     * @param idField             the id field of the table.
+     * @param tableStyle          the table style.
+     * @param destSrid            the destination srid.
+     * @param env                 optional envelope in the destination srid.
+     * @param limit               the max number of records or -1.
+     * @return the query.
+     */
+    public static String buildDrawableRecordsQuery(String tableName, GeometryColumn tableGeometryColumn, String idField, Style tableStyle, int destSrid, Envelope env, int limit) {
+        boolean doTransform = tableGeometryColumn.srid != destSrid;
+
+        StringBuilder qSb = new StringBuilder();
+        qSb.append("SELECT ");
+        qSb.append(idField);
+        qSb.append(",");
+        appendGeometry(qSb, tableGeometryColumn, destSrid, doTransform);
+        if (tableStyle.labelvisible == 1 && tableStyle.labelfield != null && tableStyle.labelfield.length() > 0) {
+            qSb.append(",");
+            qSb.append(tableStyle.labelfield);
+        } else {
+            qSb.append(",NULL");
+        }
+        if (tableStyle.themeField != null) {
+            qSb.append(",");
+            qSb.append(tableStyle.themeField);
+        } else {
+            qSb.append(",NULL");
+        }
+        qSb.append(" FROM ");
+        qSb.append("\"").append(tableName).append("\"");
+        if (env != null) {
+            appendBoundsWhere(qSb, tableName, tableGeometryColumn, destSrid, doTransform, env);
+        }
+        if (limit > 0) {
+            qSb.append(" LIMIT ").append(limit);
+        }
+        return qSb.toString();
+    }
+
+    private static void appendGeometry(StringBuilder qSb, GeometryColumn tableGeometryColumn, int destSrid, boolean doTransform) {
+        qSb.append("ST_AsBinary(");
+        qSb.append("CastToXY(");
+        if (doTransform)
+            qSb.append("ST_Transform(");
+        qSb.append(tableGeometryColumn.geometryColumnName);
+        if (doTransform) {
+            qSb.append(",");
+            qSb.append(destSrid);
+            qSb.append(")");
+        }
+        qSb.append(")");
+        qSb.append(")");
+    }
+
+    private static void appendBoundsWhere(StringBuilder qSb, String tableName, GeometryColumn tableGeometryColumn, int destSrid, boolean doTransform, Envelope env) {
+        StringBuilder mbrSb = new StringBuilder();
+        if (doTransform)
+            mbrSb.append("ST_Transform(");
+        mbrSb.append("BuildMBR(");
+        mbrSb.append(env.getMinX());
+        mbrSb.append(",");
+        mbrSb.append(env.getMaxY());
+        mbrSb.append(",");
+        mbrSb.append(env.getMaxX());
+        mbrSb.append(",");
+        mbrSb.append(env.getMinY());
+        if (doTransform) {
+            mbrSb.append(",");
+            mbrSb.append(destSrid);
+            mbrSb.append("),");
+            mbrSb.append(tableGeometryColumn.srid);
+        }
+        mbrSb.append(")");
+        String mbr = mbrSb.toString();
+
+        // the SpatialIndex would be searching for a square, the ST_Intersects the Geometry
+        // the SpatialIndex could be fulfilled, but checking the Geometry could return the result
+        // that it is not
+        qSb.append(" WHERE ST_Intersects(");
+        qSb.append(tableGeometryColumn.geometryColumnName);
+        qSb.append(", ");
+        qSb.append(mbr);
+        qSb.append(") = 1 AND ");
+        qSb.append(ROWID_PK);
+        qSb.append("  IN (SELECT ");
+        qSb.append(ROWID_PK);
+        qSb.append(" FROM Spatialindex WHERE f_table_name ='");
+        qSb.append(tableName);
+        qSb.append("'");
+        // if a table has more than 1 geometry, the column-name MUST be given, otherwise no results.
+        qSb.append(" AND f_geometry_column = '");
+        qSb.append(tableGeometryColumn.geometryColumnName);
+        qSb.append("'");
+        qSb.append(" AND search_frame = ");
+        qSb.append(mbr);
+        qSb.append(")");
+    }
+
     public static String buildGetFirstGeometry(ASpatialDb db, String tableName, GeometryColumn tableGeometryColumn, int destSrid) {
         boolean doTransform = false;
         if (tableGeometryColumn.srid != destSrid) {
@@ -609,6 +666,7 @@ public class SpatialiteUtilities implements ISpatialiteTableAndFieldsNames {
 
         String updateQuery = sbIn.toString();
         database.executeInsertUpdateDeleteSql(updateQuery);
+        TableChangesTracker.INSTANCE.notifyChanged(TableChangesTracker.getKey(database.getDatabasePath(), tableName));
 
         //SpatialVectorTable table = SpatialiteSourcesManager.INSTANCE.getTableFromFeature(feature);
         //createImageField(table);
@@ -0,0 +1,106 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.map.layers.utils;
+
+import org.hortonmachine.dbs.datatypes.EGeometryType;
+import org.oscim.backend.canvas.Paint;
+import org.oscim.layers.vector.geometries.Style;
+
+import java.util.HashMap;
+
+import eu.geopaparazzi.library.style.ColorUtilities;
+
+/**
+ * The drawing styles of a vector layer, one shared instance per theme value.
+ * <p/>
+ * <p>The styles are built the first time a value is met, all the features with the
+ * same theme value, or without theme, then share the same style.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class ThemedStylesRegistry {
+    private final EGeometryType geometryType;
+    private final eu.geopaparazzi.library.style.Style gpStyle;
+    private Style defaultStyle;
+    private final HashMap<String, Style> themeStyles = new HashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param geometryType the geometry type of the layer.
+     * @param gpStyle      the style of the layer, with its optional theme.
+     */
+    public ThemedStylesRegistry(EGeometryType geometryType, eu.geopaparazzi.library.style.Style gpStyle) {
+        this.geometryType = geometryType;
+        this.gpStyle = gpStyle;
+    }
+
+    /**
+     * Get the style for a theme value.
+     *
+     * @param themeValue the theme field value of a feature, can be <code>null</code>.
+     * @return the theme style or the layer style if there is no theme for the value.
+     */
+    public synchronized Style getStyle(String themeValue) {
+        if (themeValue != null && gpStyle.themeField != null && gpStyle.themeMap != null) {
+            Style style = themeStyles.get(themeValue);
+            if (style == null && !themeStyles.containsKey(themeValue)) {
+                eu.geopaparazzi.library.style.Style themeStyle = gpStyle.themeMap.get(themeValue);
+                if (themeStyle != null) {
+                    style = buildStyle(themeStyle);
+                }
+                // also values without a theme are remembered
+                themeStyles.put(themeValue, style);
+            }
+            if (style != null) {
+                return style;
+            }
+        }
+        if (defaultStyle == null) {
+            defaultStyle = buildStyle(gpStyle);
+        }
+        return defaultStyle;
+    }
+
+    private Style buildStyle(eu.geopaparazzi.library.style.Style style) {
+        if (geometryType == EGeometryType.POINT || geometryType == EGeometryType.MULTIPOINT) {
+            return Style.builder()
+                    .buffer(style.size)
+                    .strokeWidth(style.width)
+                    .strokeColor(ColorUtilities.toColor(style.strokecolor))
+                    .fillColor(ColorUtilities.toColor(style.fillcolor))
+                    .fillAlpha(style.fillalpha)
+                    .scaleZoomLevel(19)
+                    .build();
+        } else if (geometryType == EGeometryType.LINESTRING || geometryType == EGeometryType.MULTILINESTRING) {
+            return Style.builder()
+                    .strokeColor(ColorUtilities.toColor(style.strokecolor))
+                    .strokeWidth(style.width)
+                    .cap(Paint.Cap.ROUND)
+                    .build();
+        } else {
+            return Style.builder()
+                    .strokeColor(ColorUtilities.toColor(style.strokecolor))
+                    .strokeWidth(style.width)
+                    .fillColor(ColorUtilities.toColor(style.fillcolor))
+                    .fillAlpha(style.fillalpha)
+                    .cap(Paint.Cap.ROUND)
+                    .build();
+        }
+    }
+}
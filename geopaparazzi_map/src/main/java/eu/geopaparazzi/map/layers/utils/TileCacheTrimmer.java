@@ -0,0 +1,165 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.map.layers.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.preference.PreferenceManager;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.util.LibraryConstants;
+
+/**
+ * Keeps the database of an online tile service cache inside a size budget, removing the
+ * least recently used tiles.
+ * <p/>
+ * <p>The cache database has a tiles table with the last access time of every tile, as the
+ * one written by the vtm tile cache.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TileCacheTrimmer implements TileSeeder.ICacheTrimmer {
+    // table and column of the vtm tile cache
+    private static final String TABLE_TILES = "tiles";
+    private static final String COLUMN_ACCESS = "last_access";
+
+    private static final int EVICTION_BATCH = 64;
+    private static final long MIN_HARD_LIMIT_MARGIN = 8 * 1024 * 1024;
+
+    private static final ExecutorService trimExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "tile cache trimmer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final File dbFile;
+    private final long budget;
+
+    /**
+     * Constructor.
+     *
+     * @param context the context.
+     * @param dbName  the name of the cache database.
+     * @param budget  the size budget in bytes.
+     */
+    public TileCacheTrimmer(Context context, String dbName, long budget) {
+        this.dbFile = context.getDatabasePath(dbName);
+        this.budget = budget;
+    }
+
+    /**
+     * Get the size budget of the online tile services caches.
+     *
+     * @param context the context.
+     * @return the size budget in bytes, from the preferences.
+     */
+    public static long getCacheBudget(Context context) {
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        String sizeStr = preferences.getString(LibraryConstants.PREFS_KEY_TILECACHE_SIZE, LibraryConstants.DEFAULT_TILECACHE_SIZE + "");
+        int sizeMb;
+        try {
+            sizeMb = Integer.parseInt(sizeStr.trim());
+        } catch (NumberFormatException e) {
+            sizeMb = LibraryConstants.DEFAULT_TILECACHE_SIZE;
+        }
+        return sizeMb * 1024L * 1024L;
+    }
+
+    /**
+     * Get the hard size limit to give to the cache database.
+     * <p/>
+     * <p>Writes beyond the limit fail, so it leaves room for the tiles written between
+     * two trims.</p>
+     *
+     * @param budget the size budget in bytes.
+     * @return the hard limit in bytes.
+     */
+    public static long getHardLimit(long budget) {
+        return budget + Math.max(budget / 4, MIN_HARD_LIMIT_MARGIN);
+    }
+
+    @Override
+    public synchronized int trim() throws Exception {
+        if (!dbFile.exists()) {
+            return 0;
+        }
+        int removed = 0;
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READWRITE);
+        try {
+            SQLiteStatement deleteStmt = db.compileStatement("DELETE FROM " + TABLE_TILES + " WHERE rowid IN (SELECT rowid FROM " +
+                    TABLE_TILES + " ORDER BY " + COLUMN_ACCESS + " LIMIT " + EVICTION_BATCH + ")");
+            try {
+                while (getUsedSize(db) > budget) {
+                    int deleted = deleteStmt.executeUpdateDelete();
+                    if (deleted == 0) {
+                        break;
+                    }
+                    removed += deleted;
+                }
+            } finally {
+                deleteStmt.close();
+            }
+        } finally {
+            db.close();
+        }
+        if (GPLog.LOG && removed > 0) {
+            GPLog.addLogEntry(this, "Removed " + removed + " tiles from " + dbFile.getName());
+        }
+        return removed;
+    }
+
+    /**
+     * Trim the cache in background.
+     */
+    public void trimAsync() {
+        trimExecutor.execute(() -> {
+            try {
+                trim();
+            } catch (Exception e) {
+                GPLog.error(this, "Could not trim the tile cache " + dbFile.getName(), e);
+            }
+        });
+    }
+
+    /**
+     * The size of the used pages, the free ones are reused by new tiles.
+     */
+    private static long getUsedSize(SQLiteDatabase db) {
+        long pageSize = queryLong(db, "PRAGMA page_size");
+        long pageCount = queryLong(db, "PRAGMA page_count");
+        long freePages = queryLong(db, "PRAGMA freelist_count");
+        return (pageCount - freePages) * pageSize;
+    }
+
+    private static long queryLong(SQLiteDatabase db, String sql) {
+        try (Cursor cursor = db.rawQuery(sql, null)) {
+            if (cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.map.layers.utils;
+
+import org.oscim.core.Tile;
+import org.oscim.tiling.ITileCache;
+import org.oscim.tiling.source.UrlTileSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.geopaparazzi.library.database.GPLog;
+
+/**
+ * Downloads the tiles of an area of an online tile service into its cache, so that
+ * the area can be used offline.
+ * <p/>
+ * <p>Tiles already in the cache are skipped, so an interrupted seeding is resumed by
+ * running it again on the same area. The downloads run in parallel on a bounded number
+ * of threads and failed downloads are retried.</p>
+ * <p/>
+ * <p>The seeder only needs the url of the tiles and the cache to write into, so it can
+ * be pointed to any http server, also a local one.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TileSeeder {
+    /**
+     * Default number of parallel downloads.
+     */
+    public static final int DEFAULT_PARALLELISM = 4;
+    /**
+     * Default number of retries of a failed download.
+     */
+    public static final int DEFAULT_RETRIES = 3;
+
+    private static final double MAX_LATITUDE = 85.05112877980659;
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 30000;
+    private static final long RETRY_WAIT = 500;
+    /**
+     * Number of written tiles after which the cache is trimmed to its budget.
+     */
+    private static final int TRIM_INTERVAL = 50;
+
+    /**
+     * Keeps the cache inside its size budget.
+     */
+    public interface ICacheTrimmer {
+        /**
+         * Remove the least recently used tiles until the cache fits its budget.
+         *
+         * @return the number of removed tiles.
+         * @throws Exception if something goes wrong.
+         */
+        int trim() throws Exception;
+    }
+
+    /**
+     * Receives the progress of a seeding.
+     */
+    public interface ISeedListener {
+        /**
+         * Called every time a tile has been processed, from the download threads.
+         *
+         * @param progress the current progress.
+         */
+        void onProgress(SeedProgress progress);
+
+        /**
+         * @return <code>true</code> if the seeding should stop.
+         */
+        boolean isCancelled();
+    }
+
+    /**
+     * The progress of a seeding.
+     */
+    public static class SeedProgress {
+        public final int total;
+        public final int downloaded;
+        public final int skipped;
+        public final int failed;
+        public final int evicted;
+        public final long bytes;
+        public final long elapsedMillis;
+
+        SeedProgress(int total, int downloaded, int skipped, int failed, int evicted, long bytes, long elapsedMillis) {
+            this.total = total;
+            this.downloaded = downloaded;
+            this.skipped = skipped;
+            this.failed = failed;
+            this.evicted = evicted;
+            this.bytes = bytes;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * @return the number of processed tiles.
+         */
+        public int getDone() {
+            return downloaded + skipped + failed;
+        }
+
+        /**
+         * @return the downloaded tiles per second.
+         */
+        public double getTilesPerSecond() {
+            if (elapsedMillis == 0) return 0;
+            return downloaded * 1000.0 / elapsedMillis;
+        }
+
+        /**
+         * @return the downloaded bytes per second.
+         */
+        public double getBytesPerSecond() {
+            if (elapsedMillis == 0) return 0;
+            return bytes * 1000.0 / elapsedMillis;
+        }
+    }
+
+    private final UrlTileSource tileSource;
+    private final ITileCache tileCache;
+    private final ICacheTrimmer cacheTrimmer;
+    private final int parallelism;
+    private final int retries;
+
+    private final AtomicInteger downloaded = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger evicted = new AtomicInteger();
+    private final AtomicInteger writtenSinceTrim = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private int total;
+    private long startTime;
+
+    /**
+     * Constructor.
+     *
+     * @param tileSource   the source giving the url of the tiles.
+     * @param tileCache    the cache to write the tiles into.
+     * @param cacheTrimmer the optional trimmer to keep the cache in its budget.
+     * @param parallelism  the max number of parallel downloads.
+     * @param retries      the number of retries of a failed download.
+     */
+    public TileSeeder(UrlTileSource tileSource, ITileCache tileCache, ICacheTrimmer cacheTrimmer, int parallelism, int retries) {
+        this.tileSource = tileSource;
+        this.tileCache = tileCache;
+        this.cacheTrimmer = cacheTrimmer;
+        this.parallelism = Math.max(1, parallelism);
+        this.retries = Math.max(0, retries);
+    }
+
+    /**
+     * Count the tiles of an area.
+     *
+     * @param west    the western longitude.
+     * @param south   the southern latitude.
+     * @param east    the eastern longitude.
+     * @param north   the northern latitude.
+     * @param minZoom the min zoom level.
+     * @param maxZoom the max zoom level.
+     * @return the number of tiles.
+     */
+    public static int countTiles(double west, double south, double east, double north, int minZoom, int maxZoom) {
+        long count = 0;
+        for (int z = minZoom; z <= maxZoom; z++) {
+            int[] range = getTileRange(west, south, east, north, z);
+            count += (long) (range[2] - range[0] + 1) * (range[3] - range[1] + 1);
+        }
+        return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get the tile range of an area at a zoom level.
+     *
+     * @return the range as [minX, minY, maxX, maxY].
+     */
+    static int[] getTileRange(double west, double south, double east, double north, int zoom) {
+        return new int[]{
+                longitudeToTileX(west, zoom),
+                latitudeToTileY(north, zoom),
+                longitudeToTileX(east, zoom),
+                latitudeToTileY(south, zoom)
+        };
+    }
+
+    private static int longitudeToTileX(double longitude, int zoom) {
+        int tiles = 1 << zoom;
+        int x = (int) Math.floor((longitude + 180.0) / 360.0 * tiles);
+        return Math.min(Math.max(x, 0), tiles - 1);
+    }
+
+    private static int latitudeToTileY(double latitude, int zoom) {
+        int tiles = 1 << zoom;
+        double lat = Math.toRadians(Math.min(Math.max(latitude, -MAX_LATITUDE), MAX_LATITUDE));
+        double y = (1.0 - Math.log(Math.tan(lat) + 1.0 / Math.cos(lat)) / Math.PI) / 2.0 * tiles;
+        return Math.min(Math.max((int) Math.floor(y), 0), tiles - 1);
+    }
+
+    /**
+     * Download the tiles of an area into the cache.
+     * <p/>
+     * <p>The method blocks until all the tiles have been processed or the listener cancels.</p>
+     *
+     * @param west     the western longitude.
+     * @param south    the southern latitude.
+     * @param east     the eastern longitude.
+     * @param north    the northern latitude.
+     * @param minZoom  the min zoom level.
+     * @param maxZoom  the max zoom level.
+     * @param listener the optional progress listener.
+     * @return the final progress.
+     * @throws Exception if the seeding is interrupted.
+     */
+    public SeedProgress seed(double west, double south, double east, double north, int minZoom, int maxZoom, ISeedListener listener) throws Exception {
+        downloaded.set(0);
+        skipped.set(0);
+        failed.set(0);
+        evicted.set(0);
+        writtenSinceTrim.set(0);
+        bytes.set(0);
+        total = countTiles(west, south, east, north, minZoom, maxZoom);
+        startTime = System.currentTimeMillis();
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "tile seeder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // bounds the queued tiles, so that big areas are not all enumerated up front
+        Semaphore inFlight = new Semaphore(parallelism * 2);
+        try {
+            zoomLoop:
+            for (int z = minZoom; z <= maxZoom; z++) {
+                int[] range = getTileRange(west, south, east, north, z);
+                for (int x = range[0]; x <= range[2]; x++) {
+                    for (int y = range[1]; y <= range[3]; y++) {
+                        if (listener != null && listener.isCancelled()) {
+                            break zoomLoop;
+                        }
+                        inFlight.acquire();
+                        Tile tile = new Tile(x, y, (byte) z);
+                        executor.execute(() -> {
+                            try {
+                                processTile(tile);
+                                if (listener != null)
+                                    listener.onProgress(getProgress());
+                            } finally {
+                                inFlight.release();
+                            }
+                        });
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        trimCache();
+        return getProgress();
+    }
+
+    private SeedProgress getProgress() {
+        return new SeedProgress(total, downloaded.get(), skipped.get(), failed.get(), evicted.get(), bytes.get(),
+                System.currentTimeMillis() - startTime);
+    }
+
+    private void processTile(Tile tile) {
+        try {
+            if (isCached(tile)) {
+                skipped.incrementAndGet();
+                return;
+            }
+            byte[] data = download(tileSource.getTileUrl(tile));
+            if (data == null) {
+                failed.incrementAndGet();
+                return;
+            }
+            ITileCache.TileWriter writer = tileCache.cacheTile(tile);
+            writer.getOutputStream().write(data);
+            writer.complete(true);
+            downloaded.incrementAndGet();
+            bytes.addAndGet(data.length);
+            if (writtenSinceTrim.incrementAndGet() >= TRIM_INTERVAL) {
+                writtenSinceTrim.set(0);
+                trimCache();
+            }
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            GPLog.error(this, "Could not seed tile " + tile, e);
+        }
+    }
+
+    private boolean isCached(Tile tile) throws IOException {
+        ITileCache.TileReader reader = tileCache.getTile(tile);
+        if (reader == null) {
+            return false;
+        }
+        InputStream inputStream = reader.getInputStream();
+        if (inputStream != null) {
+            inputStream.close();
+        }
+        return true;
+    }
+
+    private synchronized void trimCache() {
+        if (cacheTrimmer == null) {
+            return;
+        }
+        try {
+            evicted.addAndGet(cacheTrimmer.trim());
+        } catch (Exception e) {
+            GPLog.error(this, "Could not trim the tile cache", e);
+        }
+    }
+
+    /**
+     * Download a tile, retrying on errors.
+     *
+     * @param tileUrl the url of the tile.
+     * @return the tile data or <code>null</code> if the tile could not be downloaded.
+     * @throws InterruptedException if interrupted while waiting to retry.
+     */
+    private byte[] download(String tileUrl) throws InterruptedException {
+        for (int attempt = 0; attempt <= retries; attempt++) {
+            if (attempt > 0) {
+                Thread.sleep(RETRY_WAIT * attempt);
+            }
+            HttpURLConnection connection = null;
+            try {
+                connection = (HttpURLConnection) new URL(tileUrl).openConnection();
+                connection.setConnectTimeout(CONNECT_TIMEOUT);
+                connection.setReadTimeout(READ_TIMEOUT);
+                connection.setRequestProperty("User-Agent", "geopaparazzi");
+                for (Map.Entry<String, String> header : tileSource.getRequestHeader().entrySet()) {
+                    connection.setRequestProperty(header.getKey(), header.getValue());
+                }
+                int responseCode = connection.getResponseCode();
+                if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+                    // the service has no tile there, retrying will not help
+                    return null;
+                }
+                if (responseCode != HttpURLConnection.HTTP_OK) {
+                    continue;
+                }
+                try (InputStream inputStream = connection.getInputStream()) {
+                    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                    copy(inputStream, outputStream);
+                    return outputStream.toByteArray();
+                }
+            } catch (FileNotFoundException e) {
+                return null;
+            } catch (IOException e) {
+                if (attempt == retries) {
+                    GPLog.error(this, "Could not download tile: " + tileUrl, e);
+                }
+            } finally {
+                if (connection != null) {
+                    connection.disconnect();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+        }
+    }
+}
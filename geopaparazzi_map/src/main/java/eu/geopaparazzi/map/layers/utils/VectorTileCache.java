@@ -0,0 +1,342 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.map.layers.utils;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.oscim.core.Tile;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import eu.geopaparazzi.library.database.GPLog;
+
+/**
+ * Persistent cache of the tiles of an online vector tile service.
+ * <p/>
+ * <p>Together with the tile data it keeps the ETag, the last modification and the expiry time
+ * given by the server, so that stale tiles can be revalidated instead of downloaded again. The cache stays inside
+ * a size budget, removing the least recently used tiles.</p>
+ * <p/>
+ * <p>It also counts hits, misses and bytes, to check how much of the map is drawn from disk.</p>
+ * <p/>
+ * <p>Once closed, the cache gives no tiles and ignores writes, since the tile loaders of the
+ * layer can still be running.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class VectorTileCache {
+    private static final String TABLE_TILES = "tiles";
+    private static final String COLUMN_Z = "z";
+    private static final String COLUMN_X = "x";
+    private static final String COLUMN_Y = "y";
+    private static final String COLUMN_DATA = "data";
+    private static final String COLUMN_ETAG = "etag";
+    private static final String COLUMN_LAST_MODIFIED = "last_modified";
+    private static final String COLUMN_EXPIRES = "expires";
+    private static final String COLUMN_ACCESS = "last_access";
+    /**
+     * The version of the tables layout, caches of other versions are emptied.
+     */
+    private static final int DB_VERSION = 1;
+
+    /**
+     * Number of written tiles after which the cache is trimmed to its budget.
+     */
+    private static final int TRIM_INTERVAL = 100;
+    /**
+     * The last access is written only if older than this, to not write at every read.
+     */
+    private static final long ACCESS_UPDATE_INTERVAL = 60 * 60 * 1000;
+
+    /**
+     * A tile read from the cache.
+     */
+    public static class CachedTile {
+        public final byte[] data;
+        public final String etag;
+        public final String lastModified;
+        public final long expires;
+        final long lastAccess;
+
+        CachedTile(byte[] data, String etag, String lastModified, long expires, long lastAccess) {
+            this.data = data;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expires = expires;
+            this.lastAccess = lastAccess;
+        }
+
+        /**
+         * @param now the current time.
+         * @return <code>true</code> if the tile can be used without asking the server.
+         */
+        public boolean isFresh(long now) {
+            return expires > now;
+        }
+    }
+
+    private final String dbName;
+    private final SQLiteDatabase database;
+    private final TileCacheTrimmer cacheTrimmer;
+    private final AtomicInteger writtenSinceTrim = new AtomicInteger();
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private boolean isClosed = false;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong revalidated = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesFromCache = new AtomicLong();
+    private final AtomicLong bytesDownloaded = new AtomicLong();
+
+    /**
+     * Open or create the cache of a service.
+     *
+     * @param context the context.
+     * @param url     the url of the service, which identifies the cache.
+     * @param budget  the size budget in bytes.
+     */
+    public VectorTileCache(Context context, String url, long budget) {
+        dbName = getDbName(url);
+        File dbFile = context.getDatabasePath(dbName);
+        File parentFile = dbFile.getParentFile();
+        if (parentFile != null && !parentFile.exists()) {
+            parentFile.mkdirs();
+        }
+        database = SQLiteDatabase.openOrCreateDatabase(dbFile, null);
+        database.enableWriteAheadLogging();
+        if (database.getVersion() != DB_VERSION) {
+            // only a cache, the tiles of an older layout are downloaded again
+            database.execSQL("DROP TABLE IF EXISTS " + TABLE_TILES);
+            database.setVersion(DB_VERSION);
+        }
+        database.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_TILES + " (" +
+                COLUMN_Z + " INTEGER NOT NULL, " +
+                COLUMN_X + " INTEGER NOT NULL, " +
+                COLUMN_Y + " INTEGER NOT NULL, " +
+                COLUMN_DATA + " BLOB NOT NULL, " +
+                COLUMN_ETAG + " TEXT, " +
+                COLUMN_LAST_MODIFIED + " TEXT, " +
+                COLUMN_EXPIRES + " INTEGER NOT NULL, " +
+                COLUMN_ACCESS + " INTEGER NOT NULL, " +
+                "PRIMARY KEY (" + COLUMN_Z + ", " + COLUMN_X + ", " + COLUMN_Y + "))");
+        database.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_TILES + "_" + COLUMN_ACCESS + "_idx ON " +
+                TABLE_TILES + " (" + COLUMN_ACCESS + ")");
+        cacheTrimmer = new TileCacheTrimmer(context, dbName, budget);
+    }
+
+    /**
+     * Get the name of the cache database of a service.
+     *
+     * @param url the url of the service.
+     * @return the database name.
+     */
+    public static String getDbName(String url) {
+        return "vectortiles-" + url.replaceFirst("https?://", "").replaceAll("[/:?&=]", "-");
+    }
+
+    /**
+     * Get a tile.
+     *
+     * @param tile the tile.
+     * @return the cached tile or <code>null</code>, if not available or the cache is closed.
+     */
+    public CachedTile get(Tile tile) {
+        String[] args = getKeyArgs(tile);
+        CachedTile cachedTile = null;
+        closeLock.readLock().lock();
+        try {
+            if (isClosed) {
+                return null;
+            }
+            try (Cursor cursor = database.query(TABLE_TILES,
+                    new String[]{COLUMN_DATA, COLUMN_ETAG, COLUMN_LAST_MODIFIED, COLUMN_EXPIRES, COLUMN_ACCESS},
+                    COLUMN_Z + "=? AND " + COLUMN_X + "=? AND " + COLUMN_Y + "=?", args, null, null, null)) {
+                if (cursor.moveToFirst()) {
+                    cachedTile = new CachedTile(cursor.getBlob(0), cursor.getString(1), cursor.getString(2),
+                            cursor.getLong(3), cursor.getLong(4));
+                }
+            }
+            if (cachedTile != null) {
+                long now = System.currentTimeMillis();
+                if (now - cachedTile.lastAccess > ACCESS_UPDATE_INTERVAL) {
+                    ContentValues values = new ContentValues();
+                    values.put(COLUMN_ACCESS, now);
+                    database.update(TABLE_TILES, values, COLUMN_Z + "=? AND " + COLUMN_X + "=? AND " + COLUMN_Y + "=?", args);
+                }
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        return cachedTile;
+    }
+
+    /**
+     * Insert or replace a downloaded tile.
+     *
+     * @param tile    the tile.
+     * @param data    the tile data.
+     * @param etag         the optional ETag given by the server.
+     * @param lastModified the optional Last-Modified given by the server.
+     * @param expires      the time until which the tile is fresh.
+     */
+    public void put(Tile tile, byte[] data, String etag, String lastModified, long expires) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_Z, tile.zoomLevel);
+        values.put(COLUMN_X, tile.tileX);
+        values.put(COLUMN_Y, tile.tileY);
+        values.put(COLUMN_DATA, data);
+        values.put(COLUMN_ETAG, etag);
+        values.put(COLUMN_LAST_MODIFIED, lastModified);
+        values.put(COLUMN_EXPIRES, expires);
+        values.put(COLUMN_ACCESS, System.currentTimeMillis());
+        closeLock.readLock().lock();
+        try {
+            if (isClosed) {
+                return;
+            }
+            database.insertWithOnConflict(TABLE_TILES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+
+        if (writtenSinceTrim.incrementAndGet() >= TRIM_INTERVAL) {
+            writtenSinceTrim.set(0);
+            cacheTrimmer.trimAsync();
+        }
+    }
+
+    /**
+     * Set a new expiry time for a tile the server confirmed as not modified.
+     *
+     * @param tile    the tile.
+     * @param etag         the optional new ETag.
+     * @param lastModified the optional new Last-Modified.
+     * @param expires      the time until which the tile is fresh.
+     */
+    public void refresh(Tile tile, String etag, String lastModified, long expires) {
+        ContentValues values = new ContentValues();
+        if (etag != null)
+            values.put(COLUMN_ETAG, etag);
+        if (lastModified != null)
+            values.put(COLUMN_LAST_MODIFIED, lastModified);
+        values.put(COLUMN_EXPIRES, expires);
+        values.put(COLUMN_ACCESS, System.currentTimeMillis());
+        closeLock.readLock().lock();
+        try {
+            if (isClosed) {
+                return;
+            }
+            database.update(TABLE_TILES, values, COLUMN_Z + "=? AND " + COLUMN_X + "=? AND " + COLUMN_Y + "=?", getKeyArgs(tile));
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    private static String[] getKeyArgs(Tile tile) {
+        return new String[]{String.valueOf(tile.zoomLevel), String.valueOf(tile.tileX), String.valueOf(tile.tileY)};
+    }
+
+    /**
+     * Trim the cache to its budget in background.
+     */
+    public void trimAsync() {
+        cacheTrimmer.trimAsync();
+    }
+
+    void countHit(int bytes) {
+        hits.incrementAndGet();
+        bytesFromCache.addAndGet(bytes);
+    }
+
+    void countRevalidated(int bytes) {
+        revalidated.incrementAndGet();
+        bytesFromCache.addAndGet(bytes);
+    }
+
+    void countMiss(int bytes) {
+        misses.incrementAndGet();
+        bytesDownloaded.addAndGet(bytes);
+    }
+
+    /**
+     * @return the tiles read from the cache without asking the server.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the stale tiles read from the cache after the server confirmed them.
+     */
+    public long getRevalidated() {
+        return revalidated.get();
+    }
+
+    /**
+     * @return the tiles downloaded from the server.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the bytes read from the cache.
+     */
+    public long getBytesFromCache() {
+        return bytesFromCache.get();
+    }
+
+    /**
+     * @return the bytes downloaded from the server.
+     */
+    public long getBytesDownloaded() {
+        return bytesDownloaded.get();
+    }
+
+    @Override
+    public String toString() {
+        return dbName + ": hits=" + hits + ", revalidated=" + revalidated + ", misses=" + misses +
+                ", bytesFromCache=" + bytesFromCache + ", bytesDownloaded=" + bytesDownloaded;
+    }
+
+    /**
+     * Close the cache, after the reads and writes in progress.
+     */
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+            database.close();
+        } catch (Exception e) {
+            GPLog.error(this, null, e);
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.map.layers.utils;
+
+import org.oscim.layers.tile.MapTile;
+import org.oscim.tiling.ITileDataSink;
+import org.oscim.tiling.ITileDataSource;
+import org.oscim.tiling.QueryResult;
+import org.oscim.tiling.source.ITileDecoder;
+import org.oscim.tiling.source.UrlTileSource;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import eu.geopaparazzi.library.database.GPLog;
+
+/**
+ * Tile data source of an online vector tile service that reads through a {@link VectorTileCache}.
+ * <p/>
+ * <p>Fresh tiles are drawn from the cache. Stale tiles are revalidated with their ETag and
+ * last modification and downloaded only if changed. If the server can't be reached, stale
+ * tiles are used anyway.</p>
+ * <p/>
+ * <p>The tiles are downloaded with OkHttp, as by the http engine of the source, and with the
+ * request headers of the source.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class VectorTileCacheDataSource implements ITileDataSource {
+    /**
+     * Freshness of tiles for which the server gives no max-age or expiry.
+     */
+    private static final long DEFAULT_MAX_AGE = 24 * 60 * 60 * 1000;
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 30000;
+    private static final Pattern MAX_AGE_PATTERN = Pattern.compile("max-age=(\\d+)");
+    /**
+     * Shared by the data sources of all the loaders, so that they share the connections pool.
+     */
+    private static final OkHttpClient HTTP_CLIENT = new OkHttpClient.Builder()
+            .connectTimeout(CONNECT_TIMEOUT, TimeUnit.MILLISECONDS)
+            .readTimeout(READ_TIMEOUT, TimeUnit.MILLISECONDS)
+            .build();
+
+    private final UrlTileSource tileSource;
+    private final ITileDecoder tileDecoder;
+    private final VectorTileCache tileCache;
+
+    /**
+     * Constructor.
+     *
+     * @param tileSource  the source giving the url of the tiles.
+     * @param tileDecoder the decoder of the tile data.
+     * @param tileCache   the cache.
+     */
+    public VectorTileCacheDataSource(UrlTileSource tileSource, ITileDecoder tileDecoder, VectorTileCache tileCache) {
+        this.tileSource = tileSource;
+        this.tileDecoder = tileDecoder;
+        this.tileCache = tileCache;
+    }
+
+    @Override
+    public void query(MapTile tile, ITileDataSink sink) {
+        QueryResult result = QueryResult.FAILED;
+        try {
+            byte[] data = getTileData(tile);
+            if (data == null) {
+                result = QueryResult.TILE_NOT_FOUND;
+            } else if (tileDecoder.decode(tile, sink, new ByteArrayInputStream(data))) {
+                result = QueryResult.SUCCESS;
+            }
+        } catch (Exception e) {
+            GPLog.error(this, "Could not load tile " + tile, e);
+        } finally {
+            sink.completed(result);
+        }
+    }
+
+    private byte[] getTileData(MapTile tile) throws IOException {
+        long now = System.currentTimeMillis();
+        VectorTileCache.CachedTile cachedTile = tileCache.get(tile);
+        if (cachedTile != null && cachedTile.isFresh(now)) {
+            tileCache.countHit(cachedTile.data.length);
+            return cachedTile.data;
+        }
+
+        Request.Builder requestBuilder = new Request.Builder()
+                .url(tileSource.getTileUrl(tile))
+                .header("User-Agent", "geopaparazzi");
+        // the headers of the source, as its http engine would send them
+        for (Map.Entry<String, String> header : tileSource.getRequestHeader().entrySet()) {
+            requestBuilder.header(header.getKey(), header.getValue());
+        }
+        if (cachedTile != null) {
+            if (cachedTile.etag != null)
+                requestBuilder.header("If-None-Match", cachedTile.etag);
+            if (cachedTile.lastModified != null)
+                requestBuilder.header("If-Modified-Since", cachedTile.lastModified);
+        }
+        try (Response response = HTTP_CLIENT.newCall(requestBuilder.build()).execute()) {
+            int responseCode = response.code();
+            if (cachedTile != null && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                tileCache.refresh(tile, response.header("ETag"), response.header("Last-Modified"), getExpires(response, now));
+                tileCache.countRevalidated(cachedTile.data.length);
+                return cachedTile.data;
+            }
+            if (responseCode == HttpURLConnection.HTTP_NOT_FOUND || responseCode == HttpURLConnection.HTTP_NO_CONTENT) {
+                return null;
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Server answered " + responseCode + " for tile " + tile);
+            }
+            ResponseBody body = response.body();
+            if (body == null) {
+                throw new IOException("No data for tile " + tile);
+            }
+            byte[] data = body.bytes();
+            tileCache.put(tile, data, response.header("ETag"), response.header("Last-Modified"), getExpires(response, now));
+            tileCache.countMiss(data.length);
+            return data;
+        } catch (IOException e) {
+            if (cachedTile != null) {
+                // offline, better an old tile than none
+                tileCache.countHit(cachedTile.data.length);
+                return cachedTile.data;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Get the expiry time of a response from its Cache-Control or Expires headers.
+     */
+    private static long getExpires(Response response, long now) {
+        String cacheControl = response.header("Cache-Control");
+        if (cacheControl != null) {
+            if (cacheControl.contains("no-cache") || cacheControl.contains("no-store")) {
+                // kept for offline use, but always revalidated
+                return now;
+            }
+            Matcher matcher = MAX_AGE_PATTERN.matcher(cacheControl);
+            if (matcher.find()) {
+                return now + Long.parseLong(matcher.group(1)) * 1000;
+            }
+        }
+        Date expiration = response.headers().getDate("Expires");
+        if (expiration != null) {
+            return expiration.getTime();
+        }
+        return now + DEFAULT_MAX_AGE;
+    }
+
+    @Override
+    public void dispose() {
+        // the cache is owned by the layer
+    }
+
+    @Override
+    public void cancel() {
+    }
+}
@@ -0,0 +1,483 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.map.layers.utils;
+
+import android.util.LongSparseArray;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.index.quadtree.Quadtree;
+import org.oscim.layers.vector.VectorLayer;
+import org.oscim.layers.vector.geometries.Drawable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.map.GPBBox;
+import eu.geopaparazzi.map.GPMapView;
+
+/**
+ * Loads the records of a database table layer for the area shown on the map.
+ * <p/>
+ * <p>Small tables are loaded entirely once. Bigger tables are read by cells of a WGS84 grid
+ * through the spatial index, as the map moves, and only from zoom {@link #MIN_LOAD_ZOOM} on.
+ * The grid gets finer with the zoom, the last {@link #MAX_CELLS} cells used are kept and the
+ * older ones are evicted together with the drawables that are in no other loaded cell.</p>
+ * <p/>
+ * <p>Only what is needed to draw is loaded, see {@link DrawableRecord}.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class ViewportCellsLoader {
+    /**
+     * Tables with up to this number of records are loaded entirely.
+     */
+    public static final long FULL_LOAD_MAX_RECORDS = 20000;
+    /**
+     * The min zoom level at which cells of bigger tables are loaded.
+     */
+    public static final int MIN_LOAD_ZOOM = 12;
+    /**
+     * The max number of records read for a cell, the ones beyond are not shown and logged.
+     */
+    public static final int MAX_RECORDS_PER_CELL = 20000;
+    private static final int MAX_CELL_LEVEL = 16;
+    private static final int MAX_CELLS = 36;
+    private static final long ALL_CELL = -1;
+
+    /**
+     * The provider of the table records and of their drawables.
+     */
+    public interface IRecordsProvider {
+        /**
+         * Read records from the database.
+         *
+         * @param env   the WGS84 envelope to read the records of or <code>null</code> for all.
+         * @param limit the max number of records or -1.
+         * @return the records.
+         * @throws Exception
+         */
+        List<DrawableRecord> readRecords(Envelope env, int limit) throws Exception;
+
+        /**
+         * Create the drawables of a record.
+         *
+         * @param record the record.
+         * @return the drawables.
+         */
+        List<Drawable> createDrawables(DrawableRecord record);
+    }
+
+    private static class LoadedRecord {
+        final DrawableRecord record;
+        final List<Drawable> drawables;
+        final Envelope envelope;
+        int cellsCount = 0;
+
+        LoadedRecord(DrawableRecord record, List<Drawable> drawables) {
+            this.record = record;
+            this.drawables = drawables;
+            envelope = record.geometry.getEnvelopeInternal();
+        }
+    }
+
+    private final GPMapView mapView;
+    private final VectorLayer layer;
+    private final IRecordsProvider recordsProvider;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean isLoadPending = new AtomicBoolean(false);
+
+    private final LongSparseArray<LoadedRecord> loadedRecords = new LongSparseArray<>();
+    /**
+     * The ids of the records of the loaded cells, in least recently used order.
+     */
+    private final LinkedHashMap<Long, long[]> loadedCells = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * The ids of the records put outside of the loaded cells, evicted with the next cells.
+     */
+    private final List<Long> unownedRecords = new ArrayList<>();
+    private Quadtree recordsTree = new Quadtree();
+    /**
+     * Incremented at every reset, loads started before are discarded.
+     */
+    private int generation = 0;
+    private volatile boolean loadAll = true;
+    private volatile boolean isStarted = false;
+    private volatile boolean isDisposed = false;
+
+    private final GPMapView.GPMapUpdateListener mapUpdateListener = mapPosition -> {
+        if (isStarted && !isDisposed && !isViewportLoaded()) {
+            submitLoad();
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param mapView         the map view.
+     * @param layer           the layer the drawables are added to.
+     * @param recordsProvider the provider of the records.
+     */
+    public ViewportCellsLoader(GPMapView mapView, VectorLayer layer, IRecordsProvider recordsProvider) {
+        this.mapView = mapView;
+        this.layer = layer;
+        this.recordsProvider = recordsProvider;
+        mapView.addMapUpdateListener(mapUpdateListener);
+    }
+
+    /**
+     * Forget what has been loaded and load the current viewport in background.
+     * <p/>
+     * <p>The drawables of the loaded records are removed from the layer, while no cell is
+     * being added, so that none of them is left in the layer.</p>
+     *
+     * @param recordsCount the number of records of the table.
+     */
+    public void reset(long recordsCount) {
+        synchronized (this) {
+            for (int i = 0; i < loadedRecords.size(); i++) {
+                for (Drawable drawable : loadedRecords.valueAt(i).drawables) {
+                    layer.remove(drawable);
+                }
+            }
+            loadedRecords.clear();
+            loadedCells.clear();
+            unownedRecords.clear();
+            recordsTree = new Quadtree();
+            loadAll = recordsCount <= FULL_LOAD_MAX_RECORDS;
+            generation++;
+        }
+        layer.update();
+        isStarted = true;
+        submitLoad();
+    }
+
+    private void submitLoad() {
+        if (isLoadPending.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                // map changes during the load trigger a new one
+                isLoadPending.set(false);
+                try {
+                    loadViewport();
+                } catch (Exception e) {
+                    GPLog.error(this, null, e);
+                }
+            });
+        }
+    }
+
+    private synchronized boolean isViewportLoaded() {
+        for (long cell : getViewportCells()) {
+            if (!loadedCells.containsKey(cell)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void loadViewport() throws Exception {
+        int loadGeneration;
+        synchronized (this) {
+            loadGeneration = generation;
+        }
+        long[] cells = getViewportCells();
+        boolean changed = false;
+        for (long cell : cells) {
+            if (isDisposed) {
+                return;
+            }
+            synchronized (this) {
+                if (generation != loadGeneration) {
+                    // reset meanwhile, the load submitted by the reset reads the new data
+                    return;
+                }
+                if (loadedCells.get(cell) != null) {
+                    continue;
+                }
+            }
+            List<DrawableRecord> records;
+            if (cell == ALL_CELL) {
+                records = recordsProvider.readRecords(null, -1);
+            } else {
+                records = recordsProvider.readRecords(getCellEnvelope(cell), MAX_RECORDS_PER_CELL);
+                if (records.size() >= MAX_RECORDS_PER_CELL) {
+                    GPLog.addLogEntry(this, "Cell " + getCellEnvelope(cell) + " truncated to " + MAX_RECORDS_PER_CELL + " records.");
+                }
+            }
+            if (!addCell(cell, records, loadGeneration)) {
+                return;
+            }
+            changed = true;
+        }
+        if (changed) {
+            evictCells(cells);
+            layer.update();
+        }
+    }
+
+    /**
+     * Add the records read for a cell, unless the loader has been reset while they were read.
+     *
+     * @return <code>false</code> if the records are from before a reset and have been discarded.
+     */
+    private synchronized boolean addCell(long cell, List<DrawableRecord> records, int loadGeneration) {
+        if (generation != loadGeneration) {
+            return false;
+        }
+        long[] ids = new long[records.size()];
+        for (int i = 0; i < ids.length; i++) {
+            DrawableRecord record = records.get(i);
+            ids[i] = record.id;
+            LoadedRecord loadedRecord = loadedRecords.get(record.id);
+            if (loadedRecord == null) {
+                loadedRecord = addRecordDrawables(record);
+            }
+            loadedRecord.cellsCount++;
+        }
+        loadedCells.put(cell, ids);
+        return true;
+    }
+
+    private synchronized void evictCells(long[] cellsToKeep) {
+        Iterator<Map.Entry<Long, long[]>> iterator = loadedCells.entrySet().iterator();
+        int toEvict = loadedCells.size() - MAX_CELLS;
+        while (toEvict > 0 && iterator.hasNext()) {
+            Map.Entry<Long, long[]> entry = iterator.next();
+            if (contains(cellsToKeep, entry.getKey())) {
+                continue;
+            }
+            for (long id : entry.getValue()) {
+                LoadedRecord loadedRecord = loadedRecords.get(id);
+                if (loadedRecord != null && --loadedRecord.cellsCount <= 0) {
+                    removeRecordDrawables(loadedRecord);
+                }
+            }
+            iterator.remove();
+            toEvict--;
+        }
+        // records put outside of the loaded cells are read from the db again with their cells,
+        // unless they are in the kept ones, which could have been read before they were put
+        Iterator<Long> unownedIterator = unownedRecords.iterator();
+        while (unownedIterator.hasNext()) {
+            LoadedRecord loadedRecord = loadedRecords.get(unownedIterator.next());
+            if (loadedRecord == null || loadedRecord.cellsCount > 0) {
+                unownedIterator.remove();
+            } else if (!intersects(cellsToKeep, loadedRecord.envelope)) {
+                removeRecordDrawables(loadedRecord);
+                unownedIterator.remove();
+            }
+        }
+    }
+
+    private LoadedRecord addRecordDrawables(DrawableRecord record) {
+        LoadedRecord loadedRecord = new LoadedRecord(record, recordsProvider.createDrawables(record));
+        for (Drawable drawable : loadedRecord.drawables) {
+            layer.add(drawable);
+        }
+        loadedRecords.put(record.id, loadedRecord);
+        recordsTree.insert(loadedRecord.envelope, loadedRecord);
+        return loadedRecord;
+    }
+
+    private void removeRecordDrawables(LoadedRecord loadedRecord) {
+        for (Drawable drawable : loadedRecord.drawables) {
+            layer.remove(drawable);
+        }
+        loadedRecords.remove(loadedRecord.record.id);
+        recordsTree.remove(loadedRecord.envelope, loadedRecord);
+    }
+
+    /**
+     * Add or replace a record, for example after editing.
+     * <p/>
+     * <p>The caller has to update the layer.</p>
+     *
+     * @param record the new record.
+     */
+    public synchronized void putRecord(DrawableRecord record) {
+        int cellsCount = 0;
+        LoadedRecord oldRecord = loadedRecords.get(record.id);
+        if (oldRecord != null) {
+            cellsCount = oldRecord.cellsCount;
+            removeRecordDrawables(oldRecord);
+        } else {
+            // make it part of the loaded cells it falls in, to be evicted with them
+            Envelope envelope = record.geometry.getEnvelopeInternal();
+            for (Map.Entry<Long, long[]> entry : loadedCells.entrySet()) {
+                long cell = entry.getKey();
+                if (cell == ALL_CELL || getCellEnvelope(cell).intersects(envelope)) {
+                    long[] ids = entry.getValue();
+                    long[] newIds = new long[ids.length + 1];
+                    System.arraycopy(ids, 0, newIds, 0, ids.length);
+                    newIds[ids.length] = record.id;
+                    entry.setValue(newIds);
+                    cellsCount++;
+                }
+            }
+        }
+        LoadedRecord loadedRecord = addRecordDrawables(record);
+        loadedRecord.cellsCount = cellsCount;
+        if (cellsCount <= 0) {
+            unownedRecords.add(record.id);
+        }
+    }
+
+    /**
+     * Add or replace a record after its geometry has been written to the database.
+     * <p/>
+     * <p>Label and theme are read back from the database, or kept from the replaced record if
+     * that is not possible. The caller has to update the layer.</p>
+     *
+     * @param id       the id of the record.
+     * @param geometry the new geometry in WGS84.
+     * @throws Exception if something goes wrong.
+     */
+    public void putRecord(long id, Geometry geometry) throws Exception {
+        DrawableRecord newRecord = null;
+        for (DrawableRecord record : recordsProvider.readRecords(geometry.getEnvelopeInternal(), -1)) {
+            if (record.id == id) {
+                newRecord = new DrawableRecord(id, geometry, record.label, record.theme);
+                break;
+            }
+        }
+        synchronized (this) {
+            if (newRecord == null) {
+                LoadedRecord oldRecord = loadedRecords.get(id);
+                if (oldRecord != null) {
+                    newRecord = new DrawableRecord(id, geometry, oldRecord.record.label, oldRecord.record.theme);
+                } else {
+                    newRecord = new DrawableRecord(id, geometry, null, null);
+                }
+            }
+            putRecord(newRecord);
+        }
+    }
+
+    /**
+     * Remove a record, for example after deleting it.
+     * <p/>
+     * <p>The caller has to update the layer.</p>
+     *
+     * @param id the id of the record.
+     */
+    public synchronized void removeRecord(long id) {
+        LoadedRecord loadedRecord = loadedRecords.get(id);
+        if (loadedRecord != null) {
+            removeRecordDrawables(loadedRecord);
+        }
+    }
+
+    /**
+     * Get the loaded records that intersect an envelope.
+     *
+     * @param env the WGS84 envelope.
+     * @return the records.
+     */
+    public synchronized List<DrawableRecord> getRecords(Envelope env) {
+        List<DrawableRecord> records = new ArrayList<>();
+        for (Object item : recordsTree.query(env)) {
+            LoadedRecord loadedRecord = (LoadedRecord) item;
+            if (loadedRecord.envelope.intersects(env)) {
+                records.add(loadedRecord.record);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Stop listening to the map and loading.
+     */
+    public void dispose() {
+        isDisposed = true;
+        mapView.removeMapUpdateListener(mapUpdateListener);
+        executor.shutdown();
+    }
+
+    /**
+     * @return the cells covering the current viewport, none if the zoom is too low to load cells.
+     */
+    private long[] getViewportCells() {
+        if (loadAll) {
+            return new long[]{ALL_CELL};
+        }
+        int zoom = mapView.getMapPosition().getZoomLevel();
+        if (zoom < MIN_LOAD_ZOOM) {
+            return new long[0];
+        }
+        int level = Math.min(zoom - 2, MAX_CELL_LEVEL);
+        int cols = 1 << level;
+        int rows = cols / 2;
+        double cellSize = 360.0 / cols;
+        GPBBox bbox = mapView.getBoundingBox();
+        int minCol = clamp((int) Math.floor((bbox.getMinLongitude() + 180.0) / cellSize), cols);
+        int maxCol = clamp((int) Math.floor((bbox.getMaxLongitude() + 180.0) / cellSize), cols);
+        int minRow = clamp((int) Math.floor((bbox.getMinLatitude() + 90.0) / cellSize), rows);
+        int maxRow = clamp((int) Math.floor((bbox.getMaxLatitude() + 90.0) / cellSize), rows);
+        int count = (maxCol - minCol + 1) * (maxRow - minRow + 1);
+        if (count > MAX_CELLS) {
+            return new long[0];
+        }
+        long[] cells = new long[count];
+        int index = 0;
+        for (int col = minCol; col <= maxCol; col++) {
+            for (int row = minRow; row <= maxRow; row++) {
+                cells[index++] = ((long) level << 58) | ((long) col << 29) | row;
+            }
+        }
+        return cells;
+    }
+
+    private static Envelope getCellEnvelope(long cell) {
+        int level = (int) (cell >>> 58);
+        int col = (int) ((cell >>> 29) & 0x1FFFFFFF);
+        int row = (int) (cell & 0x1FFFFFFF);
+        double cellSize = 360.0 / (1 << level);
+        double west = -180.0 + col * cellSize;
+        double south = -90.0 + row * cellSize;
+        return new Envelope(west, west + cellSize, south, south + cellSize);
+    }
+
+    private static boolean intersects(long[] cells, Envelope envelope) {
+        for (long cell : cells) {
+            if (cell == ALL_CELL || getCellEnvelope(cell).intersects(envelope)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int clamp(int value, int size) {
+        return Math.max(0, Math.min(size - 1, value));
+    }
+
+    private static boolean contains(long[] array, long value) {
+        for (long item : array) {
+            if (item == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -6,19 +6,29 @@ import android.database.sqlite.SQLiteDatabase;
 import androidx.annotation.NonNull;
 
 import org.hortonmachine.dbs.compat.objects.QueryResult;
-import org.hortonmachine.dbs.datatypes.EDataType;
 import org.locationtech.jts.geom.Coordinate;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.database.GpsLogChunkUtilities;
+import eu.geopaparazzi.library.database.GpsLogLodUtilities;
+import eu.geopaparazzi.library.database.GpsLogPoints;
 import eu.geopaparazzi.library.database.TableDescriptions;
 import eu.geopaparazzi.map.features.Feature;
+import eu.geopaparazzi.map.features.FeatureBatch;
 import eu.geopaparazzi.map.layers.utils.GpsLog;
 
 import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_GPSLOGS;
+import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_GPSLOG_BBOX;
 import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_GPSLOG_DATA;
+import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_GPSLOG_LOD;
 import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_GPSLOG_PROPERTIES;
 
 @SuppressWarnings("ALL")
@@ -34,6 +44,20 @@ public class MapUtilities {
         String asColumnsToReturn[] = {TableDescriptions.GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName(), TableDescriptions.GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName()};
         String strSortOrder = TableDescriptions.GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName() + " ASC";
         String strWhere = TableDescriptions.GpsLogsDataTableFields.COLUMN_LOGID.getFieldName() + "=" + logId;
+
+        if (GpsLogChunkUtilities.hasChunks(sqliteDatabase, logId)) {
+            GpsLogPoints points = GpsLogChunkUtilities.readLog(sqliteDatabase, logId);
+            int jump = 1;
+            if (pointsNum != -1 && points.count > pointsNum) {
+                jump = (int) Math.ceil((double) points.count / pointsNum);
+            }
+            List<Coordinate> line = new ArrayList<>();
+            for (int i = 0; i < points.count; i += jump) {
+                line.add(new Coordinate(points.lons[i], points.lats[i]));
+            }
+            return line;
+        }
+
         Cursor c = null;
         try {
             c = sqliteDatabase.query(TABLE_GPSLOG_DATA, asColumnsToReturn, strWhere, null, null, null, strSortOrder);
@@ -69,63 +93,309 @@ public class MapUtilities {
     }
 
 
+    /**
+     * Get the visible gps logs with their points at full resolution.
+     *
+     * @param sqliteDatabase the database to use.
+     * @return the list of visible logs that have at least 2 points.
+     * @see #getGpsLogs(SQLiteDatabase, int)
+     */
     @NonNull
     public static List<GpsLog> getGpsLogs(SQLiteDatabase sqliteDatabase) {
+        return getGpsLogs(sqliteDatabase, GpsLogLodUtilities.FULL_RESOLUTION);
+    }
+
+    /**
+     * Get all the visible gps logs with their points.
+     *
+     * @param sqliteDatabase the database to use.
+     * @param lodLevel       the level of detail or {@link GpsLogLodUtilities#FULL_RESOLUTION}.
+     * @return the list of visible logs that have at least 2 points.
+     * @see #getGpsLogs(SQLiteDatabase, int, Collection)
+     */
+    @NonNull
+    public static List<GpsLog> getGpsLogs(SQLiteDatabase sqliteDatabase, int lodLevel) {
+        return getGpsLogs(sqliteDatabase, lodLevel, null);
+    }
+
+    /**
+     * Get the visible gps logs with their points.
+     * <p/>
+     * <p>If a level of detail is requested, the pre-simplified geometries are used. Logs that
+     * have no levels of detail (yet) and the full resolution case are loaded by streaming
+     * the points in a single query ordered by log and timestamp into the primitive
+     * buffers of the logs ({@link GpsLog#lonLats}).</p>
+     *
+     * @param sqliteDatabase the database to use.
+     * @param lodLevel       the level of detail or {@link GpsLogLodUtilities#FULL_RESOLUTION}.
+     * @param logIds         the ids of the logs to load or <code>null</code> to load all visible logs.
+     * @return the list of visible logs that have at least 2 points.
+     */
+    @NonNull
+    public static List<GpsLog> getGpsLogs(SQLiteDatabase sqliteDatabase, int lodLevel, Collection<Long> logIds) {
+        if (logIds != null && logIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        long startMillis = System.currentTimeMillis();
+
+        String idField = TableDescriptions.GpsLogsTableFields.COLUMN_ID.getFieldName();
+        String propLogIdField = TableDescriptions.GpsLogsPropertiesTableFields.COLUMN_LOGID.getFieldName();
+        String visibleField = TableDescriptions.GpsLogsPropertiesTableFields.COLUMN_PROPERTIES_VISIBLE.getFieldName();
+        String dataLogIdField = TableDescriptions.GpsLogsDataTableFields.COLUMN_LOGID.getFieldName();
+        String visibleLogIdsQuery;
+        if (logIds == null) {
+            visibleLogIdsQuery = "select " + propLogIdField + " from " + TABLE_GPSLOG_PROPERTIES + " where " + visibleField + " = 1";
+        } else {
+            visibleLogIdsQuery = joinIds(logIds);
+        }
+
         StringBuilder sB = new StringBuilder();
         sB.append("select l.");
-        sB.append(TableDescriptions.GpsLogsTableFields.COLUMN_ID.getFieldName());
+        sB.append(idField);
         sB.append(" AS ");
-        sB.append(TableDescriptions.GpsLogsTableFields.COLUMN_ID.getFieldName());
+        sB.append(idField);
         sB.append(", p.");
         sB.append(TableDescriptions.GpsLogsPropertiesTableFields.COLUMN_PROPERTIES_COLOR.getFieldName());
         sB.append(", p.");
         sB.append(TableDescriptions.GpsLogsPropertiesTableFields.COLUMN_PROPERTIES_WIDTH.getFieldName());
-        sB.append(", p.");
-        sB.append(TableDescriptions.GpsLogsPropertiesTableFields.COLUMN_PROPERTIES_VISIBLE.getFieldName());
         sB.append(" from ");
         sB.append(TABLE_GPSLOGS);
         sB.append(" l, ");
         sB.append(TABLE_GPSLOG_PROPERTIES);
         sB.append(" p where l.");
-        sB.append(TableDescriptions.GpsLogsTableFields.COLUMN_ID.getFieldName());
+        sB.append(idField);
         sB.append(" = p.");
-        sB.append(TableDescriptions.GpsLogsPropertiesTableFields.COLUMN_LOGID.getFieldName());
+        sB.append(propLogIdField);
+        sB.append(" and p.");
+        sB.append(visibleField);
+        sB.append(" = 1");
+        if (logIds != null) {
+            sB.append(" and l.");
+            sB.append(idField);
+            sB.append(" in (");
+            sB.append(visibleLogIdsQuery);
+            sB.append(")");
+        }
         sB.append(" order by ");
-        sB.append(TableDescriptions.GpsLogsTableFields.COLUMN_ID.getFieldName());
+        sB.append(idField);
         String query = sB.toString();
 
-        List<GpsLog> logsList = new ArrayList<>();
+        LinkedHashMap<Long, GpsLog> logsMap = new LinkedHashMap<>();
         Cursor c = null;
         try {
             c = sqliteDatabase.rawQuery(query, null);
-            c.moveToFirst();
-            while (!c.isAfterLast()) {
-                try {
-                    int visible = c.getInt(3);
-                    if (visible == 1) {
-                        long logid = c.getLong(0);
-                        String color = c.getString(1);
-                        double width = c.getDouble(2);
-
-                        GpsLog log = new GpsLog();
-                        log.color = color;
-                        log.width = width;
-
-                        log.gpslogGeoPoints = MapUtilities.getGpslogGeoPoints(sqliteDatabase, logid, -1);
-                        if (log.gpslogGeoPoints.size() > 1) {
-                            logsList.add(log);
+            while (c.moveToNext()) {
+                GpsLog log = new GpsLog();
+                log.id = c.getLong(0);
+                log.color = c.getString(1);
+                log.width = c.getDouble(2);
+                logsMap.put(log.id, log);
+            }
+        } finally {
+            if (c != null)
+                c.close();
+        }
+        long logsMillis = System.currentTimeMillis();
+
+        // pre-simplified geometries
+        int lodLogsCount = 0;
+        if (lodLevel != GpsLogLodUtilities.FULL_RESOLUTION) {
+            String lodLogIdField = TableDescriptions.GpsLogsLodTableFields.COLUMN_LOGID.getFieldName();
+            query = "select " + lodLogIdField + ", " + TableDescriptions.GpsLogsLodTableFields.COLUMN_DATA.getFieldName() +
+                    " from " + TABLE_GPSLOG_LOD + " where " + TableDescriptions.GpsLogsLodTableFields.COLUMN_LEVEL.getFieldName() +
+                    " = " + lodLevel + " and " + lodLogIdField + " in (" + visibleLogIdsQuery + ")";
+            try {
+                c = sqliteDatabase.rawQuery(query, null);
+                while (c.moveToNext()) {
+                    GpsLog log = logsMap.get(c.getLong(0));
+                    if (log != null) {
+                        log.lonLats = GpsLogLodUtilities.fromBlob(c.getBlob(1));
+                        log.pointsCount = log.lonLats.length / 2;
+                        lodLogsCount++;
+                    }
+                }
+            } catch (Exception e) {
+                GPLog.error("MAPUTILITIES", "Error loading the gps logs levels of detail.", e);
+            } finally {
+                if (c != null)
+                    c.close();
+            }
+        }
+        long lodMillis = System.currentTimeMillis();
+
+        // stream the full resolution points of the logs still missing, once
+        String logIdsCondition = null;
+        if (lodLogsCount == 0) {
+            logIdsCondition = visibleLogIdsQuery;
+        } else if (lodLogsCount < logsMap.size()) {
+            List<Long> missingIds = new ArrayList<>();
+            for (GpsLog log : logsMap.values()) {
+                if (log.lonLats == null) {
+                    missingIds.add(log.id);
+                }
+            }
+            logIdsCondition = joinIds(missingIds);
+        }
+
+        StringBuilder timingsSb = GPLog.LOG_HEAVY ? new StringBuilder() : null;
+        long totalPoints = 0;
+        if (logIdsCondition != null) {
+            // packed points come before the rows of their log
+            final long[] packedPoints = {0};
+            try {
+                String chunksCondition = TableDescriptions.GpsLogsChunksTableFields.COLUMN_LOGID.getFieldName() + " in (" + logIdsCondition + ")";
+                GpsLogChunkUtilities.readChunks(sqliteDatabase, chunksCondition, (logId, lon, lat, elev, timestamp) -> {
+                    GpsLog log = logsMap.get(logId);
+                    if (log != null) {
+                        log.addLonLat(lon, lat);
+                        packedPoints[0]++;
+                    }
+                });
+            } catch (Exception e) {
+                GPLog.error("MAPUTILITIES", "Error loading the packed gps logs data.", e);
+            }
+            totalPoints += packedPoints[0];
+
+            sB = new StringBuilder();
+            sB.append("select ");
+            sB.append(dataLogIdField);
+            sB.append(", ");
+            sB.append(TableDescriptions.GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName());
+            sB.append(", ");
+            sB.append(TableDescriptions.GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName());
+            sB.append(" from ");
+            sB.append(TABLE_GPSLOG_DATA);
+            sB.append(" where ");
+            sB.append(dataLogIdField);
+            sB.append(" in (");
+            sB.append(logIdsCondition);
+            sB.append(") order by ");
+            sB.append(dataLogIdField);
+            sB.append(", ");
+            sB.append(TableDescriptions.GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName());
+            query = sB.toString();
+
+            try {
+                c = sqliteDatabase.rawQuery(query, null);
+                GpsLog currentLog = null;
+                long currentLogStartMillis = System.currentTimeMillis();
+                while (c.moveToNext()) {
+                    long logId = c.getLong(0);
+                    if (currentLog == null || currentLog.id != logId) {
+                        if (timingsSb != null && currentLog != null) {
+                            appendLogTiming(timingsSb, currentLog, currentLogStartMillis);
+                        }
+                        currentLog = logsMap.get(logId);
+                        currentLogStartMillis = System.currentTimeMillis();
+                        if (currentLog == null) {
+                            // the log has no properties, skip it
+                            continue;
                         }
                     }
-                } catch (Exception e) {
-                    e.printStackTrace();
+                    currentLog.addLonLat(c.getDouble(1), c.getDouble(2));
+                    totalPoints++;
                 }
-                c.moveToNext();
+                if (timingsSb != null && currentLog != null) {
+                    appendLogTiming(timingsSb, currentLog, currentLogStartMillis);
+                }
+            } catch (Exception e) {
+                GPLog.error("MAPUTILITIES", "Error loading the gps logs data.", e);
+            } finally {
+                if (c != null)
+                    c.close();
+            }
+        }
+
+        List<GpsLog> logsList = new ArrayList<>();
+        for (GpsLog log : logsMap.values()) {
+            if (log.pointsCount > 1) {
+                logsList.add(log);
             }
+        }
+
+        if (timingsSb != null) {
+            long endMillis = System.currentTimeMillis();
+            GPLog.addLogEntry("MAPUTILITIES", "Loaded " + logsList.size() + " gps logs (" + lodLogsCount + " at level of detail " +
+                    lodLevel + ") with " + totalPoints + " full resolution points in " + (endMillis - startMillis) +
+                    " ms (logs query: " + (logsMillis - startMillis) + " ms, levels of detail: " + (lodMillis - logsMillis) +
+                    " ms, points: " + (endMillis - lodMillis) + " ms)" + timingsSb.toString());
+        }
+        return logsList;
+    }
+
+    /**
+     * Get the ids of the visible gps logs that intersect an area.
+     * <p/>
+     * <p>The bounding boxes table is used, so no point is read. Logs that have
+     * no bounding box are always returned.</p>
+     *
+     * @param sqliteDatabase the database to use.
+     * @param n              the north bound.
+     * @param s              the south bound.
+     * @param e              the east bound.
+     * @param w              the west bound.
+     * @return the ids of the logs or <code>null</code>, if the bounding boxes could not be read.
+     */
+    public static Set<Long> getGpsLogIdsInBounds(SQLiteDatabase sqliteDatabase, double n, double s, double e, double w) {
+        String propLogIdField = TableDescriptions.GpsLogsPropertiesTableFields.COLUMN_LOGID.getFieldName();
+        String bboxLogIdField = TableDescriptions.GpsLogsBboxTableFields.COLUMN_LOGID.getFieldName();
+
+        StringBuilder sB = new StringBuilder();
+        sB.append("select p.");
+        sB.append(propLogIdField);
+        sB.append(" from ");
+        sB.append(TABLE_GPSLOG_PROPERTIES);
+        sB.append(" p left join ");
+        sB.append(TABLE_GPSLOG_BBOX);
+        sB.append(" b on p.");
+        sB.append(propLogIdField);
+        sB.append(" = b.");
+        sB.append(bboxLogIdField);
+        sB.append(" where p.");
+        sB.append(TableDescriptions.GpsLogsPropertiesTableFields.COLUMN_PROPERTIES_VISIBLE.getFieldName());
+        sB.append(" = 1 and (b.");
+        sB.append(bboxLogIdField);
+        sB.append(" is null or (b.");
+        sB.append(TableDescriptions.GpsLogsBboxTableFields.COLUMN_MAXX.getFieldName()).append(" >= ").append(w);
+        sB.append(" and b.");
+        sB.append(TableDescriptions.GpsLogsBboxTableFields.COLUMN_MINX.getFieldName()).append(" <= ").append(e);
+        sB.append(" and b.");
+        sB.append(TableDescriptions.GpsLogsBboxTableFields.COLUMN_MAXY.getFieldName()).append(" >= ").append(s);
+        sB.append(" and b.");
+        sB.append(TableDescriptions.GpsLogsBboxTableFields.COLUMN_MINY.getFieldName()).append(" <= ").append(n);
+        sB.append("))");
+        String query = sB.toString();
+
+        Set<Long> ids = new LinkedHashSet<>();
+        Cursor c = null;
+        try {
+            c = sqliteDatabase.rawQuery(query, null);
+            while (c.moveToNext()) {
+                ids.add(c.getLong(0));
+            }
+        } catch (Exception ex) {
+            GPLog.error("MAPUTILITIES", "Error reading the gps logs bounding boxes.", ex);
+            return null;
         } finally {
             if (c != null)
                 c.close();
         }
-        return logsList;
+        return ids;
+    }
+
+    private static String joinIds(Collection<Long> ids) {
+        StringBuilder sb = new StringBuilder();
+        for (Long id : ids) {
+            if (sb.length() > 0)
+                sb.append(",");
+            sb.append(id);
+        }
+        return sb.toString();
+    }
+
+    private static void appendLogTiming(StringBuilder sb, GpsLog log, long logStartMillis) {
+        sb.append("\n log ").append(log.id).append(": ").append(log.pointsCount).append(" points in ");
+        sb.append(System.currentTimeMillis() - logStartMillis).append(" ms");
     }
 
     public static GpsLog getLastGpsLog(SQLiteDatabase sqliteDatabase) {
@@ -190,22 +460,7 @@ public class MapUtilities {
      * @return the list of features.
      */
     public static List<Feature> fromQueryResult(String tableName, String dbPath, QueryResult queryResult) {
-        int pkIndex = queryResult.pkIndex;
-        int geomIndex = queryResult.geometryIndex;
-        List<Feature> featuresList = new ArrayList<>();
-        for (Object[] data : queryResult.data) {
-            Feature feature = new Feature(tableName, dbPath, pkIndex, geomIndex);
-            for (int i = 0; i < data.length; i++) {
-                String cName = queryResult.names.get(i);
-                Object dataObj = data[i];
-                String typeStr = queryResult.types.get(i);
-
-                EDataType type = EDataType.getType4Name(typeStr);
-                feature.addAttribute(cName, dataObj, type.name());
-            }
-            featuresList.add(feature);
-        }
-        return featuresList;
+        return FeatureBatch.fromQueryResult(tableName, dbPath, queryResult).getFeatures();
     }
 
 }
@@ -0,0 +1,106 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.map.layers.utils;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link GpsLogChunks}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class GpsLogChunksTest {
+    private static final int FIXES = 50000;
+    private final GeometryFactory gf = new GeometryFactory();
+
+    @Test
+    public void testUpdateCostIsFlatOn50kFixes() {
+        GpsLogChunks chunks = new GpsLogChunks();
+        int window = 1000;
+        long firstWindowWork = 0;
+        long lastWindowWork = 0;
+        int maxRebuilt = 0;
+        for (int i = 0; i < FIXES; i++) {
+            chunks.addPoint(11.0 + i * 1E-5, 46.0 + i * 1E-5);
+            // as the layer does, only the line of the last chunk is rebuilt
+            LineString line = chunks.getChunkLine(gf, chunks.getChunksCount() - 1);
+            int rebuilt = line == null ? 0 : line.getNumPoints();
+            maxRebuilt = Math.max(maxRebuilt, rebuilt);
+            if (i < window) {
+                firstWindowWork += rebuilt;
+            } else if (i >= FIXES - window) {
+                lastWindowWork += rebuilt;
+            }
+        }
+        assertEquals(FIXES, chunks.size());
+        assertTrue(maxRebuilt <= GpsLogChunks.DEFAULT_CHUNK_SIZE);
+        // the points touched per fix don't grow with the length of the log
+        double ratio = (double) lastWindowWork / firstWindowWork;
+        assertTrue("work ratio " + ratio, ratio > 0.8 && ratio < 1.25);
+    }
+
+    @Test
+    public void testChunksAreContinuous() {
+        GpsLogChunks chunks = new GpsLogChunks(4);
+        for (int i = 0; i < 10; i++) {
+            chunks.addPoint(i, -i);
+        }
+        // 0-3, 3-6, 6-9
+        assertEquals(3, chunks.getChunksCount());
+        int totalPoints = 0;
+        for (int c = 0; c < chunks.getChunksCount(); c++) {
+            LineString line = chunks.getChunkLine(gf, c);
+            totalPoints += line.getNumPoints();
+            if (c > 0) {
+                Coordinate previousEnd = chunks.getChunkLine(gf, c - 1).getEndPoint().getCoordinate();
+                assertTrue(previousEnd.equals2D(line.getStartPoint().getCoordinate()));
+            }
+        }
+        // every junction point is repeated once
+        assertEquals(10 + chunks.getChunksCount() - 1, totalPoints);
+        assertEquals(9.0, chunks.getChunkLine(gf, 2).getEndPoint().getX(), 0.0);
+        assertEquals(-9.0, chunks.getChunkLine(gf, 2).getEndPoint().getY(), 0.0);
+    }
+
+    @Test
+    public void testNewChunkAndClear() {
+        GpsLogChunks chunks = new GpsLogChunks(2);
+        assertTrue(chunks.addPoint(0, 0));
+        assertNull(chunks.getChunkLine(gf, 0));
+        assertFalse(chunks.addPoint(1, 1));
+        assertTrue(chunks.addPoint(2, 2));
+        assertEquals(2, chunks.getChunkLine(gf, 1).getNumPoints());
+
+        chunks.clear();
+        assertEquals(0, chunks.size());
+        assertEquals(0, chunks.getChunksCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testChunkSizeTooSmall() {
+        new GpsLogChunks(1);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.map.layers.utils;
+
+import org.hortonmachine.dbs.datatypes.EGeometryType;
+import org.junit.Test;
+import org.oscim.backend.canvas.Paint;
+import org.oscim.layers.vector.geometries.Style;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Objects;
+
+import eu.geopaparazzi.library.style.ColorUtilities;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ThemedStylesRegistry}.
+ * <p/>
+ * <p>The styles are compared with the ones the layers built per feature before.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class ThemedStylesRegistryTest {
+
+    @Test
+    public void testPointStyles() throws Exception {
+        checkStyles(EGeometryType.POINT);
+        checkStyles(EGeometryType.MULTIPOINT);
+    }
+
+    @Test
+    public void testLineStyles() throws Exception {
+        checkStyles(EGeometryType.LINESTRING);
+        checkStyles(EGeometryType.MULTILINESTRING);
+    }
+
+    @Test
+    public void testPolygonStyles() throws Exception {
+        checkStyles(EGeometryType.POLYGON);
+        checkStyles(EGeometryType.MULTIPOLYGON);
+    }
+
+    @Test
+    public void testLayerWithoutTheme() throws Exception {
+        eu.geopaparazzi.library.style.Style gpStyle = createStyle(4, 2, 0.5f);
+        ThemedStylesRegistry registry = new ThemedStylesRegistry(EGeometryType.POLYGON, gpStyle);
+        Style style = registry.getStyle(null);
+        assertSame(style, registry.getStyle("A"));
+        assertStyleEquals(oldStyle(EGeometryType.POLYGON, gpStyle), style);
+    }
+
+    private void checkStyles(EGeometryType geometryType) throws Exception {
+        eu.geopaparazzi.library.style.Style gpStyle = createStyle(4, 2, 0.5f);
+        eu.geopaparazzi.library.style.Style themeA = createStyle(8, 5, 0.1f);
+        eu.geopaparazzi.library.style.Style themeB = createStyle(12, 7, 0.9f);
+        gpStyle.themeField = "type";
+        gpStyle.themeMap = new HashMap<>();
+        gpStyle.themeMap.put("A", themeA);
+        gpStyle.themeMap.put("B", themeB);
+
+        ThemedStylesRegistry registry = new ThemedStylesRegistry(geometryType, gpStyle);
+        Style styleA = registry.getStyle("A");
+        Style styleB = registry.getStyle("B");
+        Style defaultStyle = registry.getStyle(null);
+
+        // one instance per theme value
+        assertSame(styleA, registry.getStyle("A"));
+        assertSame(styleB, registry.getStyle("B"));
+        assertNotSame(styleA, styleB);
+        assertNotSame(styleA, defaultStyle);
+
+        // the layer style for features without theme value or with a value without theme
+        assertSame(defaultStyle, registry.getStyle(null));
+        assertSame(defaultStyle, registry.getStyle("C"));
+        assertSame(defaultStyle, registry.getStyle("C"));
+
+        assertStyleEquals(oldStyle(geometryType, themeA), styleA);
+        assertStyleEquals(oldStyle(geometryType, themeB), styleB);
+        assertStyleEquals(oldStyle(geometryType, gpStyle), defaultStyle);
+    }
+
+    private static eu.geopaparazzi.library.style.Style createStyle(float size, float width, float fillalpha) {
+        eu.geopaparazzi.library.style.Style style = new eu.geopaparazzi.library.style.Style();
+        style.size = size;
+        style.width = width;
+        style.fillalpha = fillalpha;
+        return style;
+    }
+
+    /**
+     * The style as the layers built it for every feature.
+     */
+    private static Style oldStyle(EGeometryType geometryType, eu.geopaparazzi.library.style.Style gpStyle) {
+        switch (geometryType) {
+            case POINT:
+            case MULTIPOINT:
+                return Style.builder()
+                        .buffer(gpStyle.size)
+                        .strokeWidth(gpStyle.width)
+                        .strokeColor(ColorUtilities.toColor(gpStyle.strokecolor))
+                        .fillColor(ColorUtilities.toColor(gpStyle.fillcolor))
+                        .fillAlpha(gpStyle.fillalpha)
+                        .scaleZoomLevel(19)
+                        .build();
+            case LINESTRING:
+            case MULTILINESTRING:
+                return Style.builder()
+                        .strokeColor(ColorUtilities.toColor(gpStyle.strokecolor))
+                        .strokeWidth(gpStyle.width)
+                        .cap(Paint.Cap.ROUND)
+                        .build();
+            default:
+                return Style.builder()
+                        .strokeColor(ColorUtilities.toColor(gpStyle.strokecolor))
+                        .strokeWidth(gpStyle.width)
+                        .fillColor(ColorUtilities.toColor(gpStyle.fillcolor))
+                        .fillAlpha(gpStyle.fillalpha)
+                        .cap(Paint.Cap.ROUND)
+                        .build();
+        }
+    }
+
+    private static void assertStyleEquals(Style expected, Style style) throws Exception {
+        for (Field field : Style.class.getFields()) {
+            if (Modifier.isStatic(field.getModifiers()))
+                continue;
+            assertTrue(field.getName(), Objects.deepEquals(field.get(expected), field.get(style)));
+        }
+    }
+}
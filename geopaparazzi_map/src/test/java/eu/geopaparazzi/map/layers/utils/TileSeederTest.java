@@ -0,0 +1,316 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.map.layers.utils;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.oscim.core.Tile;
+import org.oscim.tiling.ITileCache;
+import org.oscim.tiling.source.UrlTileSource;
+import org.oscim.tiling.source.bitmap.BitmapTileSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link TileSeeder}, serving the tiles from a local http server.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TileSeederTest {
+    private static final double WEST = 11.0;
+    private static final double SOUTH = 46.0;
+    private static final double EAST = 11.5;
+    private static final double NORTH = 46.5;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> failuresLeft = new ConcurrentHashMap<>();
+    private final Set<String> missingTiles = ConcurrentHashMap.newKeySet();
+    private UrlTileSource tileSource;
+    private MemoryTileCache tileCache;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            requests.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+            AtomicInteger failures = failuresLeft.get(path);
+            int code;
+            byte[] body;
+            if (missingTiles.contains(path)) {
+                code = 404;
+                body = new byte[0];
+            } else if (failures != null && failures.getAndDecrement() > 0) {
+                code = 500;
+                body = new byte[0];
+            } else {
+                code = 200;
+                body = path.getBytes(StandardCharsets.UTF_8);
+            }
+            exchange.sendResponseHeaders(code, body.length > 0 ? body.length : -1);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        });
+        serverExecutor = Executors.newFixedThreadPool(TileSeeder.DEFAULT_PARALLELISM);
+        server.setExecutor(serverExecutor);
+        server.start();
+
+        tileSource = BitmapTileSource.builder()
+                .url("http://127.0.0.1:" + server.getAddress().getPort())
+                .tilePath("/{Z}/{X}/{Y}.png")
+                .zoomMax(18).build();
+        tileCache = new MemoryTileCache();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testDownloadsTheWholeArea() throws Exception {
+        TileSeeder seeder = new TileSeeder(tileSource, tileCache, null, TileSeeder.DEFAULT_PARALLELISM, TileSeeder.DEFAULT_RETRIES);
+        TileSeeder.SeedProgress progress = seeder.seed(WEST, SOUTH, EAST, NORTH, 8, 11, null);
+
+        int total = TileSeeder.countTiles(WEST, SOUTH, EAST, NORTH, 8, 11);
+        assertEquals(total, progress.total);
+        assertEquals(total, progress.downloaded);
+        assertEquals(0, progress.failed);
+        assertEquals(total, tileCache.size());
+        assertEquals(total, getRequestsCount());
+        // the cached data is the one served for the tile
+        Tile tile = getFirstTile(11);
+        assertEquals(getPath(tile), new String(tileCache.get(tile), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testRetriesFailedDownloads() throws Exception {
+        Tile tile = getFirstTile(10);
+        String path = getPath(tile);
+        failuresLeft.put(path, new AtomicInteger(2));
+
+        TileSeeder seeder = new TileSeeder(tileSource, tileCache, null, TileSeeder.DEFAULT_PARALLELISM, 3);
+        TileSeeder.SeedProgress progress = seeder.seed(WEST, SOUTH, EAST, NORTH, 10, 10, null);
+
+        assertEquals(0, progress.failed);
+        assertEquals(progress.total, progress.downloaded);
+        assertEquals(3, requests.get(path).get());
+        assertNotNull(tileCache.get(tile));
+    }
+
+    @Test
+    public void testGivesUpAfterTheRetries() throws Exception {
+        Tile tile = getFirstTile(10);
+        String path = getPath(tile);
+        failuresLeft.put(path, new AtomicInteger(Integer.MAX_VALUE));
+
+        TileSeeder seeder = new TileSeeder(tileSource, tileCache, null, TileSeeder.DEFAULT_PARALLELISM, 2);
+        TileSeeder.SeedProgress progress = seeder.seed(WEST, SOUTH, EAST, NORTH, 10, 10, null);
+
+        assertEquals(1, progress.failed);
+        assertEquals(progress.total - 1, progress.downloaded);
+        assertEquals(3, requests.get(path).get());
+        assertNull(tileCache.get(tile));
+    }
+
+    @Test
+    public void testDoesNotRetryMissingTiles() throws Exception {
+        Tile tile = getFirstTile(10);
+        String path = getPath(tile);
+        missingTiles.add(path);
+
+        TileSeeder seeder = new TileSeeder(tileSource, tileCache, null, TileSeeder.DEFAULT_PARALLELISM, 3);
+        TileSeeder.SeedProgress progress = seeder.seed(WEST, SOUTH, EAST, NORTH, 10, 10, null);
+
+        assertEquals(1, progress.failed);
+        assertEquals(progress.total - 1, progress.downloaded);
+        assertEquals(1, requests.get(path).get());
+    }
+
+    @Test
+    public void testResumeSkipsCachedTiles() throws Exception {
+        int total = TileSeeder.countTiles(WEST, SOUTH, EAST, NORTH, 8, 11);
+        // a first seeding interrupted after some tiles
+        TileSeeder seeder = new TileSeeder(tileSource, tileCache, null, 1, TileSeeder.DEFAULT_RETRIES);
+        int stopAfter = total / 2;
+        TileSeeder.SeedProgress progress = seeder.seed(WEST, SOUTH, EAST, NORTH, 8, 11, new TileSeeder.ISeedListener() {
+            private volatile int done;
+
+            @Override
+            public void onProgress(TileSeeder.SeedProgress progress) {
+                done = progress.getDone();
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return done >= stopAfter;
+            }
+        });
+        int firstDownloaded = progress.downloaded;
+        assertTrue(firstDownloaded >= stopAfter);
+        assertTrue(firstDownloaded < total);
+
+        progress = seeder.seed(WEST, SOUTH, EAST, NORTH, 8, 11, null);
+        assertEquals(firstDownloaded, progress.skipped);
+        assertEquals(total - firstDownloaded, progress.downloaded);
+        assertEquals(total, tileCache.size());
+        // no tile was downloaded twice
+        assertEquals(total, getRequestsCount());
+
+        // a complete area is not downloaded again
+        progress = seeder.seed(WEST, SOUTH, EAST, NORTH, 8, 11, null);
+        assertEquals(total, progress.skipped);
+        assertEquals(0, progress.downloaded);
+        assertEquals(total, getRequestsCount());
+    }
+
+    @Test
+    public void testTrimsTheCacheToItsBudget() throws Exception {
+        int budget = 20;
+        int total = TileSeeder.countTiles(WEST, SOUTH, EAST, NORTH, 8, 12);
+        assertTrue(total > 50 + budget);
+        AtomicInteger trims = new AtomicInteger();
+        TileSeeder.ICacheTrimmer trimmer = () -> {
+            trims.incrementAndGet();
+            return tileCache.trim(budget);
+        };
+
+        TileSeeder seeder = new TileSeeder(tileSource, tileCache, trimmer, TileSeeder.DEFAULT_PARALLELISM, TileSeeder.DEFAULT_RETRIES);
+        TileSeeder.SeedProgress progress = seeder.seed(WEST, SOUTH, EAST, NORTH, 8, 12, null);
+
+        assertEquals(total, progress.downloaded);
+        assertEquals(total - budget, progress.evicted);
+        assertEquals(budget, tileCache.size());
+        // trimmed also while seeding, not only at the end
+        assertTrue(trims.get() > 1);
+    }
+
+    private Tile getFirstTile(int zoom) {
+        int[] range = TileSeeder.getTileRange(WEST, SOUTH, EAST, NORTH, zoom);
+        return new Tile(range[0], range[1], (byte) zoom);
+    }
+
+    private static String getPath(Tile tile) {
+        return "/" + tile.zoomLevel + "/" + tile.tileX + "/" + tile.tileY + ".png";
+    }
+
+    private int getRequestsCount() {
+        int count = 0;
+        for (AtomicInteger tileRequests : requests.values()) {
+            count += tileRequests.get();
+        }
+        return count;
+    }
+
+    /**
+     * A cache in memory that removes the oldest tiles when trimmed.
+     */
+    private static class MemoryTileCache implements ITileCache {
+        private final Map<String, byte[]> tiles = new LinkedHashMap<>();
+
+        @Override
+        public TileWriter cacheTile(Tile tile) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            return new TileWriter() {
+                @Override
+                public Tile getTile() {
+                    return tile;
+                }
+
+                @Override
+                public OutputStream getOutputStream() {
+                    return outputStream;
+                }
+
+                @Override
+                public void complete(boolean success) {
+                    if (success) {
+                        synchronized (MemoryTileCache.this) {
+                            tiles.put(getPath(tile), outputStream.toByteArray());
+                        }
+                    }
+                }
+            };
+        }
+
+        @Override
+        public TileReader getTile(Tile tile) {
+            byte[] data = get(tile);
+            if (data == null) {
+                return null;
+            }
+            return new TileReader() {
+                @Override
+                public Tile getTile() {
+                    return tile;
+                }
+
+                @Override
+                public InputStream getInputStream() {
+                    return new ByteArrayInputStream(data);
+                }
+            };
+        }
+
+        @Override
+        public void setCacheSize(long size) {
+        }
+
+        synchronized byte[] get(Tile tile) {
+            return tiles.get(getPath(tile));
+        }
+
+        synchronized int size() {
+            return tiles.size();
+        }
+
+        synchronized int trim(int budget) {
+            int removed = 0;
+            while (tiles.size() > budget) {
+                tiles.remove(tiles.keySet().iterator().next());
+                removed++;
+            }
+            return removed;
+        }
+    }
+}
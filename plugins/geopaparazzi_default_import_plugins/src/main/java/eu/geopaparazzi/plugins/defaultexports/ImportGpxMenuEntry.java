@@ -55,7 +55,7 @@ public class ImportGpxMenuEntry extends MenuEntry {
         this.clickActivityStarter = clickActivityStarter;
         String title = clickActivityStarter.getContext().getString(eu.geopaparazzi.core.R.string.select_gpx_file);
         try {
-            AppsUtilities.pickFile(clickActivityStarter, requestCode, title, new String[]{FileTypes.GPX.getExtension()}, null);
+            AppsUtilities.pickFile(clickActivityStarter, requestCode, title, new String[]{FileTypes.GPX.getExtension(), FileTypes.KML.getExtension()}, null);
         } catch (Exception e) {
             GPLog.error(this, null, e);
             GPDialogs.errorDialog(clickActivityStarter.getContext(), e, null);
@@ -69,7 +69,8 @@ public class ImportGpxMenuEntry extends MenuEntry {
             try {
 
                 String filePath = data.getStringExtra(LibraryConstants.PREFS_KEY_PATH);
-                if (!filePath.toLowerCase().endsWith(FileTypes.GPX.getExtension())) {
+                String lowerCasePath = filePath.toLowerCase();
+                if (!lowerCasePath.endsWith(FileTypes.GPX.getExtension()) && !lowerCasePath.endsWith(FileTypes.KML.getExtension())) {
                     GPDialogs.warningDialog(context, context.getString(eu.geopaparazzi.core.R.string.no_gpx_selected), null);
                     return;
                 }